@@ -5,13 +5,19 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.mongodb.config.EnableMongoAuditing;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableMongoAuditing
+@EnableScheduling
 public class ExtractorfiledataApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(ExtractorfiledataApplication.class, args);
+		var context = SpringApplication.run(ExtractorfiledataApplication.class, args);
+		// in modalità batch il processo termina con il codice di EstrazioneBatch
+		if (context.getEnvironment().matchesProfiles("batch")) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 
 	@Bean
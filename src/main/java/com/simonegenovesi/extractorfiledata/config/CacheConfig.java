@@ -0,0 +1,65 @@
+package com.simonegenovesi.extractorfiledata.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.simonegenovesi.extractorfiledata.util.dto.RisultatoVersionato;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.cache.CacheManagerCustomizer;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Configurazione delle cache Caffeine (politica W-TinyLFU, dimensione limitata).
+ * <p>
+ * {@code metriche} usa la spec di {@code spring.cache.caffeine.spec}; {@code statistiche} ha una durata propria,
+ * più breve. {@code risorse} è limitata per numero di risorse in cache e non per voci: una voce è la lista di un
+ * pacchetto o di tutte le risorse, e con un limite per voci la lista completa di un archivio grande occuperebbe
+ * l'heap come una qualsiasi altra voce. Una lista più pesante dell'intero limite non viene tenuta.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    public static final String METRICHE = "metriche";
+    public static final String RISORSE = "risorse";
+    public static final String STATISTICHE = "statistiche";
+
+    // chiave delle liste non filtrate
+    public static final String TUTTE = "tutte";
+
+    @Bean
+    public CacheManagerCustomizer<CaffeineCacheManager> cacheStatistiche(
+            @Value("${statistiche.cache-secondi:30}") long cacheSecondi
+    ) {
+        return cacheManager -> cacheManager.registerCustomCache(STATISTICHE, Caffeine.newBuilder()
+                .maximumSize(200)
+                .expireAfterWrite(Duration.ofSeconds(cacheSecondi))
+                .build());
+    }
+
+    @Bean
+    public CacheManagerCustomizer<CaffeineCacheManager> cacheRisorse(
+            @Value("${risorse.cache-risorse-max:200000}") long risorseMax,
+            @Value("${risorse.cache-secondi:60}") long cacheSecondi
+    ) {
+        return cacheManager -> cacheManager.registerCustomCache(RISORSE, Caffeine.newBuilder()
+                .maximumWeight(risorseMax)
+                .weigher(CacheConfig::risorse)
+                .expireAfterWrite(Duration.ofSeconds(cacheSecondi))
+                .build());
+    }
+
+    /**
+     * Peso di una voce: il numero di risorse della lista, almeno 1.
+     */
+    private static int risorse(Object chiave, Object valore) {
+        if (valore instanceof RisultatoVersionato<?> risultato && risultato.dati() instanceof List<?> lista) {
+            return Math.max(1, lista.size());
+        }
+        return 1;
+    }
+}
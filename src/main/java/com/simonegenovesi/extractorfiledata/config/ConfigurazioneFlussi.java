@@ -0,0 +1,42 @@
+package com.simonegenovesi.extractorfiledata.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Pool delle risposte asincrone ({@code flussi.*}): le letture NDJSON in streaming attendono Mongo qui e non sui
+ * thread HTTP. Il pool e la coda limitati fissano quante letture in streaming possono attendere Mongo insieme;
+ * oltre la coda la richiesta è rifiutata con 503.
+ * <p>
+ * Il timeout vale per le risposte asincrone senza un timeout proprio, cioè gli stream NDJSON; gli SseEmitter
+ * hanno il loro. Con {@code flussi.timeout-ms} minore o uguale a zero non c'è limite di durata e un dump lungo
+ * non viene troncato: un client che smette di leggere viene comunque chiuso dal timeout di scrittura del connettore.
+ */
+@Configuration
+public class ConfigurazioneFlussi implements WebMvcConfigurer {
+
+    @Value("${flussi.thread:32}")
+    private int thread;
+
+    @Value("${flussi.coda:500}")
+    private int coda;
+
+    @Value("${flussi.timeout-ms:-1}")
+    private long timeoutMs;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        var esecutore = new ThreadPoolTaskExecutor();
+        esecutore.setCorePoolSize(thread);
+        esecutore.setMaxPoolSize(thread);
+        esecutore.setQueueCapacity(coda);
+        esecutore.setThreadNamePrefix("flussi-");
+        esecutore.setDaemon(true);
+        esecutore.initialize();
+        configurer.setTaskExecutor(esecutore);
+        configurer.setDefaultTimeout(timeoutMs > 0 ? timeoutMs : -1);
+    }
+}
@@ -0,0 +1,22 @@
+package com.simonegenovesi.extractorfiledata.config;
+
+import com.simonegenovesi.extractorfiledata.util.ControlloIo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Limiti adattivi della concorrenza di I/O per volume ({@code io.*}), condivisi da scansione, analisi e miniature.
+ */
+@Configuration
+public class ConfigurazioneIo {
+
+    @Bean(destroyMethod = "chiudi")
+    public ControlloIo controlloIo(
+            @Value("${io.limite-minimo:1}") int minimo,
+            @Value("${io.limite-iniziale:8}") int iniziale,
+            @Value("${io.limite-massimo:64}") int massimo
+    ) {
+        return new ControlloIo(minimo, iniziale, massimo);
+    }
+}
@@ -0,0 +1,22 @@
+package com.simonegenovesi.extractorfiledata.config;
+
+import com.simonegenovesi.extractorfiledata.util.RilevamentoFormato;
+import com.simonegenovesi.extractorfiledata.util.enumerated.PoliticaRilevamentoEnum;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Politica di rilevamento del formato dei file ({@code rilevamento.*}), condivisa da estrazione e stima.
+ */
+@Configuration
+public class ConfigurazioneRilevamento {
+
+    @Bean
+    public RilevamentoFormato rilevamentoFormato(
+            @Value("${rilevamento.politica:CONTENUTO}") PoliticaRilevamentoEnum politica,
+            @Value("${rilevamento.frazione-verifica:0.01}") double frazioneVerifica
+    ) {
+        return new RilevamentoFormato(politica, frazioneVerifica);
+    }
+}
@@ -0,0 +1,72 @@
+package com.simonegenovesi.extractorfiledata.config;
+
+import com.simonegenovesi.extractorfiledata.entity.BucketRisorse;
+import com.simonegenovesi.extractorfiledata.entity.LavoroThumbnail;
+import com.simonegenovesi.extractorfiledata.entity.Log;
+import com.simonegenovesi.extractorfiledata.entity.MetadatiRisorsa;
+import com.simonegenovesi.extractorfiledata.entity.Metrica;
+import com.simonegenovesi.extractorfiledata.entity.RicercaRisorsa;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Crea gli indici dichiarati sulle entità ({@code @CompoundIndex}, {@code @Indexed}).
+ * <p>
+ * La creazione automatica di Spring Data è disattivata di default; qui avviene in background dopo
+ * l'avvio, così un Mongo lento o non raggiungibile non blocca l'applicazione. L'esecuzione batch, che scrive
+ * prima dell'{@link ApplicationReadyEvent} ed esce subito dopo, li crea invece in modo sincrono con
+ * {@link #verificaIndici()}.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class IndiciMongo {
+
+    private static final List<Class<?>> ENTITA_INDICIZZATE = List.of(
+            MetadatiRisorsa.class,
+            BucketRisorse.class,
+            Metrica.class,
+            LavoroThumbnail.class,
+            Log.class,
+            RicercaRisorsa.class
+    );
+
+    private final MongoTemplate mongoTemplate;
+    private final MongoMappingContext mongoMappingContext;
+
+    private final AtomicBoolean verificati = new AtomicBoolean();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void creaIndici() {
+        if (!verificati.get()) {
+            CompletableFuture.runAsync(this::verificaIndici);
+        }
+    }
+
+    /**
+     * Crea gli indici mancanti sul thread chiamante.
+     */
+    public void verificaIndici() {
+        var resolver = new MongoPersistentEntityIndexResolver(mongoMappingContext);
+        for (var entita : ENTITA_INDICIZZATE) {
+            try {
+                var indexOps = mongoTemplate.indexOps(entita);
+                resolver.resolveIndexFor(entita).forEach(indexOps::ensureIndex);
+                log.info("Indici verificati per {}", entita.getSimpleName());
+            } catch (Exception e) {
+                log.error("Errore nella creazione degli indici per {}", entita.getSimpleName(), e);
+            }
+        }
+        verificati.set(true);
+    }
+}
@@ -0,0 +1,53 @@
+package com.simonegenovesi.extractorfiledata.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Profili di output delle miniature ({@code thumbnail.profili}): tutti vengono prodotti dalla stessa
+ * pagina decodificata, riducendo in cascata dal profilo più grande al più piccolo.
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "thumbnail")
+public class ProfiliMiniature {
+
+    private List<Profilo> profili = new ArrayList<>(List.of(new Profilo("anteprima", 1200, 0.6f, "")));
+
+    // profilo servito da /risorse/{id}/thumbnail senza parametro
+    private String profiloPredefinito = "anteprima";
+
+    public Optional<Profilo> trova(String nome) {
+        return profili.stream().filter(profilo -> profilo.getNome().equals(nome)).findFirst();
+    }
+
+    public int latoMassimo() {
+        return profili.stream().mapToInt(Profilo::getLato).max().orElse(0);
+    }
+
+    public List<Profilo> perLatoDecrescente() {
+        return profili.stream().sorted(Comparator.comparingInt(Profilo::getLato).reversed()).toList();
+    }
+
+    @Data
+    @AllArgsConstructor @NoArgsConstructor
+    public static class Profilo {
+        private String nome;
+
+        // lato lungo massimo in pixel; le immagini più piccole non vengono ingrandite
+        private int lato;
+
+        private float qualita;
+
+        // aggiunto al nome del file, estensione compresa: <nome.ext><suffisso>.jpg
+        private String suffisso = "";
+    }
+}
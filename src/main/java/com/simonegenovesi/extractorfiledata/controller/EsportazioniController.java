@@ -0,0 +1,46 @@
+package com.simonegenovesi.extractorfiledata.controller;
+
+import com.simonegenovesi.extractorfiledata.exceptions.RisorsaNonTrovataException;
+import com.simonegenovesi.extractorfiledata.payload.request.EsportazioneRequest;
+import com.simonegenovesi.extractorfiledata.payload.response.EsportazioneResponse;
+import com.simonegenovesi.extractorfiledata.service.EsportazioneService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+@RestController
+@RequestMapping("/esportazioni")
+@RequiredArgsConstructor
+public class EsportazioniController {
+
+    private final EsportazioneService esportazioneService;
+
+    /**
+     * Avvia in background l'esportazione su file di metadati o metriche; risponde 202 con l'indirizzo dello stato.
+     */
+    @PostMapping("/")
+    public ResponseEntity<EsportazioneResponse> avvia(@RequestBody EsportazioneRequest request) {
+        var esportazione = esportazioneService.avvia(request);
+        return ResponseEntity
+                .accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentContextPath()
+                        .path("/esportazioni/{id}").buildAndExpand(esportazione.getId()).toUri())
+                .body(esportazione);
+    }
+
+    /**
+     * Stato dell'esportazione: documenti e byte scritti finora, file prodotti e throughput.
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<EsportazioneResponse> stato(@PathVariable String id) {
+        return esportazioneService.stato(id)
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> new RisorsaNonTrovataException("Nessuna esportazione " + id + " su questo nodo."));
+    }
+}
@@ -1,11 +1,23 @@
 package com.simonegenovesi.extractorfiledata.controller;
 
+import com.simonegenovesi.extractorfiledata.exceptions.RisorsaNonTrovataException;
 import com.simonegenovesi.extractorfiledata.payload.request.MetadataRequest;
+import com.simonegenovesi.extractorfiledata.payload.response.EliminazioneResponse;
+import com.simonegenovesi.extractorfiledata.payload.response.StimaResponse;
+import com.simonegenovesi.extractorfiledata.service.AmmissioneService;
+import com.simonegenovesi.extractorfiledata.service.AvanzamentoService;
+import com.simonegenovesi.extractorfiledata.service.EliminazioneService;
 import com.simonegenovesi.extractorfiledata.service.MetadataService;
+import com.simonegenovesi.extractorfiledata.service.StimaService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.util.List;
 
 @RestController
 @RequestMapping("/metadata")
@@ -13,20 +25,74 @@ import org.springframework.web.bind.annotation.*;
 public class MetadataController {
 
     private final MetadataService metadataService;
+    private final AmmissioneService ammissioneService;
+    private final AvanzamentoService avanzamentoService;
+    private final StimaService stimaService;
+    private final EliminazioneService eliminazioneService;
 
     //http://localhost:8091/api/swagger-ui/index.html#/metadata-controller/extractMetadata
     // "\\CA01CN01\\LDIG002\\PK0000004\\contenuto"
     // "\\CA01CN01\\LDIG002\\PK0000028\\contenuto"
+    // con "stima": true restituisce solo la stima per campionamento, senza elaborare il pacchetto
+    // le estrazioni attendono l'ammissione ("priorita": INTERATTIVA o MASSIVA); 429 con Retry-After a coda piena
     @PostMapping("/")
-    public ResponseEntity<Void> extractMetadata(
+    public ResponseEntity<StimaResponse> extractMetadata(
             @RequestBody MetadataRequest request
     ) {
-        metadataService.estraiMetadata(request);
+        if (Boolean.TRUE.equals(request.getStima())) {
+            return ResponseEntity.ok(stimaService.stima(request.getPath()));
+        }
+        // i pacchetti già elaborati o reclamati falliscono subito, senza occupare un posto
+        metadataService.verificaEstraibile(request);
+        ammissioneService.esegui(request.getPriorita(), () -> metadataService.estraiMetadata(request));
         return ResponseEntity
                 .status(HttpStatus.CREATED)
                 .build();
     }
 
+    /**
+     * Avanzamento dell'estrazione del pacchetto in Server-Sent Events: eventi "avanzamento" a intervalli
+     * regolari e un evento "fine" al termine. L'iscrizione può precedere l'avvio dell'estrazione; dopo la fine
+     * riceve subito l'evento "fine".
+     */
+    @GetMapping(value = "/{cantiere}/{lotto}/{pacchetto}/avanzamento", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter avanzamento(
+            @PathVariable String cantiere,
+            @PathVariable String lotto,
+            @PathVariable String pacchetto
+    ) {
+        return avanzamentoService.iscrivi(List.of(cantiere, lotto, pacchetto));
+    }
+
+    /**
+     * Elimina in background miniature, metadati, metriche e log del solo pacchetto indicato. Risponde 202 con
+     * l'indirizzo dello stato dell'eliminazione, 409 se il pacchetto è in elaborazione.
+     */
+    @DeleteMapping("/{cantiere}/{lotto}/{pacchetto}")
+    public ResponseEntity<EliminazioneResponse> eliminaPacchetto(
+            @PathVariable String cantiere,
+            @PathVariable String lotto,
+            @PathVariable String pacchetto
+    ) {
+        var stato = eliminazioneService.avvia(List.of(cantiere, lotto, pacchetto));
+        return ResponseEntity
+                .accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentRequest().path("/eliminazione").build().toUri())
+                .body(stato);
+    }
+
+    @GetMapping("/{cantiere}/{lotto}/{pacchetto}/eliminazione")
+    public ResponseEntity<EliminazioneResponse> statoEliminazione(
+            @PathVariable String cantiere,
+            @PathVariable String lotto,
+            @PathVariable String pacchetto
+    ) {
+        return eliminazioneService.stato(List.of(cantiere, lotto, pacchetto))
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> new RisorsaNonTrovataException(
+                        "Nessuna eliminazione del pacchetto " + cantiere + "/" + lotto + "/" + pacchetto + " su questo nodo."));
+    }
+
     @DeleteMapping("/")
     public ResponseEntity<Void> deleteAllData() {
         metadataService.deleteAllData();
@@ -1,15 +1,24 @@
 package com.simonegenovesi.extractorfiledata.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.simonegenovesi.extractorfiledata.payload.response.MetricaResponse;
 import com.simonegenovesi.extractorfiledata.service.MetricaService;
+import com.simonegenovesi.extractorfiledata.util.FlussoNdjson;
+import com.simonegenovesi.extractorfiledata.util.dto.RisultatoVersionato;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/metrica")
@@ -17,11 +26,53 @@ import java.util.List;
 public class MetricaController {
 
     private final MetricaService metricaService;
+    private final ObjectMapper objectMapper;
 
+    // ETag e Last-Modified: con If-None-Match/If-Modified-Since validi Spring risponde 304 senza body
     @GetMapping("/")
     public ResponseEntity<List<MetricaResponse>> getAllMetriche() {
+        return risposta(metricaService.getAllMetriche());
+    }
+
+    @GetMapping("/{cantiere}/{lotto}/{pacchetto}")
+    public ResponseEntity<List<MetricaResponse>> getMetrichePacchetto(
+            @PathVariable String cantiere,
+            @PathVariable String lotto,
+            @PathVariable String pacchetto
+    ) {
+        return risposta(metricaService.getMetrichePacchetto(cantiere, lotto, pacchetto));
+    }
+
+    /**
+     * Come {@link #getAllMetriche()}, in NDJSON letto in streaming dal cursore ({@code Accept: application/x-ndjson}).
+     */
+    @GetMapping(value = "/", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getAllMetricheNdjson() {
+        return ndjson(() -> metricaService.flussoMetriche(null));
+    }
+
+    @GetMapping(value = "/{cantiere}/{lotto}/{pacchetto}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getMetrichePacchettoNdjson(
+            @PathVariable String cantiere,
+            @PathVariable String lotto,
+            @PathVariable String pacchetto
+    ) {
+        return ndjson(() -> metricaService.flussoMetriche(List.of(cantiere, lotto, pacchetto)));
+    }
+
+    private ResponseEntity<StreamingResponseBody> ndjson(Supplier<Stream<MetricaResponse>> metriche) {
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(FlussoNdjson.scrivi(metriche, objectMapper));
+    }
+
+    private ResponseEntity<List<MetricaResponse>> risposta(RisultatoVersionato<List<MetricaResponse>> risultato) {
         return ResponseEntity
                 .status(HttpStatus.OK)
-                .body(metricaService.getAllMetriche());
+                .eTag(risultato.etag())
+                .lastModified(risultato.ultimaModifica())
+                .cacheControl(CacheControl.noCache())
+                .body(risultato.dati());
     }
 }
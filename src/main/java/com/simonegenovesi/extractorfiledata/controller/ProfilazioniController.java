@@ -0,0 +1,73 @@
+package com.simonegenovesi.extractorfiledata.controller;
+
+import com.simonegenovesi.extractorfiledata.exceptions.RisorsaNonTrovataException;
+import com.simonegenovesi.extractorfiledata.payload.response.ProfilazioneResponse;
+import com.simonegenovesi.extractorfiledata.service.ProfilazioneService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/profilazioni")
+@RequiredArgsConstructor
+public class ProfilazioniController {
+
+    private final ProfilazioneService profilazioneService;
+
+    /**
+     * Avvia una registrazione JFR per l'estrazione del pacchetto, fermata automaticamente alla sua fine;
+     * risponde 202 con l'indirizzo dello stato.
+     */
+    @PostMapping("/{cantiere}/{lotto}/{pacchetto}")
+    public ResponseEntity<ProfilazioneResponse> avvia(
+            @PathVariable String cantiere,
+            @PathVariable String lotto,
+            @PathVariable String pacchetto
+    ) {
+        return ResponseEntity
+                .accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentRequest().build().toUri())
+                .body(profilazioneService.avvia(List.of(cantiere, lotto, pacchetto)));
+    }
+
+    /**
+     * Ferma la registrazione prima della fine dell'estrazione e la scrive sul file.
+     */
+    @DeleteMapping("/{cantiere}/{lotto}/{pacchetto}")
+    public ResponseEntity<ProfilazioneResponse> ferma(
+            @PathVariable String cantiere,
+            @PathVariable String lotto,
+            @PathVariable String pacchetto
+    ) {
+        return profilazioneService.ferma(List.of(cantiere, lotto, pacchetto))
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> nonTrovata(cantiere, lotto, pacchetto));
+    }
+
+    /**
+     * Stato della registrazione: file di destinazione e, al termine, durata e dimensione.
+     */
+    @GetMapping("/{cantiere}/{lotto}/{pacchetto}")
+    public ResponseEntity<ProfilazioneResponse> stato(
+            @PathVariable String cantiere,
+            @PathVariable String lotto,
+            @PathVariable String pacchetto
+    ) {
+        return profilazioneService.stato(List.of(cantiere, lotto, pacchetto))
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> nonTrovata(cantiere, lotto, pacchetto));
+    }
+
+    private static RisorsaNonTrovataException nonTrovata(String cantiere, String lotto, String pacchetto) {
+        return new RisorsaNonTrovataException(
+                "Nessuna profilazione del pacchetto " + cantiere + "/" + lotto + "/" + pacchetto + " su questo nodo.");
+    }
+}
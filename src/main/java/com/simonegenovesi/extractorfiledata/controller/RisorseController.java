@@ -1,15 +1,40 @@
 package com.simonegenovesi.extractorfiledata.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.simonegenovesi.extractorfiledata.exceptions.RisorsaNonTrovataException;
 import com.simonegenovesi.extractorfiledata.payload.response.MetadatiRisorsaResponse;
+import com.simonegenovesi.extractorfiledata.payload.response.RicercaResponse;
+import com.simonegenovesi.extractorfiledata.payload.response.RicostruzioneRicercaResponse;
+import com.simonegenovesi.extractorfiledata.service.MiniatureService;
+import com.simonegenovesi.extractorfiledata.service.RicercaService;
+import com.simonegenovesi.extractorfiledata.service.RicostruzioneRicercaService;
 import com.simonegenovesi.extractorfiledata.service.RisorseService;
+import com.simonegenovesi.extractorfiledata.util.FlussoNdjson;
+import com.simonegenovesi.extractorfiledata.util.InvioFile;
+import com.simonegenovesi.extractorfiledata.util.dto.RisultatoVersionato;
+import com.simonegenovesi.extractorfiledata.util.enumerated.TipoRicercaEnum;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/risorse")
@@ -17,12 +42,162 @@ import java.util.List;
 public class RisorseController {
 
     private final RisorseService risorseService;
+    private final MiniatureService miniatureService;
+    private final RicercaService ricercaService;
+    private final RicostruzioneRicercaService ricostruzioneRicercaService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${thumbnail.cache-secondi:2592000}")
+    private long cacheMiniatureSecondi;
 
     @GetMapping("/")
     public ResponseEntity<List<MetadatiRisorsaResponse>> getAllRisorse() {
+        return risposta(risorseService.getAllRisorse());
+    }
+
+    @GetMapping("/{cantiere}/{lotto}/{pacchetto}")
+    public ResponseEntity<List<MetadatiRisorsaResponse>> getRisorsePacchetto(
+            @PathVariable String cantiere,
+            @PathVariable String lotto,
+            @PathVariable String pacchetto
+    ) {
+        return risposta(risorseService.getRisorsePacchetto(cantiere, lotto, pacchetto));
+    }
+
+    /**
+     * Come {@link #getAllRisorse()}, in NDJSON letto in streaming dal cursore (richiesta con
+     * {@code Accept: application/x-ndjson}): né la risposta né la lista dei metadati vengono costruite in memoria.
+     */
+    @GetMapping(value = "/", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getAllRisorseNdjson() {
+        return ndjson(() -> risorseService.flussoRisorse(null));
+    }
+
+    @GetMapping(value = "/{cantiere}/{lotto}/{pacchetto}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getRisorsePacchettoNdjson(
+            @PathVariable String cantiere,
+            @PathVariable String lotto,
+            @PathVariable String pacchetto
+    ) {
+        return ndjson(() -> risorseService.flussoRisorse(List.of(cantiere, lotto, pacchetto)));
+    }
+
+    /**
+     * Ricerca delle risorse per nome o per parte del percorso, senza distinguere maiuscole e accenti.
+     * @param tipo PREFISSO sul nome (default) o SOTTOSTRINGA del percorso sotto la cartella del pacchetto
+     * @param dopo valore {@code successivo} della pagina precedente
+     */
+    @GetMapping("/ricerca")
+    public ResponseEntity<RicercaResponse> cerca(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "PREFISSO") TipoRicercaEnum tipo,
+            @RequestParam(required = false) String cantiere,
+            @RequestParam(required = false) String lotto,
+            @RequestParam(required = false) String pacchetto,
+            @RequestParam(required = false) Integer limite,
+            @RequestParam(required = false) String dopo
+    ) {
+        return ResponseEntity.ok(ricercaService.cerca(q, tipo, cantiere, lotto, pacchetto, limite, dopo));
+    }
+
+    /**
+     * Crea le voci di ricerca dei pacchetti salvati prima dell'indice, senza estrarli di nuovo; risponde 202 con
+     * l'indirizzo dello stato. Se una ricostruzione è già in corso ne restituisce lo stato.
+     */
+    @PostMapping("/ricerca/indice")
+    public ResponseEntity<RicostruzioneRicercaResponse> ricostruisciIndice() {
+        return ResponseEntity
+                .accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentRequest().build().toUri())
+                .body(ricostruzioneRicercaService.avvia());
+    }
+
+    /**
+     * Stato dell'ultima ricostruzione dell'indice di ricerca avviata su questo nodo.
+     */
+    @GetMapping("/ricerca/indice")
+    public ResponseEntity<RicostruzioneRicercaResponse> statoIndice() {
+        return ricostruzioneRicercaService.stato()
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> new RisorsaNonTrovataException("Nessuna ricostruzione dell'indice di ricerca su questo nodo."));
+    }
+
+    /**
+     * Miniatura JPG della risorsa, inviata con sendfile e cacheabile dal client; supporta Range e richieste
+     * condizionali. Se manca viene generata alla prima richiesta.
+     * @param pagina pagina di un TIFF multipagina (default: la prima)
+     * @param profilo profilo di dimensione (default: {@code thumbnail.profilo-predefinito})
+     */
+    @GetMapping("/{id}/thumbnail")
+    public void getThumbnail(
+            @PathVariable String id,
+            @RequestParam(required = false) Integer pagina,
+            @RequestParam(required = false) String profilo,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        var miniatura = miniatureService.trovaMiniatura(id, pagina, profilo);
+        InvioFile.invia(
+                miniatura,
+                MediaType.IMAGE_JPEG_VALUE,
+                CacheControl.maxAge(Duration.ofSeconds(cacheMiniatureSecondi)).cachePrivate(),
+                request,
+                response
+        );
+    }
+
+    /**
+     * Descrittore Deep Zoom della pagina; i viewer ricavano l'URL delle tile sostituendo {@code .dzi} con {@code _files}.
+     */
+    @GetMapping("/{id}/piramide/{pagina}.dzi")
+    public void getPiramide(
+            @PathVariable String id,
+            @PathVariable int pagina,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        InvioFile.invia(
+                miniatureService.trovaPiramide(id, pagina),
+                MediaType.APPLICATION_XML_VALUE,
+                CacheControl.maxAge(Duration.ofSeconds(cacheMiniatureSecondi)).cachePrivate(),
+                request,
+                response
+        );
+    }
+
+    @GetMapping("/{id}/piramide/{pagina}_files/{livello}/{colonna}_{riga}.jpg")
+    public void getTile(
+            @PathVariable String id,
+            @PathVariable int pagina,
+            @PathVariable int livello,
+            @PathVariable int colonna,
+            @PathVariable int riga,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        InvioFile.invia(
+                miniatureService.trovaTile(id, pagina, livello, colonna, riga),
+                MediaType.IMAGE_JPEG_VALUE,
+                CacheControl.maxAge(Duration.ofSeconds(cacheMiniatureSecondi)).cachePrivate(),
+                request,
+                response
+        );
+    }
+
+    private ResponseEntity<StreamingResponseBody> ndjson(Supplier<Stream<MetadatiRisorsaResponse>> risorse) {
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(FlussoNdjson.scrivi(risorse, objectMapper));
+    }
+
+    private ResponseEntity<List<MetadatiRisorsaResponse>> risposta(RisultatoVersionato<List<MetadatiRisorsaResponse>> risultato) {
         return ResponseEntity
                 .status(HttpStatus.OK)
-                .body(risorseService.getAllRisorse());
+                .eTag(risultato.etag())
+                .lastModified(risultato.ultimaModifica())
+                .cacheControl(CacheControl.noCache())
+                .body(risultato.dati());
     }
 
 }
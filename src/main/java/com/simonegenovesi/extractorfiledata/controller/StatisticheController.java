@@ -0,0 +1,113 @@
+package com.simonegenovesi.extractorfiledata.controller;
+
+import com.simonegenovesi.extractorfiledata.payload.response.AmmissioneResponse;
+import com.simonegenovesi.extractorfiledata.payload.response.FasciaDimensioneResponse;
+import com.simonegenovesi.extractorfiledata.payload.response.RilevamentoResponse;
+import com.simonegenovesi.extractorfiledata.payload.response.StatisticaGruppoResponse;
+import com.simonegenovesi.extractorfiledata.payload.response.StatisticaStadioResponse;
+import com.simonegenovesi.extractorfiledata.payload.response.StatisticaVolumeResponse;
+import com.simonegenovesi.extractorfiledata.service.AmmissioneService;
+import com.simonegenovesi.extractorfiledata.service.PipelineMiniature;
+import com.simonegenovesi.extractorfiledata.service.StatisticheService;
+import com.simonegenovesi.extractorfiledata.util.ControlloIo;
+import com.simonegenovesi.extractorfiledata.util.RilevamentoFormato;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/statistiche")
+@RequiredArgsConstructor
+public class StatisticheController {
+
+    private final StatisticheService statisticheService;
+    private final PipelineMiniature pipelineMiniature;
+    private final ControlloIo controlloIo;
+    private final AmmissioneService ammissioneService;
+    private final RilevamentoFormato rilevamentoFormato;
+
+    @GetMapping("/formati")
+    public ResponseEntity<List<StatisticaGruppoResponse>> getPerFormato(
+            @RequestParam(required = false) String cantiere,
+            @RequestParam(required = false) String lotto,
+            @RequestParam(required = false) String pacchetto
+    ) {
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(statisticheService.perFormato(cantiere, lotto, pacchetto));
+    }
+
+    @GetMapping("/cantieri")
+    public ResponseEntity<List<StatisticaGruppoResponse>> getPerCantiere() {
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(statisticheService.perCantiere());
+    }
+
+    @GetMapping("/lotti")
+    public ResponseEntity<List<StatisticaGruppoResponse>> getPerLotto(
+            @RequestParam(required = false) String cantiere
+    ) {
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(statisticheService.perLotto(cantiere));
+    }
+
+    @GetMapping("/dimensioni")
+    public ResponseEntity<List<FasciaDimensioneResponse>> getIstogrammaDimensioni(
+            @RequestParam(required = false) String cantiere,
+            @RequestParam(required = false) String lotto,
+            @RequestParam(required = false) String pacchetto
+    ) {
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(statisticheService.istogrammaDimensioni(cantiere, lotto, pacchetto));
+    }
+
+    /**
+     * Utilizzo degli stadi della pipeline delle miniature su questo nodo, dalla lettura precedente.
+     */
+    @GetMapping("/miniature")
+    public ResponseEntity<List<StatisticaStadioResponse>> getPipelineMiniature() {
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(pipelineMiniature.statistiche());
+    }
+
+    /**
+     * Limite di letture concorrenti di ogni volume letto da questo nodo, con latenza e throughput dell'ultima finestra.
+     */
+    @GetMapping("/io")
+    public ResponseEntity<List<StatisticaVolumeResponse>> getLimitiIo() {
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(controlloIo.statistiche());
+    }
+
+    /**
+     * Estrazioni in esecuzione e in coda per priorità, rifiuti e durata media usata per il Retry-After.
+     */
+    @GetMapping("/ammissione")
+    public ResponseEntity<AmmissioneResponse> getAmmissione() {
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(ammissioneService.statistica());
+    }
+
+    /**
+     * Politica di rilevamento del formato, aperture di file evitate e discordanze tra estensione e contenuto
+     * trovate dalle verifiche a campione.
+     */
+    @GetMapping("/rilevamento")
+    public ResponseEntity<RilevamentoResponse> getRilevamento() {
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(rilevamentoFormato.statistica());
+    }
+}
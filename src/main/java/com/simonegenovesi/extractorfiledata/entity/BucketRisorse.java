@@ -0,0 +1,97 @@
+package com.simonegenovesi.extractorfiledata.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.util.List;
+
+/**
+ * Layout compatto dei metadati: un documento raggruppa fino a N file dello stesso pacchetto.
+ * <p>
+ * Codici e prefisso del percorso sono salvati una sola volta per bucket; le voci contengono solo
+ * il percorso relativo al prefisso e usano nomi di campo brevi, perché ripetuti per ogni file.
+ */
+@Data @Builder
+@AllArgsConstructor @NoArgsConstructor
+@Document(collection = "bucket_risorse")
+@CompoundIndexes({
+        @CompoundIndex(name = "idx_pacchetto_bucket",
+                def = "{'codice_cantiere': 1, 'codice_lotto': 1, 'codice_pacchetto': 1, 'numero': 1}"),
+        @CompoundIndex(name = "idx_formato_voci", def = "{'risorse.f': 1}")
+})
+public class BucketRisorse {
+
+    @Id
+    private String id;
+
+    @Field("codice_cantiere")
+    private String codiceCantiere;
+
+    @Field("codice_lotto")
+    private String codiceLotto;
+
+    @Field("codice_pacchetto")
+    private String codicePacchetto;
+
+    // progressivo del bucket all'interno del pacchetto
+    @Field("numero")
+    private Integer numero;
+
+    // directory comune a tutti i file del bucket, separatore finale incluso
+    @Field("prefisso")
+    private String prefisso;
+
+    @Field("num_risorse")
+    private Integer numRisorse;
+
+    @Field("dim_totale")
+    private Long dimTotale;
+
+    @Field("risorse")
+    private List<Voce> risorse;
+
+    @Data @Builder
+    @AllArgsConstructor @NoArgsConstructor
+    public static class Voce {
+        // percorso relativo al prefisso
+        @Field("p")
+        private String percorso;
+
+        // nome oggetto, solo se diverso dal nome del file
+        @Field("n")
+        private String nome;
+
+        @Field("d")
+        private Long dimensione;
+
+        @Field("f")
+        private String formato;
+
+        // solo per le voci di un archivio: dimensione compressa e CRC-32
+        @Field("c")
+        private Long dimensioneCompressa;
+
+        @Field("k")
+        private Long crc;
+
+        // solo per PDF e hOCR: pagine, righe, parole e confidenza media
+        @Field("g")
+        private Integer numeroPagine;
+
+        @Field("r")
+        private Integer numeroRighe;
+
+        @Field("w")
+        private Integer numeroParole;
+
+        @Field("q")
+        private Double confidenzaMedia;
+    }
+}
@@ -0,0 +1,58 @@
+package com.simonegenovesi.extractorfiledata.entity;
+
+import com.simonegenovesi.extractorfiledata.util.enumerated.StatoLavoroEnum;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.Instant;
+
+@Data @Builder
+@AllArgsConstructor @NoArgsConstructor
+@Document(collection = "lavori_thumbnail")
+@CompoundIndexes({
+        @CompoundIndex(name = "idx_pacchetto_stato",
+                def = "{'codice_cantiere': 1, 'codice_lotto': 1, 'codice_pacchetto': 1, 'stato': 1}"),
+        @CompoundIndex(name = "idx_stato_lease", def = "{'stato': 1, 'scadenza_lease': 1}"),
+        @CompoundIndex(name = "idx_proprietario", def = "{'proprietario': 1}")
+})
+public class LavoroThumbnail {
+
+    // percorso assoluto dell'immagine sorgente
+    @Id
+    private String id;
+
+    @Field("codice_cantiere")
+    private String codiceCantiere;
+
+    @Field("codice_lotto")
+    private String codiceLotto;
+
+    @Field("codice_pacchetto")
+    private String codicePacchetto;
+
+    @Field("stato")
+    private StatoLavoroEnum stato;
+
+    @Field("proprietario")
+    private String proprietario;
+
+    @Field("scadenza_lease")
+    private Instant scadenzaLease;
+
+    @Field("tentativi")
+    private Integer tentativi;
+
+    @Field("data_completamento")
+    private Instant dataCompletamento;
+
+    // ultimo errore dell'elaborazione, per i lavori rilasciati dopo un errore
+    @Field("errore")
+    private String errore;
+}
@@ -6,14 +6,17 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Data @Builder
 @AllArgsConstructor @NoArgsConstructor
 @Document(collection = "logs")
+@CompoundIndex(name = "idx_pacchetto", def = "{'codice_cantiere': 1, 'codice_lotto': 1, 'codice_pacchetto': 1}")
 public class Log {
 
     @Id
@@ -25,4 +28,25 @@ public class Log {
     @Field("data_creazione")
     @CreatedDate
     private LocalDateTime dataCreazione;
+
+    // pacchetto a cui si riferisce il messaggio, assente per i messaggi generali
+    @Field("codice_cantiere")
+    private String codiceCantiere;
+
+    @Field("codice_lotto")
+    private String codiceLotto;
+
+    @Field("codice_pacchetto")
+    private String codicePacchetto;
+
+    /**
+     * @param codici cantiere, lotto e pacchetto, oppure null per un messaggio generale
+     */
+    public static Log perPacchetto(List<String> codici, String messaggio) {
+        var log = Log.builder().messagio(messaggio);
+        if (codici != null) {
+            log.codiceCantiere(codici.get(0)).codiceLotto(codici.get(1)).codicePacchetto(codici.get(2));
+        }
+        return log.build();
+    }
 }
@@ -5,12 +5,19 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
 @Data @Builder
 @AllArgsConstructor @NoArgsConstructor
 @Document(collection = "metadati_risorse")
+@CompoundIndexes({
+        @CompoundIndex(name = "idx_pacchetto_formato",
+                def = "{'codice_cantiere': 1, 'codice_lotto': 1, 'codice_pacchetto': 1, 'formato_file': 1}"),
+        @CompoundIndex(name = "idx_formato_dimensione", def = "{'formato_file': 1, 'dimensione_file': 1}")
+})
 public class MetadatiRisorsa {
 
     @Id
@@ -36,4 +43,27 @@ public class MetadatiRisorsa {
 
     @Field("codice_pacchetto")
     private String codicePacchetto;
+
+    // solo per le voci di un archivio ZIP/GZIP: url dell'archivio, url_oggetto è <archivio>!/<voce>
+    @Field("url_archivio")
+    private String urlArchivio;
+
+    @Field("dimensione_compressa")
+    private Long dimensioneCompressa;
+
+    @Field("crc")
+    private Long crc;
+
+    // solo per PDF (pagine) e hOCR (tutti): letti dalla struttura del file durante l'estrazione
+    @Field("numero_pagine")
+    private Integer numeroPagine;
+
+    @Field("numero_righe")
+    private Integer numeroRighe;
+
+    @Field("numero_parole")
+    private Integer numeroParole;
+
+    @Field("confidenza_media")
+    private Double confidenzaMedia;
 }
@@ -5,6 +5,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
@@ -13,6 +14,7 @@ import java.util.List;
 @Data @Builder
 @AllArgsConstructor @NoArgsConstructor
 @Document(collection = "metriche")
+@CompoundIndex(name = "idx_pacchetto", def = "{'cod_cantiere': 1, 'cod_lotto': 1, 'cod_pacchetto': 1}")
 public class Metrica {
 
     @Id
@@ -33,6 +35,13 @@ public class Metrica {
     @Field("dettagli_risorse")
     private List<DettaglioRisorsa> dettagliRisorse;
 
+    // contenuto degli archivi ZIP/GZIP del pacchetto, escluso dai totali dei file su disco
+    @Field("metriche_archivi")
+    private MetricheSummary metricheArchivi;
+
+    @Field("dettagli_archivi")
+    private List<DettaglioRisorsa> dettagliArchivi;
+
     @Data @Builder
     @AllArgsConstructor @NoArgsConstructor
     public static class MetricheSummary {
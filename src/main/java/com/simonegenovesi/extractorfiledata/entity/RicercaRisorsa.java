@@ -0,0 +1,72 @@
+package com.simonegenovesi.extractorfiledata.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.util.List;
+
+/**
+ * Voce dell'indice di ricerca per nome e percorso: una per risorsa, in entrambi i layout dei metadati.
+ * <p>
+ * Il nome normalizzato serve alla ricerca per prefisso, i trigrammi del percorso normalizzato alla ricerca per
+ * sottostringa. Gli indici iniziano dal campo cercato e proseguono con {@code _id}, che ordina i risultati della
+ * paginazione, e con i codici, filtrati sulle chiavi dell'indice senza leggere i documenti.
+ */
+@Data @Builder
+@AllArgsConstructor @NoArgsConstructor
+@Document(collection = "ricerca_risorse")
+@CompoundIndexes({
+        @CompoundIndex(name = "idx_ricerca_nome",
+                def = "{'nome_normalizzato': 1, '_id': 1, 'codice_cantiere': 1, 'codice_lotto': 1, 'codice_pacchetto': 1}"),
+        @CompoundIndex(name = "idx_ricerca_pacchetto_nome",
+                def = "{'codice_cantiere': 1, 'codice_lotto': 1, 'codice_pacchetto': 1, 'nome_normalizzato': 1, '_id': 1}"),
+        @CompoundIndex(name = "idx_ricerca_trigrammi",
+                def = "{'trigrammi': 1, '_id': 1, 'codice_cantiere': 1, 'codice_lotto': 1, 'codice_pacchetto': 1}")
+})
+public class RicercaRisorsa {
+
+    @Id
+    private String id;
+
+    // id della risorsa in metadati_risorse, oppure <id bucket>-<posizione>
+    @Field("risorsa")
+    private String risorsa;
+
+    @Field("codice_cantiere")
+    private String codiceCantiere;
+
+    @Field("codice_lotto")
+    private String codiceLotto;
+
+    @Field("codice_pacchetto")
+    private String codicePacchetto;
+
+    @Field("url_oggetto")
+    private String urlOggetto;
+
+    @Field("nome_oggetto")
+    private String nomeOggetto;
+
+    @Field("dimensione_file")
+    private Long dimensioneFile;
+
+    @Field("formato_file")
+    private String formatoFile;
+
+    @Field("nome_normalizzato")
+    private String nomeNormalizzato;
+
+    // percorso relativo alla cartella del pacchetto
+    @Field("percorso_normalizzato")
+    private String percorsoNormalizzato;
+
+    @Field("trigrammi")
+    private List<String> trigrammi;
+}
@@ -0,0 +1,59 @@
+package com.simonegenovesi.extractorfiledata.entity;
+
+import com.simonegenovesi.extractorfiledata.util.enumerated.FaseElaborazioneEnum;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+
+@Data @Builder
+@AllArgsConstructor @NoArgsConstructor
+@Document(collection = "stati_elaborazione")
+public class StatoElaborazione {
+
+    // cantiere/lotto/pacchetto: un solo stato per pacchetto
+    @Id
+    private String id;
+
+    @Field("codice_cantiere")
+    private String codiceCantiere;
+
+    @Field("codice_lotto")
+    private String codiceLotto;
+
+    @Field("codice_pacchetto")
+    private String codicePacchetto;
+
+    @Field("fase")
+    private FaseElaborazioneEnum fase;
+
+    @Field("tiff_totali")
+    private Integer tiffTotali;
+
+    @Field("tiff_completati")
+    private Integer tiffCompletati;
+
+    // immagini la cui miniatura non è stata generata dopo tutti i tentativi
+    @Field("tiff_in_errore")
+    private Integer tiffInErrore;
+
+    // nodo che detiene il lease del pacchetto
+    @Field("proprietario")
+    private String proprietario;
+
+    @Field("scadenza_lease")
+    private Instant scadenzaLease;
+
+    // token del claim che detiene il lease: rilascio e rinnovo agiscono solo su questo claim
+    @Field("token_lease")
+    private String tokenLease;
+
+    @Field("data_aggiornamento")
+    private LocalDateTime dataAggiornamento;
+}
@@ -0,0 +1,14 @@
+package com.simonegenovesi.extractorfiledata.event;
+
+import java.util.List;
+
+/**
+ * Evento pubblicato quando i dati di un pacchetto cambiano (nuova ingestione o cancellazione).
+ * @param codici cantiere, lotto e pacchetto interessati, oppure null se sono cambiati tutti i dati
+ */
+public record DatiAggiornatiEvent(List<String> codici) {
+
+    public static DatiAggiornatiEvent tutti() {
+        return new DatiAggiornatiEvent(null);
+    }
+}
@@ -0,0 +1,28 @@
+package com.simonegenovesi.extractorfiledata.event.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Inserimento di un blocco di metadati su Mongo.
+ */
+@Name("com.simonegenovesi.extractorfiledata.BatchMongoScritto")
+@Label("Batch Mongo scritto")
+@Category({"Extractor file data", "Mongo"})
+@Description("Inserimento di un blocco di metadati di un pacchetto")
+public class BatchMongoScrittoEvent extends jdk.jfr.Event {
+
+    @Label("Collezione")
+    public String collezione;
+
+    @Label("Pacchetto")
+    public String pacchetto;
+
+    @Label("Documenti")
+    public int documenti;
+
+    @Label("Risorse")
+    public int risorse;
+}
@@ -0,0 +1,30 @@
+package com.simonegenovesi.extractorfiledata.event.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Analisi di un file del pacchetto: rilevamento del formato, indice degli archivi e struttura di PDF e hOCR.
+ */
+@Name("com.simonegenovesi.extractorfiledata.FileAnalizzato")
+@Label("File analizzato")
+@Category({"Extractor file data", "Estrazione"})
+@Description("Rilevamento del formato e analisi di un file, con la durata dell'intera analisi")
+public class FileAnalizzatoEvent extends jdk.jfr.Event {
+
+    @Label("Percorso")
+    public String percorso;
+
+    @Label("Dimensione")
+    @DataAmount
+    public long dimensione;
+
+    @Label("Formato")
+    public String formato;
+
+    @Label("Voci di archivio")
+    public int vociArchivio;
+}
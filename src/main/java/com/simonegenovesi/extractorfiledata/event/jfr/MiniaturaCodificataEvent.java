@@ -0,0 +1,33 @@
+package com.simonegenovesi.extractorfiledata.event.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Codifica JPEG e scrittura di una miniatura o di una tile.
+ */
+@Name("com.simonegenovesi.extractorfiledata.MiniaturaCodificata")
+@Label("Miniatura codificata")
+@Category({"Extractor file data", "Miniature"})
+@Description("Codifica JPEG e scrittura su disco di un'immagine ridotta")
+public class MiniaturaCodificataEvent extends jdk.jfr.Event {
+
+    @Label("Percorso")
+    public String percorso;
+
+    @Label("Larghezza")
+    public int larghezza;
+
+    @Label("Altezza")
+    public int altezza;
+
+    @Label("Qualità")
+    public float qualita;
+
+    @Label("Byte")
+    @DataAmount
+    public long byteJpeg;
+}
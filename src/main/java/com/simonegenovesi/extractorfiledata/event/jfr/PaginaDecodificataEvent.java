@@ -0,0 +1,45 @@
+package com.simonegenovesi.extractorfiledata.event.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Decodifica di una pagina di un'immagine raster per le miniature.
+ */
+@Name("com.simonegenovesi.extractorfiledata.PaginaDecodificata")
+@Label("Pagina decodificata")
+@Category({"Extractor file data", "Miniature"})
+@Description("Decodifica di una pagina: dimensioni della sorgente e del raster prodotto, modello di colore e byte del raster")
+public class PaginaDecodificataEvent extends jdk.jfr.Event {
+
+    @Label("Percorso")
+    public String percorso;
+
+    @Label("Pagina")
+    public int pagina;
+
+    @Label("Larghezza sorgente")
+    public int larghezzaSorgente;
+
+    @Label("Altezza sorgente")
+    public int altezzaSorgente;
+
+    @Label("Larghezza decodificata")
+    public int larghezza;
+
+    @Label("Altezza decodificata")
+    public int altezza;
+
+    @Label("Modello di colore")
+    public String modelloColore;
+
+    @Label("Byte del raster")
+    @DataAmount
+    public long byteRaster;
+
+    @Label("Fuori heap")
+    public boolean fuoriHeap;
+}
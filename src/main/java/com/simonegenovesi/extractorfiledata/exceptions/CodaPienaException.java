@@ -0,0 +1,18 @@
+package com.simonegenovesi.extractorfiledata.exceptions;
+
+import lombok.Getter;
+
+/**
+ * Eccezione lanciata quando la coda delle estrazioni in attesa è piena.
+ */
+@Getter
+public class CodaPienaException extends RuntimeException {
+
+    // secondi dopo cui ripetere la richiesta
+    private final long retryAfter;
+
+    public CodaPienaException(String message, long retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+}
@@ -1,6 +1,8 @@
 package com.simonegenovesi.extractorfiledata.exceptions;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -88,4 +90,44 @@ public class ExceptionManagement{
                 .body(ex.getMessage());
     }
 
+    @ExceptionHandler(PacchettoInElaborazioneException.class)
+    public ResponseEntity<String> handlePacchettoInElaborazioneException(PacchettoInElaborazioneException ex) {
+        return ResponseEntity
+                .status(HttpStatus.CONFLICT)
+                .body(ex.getMessage());
+    }
+
+    @ExceptionHandler(CodaPienaException.class)
+    public ResponseEntity<String> handleCodaPienaException(CodaPienaException ex) {
+        return ResponseEntity
+                .status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfter()))
+                .body(ex.getMessage());
+    }
+
+    /**
+     * Pool delle risposte in streaming saturo.
+     */
+    @ExceptionHandler(TaskRejectedException.class)
+    public ResponseEntity<String> handleTaskRejectedException(TaskRejectedException ex) {
+        return ResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body("Troppe letture in streaming in corso, riprovare.");
+    }
+
+    @ExceptionHandler(RicercaNonValidaException.class)
+    public ResponseEntity<String> handleRicercaNonValidaException(RicercaNonValidaException ex) {
+        return ResponseEntity
+                .status(HttpStatus.BAD_REQUEST)
+                .body(ex.getMessage());
+    }
+
+    @ExceptionHandler(RisorsaNonTrovataException.class)
+    public ResponseEntity<String> handleRisorsaNonTrovataException(RisorsaNonTrovataException ex) {
+        return ResponseEntity
+                .status(HttpStatus.NOT_FOUND)
+                .body(ex.getMessage());
+    }
+
 }
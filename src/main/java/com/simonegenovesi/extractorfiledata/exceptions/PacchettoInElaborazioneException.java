@@ -0,0 +1,14 @@
+package com.simonegenovesi.extractorfiledata.exceptions;
+
+/**
+ * Eccezione lanciata quando il pacchetto è già reclamato da un'altra richiesta, anche sullo stesso nodo (lease valido).
+ */
+public class PacchettoInElaborazioneException extends RuntimeException {
+    public PacchettoInElaborazioneException(String message) {
+        super(message);
+    }
+
+    public PacchettoInElaborazioneException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,14 @@
+package com.simonegenovesi.extractorfiledata.exceptions;
+
+/**
+ * Eccezione lanciata quando i parametri di una ricerca non sono validi.
+ */
+public class RicercaNonValidaException extends RuntimeException {
+    public RicercaNonValidaException(String message) {
+        super(message);
+    }
+
+    public RicercaNonValidaException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
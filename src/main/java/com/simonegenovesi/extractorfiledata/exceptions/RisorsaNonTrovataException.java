@@ -0,0 +1,14 @@
+package com.simonegenovesi.extractorfiledata.exceptions;
+
+/**
+ * Eccezione lanciata quando una risorsa o la sua miniatura non esistono.
+ */
+public class RisorsaNonTrovataException extends RuntimeException {
+    public RisorsaNonTrovataException(String message) {
+        super(message);
+    }
+
+    public RisorsaNonTrovataException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,27 @@
+package com.simonegenovesi.extractorfiledata.payload.request;
+
+import com.simonegenovesi.extractorfiledata.util.enumerated.DatiEsportazioneEnum;
+import com.simonegenovesi.extractorfiledata.util.enumerated.FormatoEsportazioneEnum;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data @Builder
+@AllArgsConstructor @NoArgsConstructor
+public class EsportazioneRequest {
+
+    private DatiEsportazioneEnum dati;
+
+    // default NDJSON
+    private FormatoEsportazioneEnum formato;
+
+    // true: una cartella per cantiere e lotto
+    private Boolean partizionata;
+
+    // filtri facoltativi
+    private String cantiere;
+
+    private String lotto;
+
+}
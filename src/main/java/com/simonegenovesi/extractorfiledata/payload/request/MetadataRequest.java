@@ -1,5 +1,6 @@
 package com.simonegenovesi.extractorfiledata.payload.request;
 
+import com.simonegenovesi.extractorfiledata.util.enumerated.PrioritaEstrazioneEnum;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -11,4 +12,10 @@ public class MetadataRequest {
 
     private String path;
 
+    // true: stima per campionamento, senza elaborare né scrivere su Mongo
+    private Boolean stima;
+
+    // classe di priorità in attesa di ammissione, default INTERATTIVA
+    private PrioritaEstrazioneEnum priorita;
+
 }
@@ -0,0 +1,24 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import lombok.*;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class AmmissioneResponse {
+
+    private Integer pacchettiConcorrenti;
+
+    private Integer inEsecuzione;
+
+    private Integer inCodaInterattive;
+
+    private Integer inCodaMassive;
+
+    // attese ammesse, al netto dei thread riservati alle letture
+    private Integer capacitaCoda;
+
+    private Long rifiutate;
+
+    // media mobile della durata delle estrazioni, base del Retry-After
+    private Double durataMediaSecondi;
+}
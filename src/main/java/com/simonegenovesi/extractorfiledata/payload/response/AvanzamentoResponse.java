@@ -0,0 +1,28 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class AvanzamentoResponse {
+
+    private String fase;
+
+    private Long fileElaborati;
+
+    private Long fileTotali;
+
+    private Long byteElaborati;
+
+    private Long miniatureCompletate;
+
+    private Long miniatureTotali;
+
+    // media mobile delle unità della fase corrente (file o miniature) al secondo
+    private Double velocita;
+
+    // solo nelle fasi di analisi e miniature, con velocità nota
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long etaSecondi;
+}
@@ -0,0 +1,15 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import lombok.*;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class DiscordanzaFormatoResponse {
+
+    private String file;
+
+    private String formatoEstensione;
+
+    // formato usato per il file
+    private String formatoContenuto;
+}
@@ -0,0 +1,39 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class EliminazioneResponse {
+
+    private String codiceCantiere;
+
+    private String codiceLotto;
+
+    private String codicePacchetto;
+
+    private String stato;
+
+    // conteggi disponibili al termine
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long miniatureEliminate;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long metadatiEliminati;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long metricheEliminate;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long logEliminati;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long lavoriEliminati;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double secondi;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String errore;
+}
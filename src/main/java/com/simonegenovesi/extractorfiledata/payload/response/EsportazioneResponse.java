@@ -0,0 +1,39 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+import java.util.List;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class EsportazioneResponse {
+
+    private String id;
+
+    private String dati;
+
+    private String formato;
+
+    private String stato;
+
+    private String cartella;
+
+    // valori al momento della richiesta, finali al termine
+    private Long documenti;
+
+    private Long byteNonCompressi;
+
+    private Long byteCompressi;
+
+    private Double secondi;
+
+    // byte non compressi al secondo
+    private Double mbAlSecondo;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<String> file;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String errore;
+}
@@ -0,0 +1,18 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import lombok.*;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class FasciaDimensioneResponse {
+
+    // limite inferiore incluso, in byte
+    private Long limiteInferiore;
+
+    // limite superiore escluso, in byte
+    private Long limiteSuperiore;
+
+    private Long numRisorse;
+
+    private Long dimTotale;
+}
@@ -1,11 +1,14 @@
 package com.simonegenovesi.extractorfiledata.payload.response;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.*;
 
 @Getter @Setter @Builder
 @NoArgsConstructor @AllArgsConstructor
 public class MetadatiRisorsaResponse {
 
+    private String id;
+
     private String urlOggetto;
 
     private String nomeOggetto;
@@ -19,4 +22,27 @@ public class MetadatiRisorsaResponse {
     private String codiceLotto;
 
     private String codicePacchetto;
+
+    // valorizzati solo per le voci di un archivio
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String urlArchivio;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long dimensioneCompressa;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long crc;
+
+    // valorizzati solo per PDF e hOCR
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer numeroPagine;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer numeroRighe;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer numeroParole;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double confidenzaMedia;
 }
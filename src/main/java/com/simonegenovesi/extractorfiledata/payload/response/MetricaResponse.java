@@ -1,5 +1,6 @@
 package com.simonegenovesi.extractorfiledata.payload.response;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.simonegenovesi.extractorfiledata.entity.Metrica;
 import lombok.*;
 
@@ -19,6 +20,13 @@ public class MetricaResponse {
 
     private List<Metrica.DettaglioRisorsa> dettagliRisorse;
 
+    // contenuto degli archivi ZIP/GZIP, assente se il pacchetto non ne ha
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Metrica.MetricheSummary metricheArchivi;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<Metrica.DettaglioRisorsa> dettagliArchivi;
+
     @Builder @Getter @Setter
     @AllArgsConstructor @NoArgsConstructor
     public static class MetricheSummary {
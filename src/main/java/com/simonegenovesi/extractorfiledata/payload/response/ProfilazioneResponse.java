@@ -0,0 +1,28 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class ProfilazioneResponse {
+
+    private String codiceCantiere;
+
+    private String codiceLotto;
+
+    private String codicePacchetto;
+
+    private String stato;
+
+    private String file;
+
+    private String inizio;
+
+    // disponibili al termine
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double secondi;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long dimensioneByte;
+}
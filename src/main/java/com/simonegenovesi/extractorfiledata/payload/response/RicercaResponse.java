@@ -0,0 +1,17 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+import java.util.List;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class RicercaResponse {
+
+    private List<MetadatiRisorsaResponse> risultati;
+
+    // da passare come parametro dopo per la pagina successiva, assente sull'ultima
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String successivo;
+}
@@ -0,0 +1,25 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class RicostruzioneRicercaResponse {
+
+    private String stato;
+
+    private String inizio;
+
+    // valori al momento della richiesta, finali al termine
+    private Long pacchettiIndicizzati;
+
+    private Long pacchettiSaltati;
+
+    private Long vociInserite;
+
+    private Double secondi;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String errore;
+}
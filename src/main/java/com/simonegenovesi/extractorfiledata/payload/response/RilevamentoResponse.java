@@ -0,0 +1,31 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import lombok.*;
+
+import java.util.List;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class RilevamentoResponse {
+
+    private String politica;
+
+    // file classificati dalla sola estensione e mai aperti dall'analisi
+    private Long fileSenzaApertura;
+
+    // file classificati dall'estensione ma letti poi per voci o struttura: archivi, PDF e hOCR
+    private Long fileApertiDallAnalisi;
+
+    // file di cui è stata letta l'intestazione, verifiche incluse
+    private Long fileLetti;
+
+    private Long verifiche;
+
+    private Long discordanze;
+
+    // letture dell'intestazione evitate, in byte
+    private Long byteNonLetti;
+
+    // ultime discordanze tra estensione e contenuto
+    private List<DiscordanzaFormatoResponse> discordanzeRecenti;
+}
@@ -0,0 +1,24 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import lombok.*;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class StatisticaGruppoResponse {
+
+    // valore della chiave di raggruppamento (formato, cantiere, lotto...)
+    private String gruppo;
+
+    private Long numRisorse;
+
+    private Long dimTotale;
+
+    private Double dimMedia;
+
+    private Long dimMin;
+
+    private Long dimMax;
+
+    // presente solo nei raggruppamenti per cantiere/lotto
+    private Integer numPacchetti;
+}
@@ -0,0 +1,23 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import lombok.*;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class StatisticaStadioResponse {
+
+    private String stadio;
+
+    private Integer thread;
+
+    private Integer attivi;
+
+    private Integer inCoda;
+
+    private Long completati;
+
+    private Double tempoMedioMs;
+
+    // frazione del tempo in cui i thread dello stadio sono stati occupati, dalla lettura precedente
+    private Double utilizzo;
+}
@@ -0,0 +1,25 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import lombok.*;
+
+@Getter @Setter @Builder
+@NoArgsConstructor @AllArgsConstructor
+public class StatisticaVolumeResponse {
+
+    // punto di montaggio e dispositivo
+    private String volume;
+
+    // letture concorrenti ammesse in questo momento
+    private Integer limite;
+
+    private Integer inVolo;
+
+    private Long completate;
+
+    // valori dell'ultima finestra di adattamento
+    private Double letturePerSecondo;
+
+    private Double latenzaMediaMs;
+
+    private Double latenzaMinimaMs;
+}
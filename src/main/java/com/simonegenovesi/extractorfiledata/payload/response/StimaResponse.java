@@ -0,0 +1,54 @@
+package com.simonegenovesi.extractorfiledata.payload.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.simonegenovesi.extractorfiledata.entity.Metrica;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Stima di un'estrazione: totali esatti dalla scansione degli attributi, il resto estrapolato dal campione.
+ */
+@Builder @Getter @Setter
+@AllArgsConstructor @NoArgsConstructor
+public class StimaResponse {
+
+    private Long fileTotali;
+
+    private Long byteTotali;
+
+    private Integer fileCampionati;
+
+    private Double secondiScansione;
+
+    // numero e byte per formato, estrapolati dal campione
+    private List<Metrica.DettaglioRisorsa> dettagliRisorse;
+
+    private Long immaginiStimate;
+
+    private Long pagineStimate;
+
+    private Long pixelSorgenteStimati;
+
+    private Long pixelDecodificatiStimati;
+
+    // analisi dei file con il parallelismo dell'estrazione, salvataggio su Mongo escluso
+    private Double secondiAnalisiStimati;
+
+    // calibrazione delle miniature su questa macchina, assente se il campione non contiene immagini leggibili
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer immaginiCalibrazione;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double nanosPerPixel;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double secondiCpuMiniatureStimati;
+
+    // tempo di CPU diviso per i thread della pipeline, al massimo uno per core
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double secondiMiniatureStimati;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long byteMiniatureStimati;
+}
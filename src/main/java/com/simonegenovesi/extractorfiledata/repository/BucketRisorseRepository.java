@@ -0,0 +1,14 @@
+package com.simonegenovesi.extractorfiledata.repository;
+
+import com.simonegenovesi.extractorfiledata.entity.BucketRisorse;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface BucketRisorseRepository extends MongoRepository<BucketRisorse, String> {
+
+    long deleteByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+            String codiceCantiere,
+            String codiceLotto,
+            String codicePacchetto
+    );
+
+}
@@ -4,4 +4,10 @@ import com.simonegenovesi.extractorfiledata.entity.Log;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 public interface LogRepository extends MongoRepository<Log, String> {
+
+    long deleteByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+            String codiceCantiere,
+            String codiceLotto,
+            String codicePacchetto
+    );
 }
@@ -1,8 +1,35 @@
 package com.simonegenovesi.extractorfiledata.repository;
 
 import com.simonegenovesi.extractorfiledata.entity.MetadatiRisorsa;
+import org.springframework.data.mongodb.repository.Meta;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
+import java.util.List;
+import java.util.stream.Stream;
+
 public interface MetadatiRisorsaRepository extends MongoRepository<MetadatiRisorsa, String> {
 
+    List<MetadatiRisorsa> findByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+            String codiceCantiere,
+            String codiceLotto,
+            String codicePacchetto
+    );
+
+    // cursori letti un batch alla volta: vanno chiusi
+    @Meta(cursorBatchSize = 500)
+    Stream<MetadatiRisorsa> streamAllBy();
+
+    @Meta(cursorBatchSize = 500)
+    Stream<MetadatiRisorsa> streamByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+            String codiceCantiere,
+            String codiceLotto,
+            String codicePacchetto
+    );
+
+    long deleteByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+            String codiceCantiere,
+            String codiceLotto,
+            String codicePacchetto
+    );
+
 }
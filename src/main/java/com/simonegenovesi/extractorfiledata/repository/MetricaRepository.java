@@ -1,8 +1,12 @@
 package com.simonegenovesi.extractorfiledata.repository;
 
 import com.simonegenovesi.extractorfiledata.entity.Metrica;
+import org.springframework.data.mongodb.repository.Meta;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
+import java.util.List;
+import java.util.stream.Stream;
+
 public interface MetricaRepository extends MongoRepository<Metrica, String> {
 
     boolean existsByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
@@ -11,4 +15,27 @@ public interface MetricaRepository extends MongoRepository<Metrica, String> {
             String codicePacchetto
     );
 
+    List<Metrica> findByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+            String codiceCantiere,
+            String codiceLotto,
+            String codicePacchetto
+    );
+
+    // cursori letti un batch alla volta: vanno chiusi
+    @Meta(cursorBatchSize = 500)
+    Stream<Metrica> streamAllBy();
+
+    @Meta(cursorBatchSize = 500)
+    Stream<Metrica> streamByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+            String codiceCantiere,
+            String codiceLotto,
+            String codicePacchetto
+    );
+
+    long deleteByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+            String codiceCantiere,
+            String codiceLotto,
+            String codicePacchetto
+    );
+
 }
@@ -0,0 +1,20 @@
+package com.simonegenovesi.extractorfiledata.repository;
+
+import com.simonegenovesi.extractorfiledata.entity.RicercaRisorsa;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface RicercaRisorsaRepository extends MongoRepository<RicercaRisorsa, String> {
+
+    boolean existsByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+            String codiceCantiere,
+            String codiceLotto,
+            String codicePacchetto
+    );
+
+    long deleteByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+            String codiceCantiere,
+            String codiceLotto,
+            String codicePacchetto
+    );
+
+}
@@ -0,0 +1,7 @@
+package com.simonegenovesi.extractorfiledata.repository;
+
+import com.simonegenovesi.extractorfiledata.entity.StatoElaborazione;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface StatoElaborazioneRepository extends MongoRepository<StatoElaborazione, String> {
+}
@@ -0,0 +1,216 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.exceptions.CodaPienaException;
+import com.simonegenovesi.extractorfiledata.payload.response.AmmissioneResponse;
+import com.simonegenovesi.extractorfiledata.util.enumerated.PrioritaEstrazioneEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Controllo di ammissione delle estrazioni: al massimo {@code ammissione.pacchetti-concorrenti} pacchetti elaborati
+ * insieme, gli altri in una coda limitata per classe di priorità; a coda piena la richiesta è rifiutata con un
+ * Retry-After stimato dalla durata media delle estrazioni.
+ * <p>
+ * Quando si libera un posto, le richieste interattive sono ammesse con peso {@code ammissione.peso-interattive}
+ * rispetto alle massive, e le massive non occupano mai tutti i posti: un pacchetto interattivo non resta dietro a un
+ * recupero. Le estrazioni in attesa occupano un thread HTTP ciascuna, quindi la coda non supera i thread del server
+ * meno {@code ammissione.thread-riservati-letture}: le API di lettura hanno sempre thread liberi.
+ */
+@Service
+@Slf4j
+public class AmmissioneService {
+
+    private static final double LISCIATURA = 0.3;
+
+    private final int concorrenti;
+    private final int postiMassive;
+    private final int capacitaCoda;
+    private final int pesoInterattive;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ammissione = lock.newCondition();
+    private final Map<PrioritaEstrazioneEnum, Deque<Attesa>> code = new EnumMap<>(PrioritaEstrazioneEnum.class);
+
+    private int inEsecuzione;
+    private int massiveInEsecuzione;
+    private int interattiveConsecutive;
+    private long rifiutate;
+    private double durataMedia;
+
+    public AmmissioneService(
+            @Value("${ammissione.pacchetti-concorrenti:2}") int concorrenti,
+            @Value("${ammissione.coda-massima:10}") int codaMassima,
+            @Value("${ammissione.peso-interattive:3}") int pesoInterattive,
+            @Value("${ammissione.thread-riservati-letture:50}") int threadRiservati,
+            @Value("${ammissione.durata-iniziale-secondi:60}") double durataIniziale,
+            @Value("${server.tomcat.threads.max:200}") int threadServer
+    ) {
+        this.concorrenti = Math.max(1, concorrenti);
+        this.postiMassive = Math.max(1, this.concorrenti - 1);
+        this.capacitaCoda = Math.max(0, Math.min(codaMassima, threadServer - threadRiservati - this.concorrenti));
+        this.pesoInterattive = Math.max(1, pesoInterattive);
+        this.durataMedia = durataIniziale;
+        for (var priorita : PrioritaEstrazioneEnum.values()) {
+            code.put(priorita, new ArrayDeque<>());
+        }
+        if (capacitaCoda < codaMassima) {
+            log.warn("Coda delle estrazioni ridotta a {} per riservare {} thread alle letture", capacitaCoda, threadRiservati);
+        }
+    }
+
+    /**
+     * Esegue l'estrazione appena ammessa, attendendo in coda il proprio turno. Solo le estrazioni completate
+     * aggiornano la durata media: un errore immediato, come un pacchetto già elaborato, abbasserebbe il Retry-After.
+     * @throws CodaPienaException se la coda della priorità è piena
+     */
+    public <T> T esegui(PrioritaEstrazioneEnum priorita, Supplier<T> estrazione) {
+        var classe = priorita != null ? priorita : PrioritaEstrazioneEnum.INTERATTIVA;
+        entra(classe);
+        var inizio = System.nanoTime();
+        var completata = false;
+        try {
+            var risultato = estrazione.get();
+            completata = true;
+            return risultato;
+        } finally {
+            esci(classe, completata ? (System.nanoTime() - inizio) / 1_000_000_000.0 : null);
+        }
+    }
+
+    public AmmissioneResponse statistica() {
+        lock.lock();
+        try {
+            return AmmissioneResponse.builder()
+                    .pacchettiConcorrenti(concorrenti)
+                    .inEsecuzione(inEsecuzione)
+                    .inCodaInterattive(code.get(PrioritaEstrazioneEnum.INTERATTIVA).size())
+                    .inCodaMassive(code.get(PrioritaEstrazioneEnum.MASSIVA).size())
+                    .capacitaCoda(capacitaCoda)
+                    .rifiutate(rifiutate)
+                    .durataMediaSecondi(durataMedia)
+                    .build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void entra(PrioritaEstrazioneEnum classe) {
+        lock.lock();
+        try {
+            if (code.get(classe).isEmpty() && puoEntrare(classe)) {
+                avvia(classe);
+                return;
+            }
+            if (inCoda() >= capacitaCoda) {
+                rifiutate++;
+                var retryAfter = retryAfter();
+                log.warn("Coda delle estrazioni piena ({} in attesa), richiesta {} rifiutata", inCoda(), classe);
+                throw new CodaPienaException("Troppe estrazioni in corso, riprovare tra " + retryAfter + " secondi.", retryAfter);
+            }
+            var attesa = new Attesa();
+            code.get(classe).addLast(attesa);
+            log.info("Estrazione {} in coda: {} in esecuzione, {} in attesa", classe, inEsecuzione, inCoda());
+            try {
+                while (!attesa.ammessa) {
+                    ammissione.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (attesa.ammessa) {
+                    // ammessa mentre veniva interrotta: il posto va restituito
+                    rilascia(classe);
+                } else {
+                    code.get(classe).remove(attesa);
+                }
+                throw new IllegalStateException("Attesa dell'ammissione interrotta", e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param secondi durata dell'estrazione completata, null se è fallita
+     */
+    private void esci(PrioritaEstrazioneEnum classe, Double secondi) {
+        lock.lock();
+        try {
+            if (secondi != null) {
+                durataMedia = durataMedia * (1 - LISCIATURA) + secondi * LISCIATURA;
+            }
+            rilascia(classe);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rilascia(PrioritaEstrazioneEnum classe) {
+        inEsecuzione--;
+        if (classe == PrioritaEstrazioneEnum.MASSIVA) {
+            massiveInEsecuzione--;
+        }
+        ammettiSuccessive();
+    }
+
+    /**
+     * Assegna i posti liberi alle attese: fino a {@link #pesoInterattive} interattive consecutive, poi una massiva
+     * se ne aspetta una e ha un posto.
+     */
+    private void ammettiSuccessive() {
+        var interattive = code.get(PrioritaEstrazioneEnum.INTERATTIVA);
+        var massive = code.get(PrioritaEstrazioneEnum.MASSIVA);
+        while (inEsecuzione < concorrenti) {
+            var massivaPossibile = !massive.isEmpty() && massiveInEsecuzione < postiMassive;
+            PrioritaEstrazioneEnum classe;
+            if (!interattive.isEmpty() && (!massivaPossibile || interattiveConsecutive < pesoInterattive)) {
+                classe = PrioritaEstrazioneEnum.INTERATTIVA;
+                interattiveConsecutive++;
+            } else if (massivaPossibile) {
+                classe = PrioritaEstrazioneEnum.MASSIVA;
+                interattiveConsecutive = 0;
+            } else {
+                return;
+            }
+            code.get(classe).removeFirst().ammessa = true;
+            avvia(classe);
+            ammissione.signalAll();
+        }
+    }
+
+    private boolean puoEntrare(PrioritaEstrazioneEnum classe) {
+        return inEsecuzione < concorrenti
+                && (classe == PrioritaEstrazioneEnum.INTERATTIVA || massiveInEsecuzione < postiMassive);
+    }
+
+    private void avvia(PrioritaEstrazioneEnum classe) {
+        inEsecuzione++;
+        if (classe == PrioritaEstrazioneEnum.MASSIVA) {
+            massiveInEsecuzione++;
+        }
+    }
+
+    private int inCoda() {
+        return code.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    /**
+     * Tempo stimato perché la coda attuale e questa richiesta vengano smaltite.
+     */
+    private long retryAfter() {
+        var secondi = durataMedia * (inCoda() + 1) / concorrenti;
+        return Math.max(1, Math.min(3600, (long) Math.ceil(secondi)));
+    }
+
+    private static class Attesa {
+        private boolean ammessa;
+    }
+}
@@ -0,0 +1,392 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.mongodb.client.MongoCursor;
+import com.simonegenovesi.extractorfiledata.entity.BucketRisorse;
+import com.simonegenovesi.extractorfiledata.entity.MetadatiRisorsa;
+import com.simonegenovesi.extractorfiledata.entity.RicercaRisorsa;
+import com.simonegenovesi.extractorfiledata.event.jfr.BatchMongoScrittoEvent;
+import com.simonegenovesi.extractorfiledata.repository.BucketRisorseRepository;
+import com.simonegenovesi.extractorfiledata.repository.MetadatiRisorsaRepository;
+import com.simonegenovesi.extractorfiledata.repository.RicercaRisorsaRepository;
+import com.simonegenovesi.extractorfiledata.util.BufferRisorse;
+import com.simonegenovesi.extractorfiledata.util.IndiceNomi;
+import com.simonegenovesi.extractorfiledata.util.enumerated.ModalitaArchivioEnum;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static com.simonegenovesi.extractorfiledata.util.Elementi.SEPARATORE_ARCHIVIO;
+
+/**
+ * Punto unico di lettura e scrittura dei metadati delle risorse, indipendente dal layout scelto
+ * con {@code archivio.modalita}.
+ * <p>
+ * In modalità {@link ModalitaArchivioEnum#BUCKET} i file di un pacchetto sono raggruppati in documenti
+ * {@link BucketRisorse}; le letture li riportano alla forma di {@link MetadatiRisorsa} con
+ * {@code $unwind} e {@code $project} lato database, così servizi e API restano invariati.
+ * <p>
+ * In entrambi i layout ogni blocco salvato aggiunge le sue voci a {@link RicercaRisorsa}, l'indice di ricerca per
+ * nome e percorso, che viene eliminato insieme ai metadati del pacchetto.
+ */
+@Service
+@Slf4j
+public class ArchivioRisorseService {
+
+    // come il cursorBatchSize dei metodi stream dei repository
+    private static final int BATCH_FLUSSO = 500;
+
+    private final MetadatiRisorsaRepository metadatiRisorsaRepository;
+    private final BucketRisorseRepository bucketRisorseRepository;
+    private final RicercaRisorsaRepository ricercaRisorsaRepository;
+    private final MongoTemplate mongoTemplate;
+
+    @Getter
+    private final ModalitaArchivioEnum modalita;
+    private final int dimensioneBucket;
+
+    public ArchivioRisorseService(
+            MetadatiRisorsaRepository metadatiRisorsaRepository,
+            BucketRisorseRepository bucketRisorseRepository,
+            RicercaRisorsaRepository ricercaRisorsaRepository,
+            MongoTemplate mongoTemplate,
+            @Value("${archivio.modalita:DOCUMENTI}") ModalitaArchivioEnum modalita,
+            @Value("${archivio.dimensione-bucket:1000}") int dimensioneBucket
+    ) {
+        this.metadatiRisorsaRepository = metadatiRisorsaRepository;
+        this.bucketRisorseRepository = bucketRisorseRepository;
+        this.ricercaRisorsaRepository = ricercaRisorsaRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.modalita = modalita;
+        this.dimensioneBucket = dimensioneBucket;
+        log.info("Archivio risorse in modalità {}", modalita);
+    }
+
+    /**
+     * Salva le risorse a blocchi di {@code archivio.dimensione-bucket}: i documenti di un blocco vengono
+     * creati dal buffer solo al momento della scrittura, seguiti dalle loro voci dell'indice di ricerca.
+     */
+    public void salva(List<String> codici, BufferRisorse risorse) {
+        var numeroBucket = 0;
+        for (int inizio = 0; inizio < risorse.size(); inizio += dimensioneBucket) {
+            var evento = new BatchMongoScrittoEvent();
+            evento.begin();
+            var metadati = risorse.metadati(inizio, Math.min(inizio + dimensioneBucket, risorse.size()));
+            List<RicercaRisorsa> voci = new ArrayList<>(metadati.size());
+            if (modalita == ModalitaArchivioEnum.DOCUMENTI) {
+                for (var metadato : metadatiRisorsaRepository.insert(metadati)) {
+                    voci.add(IndiceNomi.voce(metadato, metadato.getId()));
+                }
+            } else {
+                var bucket = bucketRisorseRepository.insert(creaBucket(codici, numeroBucket++, metadati));
+                // stesso id delle letture, che lo ricostruiscono dalla posizione nel bucket
+                for (int i = 0; i < metadati.size(); i++) {
+                    voci.add(IndiceNomi.voce(metadati.get(i), bucket.getId() + "-" + i));
+                }
+            }
+            if (evento.shouldCommit()) {
+                var documenti = modalita == ModalitaArchivioEnum.DOCUMENTI;
+                evento.collezione = mongoTemplate.getCollectionName(documenti ? MetadatiRisorsa.class : BucketRisorse.class);
+                evento.pacchetto = String.join("/", codici);
+                evento.documenti = documenti ? metadati.size() : 1;
+                evento.risorse = metadati.size();
+                evento.commit();
+            }
+            ricercaRisorsaRepository.insert(voci);
+        }
+        if (modalita == ModalitaArchivioEnum.BUCKET) {
+            log.info("Salvati {} metadati in {} bucket", risorse.size(), numeroBucket);
+        }
+    }
+
+    public List<MetadatiRisorsa> trovaTutte() {
+        if (modalita == ModalitaArchivioEnum.DOCUMENTI) {
+            return metadatiRisorsaRepository.findAll();
+        }
+        return leggiBucket(null, null);
+    }
+
+    public List<MetadatiRisorsa> trovaPerPacchetto(String cantiere, String lotto, String pacchetto) {
+        if (modalita == ModalitaArchivioEnum.DOCUMENTI) {
+            return metadatiRisorsaRepository.findByCodiceCantiereAndCodiceLottoAndCodicePacchetto(cantiere, lotto, pacchetto);
+        }
+        return leggiBucket(criteriaPacchetto(cantiere, lotto, pacchetto), null);
+    }
+
+    /**
+     * Come {@link #trovaTutte()} e {@link #trovaPerPacchetto}, su un cursore: i metadati vengono letti da Mongo
+     * mentre sono consumati. Lo stream va chiuso.
+     * @param codici cantiere, lotto e pacchetto, oppure null per tutti i metadati
+     */
+    public Stream<MetadatiRisorsa> flusso(List<String> codici) {
+        if (modalita == ModalitaArchivioEnum.DOCUMENTI) {
+            return codici == null
+                    ? metadatiRisorsaRepository.streamAllBy()
+                    : metadatiRisorsaRepository.streamByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+                            codici.get(0), codici.get(1), codici.get(2));
+        }
+        var filtro = codici == null ? null : criteriaPacchetto(codici.get(0), codici.get(1), codici.get(2));
+        var aggregazione = Aggregation.newAggregation(BucketRisorse.class, pipelineBucket(filtro, null))
+                .withOptions(AggregationOptions.builder().cursorBatchSize(BATCH_FLUSSO).allowDiskUse(true).build());
+        return mongoTemplate.aggregateStream(aggregazione, MetadatiRisorsa.class);
+    }
+
+    /**
+     * @param id id del documento, oppure {@code <id bucket>-<posizione>} in modalità bucket
+     */
+    public Optional<MetadatiRisorsa> trovaPerId(String id) {
+        if (modalita == ModalitaArchivioEnum.DOCUMENTI) {
+            return metadatiRisorsaRepository.findById(id);
+        }
+        var separatore = id.lastIndexOf('-');
+        if (separatore < 0 || !ObjectId.isValid(id.substring(0, separatore))) {
+            return Optional.empty();
+        }
+        return leggiBucket(Criteria.where("id").is(id.substring(0, separatore)), Criteria.where("_id").is(id))
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Url delle risorse del pacchetto nei formati indicati, escluse le voci degli archivi, letti su un cursore e
+     * passati uno alla volta: dei metadati si legge solo l'url, così chi ne ricava percorsi o cartelle non tiene in
+     * memoria i documenti dell'intero pacchetto.
+     */
+    public void perUrl(List<String> codici, List<String> formati, Consumer<String> consumer) {
+        var filtro = new Document("codice_cantiere", codici.get(0))
+                .append("codice_lotto", codici.get(1))
+                .append("codice_pacchetto", codici.get(2));
+        var collezione = mongoTemplate.getCollection(collezione());
+        MongoCursor<Document> cursore;
+        if (modalita == ModalitaArchivioEnum.DOCUMENTI) {
+            filtro.append("formato_file", new Document("$in", formati))
+                    .append("url_archivio", new Document("$exists", false));
+            cursore = collezione.find(filtro)
+                    .projection(new Document("_id", 0).append("url_oggetto", 1))
+                    .batchSize(BATCH_FLUSSO)
+                    .cursor();
+        } else {
+            var pipeline = List.of(
+                    new Document("$match", filtro.append("risorse.f", new Document("$in", formati))),
+                    new Document("$unwind", "$risorse"),
+                    new Document("$match", new Document("risorse.f", new Document("$in", formati))
+                            .append("risorse.p", new Document("$not", Pattern.compile(Pattern.quote(SEPARATORE_ARCHIVIO))))),
+                    new Document("$project", new Document("_id", 0)
+                            .append("url_oggetto", new Document("$concat", List.of("$prefisso", "$risorse.p")))));
+            cursore = collezione.aggregate(pipeline).allowDiskUse(true).batchSize(BATCH_FLUSSO).cursor();
+        }
+        try (cursore) {
+            while (cursore.hasNext()) {
+                consumer.accept(cursore.next().getString("url_oggetto"));
+            }
+        }
+    }
+
+    /**
+     * Elimina i metadati del pacchetto in entrambi i layout e le sue voci dell'indice di ricerca.
+     * @return numero di documenti eliminati
+     */
+    public long eliminaPacchetto(List<String> codici) {
+        ricercaRisorsaRepository
+                .deleteByCodiceCantiereAndCodiceLottoAndCodicePacchetto(codici.get(0), codici.get(1), codici.get(2));
+        return metadatiRisorsaRepository
+                .deleteByCodiceCantiereAndCodiceLottoAndCodicePacchetto(codici.get(0), codici.get(1), codici.get(2))
+                + bucketRisorseRepository
+                .deleteByCodiceCantiereAndCodiceLottoAndCodicePacchetto(codici.get(0), codici.get(1), codici.get(2));
+    }
+
+    public void eliminaTutto() {
+        metadatiRisorsaRepository.deleteAll();
+        bucketRisorseRepository.deleteAll();
+        ricercaRisorsaRepository.deleteAll();
+    }
+
+    /**
+     * Collezione su cui eseguire le aggregazioni costruite per {@link MetadatiRisorsa}.
+     */
+    public String collezione() {
+        return mongoTemplate.getCollectionName(modalita == ModalitaArchivioEnum.DOCUMENTI
+                ? MetadatiRisorsa.class
+                : BucketRisorse.class);
+    }
+
+    /**
+     * Primi stadi di una pipeline tipizzata su {@link MetadatiRisorsa}: il filtro sui codici e, in modalità
+     * bucket, la scomposizione delle voci. Il filtro precede {@code $unwind} per usare l'indice del pacchetto.
+     * Le voci degli archivi sono escluse: l'archivio è già contato con la sua dimensione su disco, e contarne
+     * anche il contenuto raddoppierebbe numero e dimensioni.
+     * @param filtro criteri sui campi comuni ai due layout (codici), oppure null
+     */
+    public List<AggregationOperation> sorgente(Criteria filtro) {
+        List<AggregationOperation> operazioni = new ArrayList<>();
+        if (modalita == ModalitaArchivioEnum.BUCKET) {
+            if (filtro != null) {
+                operazioni.add(Aggregation.match(filtro));
+            }
+            operazioni.add(context -> new Document("$unwind", "$risorse"));
+            // nel bucket le voci di archivio si riconoscono dal separatore nel percorso
+            operazioni.add(context -> new Document("$match", new Document("risorse.p",
+                    new Document("$not", Pattern.compile(Pattern.quote(SEPARATORE_ARCHIVIO))))));
+            operazioni.add(context -> new Document("$project", new Document()
+                    .append("codice_cantiere", 1)
+                    .append("codice_lotto", 1)
+                    .append("codice_pacchetto", 1)
+                    .append("formato_file", "$risorse.f")
+                    .append("dimensione_file", "$risorse.d")));
+        } else {
+            var criteria = filtro != null ? filtro : new Criteria();
+            operazioni.add(Aggregation.match(criteria.and("urlArchivio").exists(false)));
+        }
+        return operazioni;
+    }
+
+    /**
+     * Cursore sui documenti dei metadati nella forma di {@code metadati_risorse}, in entrambi i layout e ordinati
+     * per cantiere, lotto e pacchetto sull'indice del pacchetto. I documenti restano BSON grezzi, senza mappatura
+     * sulle entità: in memoria c'è un solo batch alla volta.
+     * @param filtro filtro sui codici con i nomi di campo Mongo, vuoto per tutti i metadati
+     */
+    public MongoCursor<Document> cursore(Document filtro, int batch) {
+        var ordine = new Document("codice_cantiere", 1).append("codice_lotto", 1).append("codice_pacchetto", 1);
+        var collezione = mongoTemplate.getCollection(collezione());
+        if (modalita == ModalitaArchivioEnum.DOCUMENTI) {
+            return collezione.find(filtro).sort(ordine).batchSize(batch).cursor();
+        }
+        var pipeline = List.of(
+                new Document("$match", filtro),
+                new Document("$sort", ordine.append("numero", 1)),
+                new Document("$unwind", new Document("path", "$risorse").append("includeArrayIndex", "posizione")),
+                new Document("$project", proiezioneVoce()));
+        return collezione.aggregate(pipeline).allowDiskUse(true).batchSize(batch).cursor();
+    }
+
+    /**
+     * @param filtroBucket criteri sui documenti bucket, oppure null
+     * @param filtroVoci criteri sulle voci già proiettate (nomi di campo Mongo), oppure null
+     */
+    private List<MetadatiRisorsa> leggiBucket(Criteria filtroBucket, Criteria filtroVoci) {
+        var aggregazione = Aggregation.newAggregation(BucketRisorse.class, pipelineBucket(filtroBucket, filtroVoci));
+        return mongoTemplate.aggregate(aggregazione, MetadatiRisorsa.class).getMappedResults();
+    }
+
+    /**
+     * Bucket in ordine di pacchetto e numero, le chiavi di {@code idx_pacchetto_bucket}: l'ordinamento usa l'indice
+     * anche senza filtro, invece di ordinare in memoria tutti i bucket letti.
+     */
+    private List<AggregationOperation> pipelineBucket(Criteria filtroBucket, Criteria filtroVoci) {
+        List<AggregationOperation> operazioni = new ArrayList<>();
+        if (filtroBucket != null) {
+            operazioni.add(Aggregation.match(filtroBucket));
+        }
+        operazioni.add(Aggregation.sort(Sort.by("codiceCantiere", "codiceLotto", "codicePacchetto", "numero")));
+        operazioni.add(context -> new Document("$unwind",
+                new Document("path", "$risorse").append("includeArrayIndex", "posizione")));
+        operazioni.add(context -> new Document("$project", proiezioneVoce()));
+        if (filtroVoci != null) {
+            operazioni.add(Aggregation.match(filtroVoci));
+        }
+        return operazioni;
+    }
+
+    /**
+     * Ricostruisce un documento con i campi di {@code metadati_risorse}. L'id è {@code <id bucket>-<posizione>};
+     * l'url dell'archivio delle voci di archivio è la parte dell'url che precede {@code !/}.
+     */
+    private Document proiezioneVoce() {
+        var nomeFile = new Document("$arrayElemAt",
+                List.of(new Document("$split", List.of("$risorse.p", File.separator)), -1));
+        var url = new Document("$concat", List.of("$prefisso", "$risorse.p"));
+        // Arrays.asList: List.of non ammette il ramo null del $cond
+        var urlArchivio = new Document("$cond", Arrays.asList(
+                new Document("$gt", List.of(new Document("$indexOfCP", List.of(url, SEPARATORE_ARCHIVIO)), -1)),
+                new Document("$arrayElemAt", List.of(new Document("$split", List.of(url, SEPARATORE_ARCHIVIO)), 0)),
+                null));
+        return new Document()
+                .append("_id", new Document("$concat",
+                        List.of(new Document("$toString", "$_id"), "-", new Document("$toString", "$posizione"))))
+                .append("url_oggetto", url)
+                .append("url_archivio", urlArchivio)
+                .append("dimensione_compressa", "$risorse.c")
+                .append("crc", "$risorse.k")
+                .append("numero_pagine", "$risorse.g")
+                .append("numero_righe", "$risorse.r")
+                .append("numero_parole", "$risorse.w")
+                .append("confidenza_media", "$risorse.q")
+                .append("nome_oggetto", new Document("$ifNull", List.of("$risorse.n", nomeFile)))
+                .append("dimensione_file", "$risorse.d")
+                .append("formato_file", "$risorse.f")
+                .append("codice_cantiere", 1)
+                .append("codice_lotto", 1)
+                .append("codice_pacchetto", 1);
+    }
+
+    private BucketRisorse creaBucket(List<String> codici, int numero, List<MetadatiRisorsa> metadati) {
+        var prefisso = prefissoComune(metadati);
+        List<BucketRisorse.Voce> voci = new ArrayList<>(metadati.size());
+        long dimTotale = 0;
+        for (var metadato : metadati) {
+            var percorso = metadato.getUrlOggetto().substring(prefisso.length());
+            var nomeFile = percorso.substring(percorso.lastIndexOf(File.separatorChar) + 1);
+            voci.add(BucketRisorse.Voce.builder()
+                    .percorso(percorso)
+                    .nome(nomeFile.equals(metadato.getNomeOggetto()) ? null : metadato.getNomeOggetto())
+                    .dimensione(metadato.getDimensioneFile())
+                    .formato(metadato.getFormatoFile())
+                    .dimensioneCompressa(metadato.getDimensioneCompressa())
+                    .crc(metadato.getCrc())
+                    .numeroPagine(metadato.getNumeroPagine())
+                    .numeroRighe(metadato.getNumeroRighe())
+                    .numeroParole(metadato.getNumeroParole())
+                    .confidenzaMedia(metadato.getConfidenzaMedia())
+                    .build());
+            dimTotale += metadato.getDimensioneFile();
+        }
+        return BucketRisorse.builder()
+                .codiceCantiere(codici.get(0))
+                .codiceLotto(codici.get(1))
+                .codicePacchetto(codici.get(2))
+                .numero(numero)
+                .prefisso(prefisso)
+                .numRisorse(voci.size())
+                .dimTotale(dimTotale)
+                .risorse(voci)
+                .build();
+    }
+
+    /**
+     * Directory più profonda che contiene tutti i file, con il separatore finale.
+     */
+    private static String prefissoComune(List<MetadatiRisorsa> metadati) {
+        var primo = metadati.get(0).getUrlOggetto();
+        var prefisso = primo.substring(0, primo.lastIndexOf(File.separatorChar) + 1);
+        for (var metadato : metadati) {
+            while (!metadato.getUrlOggetto().startsWith(prefisso)) {
+                prefisso = prefisso.substring(0, prefisso.lastIndexOf(File.separatorChar, prefisso.length() - 2) + 1);
+            }
+        }
+        return prefisso;
+    }
+
+    static Criteria criteriaPacchetto(String cantiere, String lotto, String pacchetto) {
+        return Criteria.where("codiceCantiere").is(cantiere)
+                .and("codiceLotto").is(lotto)
+                .and("codicePacchetto").is(pacchetto);
+    }
+}
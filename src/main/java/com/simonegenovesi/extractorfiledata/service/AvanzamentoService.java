@@ -0,0 +1,346 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.simonegenovesi.extractorfiledata.entity.StatoElaborazione;
+import com.simonegenovesi.extractorfiledata.payload.response.AvanzamentoResponse;
+import com.simonegenovesi.extractorfiledata.util.Avanzamento;
+import com.simonegenovesi.extractorfiledata.util.enumerated.FaseAvanzamentoEnum;
+import com.simonegenovesi.extractorfiledata.util.enumerated.FaseElaborazioneEnum;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Avanzamento delle estrazioni in corso su questo nodo, notificato con Server-Sent Events.
+ * <p>
+ * L'elaborazione aggiorna solo i contatori di {@link Avanzamento}. Gli eventi sono prodotti a intervalli fissi
+ * da un unico task schedulato: ogni evento viene calcolato una volta per estrazione e inviato a tutti i suoi
+ * iscritti, quindi il numero di iscritti non incide sull'elaborazione. L'ETA usa una media mobile esponenziale
+ * della velocità della fase corrente.
+ * <p>
+ * Gli invii passano da un pool dedicato con coda limitata, con al più un invio in corso per iscritto: un client
+ * che non legge blocca solo il proprio invio e, dopo {@code progresso.cicli-saltati-max} eventi saltati, viene
+ * scartato. L'evento finale resta disponibile per {@code progresso.conservazione-minuti} a chi si iscrive dopo
+ * la fine.
+ */
+@Service
+@Slf4j
+public class AvanzamentoService {
+
+    // peso dell'ultimo intervallo nella media mobile della velocità
+    private static final double ALFA = 0.3;
+
+    private final Map<String, Monitor> monitor = new ConcurrentHashMap<>();
+    // evento finale delle estrazioni terminate di recente
+    private final Cache<String, AvanzamentoResponse> terminate;
+    private final CheckpointService checkpointService;
+    private final ThreadPoolExecutor invii;
+    private final long timeoutMs;
+    private final int cicliSaltatiMax;
+
+    public AvanzamentoService(
+            CheckpointService checkpointService,
+            @Value("${progresso.timeout-ms:1800000}") long timeoutMs,
+            @Value("${progresso.thread-invio:2}") int threadInvio,
+            @Value("${progresso.coda-invio:1000}") int codaInvio,
+            @Value("${progresso.cicli-saltati-max:5}") int cicliSaltatiMax,
+            @Value("${progresso.conservazione-minuti:10}") long conservazioneMinuti
+    ) {
+        this.checkpointService = checkpointService;
+        this.timeoutMs = timeoutMs;
+        this.cicliSaltatiMax = cicliSaltatiMax;
+        this.terminate = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(Duration.ofMinutes(conservazioneMinuti))
+                .build();
+        var contatore = new AtomicInteger();
+        this.invii = new ThreadPoolExecutor(threadInvio, threadInvio, 30L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(codaInvio),
+                runnable -> {
+                    var t = new Thread(runnable, "avanzamento-" + contatore.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.invii.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Registra l'avvio dell'estrazione di un pacchetto; gli iscritti in attesa la seguono da qui.
+     */
+    public Avanzamento avvia(List<String> codici) {
+        var avanzamento = new Avanzamento();
+        var chiave = CheckpointService.chiave(codici);
+        terminate.invalidate(chiave);
+        monitor.compute(chiave, (k, esistente) -> {
+            var nuovo = new Monitor(avanzamento);
+            if (esistente != null) {
+                nuovo.iscritti.addAll(esistente.iscritti);
+            }
+            return nuovo;
+        });
+        return avanzamento;
+    }
+
+    /**
+     * Invia l'evento finale, chiude gli iscritti e conserva l'evento per le iscrizioni successive.
+     */
+    public void termina(List<String> codici, FaseAvanzamentoEnum fase) {
+        var chiave = CheckpointService.chiave(codici);
+        var corrente = monitor.get(chiave);
+        if (corrente == null) {
+            return;
+        }
+        corrente.avanzamento.fase(fase);
+        var evento = corrente.evento(System.nanoTime());
+        // prima dell'uscita dalla mappa: un'iscrizione concorrente trova il monitor o l'evento finale
+        terminate.put(chiave, evento);
+        monitor.remove(chiave, corrente);
+        corrente.iscritti.forEach(iscritto -> iscritto.chiudi(evento));
+    }
+
+    /**
+     * Iscrive un client all'avanzamento del pacchetto, anche prima che l'estrazione sia avviata. Se l'estrazione
+     * è già terminata riceve subito l'evento finale.
+     */
+    public SseEmitter iscrivi(List<String> codici) {
+        var chiave = CheckpointService.chiave(codici);
+        var emitter = new SseEmitter(timeoutMs);
+        var iscritto = new Iscritto(chiave, emitter);
+        var finale = monitor.containsKey(chiave) ? null : statoFinale(codici, chiave);
+        // l'aggiunta avviene sotto il lock della chiave, quindi non può seguire la chiusura degli iscritti
+        var corrente = finale != null ? null : monitor.compute(chiave, (k, esistente) -> {
+            var risultato = esistente;
+            if (risultato == null) {
+                if (terminate.getIfPresent(k) != null) {
+                    return null;
+                }
+                risultato = new Monitor(new Avanzamento());
+            }
+            risultato.iscritti.add(iscritto);
+            return risultato;
+        });
+        emitter.onCompletion(iscritto::rimuovi);
+        emitter.onTimeout(iscritto::rimuovi);
+        emitter.onError(errore -> iscritto.rimuovi());
+        if (corrente == null) {
+            iscritto.chiudi(finale != null ? finale : terminate.getIfPresent(chiave));
+        } else {
+            iscritto.invia(corrente.ultimo != null ? corrente.ultimo : corrente.evento(System.nanoTime()));
+        }
+        return emitter;
+    }
+
+    @Scheduled(fixedDelayString = "${progresso.intervallo-ms:1000}")
+    public void pubblica() {
+        var adesso = System.nanoTime();
+        monitor.forEach((chiave, corrente) -> {
+            // iscritti in attesa di un'estrazione mai avviata: rimossi alla scadenza dei loro emitter
+            if (corrente.iscritti.isEmpty() && corrente.avanzamento.getFase() == FaseAvanzamentoEnum.IN_ATTESA) {
+                monitor.remove(chiave, corrente);
+                return;
+            }
+            var evento = corrente.evento(adesso);
+            corrente.ultimo = evento;
+            corrente.iscritti.forEach(iscritto -> iscritto.invia(evento));
+        });
+    }
+
+    @PreDestroy
+    public void chiudi() {
+        invii.shutdownNow();
+    }
+
+    /**
+     * Evento finale di un'estrazione non in corso su questo nodo: quello conservato alla sua fine o, per un
+     * pacchetto completato altrove o prima dell'avvio del nodo, lo stato salvato. Null se non è terminata.
+     */
+    private AvanzamentoResponse statoFinale(List<String> codici, String chiave) {
+        var finale = terminate.getIfPresent(chiave);
+        if (finale != null) {
+            return finale;
+        }
+        return checkpointService.trovaStato(codici)
+                .filter(stato -> stato.getFase() == FaseElaborazioneEnum.COMPLETATA)
+                .map(AvanzamentoService::completata)
+                .orElse(null);
+    }
+
+    private static AvanzamentoResponse completata(StatoElaborazione stato) {
+        var miniature = stato.getTiffTotali() == null ? null : stato.getTiffTotali().longValue();
+        var inErrore = stato.getTiffInErrore() == null ? 0 : stato.getTiffInErrore();
+        return AvanzamentoResponse.builder()
+                .fase(FaseAvanzamentoEnum.COMPLETATA.name())
+                .miniatureCompletate(miniature == null ? null : miniature - inErrore)
+                .miniatureTotali(miniature)
+                .velocita(0.0)
+                .build();
+    }
+
+    /**
+     * Client iscritto all'avanzamento di un pacchetto. Un solo invio alla volta: un invio ancora in corso al
+     * ciclo successivo indica un client che non legge, e l'evento viene saltato invece di accodarsi.
+     */
+    private final class Iscritto {
+        private final String chiave;
+        private final SseEmitter emitter;
+        private final AtomicBoolean inInvio = new AtomicBoolean();
+        private final AtomicInteger saltati = new AtomicInteger();
+        private volatile boolean chiuso;
+        private volatile AvanzamentoResponse finale;
+
+        Iscritto(String chiave, SseEmitter emitter) {
+            this.chiave = chiave;
+            this.emitter = emitter;
+        }
+
+        void invia(AvanzamentoResponse evento) {
+            if (chiuso) {
+                return;
+            }
+            if (!inInvio.compareAndSet(false, true)) {
+                if (saltati.incrementAndGet() > cicliSaltatiMax) {
+                    log.warn("Iscritto all'avanzamento di {} scartato: {} eventi saltati.", chiave, saltati.get());
+                    chiudi(null);
+                }
+                return;
+            }
+            saltati.set(0);
+            esegui(() -> emitter.send(SseEmitter.event().name("avanzamento").data(evento)), false);
+        }
+
+        /**
+         * Chiude l'iscrizione dopo l'eventuale evento finale; con un invio in corso la chiusura avviene al suo
+         * termine, sul thread dell'invio.
+         */
+        void chiudi(AvanzamentoResponse evento) {
+            finale = evento;
+            chiuso = true;
+            rimuovi();
+            if (inInvio.compareAndSet(false, true)) {
+                completa();
+            }
+        }
+
+        void rimuovi() {
+            chiuso = true;
+            var corrente = monitor.get(chiave);
+            if (corrente != null) {
+                corrente.iscritti.remove(this);
+            }
+        }
+
+        // chiamato con l'invio acquisito, che non viene più rilasciato
+        private void completa() {
+            var evento = finale;
+            if (evento == null) {
+                emitter.complete();
+                return;
+            }
+            esegui(() -> {
+                emitter.send(SseEmitter.event().name("fine").data(evento));
+                emitter.complete();
+            }, true);
+        }
+
+        private void esegui(Invio invio, boolean ultimo) {
+            try {
+                invii.execute(() -> {
+                    try {
+                        invio.invia();
+                    } catch (IOException | IllegalStateException e) {
+                        // client disconnesso: l'invio resta acquisito, non ne partono altri
+                        rimuovi();
+                        return;
+                    }
+                    if (!ultimo) {
+                        inInvio.set(false);
+                        if (chiuso && inInvio.compareAndSet(false, true)) {
+                            completa();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.warn("Coda degli invii dell'avanzamento piena: iscritto a {} scartato.", chiave);
+                rimuovi();
+                emitter.complete();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Invio {
+        void invia() throws IOException;
+    }
+
+    /**
+     * Avanzamento di un'estrazione e i suoi iscritti; lo stato della media mobile è aggiornato solo da
+     * {@link #pubblica()} e da {@link #termina}.
+     */
+    private static class Monitor {
+        private final Avanzamento avanzamento;
+        private final List<Iscritto> iscritti = new CopyOnWriteArrayList<>();
+
+        private volatile AvanzamentoResponse ultimo;
+        private FaseAvanzamentoEnum faseMedia;
+        private long unitaPrecedenti;
+        private long istantePrecedente;
+        private double velocita;
+
+        Monitor(Avanzamento avanzamento) {
+            this.avanzamento = avanzamento;
+            this.istantePrecedente = System.nanoTime();
+        }
+
+        synchronized AvanzamentoResponse evento(long adesso) {
+            var fase = avanzamento.getFase();
+            var file = avanzamento.getFile();
+            var miniature = avanzamento.getMiniature();
+            var miniaturePerFase = fase == FaseAvanzamentoEnum.MINIATURE;
+            var unita = miniaturePerFase ? miniature : file;
+            var totali = miniaturePerFase ? avanzamento.getMiniatureTotali() : avanzamento.getFileTotali();
+
+            if (fase != faseMedia) {
+                // nuova fase: la media riparte dalle sue unità
+                faseMedia = fase;
+                velocita = 0;
+            } else if (adesso > istantePrecedente) {
+                var istantanea = (unita - unitaPrecedenti) / ((adesso - istantePrecedente) / 1_000_000_000.0);
+                velocita = velocita == 0 ? istantanea : ALFA * istantanea + (1 - ALFA) * velocita;
+            }
+            unitaPrecedenti = unita;
+            istantePrecedente = adesso;
+
+            Long eta = null;
+            if ((fase == FaseAvanzamentoEnum.ANALISI || miniaturePerFase) && velocita > 0) {
+                eta = Math.round(Math.max(0, totali - unita) / velocita);
+            }
+            return AvanzamentoResponse.builder()
+                    .fase(fase.name())
+                    .fileElaborati(file)
+                    .fileTotali(avanzamento.getFileTotali())
+                    .byteElaborati(avanzamento.getByte())
+                    .miniatureCompletate(miniature)
+                    .miniatureTotali(avanzamento.getMiniatureTotali())
+                    .velocita(velocita)
+                    .etaSecondi(eta)
+                    .build();
+        }
+    }
+}
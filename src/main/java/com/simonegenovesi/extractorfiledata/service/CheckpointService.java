@@ -0,0 +1,86 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.entity.StatoElaborazione;
+import com.simonegenovesi.extractorfiledata.repository.StatoElaborazioneRepository;
+import com.simonegenovesi.extractorfiledata.util.enumerated.FaseElaborazioneEnum;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Servizio che persiste lo stato di avanzamento di un pacchetto, in modo che un'elaborazione
+ * interrotta possa riprendere dall'ultima fase completata. I checkpoint delle singole miniature
+ * sono gestiti dalla coda distribuita ({@link CodaLavoriService}).
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class CheckpointService {
+
+    private final StatoElaborazioneRepository statoElaborazioneRepository;
+    private final MongoTemplate mongoTemplate;
+
+    public Optional<StatoElaborazione> trovaStato(List<String> codici) {
+        return statoElaborazioneRepository.findById(chiave(codici));
+    }
+
+    /**
+     * Registra l'avvio dell'estrazione sullo stato gia creato dal claim del pacchetto.
+     * Sovrascrive un eventuale stato AVVIATA rimasto da un crash.
+     */
+    public void avvia(List<String> codici) {
+        aggiornaStato(codici, new Update()
+                .set("fase", FaseElaborazioneEnum.AVVIATA)
+                .set("tiff_totali", 0)
+                .set("tiff_completati", 0));
+    }
+
+    /**
+     * Checkpoint dopo il salvataggio di metadati e metriche.
+     * @param tiffTotali numero di immagini di cui generare la miniatura
+     */
+    public void segnaMetadatiSalvati(List<String> codici, int tiffTotali) {
+        aggiornaStato(codici, new Update()
+                .set("fase", FaseElaborazioneEnum.METADATI_SALVATI)
+                .set("tiff_totali", tiffTotali));
+    }
+
+    /**
+     * @param tiffInErrore immagini di cui la miniatura non è stata generata
+     */
+    public void completa(List<String> codici, long tiffInErrore) {
+        aggiornaStato(codici, new Update()
+                .set("fase", FaseElaborazioneEnum.COMPLETATA)
+                .set("tiff_in_errore", tiffInErrore)
+                .unset("proprietario")
+                .unset("scadenza_lease"));
+    }
+
+    public void elimina(List<String> codici) {
+        statoElaborazioneRepository.deleteById(chiave(codici));
+    }
+
+    public void eliminaTutto() {
+        statoElaborazioneRepository.deleteAll();
+    }
+
+    private void aggiornaStato(List<String> codici, Update update) {
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(chiave(codici))),
+                update.set("data_aggiornamento", LocalDateTime.now()),
+                StatoElaborazione.class
+        );
+    }
+
+    static String chiave(List<String> codici) {
+        return String.join("/", codici);
+    }
+}
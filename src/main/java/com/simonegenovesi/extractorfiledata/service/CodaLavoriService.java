@@ -0,0 +1,371 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.mongodb.client.result.UpdateResult;
+import com.simonegenovesi.extractorfiledata.entity.LavoroThumbnail;
+import com.simonegenovesi.extractorfiledata.entity.StatoElaborazione;
+import com.simonegenovesi.extractorfiledata.util.enumerated.FaseElaborazioneEnum;
+import com.simonegenovesi.extractorfiledata.util.enumerated.StatoLavoroEnum;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Coda di lavoro distribuita su Mongo, basata su lease.
+ * <p>
+ * Più nodi che condividono lo stesso database e lo stesso volume reclamano pacchetti e singole immagini
+ * con {@code findAndModify} atomici. Ogni claim ha una scadenza che il nodo proprietario rinnova con
+ * un heartbeat; se il nodo muore, il lease scade e il lavoro torna reclamabile da un altro nodo.
+ * <p>
+ * Il lease di un pacchetto non è rientrante: ogni claim riceve un token, e rilascio e rinnovo agiscono solo sul
+ * lease con quel token. Due richieste per lo stesso pacchetto sullo stesso nodo si escludono come su nodi diversi.
+ */
+@Service
+@Slf4j
+public class CodaLavoriService {
+
+    private static final int MAX_TENTATIVI = 3;
+
+    private final MongoTemplate mongoTemplate;
+
+    @Getter
+    private final String nodoId;
+    private final Duration durataLease;
+
+    // token dei lease di pacchetto detenuti da questo nodo, rinnovati dall'heartbeat
+    private final Set<String> leaseAttivi = ConcurrentHashMap.newKeySet();
+    // immagini reclamate da questo nodo e non ancora completate o rilasciate, rinnovate dall'heartbeat
+    private final Set<String> lavoriAttivi = ConcurrentHashMap.newKeySet();
+
+    public CodaLavoriService(
+            MongoTemplate mongoTemplate,
+            @Value("${cluster.nodo-id:#{null}}") String nodoId,
+            @Value("${cluster.lease-secondi:60}") long leaseSecondi
+    ) {
+        this.mongoTemplate = mongoTemplate;
+        this.nodoId = nodoId != null ? nodoId : ManagementFactory.getRuntimeMXBean().getName(); // pid@hostname
+        this.durataLease = Duration.ofSeconds(leaseSecondi);
+        log.info("Nodo di elaborazione: {}", this.nodoId);
+    }
+
+    /**
+     * Reclama il pacchetto per l'estrazione. Riesce se il pacchetto non ha uno stato o se il suo lease è
+     * scaduto, anche se era di questo nodo, ma non se è completato o in eliminazione; l'upsert sull'_id rende il
+     * claim atomico anche tra nodi.
+     * @return token del lease, da passare a {@link #rilasciaPacchetto}; null se il claim non è riuscito
+     */
+    public String acquisisciPacchetto(List<String> codici) {
+        var adesso = Instant.now();
+        return acquisisci(codici, Criteria.where("_id").is(CheckpointService.chiave(codici))
+                .and("fase").nin(FaseElaborazioneEnum.COMPLETATA, FaseElaborazioneEnum.IN_ELIMINAZIONE)
+                .orOperator(
+                        Criteria.where("proprietario").is(null),
+                        Criteria.where("scadenza_lease").lt(adesso)
+                ), new Update().setOnInsert("fase", FaseElaborazioneEnum.AVVIATA), adesso);
+    }
+
+    /**
+     * Claim per l'eliminazione del pacchetto: riesce anche se il pacchetto è completato, ma non se è in
+     * elaborazione, neppure su questo nodo. Porta il pacchetto nella fase {@code IN_ELIMINAZIONE}, che resta
+     * anche se il lease scade: un'eliminazione interrotta si riprende con una nuova eliminazione, non con
+     * un'estrazione.
+     * @return token del lease, null se il claim non è riuscito
+     */
+    public String acquisisciPerEliminazione(List<String> codici) {
+        var adesso = Instant.now();
+        return acquisisci(codici, Criteria.where("_id").is(CheckpointService.chiave(codici))
+                .orOperator(
+                        Criteria.where("proprietario").is(null),
+                        Criteria.where("scadenza_lease").lt(adesso)
+                ), new Update().set("fase", FaseElaborazioneEnum.IN_ELIMINAZIONE), adesso);
+    }
+
+    private String acquisisci(List<String> codici, Criteria criteri, Update update, Instant adesso) {
+        var token = UUID.randomUUID().toString();
+        var query = Query.query(criteri);
+        update.set("proprietario", nodoId)
+                .set("token_lease", token)
+                .set("scadenza_lease", adesso.plus(durataLease))
+                .set("data_aggiornamento", LocalDateTime.now())
+                .setOnInsert("codice_cantiere", codici.get(0))
+                .setOnInsert("codice_lotto", codici.get(1))
+                .setOnInsert("codice_pacchetto", codici.get(2));
+        try {
+            mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), StatoElaborazione.class);
+            leaseAttivi.add(token);
+            return token;
+        } catch (DuplicateKeyException e) {
+            // il documento esiste ma il lease è valido (di un altro claim, anche di questo nodo)
+            return null;
+        }
+    }
+
+    /**
+     * Rilascia il lease del pacchetto solo se è ancora quello del claim: un lease scaduto e reclamato da
+     * un'altra richiesta non viene toccato. Se l'aggiornamento fallisce il lease non è più rinnovato e scade da solo.
+     */
+    public void rilasciaPacchetto(List<String> codici, String token) {
+        leaseAttivi.remove(token);
+        try {
+            mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(CheckpointService.chiave(codici)).and("token_lease").is(token)),
+                    new Update().unset("proprietario").unset("scadenza_lease").unset("token_lease"),
+                    StatoElaborazione.class
+            );
+        } catch (RuntimeException e) {
+            log.error("Rilascio del lease di {} non riuscito: scadrà entro {}", CheckpointService.chiave(codici), durataLease, e);
+        }
+    }
+
+    /**
+     * Accoda un lavoro per ogni immagine. I lavori già presenti (es. completati prima di un crash)
+     * non vengono toccati.
+     */
+    public void accodaThumbnail(List<String> codici, List<File> immagini) {
+        if (immagini.isEmpty()) {
+            return;
+        }
+        var bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, LavoroThumbnail.class);
+        for (var immagine : immagini) {
+            bulk.upsert(
+                    Query.query(Criteria.where("_id").is(immagine.getAbsolutePath())),
+                    new Update()
+                            .setOnInsert("codice_cantiere", codici.get(0))
+                            .setOnInsert("codice_lotto", codici.get(1))
+                            .setOnInsert("codice_pacchetto", codici.get(2))
+                            .setOnInsert("stato", StatoLavoroEnum.IN_ATTESA)
+                            .setOnInsert("tentativi", 0)
+            );
+        }
+        bulk.execute();
+    }
+
+    /**
+     * Reclama fino a {@code max} immagini in attesa o con lease scaduto. Un lease scaduto con
+     * {@value #MAX_TENTATIVI} tentativi non si reclama più: il file ha fatto cadere ogni nodo che lo ha elaborato
+     * (es. memoria esaurita) e il lavoro passa in ERRORE.
+     * @param codici pacchetto di cui reclamare i lavori, oppure null per qualsiasi pacchetto
+     */
+    public List<LavoroThumbnail> acquisisciThumbnail(List<String> codici, int max) {
+        List<LavoroThumbnail> lavori = new ArrayList<>();
+        while (lavori.size() < max) {
+            var adesso = Instant.now();
+            var criteria = new Criteria().orOperator(
+                    Criteria.where("stato").is(StatoLavoroEnum.IN_ATTESA),
+                    Criteria.where("stato").is(StatoLavoroEnum.IN_CORSO).and("scadenza_lease").lt(adesso)
+                            .and("tentativi").lt(MAX_TENTATIVI)
+            );
+            if (codici != null) {
+                criteria = perPacchetto(criteria, codici);
+            }
+            var lavoro = mongoTemplate.findAndModify(
+                    Query.query(criteria),
+                    new Update()
+                            .set("stato", StatoLavoroEnum.IN_CORSO)
+                            .set("proprietario", nodoId)
+                            .set("scadenza_lease", adesso.plus(durataLease))
+                            .inc("tentativi", 1),
+                    FindAndModifyOptions.options().returnNew(true),
+                    LavoroThumbnail.class
+            );
+            if (lavoro == null) {
+                break;
+            }
+            lavoriAttivi.add(lavoro.getId());
+            lavori.add(lavoro);
+        }
+        if (lavori.isEmpty()) {
+            // senza questi il pacchetto resterebbe in attesa fino al prossimo heartbeat
+            chiudiLavoriEsauriti(codici);
+        }
+        return lavori;
+    }
+
+    /**
+     * Porta in ERRORE i lavori con lease scaduto che hanno esaurito i tentativi.
+     * @param codici pacchetto dei lavori, oppure null per qualsiasi pacchetto
+     */
+    private void chiudiLavoriEsauriti(List<String> codici) {
+        var criteria = Criteria.where("stato").is(StatoLavoroEnum.IN_CORSO)
+                .and("scadenza_lease").lt(Instant.now())
+                .and("tentativi").gte(MAX_TENTATIVI);
+        if (codici != null) {
+            criteria = perPacchetto(criteria, codici);
+        }
+        var result = mongoTemplate.updateMulti(Query.query(criteria),
+                new Update().set("stato", StatoLavoroEnum.ERRORE).unset("proprietario").unset("scadenza_lease"),
+                LavoroThumbnail.class);
+        if (result.getModifiedCount() > 0) {
+            log.warn("{} miniature in ERRORE dopo {} tentativi interrotti", result.getModifiedCount(), MAX_TENTATIVI);
+        }
+    }
+
+    private static Criteria perPacchetto(Criteria criteria, List<String> codici) {
+        return criteria.and("codice_cantiere").is(codici.get(0))
+                .and("codice_lotto").is(codici.get(1))
+                .and("codice_pacchetto").is(codici.get(2));
+    }
+
+    /**
+     * Segna l'immagine come completata e aggiorna il contatore del suo pacchetto.
+     */
+    public void segnaThumbnailCompletata(LavoroThumbnail lavoro) {
+        UpdateResult result;
+        try {
+            result = mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(lavoro.getId()).and("proprietario").is(nodoId)),
+                    new Update()
+                            .set("stato", StatoLavoroEnum.COMPLETATO)
+                            .set("data_completamento", Instant.now())
+                            .unset("proprietario")
+                            .unset("scadenza_lease"),
+                    LavoroThumbnail.class
+            );
+        } finally {
+            lavoriAttivi.remove(lavoro.getId());
+        }
+        if (result.getModifiedCount() == 0) {
+            // lease perso (es. pausa GC oltre la scadenza): un altro nodo ha rielaborato il file
+            log.warn("Lease perso per {}, completamento non registrato da questo nodo.", lavoro.getId());
+            return;
+        }
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(String.join("/",
+                        lavoro.getCodiceCantiere(), lavoro.getCodiceLotto(), lavoro.getCodicePacchetto()))),
+                new Update().inc("tiff_completati", 1).set("data_aggiornamento", LocalDateTime.now()),
+                StatoElaborazione.class
+        );
+    }
+
+    /**
+     * Restituisce alla coda i lavori non completati dopo un errore; oltre {@value #MAX_TENTATIVI}
+     * tentativi il lavoro passa in ERRORE per non bloccare il pacchetto all'infinito. Il lavoro smette comunque di
+     * essere rinnovato dall'heartbeat: se l'aggiornamento fallisce, il suo lease scade e torna reclamabile.
+     */
+    public void rilasciaThumbnail(List<LavoroThumbnail> lavori) {
+        rilasciaThumbnail(lavori, null);
+    }
+
+    /**
+     * Come {@link #rilasciaThumbnail(List)}, registrando sui lavori l'errore che li ha fatti fallire.
+     */
+    public void rilasciaThumbnail(List<LavoroThumbnail> lavori, String errore) {
+        for (var lavoro : lavori) {
+            var prossimoStato = lavoro.getTentativi() >= MAX_TENTATIVI ? StatoLavoroEnum.ERRORE : StatoLavoroEnum.IN_ATTESA;
+            var update = new Update().set("stato", prossimoStato).unset("proprietario").unset("scadenza_lease");
+            if (errore != null) {
+                update.set("errore", errore);
+            }
+            try {
+                mongoTemplate.updateFirst(
+                        Query.query(Criteria.where("_id").is(lavoro.getId())
+                                .and("proprietario").is(nodoId)
+                                .and("stato").is(StatoLavoroEnum.IN_CORSO)),
+                        update,
+                        LavoroThumbnail.class
+                );
+            } catch (RuntimeException e) {
+                log.error("Rilascio di {} non riuscito: il lease scadrà entro {}", lavoro.getId(), durataLease, e);
+            } finally {
+                lavoriAttivi.remove(lavoro.getId());
+            }
+        }
+    }
+
+    /**
+     * @return numero di immagini del pacchetto ancora in attesa o in corso su qualsiasi nodo
+     */
+    public long thumbnailDaCompletare(List<String> codici) {
+        return mongoTemplate.count(
+                Query.query(Criteria.where("codice_cantiere").is(codici.get(0))
+                        .and("codice_lotto").is(codici.get(1))
+                        .and("codice_pacchetto").is(codici.get(2))
+                        .and("stato").in(StatoLavoroEnum.IN_ATTESA, StatoLavoroEnum.IN_CORSO)),
+                LavoroThumbnail.class
+        );
+    }
+
+    /**
+     * @return numero di immagini del pacchetto passate in ERRORE dopo tutti i tentativi
+     */
+    public long thumbnailInErrore(List<String> codici) {
+        return mongoTemplate.count(
+                Query.query(perPacchetto(Criteria.where("stato").is(StatoLavoroEnum.ERRORE), codici)),
+                LavoroThumbnail.class
+        );
+    }
+
+    /**
+     * Heartbeat: rinnova i lease dei pacchetti reclamati da questo nodo, per token, e delle immagini che sta
+     * elaborando, per id. Un lavoro rimasto IN_CORSO a nome del nodo dopo un rilascio fallito non viene rinnovato.
+     * Porta inoltre in ERRORE i lavori scaduti senza tentativi rimasti, di qualsiasi pacchetto.
+     */
+    @Scheduled(fixedDelayString = "${cluster.heartbeat-secondi:20}", timeUnit = TimeUnit.SECONDS)
+    public void heartbeat() {
+        var scadenza = Instant.now().plus(durataLease);
+        try {
+            var token = List.copyOf(leaseAttivi);
+            if (!token.isEmpty()) {
+                mongoTemplate.updateMulti(
+                        Query.query(Criteria.where("token_lease").in(token)),
+                        new Update().set("scadenza_lease", scadenza),
+                        StatoElaborazione.class
+                );
+            }
+            var lavori = List.copyOf(lavoriAttivi);
+            if (!lavori.isEmpty()) {
+                mongoTemplate.updateMulti(
+                        Query.query(Criteria.where("_id").in(lavori)
+                                .and("proprietario").is(nodoId)
+                                .and("stato").is(StatoLavoroEnum.IN_CORSO)),
+                        new Update().set("scadenza_lease", scadenza),
+                        LavoroThumbnail.class
+                );
+            }
+            chiudiLavoriEsauriti(null);
+        } catch (Exception e) {
+            log.error("Errore durante il rinnovo dei lease del nodo {}", nodoId, e);
+        }
+    }
+
+    /**
+     * Elimina i lavori del pacchetto con un'unica cancellazione sull'indice del pacchetto, dopo averne passato i
+     * percorsi delle immagini letti su un cursore.
+     * @param immagini riceve il percorso dell'immagine di ogni lavoro
+     * @return numero di lavori eliminati
+     */
+    public long eliminaPacchetto(List<String> codici, Consumer<String> immagini) {
+        var query = Query.query(perPacchetto(new Criteria(), codici));
+        query.fields().include("_id");
+        try (var lavori = mongoTemplate.stream(query.cursorBatchSize(500), LavoroThumbnail.class)) {
+            lavori.forEach(lavoro -> immagini.accept(lavoro.getId()));
+        }
+        return mongoTemplate.remove(query, LavoroThumbnail.class).getDeletedCount();
+    }
+
+    public void eliminaTutto() {
+        mongoTemplate.remove(new Query(), LavoroThumbnail.class);
+    }
+}
@@ -0,0 +1,225 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.simonegenovesi.extractorfiledata.event.DatiAggiornatiEvent;
+import com.simonegenovesi.extractorfiledata.exceptions.PacchettoInElaborazioneException;
+import com.simonegenovesi.extractorfiledata.payload.response.EliminazioneResponse;
+import com.simonegenovesi.extractorfiledata.repository.LogRepository;
+import com.simonegenovesi.extractorfiledata.repository.MetricaRepository;
+import com.simonegenovesi.extractorfiledata.util.ControlloIo;
+import com.simonegenovesi.extractorfiledata.util.enumerated.MimeTypeEnum;
+import com.simonegenovesi.extractorfiledata.util.enumerated.StatoEliminazioneEnum;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static com.simonegenovesi.extractorfiledata.util.Elementi.CARTELLA_MINIATURE;
+
+/**
+ * Eliminazione in background di un singolo pacchetto: miniature su disco, metadati, metriche, log, lavori della coda
+ * e stato di elaborazione.
+ * <p>
+ * Il pacchetto viene reclamato come per l'estrazione, quindi non può essere eliminato mentre un nodo lo sta
+ * elaborando; il claim lo porta nella fase {@code IN_ELIMINAZIONE}, che l'estrazione rifiuta anche se il nodo che
+ * elimina muore e il lease scade. Le miniature vengono cancellate in parallelo sul pool di I/O, entro il limite del
+ * loro volume; i documenti con una cancellazione per collezione sugli indici del pacchetto. Lo stato delle
+ * eliminazioni è tenuto in memoria su questo nodo: quelle terminate per {@code eliminazione.conservazione-minuti}.
+ */
+@Service
+@Slf4j
+public class EliminazioneService {
+
+    // eliminazioni di pacchetti diversi eseguite insieme; le successive restano in coda
+    private static final int ELIMINAZIONI_CONCORRENTI = 2;
+
+    private final ArchivioRisorseService archivioRisorseService;
+    private final MetricaRepository metricheRepository;
+    private final LogRepository logRepository;
+    private final CheckpointService checkpointService;
+    private final CodaLavoriService codaLavoriService;
+    private final ControlloIo controlloIo;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final Map<String, EliminazioneResponse> inCorso = new ConcurrentHashMap<>();
+    private final Cache<String, EliminazioneResponse> terminate;
+    private final ExecutorService esecutore;
+
+    public EliminazioneService(
+            ArchivioRisorseService archivioRisorseService,
+            MetricaRepository metricheRepository,
+            LogRepository logRepository,
+            CheckpointService checkpointService,
+            CodaLavoriService codaLavoriService,
+            ControlloIo controlloIo,
+            ApplicationEventPublisher eventPublisher,
+            @Value("${eliminazione.conservazione-minuti:60}") long conservazioneMinuti
+    ) {
+        this.archivioRisorseService = archivioRisorseService;
+        this.metricheRepository = metricheRepository;
+        this.logRepository = logRepository;
+        this.checkpointService = checkpointService;
+        this.codaLavoriService = codaLavoriService;
+        this.controlloIo = controlloIo;
+        this.eventPublisher = eventPublisher;
+        this.terminate = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(Duration.ofMinutes(conservazioneMinuti))
+                .build();
+        var contatore = new AtomicInteger();
+        this.esecutore = Executors.newFixedThreadPool(ELIMINAZIONI_CONCORRENTI, runnable -> {
+            var t = new Thread(runnable, "eliminazione-" + contatore.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Avvia l'eliminazione del pacchetto; se è già in corso su questo nodo ne restituisce lo stato.
+     * @throws PacchettoInElaborazioneException se il pacchetto è in elaborazione
+     */
+    public EliminazioneResponse avvia(List<String> codici) {
+        var chiave = CheckpointService.chiave(codici);
+        var corrente = inCorso.get(chiave);
+        if (corrente != null) {
+            return corrente;
+        }
+        // il claim su Mongo precede la registrazione: nessun lock della mappa resta preso durante l'I/O
+        var lease = codaLavoriService.acquisisciPerEliminazione(codici);
+        if (lease == null) {
+            corrente = inCorso.get(chiave);
+            if (corrente != null) {
+                return corrente;
+            }
+            throw new PacchettoInElaborazioneException("Il pacchetto " + chiave + " è in elaborazione e non può essere eliminato.");
+        }
+        var risposta = EliminazioneResponse.builder()
+                .codiceCantiere(codici.get(0))
+                .codiceLotto(codici.get(1))
+                .codicePacchetto(codici.get(2))
+                .stato(StatoEliminazioneEnum.IN_CORSO.name())
+                .build();
+        // il lease non è rientrante: nessun'altra richiesta può aver registrato la stessa chiave
+        inCorso.put(chiave, risposta);
+        esecutore.execute(() -> elimina(codici, chiave, lease));
+        return risposta;
+    }
+
+    public Optional<EliminazioneResponse> stato(List<String> codici) {
+        var chiave = CheckpointService.chiave(codici);
+        return Optional.ofNullable(inCorso.get(chiave)).or(() -> Optional.ofNullable(terminate.getIfPresent(chiave)));
+    }
+
+    @PreDestroy
+    public void chiudi() {
+        esecutore.shutdown();
+    }
+
+    private void elimina(List<String> codici, String chiave, String lease) {
+        var start = System.nanoTime();
+        var risposta = EliminazioneResponse.builder()
+                .codiceCantiere(codici.get(0))
+                .codiceLotto(codici.get(1))
+                .codicePacchetto(codici.get(2));
+        try {
+            log.info("Eliminazione del pacchetto {}...", chiave);
+            // le immagini si leggono prima di eliminare metadati e lavori che le elencano; dei loro percorsi,
+            // letti un batch alla volta, restano in memoria solo le cartelle distinte
+            Set<Path> cartelle = new TreeSet<>();
+            archivioRisorseService.perUrl(codici, MimeTypeEnum.formatiRaster(), url -> aggiungiCartella(cartelle, url));
+            var lavori = codaLavoriService.eliminaPacchetto(codici, url -> aggiungiCartella(cartelle, url));
+
+            risposta.miniatureEliminate(eliminaMiniature(cartelle))
+                    .metadatiEliminati(archivioRisorseService.eliminaPacchetto(codici))
+                    .metricheEliminate(metricheRepository.deleteByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+                            codici.get(0), codici.get(1), codici.get(2)))
+                    .logEliminati(logRepository.deleteByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+                            codici.get(0), codici.get(1), codici.get(2)))
+                    .lavoriEliminati(lavori);
+            checkpointService.elimina(codici);
+            eventPublisher.publishEvent(new DatiAggiornatiEvent(codici));
+            risposta.stato(StatoEliminazioneEnum.COMPLETATA.name());
+            log.info("Pacchetto {} eliminato in {} secondi", chiave, (System.nanoTime() - start) / 1_000_000_000.0);
+        } catch (RuntimeException e) {
+            log.error("Errore durante l'eliminazione del pacchetto {}", chiave, e);
+            risposta.stato(StatoEliminazioneEnum.ERRORE.name()).errore(e.getMessage());
+        } finally {
+            codaLavoriService.rilasciaPacchetto(codici, lease);
+            terminate.put(chiave, risposta.secondi((System.nanoTime() - start) / 1_000_000_000.0).build());
+            inCorso.remove(chiave);
+        }
+    }
+
+    private static void aggiungiCartella(Set<Path> cartelle, String immagine) {
+        var cartella = Path.of(immagine).getParent();
+        if (cartella != null) {
+            cartelle.add(cartella.resolve(CARTELLA_MINIATURE));
+        }
+    }
+
+    /**
+     * Cancella in parallelo i file delle cartelle delle miniature, poi le cartelle dalla più profonda.
+     * @return numero di file eliminati
+     */
+    private long eliminaMiniature(Set<Path> cartelle) {
+        List<Path> file = new ArrayList<>();
+        List<Path> sottocartelle = new ArrayList<>();
+        for (var cartella : cartelle) {
+            if (!Files.isDirectory(cartella)) {
+                continue;
+            }
+            try (Stream<Path> elenco = Files.walk(cartella)) {
+                elenco.forEach(path -> (Files.isDirectory(path) ? sottocartelle : file).add(path));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cartella delle miniature non leggibile: " + cartella, e);
+            }
+        }
+
+        var eliminazioniFile = file.stream()
+                .map(path -> CompletableFuture.supplyAsync(() -> eliminaFile(path), controlloIo.getEsecutore()))
+                .toList();
+        var eliminati = eliminazioniFile.stream().map(CompletableFuture::join).filter(Boolean::booleanValue).count();
+
+        sottocartelle.stream()
+                .sorted(Comparator.comparingInt(Path::getNameCount).reversed())
+                .forEach(EliminazioneService::eliminaCartella);
+        return eliminati;
+    }
+
+    private boolean eliminaFile(Path path) {
+        try {
+            return controlloIo.perCartella(path.getParent()).esegui(() -> Files.deleteIfExists(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Miniatura non eliminabile: " + path, e);
+        }
+    }
+
+    private static void eliminaCartella(Path cartella) {
+        try {
+            Files.deleteIfExists(cartella);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cartella delle miniature non eliminabile: " + cartella, e);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.mongodb.client.MongoCursor;
+import com.simonegenovesi.extractorfiledata.entity.Metrica;
+import com.simonegenovesi.extractorfiledata.payload.request.EsportazioneRequest;
+import com.simonegenovesi.extractorfiledata.payload.response.EsportazioneResponse;
+import com.simonegenovesi.extractorfiledata.util.ScrittoreEsportazione;
+import com.simonegenovesi.extractorfiledata.util.enumerated.DatiEsportazioneEnum;
+import com.simonegenovesi.extractorfiledata.util.enumerated.FormatoEsportazioneEnum;
+import com.simonegenovesi.extractorfiledata.util.enumerated.StatoEsportazioneEnum;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Esportazione in background di metadati e metriche in file NDJSON o CSV compressi gzip.
+ * <p>
+ * I documenti arrivano da un cursore Mongo con batch di {@code esportazione.batch} documenti e vengono serializzati
+ * uno alla volta dal BSON grezzo, senza entità né liste intermedie: l'heap usato non dipende dalla dimensione della
+ * collezione. I file sono divisi a circa {@code esportazione.dimensione-file-mb} MB compressi e, se richiesto,
+ * partizionati in cartelle {@code cantiere=<codice>/lotto=<codice>}. Lo stato delle esportazioni è tenuto in memoria
+ * su questo nodo.
+ */
+@Service
+@Slf4j
+public class EsportazioneService {
+
+    private static final JsonWriterSettings JSON = JsonWriterSettings.builder()
+            .outputMode(JsonMode.RELAXED)
+            .objectIdConverter((valore, writer) -> writer.writeString(valore.toHexString()))
+            .build();
+
+    private static final DateTimeFormatter FORMATO_ID = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final ArchivioRisorseService archivioRisorseService;
+    private final MongoTemplate mongoTemplate;
+    private final Path cartella;
+    private final long dimensioneFile;
+    private final int batch;
+
+    private final Map<String, Esportazione> esportazioni = new ConcurrentHashMap<>();
+    private final AtomicInteger contatore = new AtomicInteger();
+    private final ExecutorService esecutore = Executors.newSingleThreadExecutor(runnable -> {
+        var t = new Thread(runnable, "esportazione");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public EsportazioneService(
+            ArchivioRisorseService archivioRisorseService,
+            MongoTemplate mongoTemplate,
+            @Value("${esportazione.cartella:${java.io.tmpdir}/esportazioni}") String cartella,
+            @Value("${esportazione.dimensione-file-mb:256}") long dimensioneFileMb,
+            @Value("${esportazione.batch:1000}") int batch
+    ) {
+        this.archivioRisorseService = archivioRisorseService;
+        this.mongoTemplate = mongoTemplate;
+        this.cartella = Path.of(cartella);
+        this.dimensioneFile = dimensioneFileMb * 1024 * 1024;
+        this.batch = batch;
+    }
+
+    /**
+     * Accoda l'esportazione; le esportazioni vengono eseguite una alla volta.
+     */
+    public EsportazioneResponse avvia(EsportazioneRequest request) {
+        var dati = request.getDati() != null ? request.getDati() : DatiEsportazioneEnum.METADATI;
+        var formato = request.getFormato() != null ? request.getFormato() : FormatoEsportazioneEnum.NDJSON;
+        var id = LocalDateTime.now().format(FORMATO_ID) + "-" + contatore.incrementAndGet();
+        var intestazione = formato == FormatoEsportazioneEnum.CSV
+                ? dati.getColonne().stream().map(EsportazioneService::csv).collect(Collectors.joining(","))
+                : null;
+        var esportazione = new Esportazione(id, dati, formato, Boolean.TRUE.equals(request.getPartizionata()),
+                filtro(dati, request), new ScrittoreEsportazione(cartella.resolve(id), dati.name().toLowerCase(),
+                formato.getEstensione(), dimensioneFile, intestazione));
+        esportazioni.put(id, esportazione);
+        esecutore.execute(() -> esegui(esportazione));
+        return esportazione.risposta();
+    }
+
+    public Optional<EsportazioneResponse> stato(String id) {
+        return Optional.ofNullable(esportazioni.get(id)).map(Esportazione::risposta);
+    }
+
+    @PreDestroy
+    public void chiudi() {
+        esecutore.shutdownNow();
+    }
+
+    private void esegui(Esportazione esportazione) {
+        esportazione.inizio = System.nanoTime();
+        log.info("Esportazione {} di {} in {}...", esportazione.id, esportazione.dati, esportazione.formato);
+        try (var scrittore = esportazione.scrittore; var documenti = cursore(esportazione)) {
+            while (documenti.hasNext()) {
+                var documento = documenti.next();
+                // tipo dell'entità per il mapping di Spring Data, non un dato
+                documento.remove("_class");
+                var partizione = esportazione.partizionata ? partizione(esportazione.dati, documento) : null;
+                scrittore.scrivi(partizione, esportazione.formato == FormatoEsportazioneEnum.CSV
+                        ? rigaCsv(esportazione.dati, documento)
+                        : documento.toJson(JSON));
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("Esportazione interrotta");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Errore durante l'esportazione {}", esportazione.id, e);
+            esportazione.errore = e.getMessage();
+        } finally {
+            esportazione.fine = System.nanoTime();
+            var risposta = esportazione.risposta();
+            log.info("Esportazione {} {}: {} documenti, {} file, {} MB in {} secondi ({} MB/s)", esportazione.id,
+                    risposta.getStato(), risposta.getDocumenti(), risposta.getFile().size(),
+                    risposta.getByteNonCompressi() / 1_048_576.0, risposta.getSecondi(), risposta.getMbAlSecondo());
+        }
+    }
+
+    private MongoCursor<Document> cursore(Esportazione esportazione) {
+        if (esportazione.dati == DatiEsportazioneEnum.METADATI) {
+            return archivioRisorseService.cursore(esportazione.filtro, batch);
+        }
+        var dati = esportazione.dati;
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Metrica.class))
+                .find(esportazione.filtro)
+                .sort(new Document(dati.getCampoCantiere(), 1).append(dati.getCampoLotto(), 1).append("cod_pacchetto", 1))
+                .batchSize(batch)
+                .cursor();
+    }
+
+    private static Document filtro(DatiEsportazioneEnum dati, EsportazioneRequest request) {
+        var filtro = new Document();
+        if (request.getCantiere() != null) {
+            filtro.append(dati.getCampoCantiere(), request.getCantiere());
+        }
+        if (request.getLotto() != null) {
+            filtro.append(dati.getCampoLotto(), request.getLotto());
+        }
+        return filtro;
+    }
+
+    private static String partizione(DatiEsportazioneEnum dati, Document documento) {
+        return "cantiere=" + segmento(documento.getString(dati.getCampoCantiere()))
+                + "/lotto=" + segmento(documento.getString(dati.getCampoLotto()));
+    }
+
+    /**
+     * Codice usabile come nome di cartella: niente separatori né risalite.
+     */
+    private static String segmento(String codice) {
+        if (codice == null || codice.isBlank()) {
+            return "_";
+        }
+        var segmento = codice.replaceAll("[/\\\\:]", "_");
+        return segmento.equals("..") || segmento.equals(".") ? "_" : segmento;
+    }
+
+    private static String rigaCsv(DatiEsportazioneEnum dati, Document documento) {
+        var riga = new StringBuilder(256);
+        for (var colonna : dati.getColonne()) {
+            if (!riga.isEmpty()) {
+                riga.append(',');
+            }
+            var valore = documento.getEmbedded(Arrays.asList(colonna.split("\\.")), Object.class);
+            if (valore != null) {
+                riga.append(csv(valore.toString()));
+            }
+        }
+        return riga.toString();
+    }
+
+    private static String csv(String valore) {
+        if (valore.indexOf(',') < 0 && valore.indexOf('"') < 0 && valore.indexOf('\n') < 0 && valore.indexOf('\r') < 0) {
+            return valore;
+        }
+        return '"' + valore.replace("\"", "\"\"") + '"';
+    }
+
+    private class Esportazione {
+        private final String id;
+        private final DatiEsportazioneEnum dati;
+        private final FormatoEsportazioneEnum formato;
+        private final boolean partizionata;
+        private final Document filtro;
+        private final ScrittoreEsportazione scrittore;
+
+        private volatile long inizio;
+        private volatile long fine;
+        private volatile String errore;
+
+        Esportazione(String id, DatiEsportazioneEnum dati, FormatoEsportazioneEnum formato, boolean partizionata,
+                     Document filtro, ScrittoreEsportazione scrittore) {
+            this.id = id;
+            this.dati = dati;
+            this.formato = formato;
+            this.partizionata = partizionata;
+            this.filtro = filtro;
+            this.scrittore = scrittore;
+        }
+
+        EsportazioneResponse risposta() {
+            var stato = fine == 0 ? StatoEsportazioneEnum.IN_CORSO
+                    : errore == null ? StatoEsportazioneEnum.COMPLETATA : StatoEsportazioneEnum.ERRORE;
+            var secondi = inizio == 0 ? 0 : ((fine == 0 ? System.nanoTime() : fine) - inizio) / 1_000_000_000.0;
+            var byteNonCompressi = scrittore.getByteNonCompressi();
+            return EsportazioneResponse.builder()
+                    .id(id)
+                    .dati(dati.name())
+                    .formato(formato.name())
+                    .stato(stato.name())
+                    .cartella(cartella.resolve(id).toString())
+                    .documenti(scrittore.getRighe())
+                    .byteNonCompressi(byteNonCompressi)
+                    .byteCompressi(scrittore.getByteCompressi())
+                    .secondi(secondi)
+                    .mbAlSecondo(secondi > 0 ? byteNonCompressi / 1_048_576.0 / secondi : 0)
+                    .file(scrittore.getFile().stream().map(Path::toString).toList())
+                    .errore(errore)
+                    .build();
+        }
+    }
+}
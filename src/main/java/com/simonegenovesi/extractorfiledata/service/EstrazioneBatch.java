@@ -0,0 +1,83 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.config.IndiciMongo;
+import com.simonegenovesi.extractorfiledata.exceptions.DirectoryAlreadyProcessedException;
+import com.simonegenovesi.extractorfiledata.payload.request.MetadataRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Esecuzione da riga di comando, senza stack web: estrae i metadati dei path passati come argomenti ed esce.
+ * <p>
+ * {@code java -jar extractorfiledata.jar --spring.profiles.active=batch CA01/L01/PK01 CA01/L01/PK02}
+ * <p>
+ * Codice di uscita: 0 se tutti i pacchetti sono stati elaborati (o lo erano già), 1 se almeno uno è fallito,
+ * 2 se non è stato indicato alcun path.
+ */
+@Component
+@Profile("batch")
+@Slf4j
+@RequiredArgsConstructor
+public class EstrazioneBatch implements ApplicationRunner, ExitCodeGenerator {
+
+    private final MetadataService metadataService;
+    private final IndiciMongo indiciMongo;
+
+    private int codiceUscita;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        // uptime della JVM: include caricamento delle classi (o archivio CDS) e avvio del contesto
+        var avvioMs = ManagementFactory.getRuntimeMXBean().getUptime();
+        log.info("Avvio batch in {} ms", avvioMs);
+
+        var paths = args.getNonOptionArgs();
+        if (paths.isEmpty()) {
+            log.error("Nessun path da elaborare: indicare uno o più path relativi come argomenti.");
+            codiceUscita = 2;
+            return;
+        }
+
+        // il processo esce prima che la creazione in background degli indici possa partire: claim, checkpoint
+        // e salvataggi del batch devono già trovarli
+        var inizioIndici = System.nanoTime();
+        indiciMongo.verificaIndici();
+        log.info("Indici verificati in {} ms", (System.nanoTime() - inizioIndici) / 1_000_000);
+
+        var start = System.nanoTime();
+        long fileTotali = 0;
+        int falliti = 0;
+        for (var path : paths) {
+            var inizioPath = System.nanoTime();
+            try {
+                var file = metadataService.estraiMetadata(MetadataRequest.builder().path(path).build());
+                var secondi = (System.nanoTime() - inizioPath) / 1_000_000_000.0;
+                fileTotali += file;
+                log.info("{}: {} file in {} s ({} file/s)", path, file, String.format("%.1f", secondi),
+                        Math.round(file / Math.max(secondi, 0.001)));
+            } catch (DirectoryAlreadyProcessedException e) {
+                log.info("{}: già elaborato", path);
+            } catch (RuntimeException e) {
+                falliti++;
+                log.error("{}: elaborazione fallita", path, e);
+            }
+        }
+
+        var secondi = (System.nanoTime() - start) / 1_000_000_000.0;
+        log.info("Batch completato: {} path, {} falliti, {} file in {} s ({} file/s), avvio {} ms", paths.size(),
+                falliti, fileTotali, String.format("%.1f", secondi), Math.round(fileTotali / Math.max(secondi, 0.001)), avvioMs);
+        codiceUscita = falliti == 0 ? 0 : 1;
+    }
+
+    @Override
+    public int getExitCode() {
+        return codiceUscita;
+    }
+}
@@ -0,0 +1,266 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.exceptions.ThumbnailProcessingException;
+import com.simonegenovesi.extractorfiledata.util.ScrittoreJpeg;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageReader;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Genera la piramide Deep Zoom (DZI) di una pagina TIFF con una sola lettura a strisce della sorgente.
+ * <p>
+ * La pagina viene decodificata per regioni di {@code tile} righe; ogni livello accumula una striscia,
+ * ne scrive le tile e passa al livello inferiore la striscia dimezzata (media 2x2). Nessun livello
+ * viene calcolato dal raster intero: in memoria restano una striscia per livello e un numero limitato
+ * di tile in scrittura. Il livello più vicino al lato della miniatura viene conservato e restituito,
+ * così la miniatura non richiede una seconda decodifica.
+ */
+@Component
+@Slf4j
+public class GeneratorePiramide {
+
+    @Getter
+    private final boolean abilitata;
+    private final int dimensioneTile;
+    private final float qualita;
+    private final int maxTileInScrittura;
+    private final PipelineMiniature pipelineMiniature;
+
+    public GeneratorePiramide(
+            @Value("${thumbnail.piramide.abilitata:false}") boolean abilitata,
+            @Value("${thumbnail.piramide.tile:256}") int dimensioneTile,
+            @Value("${thumbnail.piramide.qualita:0.8}") float qualita,
+            PipelineMiniature pipelineMiniature
+    ) {
+        this.abilitata = abilitata;
+        this.dimensioneTile = dimensioneTile;
+        this.qualita = qualita;
+        this.pipelineMiniature = pipelineMiniature;
+        this.maxTileInScrittura = pipelineMiniature.getCodifica().getThread() * 4;
+    }
+
+    /**
+     * @param reader reader già posizionato sul TIFF
+     * @param pagina indice della pagina
+     * @param dzi percorso del descrittore {@code .dzi}; le tile vanno nella cartella {@code <nome>_files}
+     * @param latoAnteprima lato lungo minimo del livello da restituire per la miniatura
+     * @return il livello più piccolo con lato lungo almeno {@code latoAnteprima} (o l'originale, se più piccolo)
+     */
+    public BufferedImage genera(ImageReader reader, int pagina, Path dzi, int latoAnteprima) throws IOException {
+        var start = System.nanoTime();
+        var larghezza = reader.getWidth(pagina);
+        var altezza = reader.getHeight(pagina);
+        var livelloMax = 32 - Integer.numberOfLeadingZeros(Math.max(larghezza, altezza) - 1); // ceil(log2)
+        var cartellaTile = cartellaTile(dzi);
+        var scrittura = new Scrittura();
+
+        // catena dei livelli, dal massimo (risoluzione piena) a 0 (1x1)
+        Livello successivo = null;
+        Livello anteprima = null;
+        for (int l = 0; l <= livelloMax; l++) {
+            var scala = 1L << (livelloMax - l);
+            var livello = new Livello(l, (int) ((larghezza + scala - 1) / scala), (int) ((altezza + scala - 1) / scala),
+                    cartellaTile.resolve(String.valueOf(l)), successivo, scrittura);
+            Files.createDirectories(livello.cartella);
+            if (anteprima == null && (Math.max(livello.larghezza, livello.altezza) >= latoAnteprima || l == livelloMax)) {
+                livello.conservaImmagine();
+                anteprima = livello;
+            }
+            successivo = livello;
+        }
+        var livelloPieno = successivo;
+
+        var param = reader.getDefaultReadParam();
+        var striscia = new BufferedImage(larghezza, dimensioneTile, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < altezza; y += dimensioneTile) {
+            var righe = Math.min(dimensioneTile, altezza - y);
+            param.setSourceRegion(new Rectangle(0, y, larghezza, righe));
+            var regione = reader.read(pagina, param);
+            // conversione in RGB: rimuove anche l'eventuale canale alpha
+            var g = striscia.createGraphics();
+            try {
+                g.setColor(Color.BLACK);
+                g.fillRect(0, 0, larghezza, righe);
+                g.drawImage(regione, 0, 0, null);
+            } finally {
+                g.dispose();
+            }
+            livelloPieno.aggiungi(pixel(striscia), righe);
+        }
+        scrittura.attendi();
+
+        var temp = Files.createTempFile(dzi.getParent(), ".piramide", ".tmp");
+        try {
+            Files.writeString(temp, descrittore(larghezza, altezza), StandardCharsets.UTF_8);
+            Files.move(temp, dzi, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        log.info("Piramide {} generata: {} livelli, {} tile, in {} secondi", dzi.getFileName(), livelloMax + 1,
+                scrittura.tileScritte, (System.nanoTime() - start) / 1_000_000_000.0);
+        return anteprima.immagine;
+    }
+
+    /**
+     * Cartella delle tile associata a un descrittore: {@code <nome>.dzi} → {@code <nome>_files}.
+     */
+    public static Path cartellaTile(Path dzi) {
+        var nome = dzi.getFileName().toString();
+        return dzi.resolveSibling(nome.substring(0, nome.lastIndexOf('.')) + "_files");
+    }
+
+    private String descrittore(int larghezza, int altezza) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" TileSize=\"" + dimensioneTile
+                + "\" Overlap=\"0\" Format=\"jpg\">\n"
+                + "  <Size Width=\"" + larghezza + "\" Height=\"" + altezza + "\"/>\n"
+                + "</Image>\n";
+    }
+
+    private static int[] pixel(BufferedImage immagine) {
+        return ((DataBufferInt) immagine.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Riduzione 2x con media dei 2x2 pixel sorgente (box filter); ai bordi dispari si replica l'ultimo pixel.
+     */
+    private static int[] dimezza(int[] sorgente, int larghezza, int righe) {
+        var larghezzaRidotta = (larghezza + 1) / 2;
+        var righeRidotte = (righe + 1) / 2;
+        var ridotta = new int[larghezzaRidotta * righeRidotte];
+        for (int y = 0; y < righeRidotte; y++) {
+            var riga0 = 2 * y * larghezza;
+            var riga1 = Math.min(2 * y + 1, righe - 1) * larghezza;
+            for (int x = 0; x < larghezzaRidotta; x++) {
+                var x0 = 2 * x;
+                var x1 = Math.min(2 * x + 1, larghezza - 1);
+                int p00 = sorgente[riga0 + x0], p01 = sorgente[riga0 + x1];
+                int p10 = sorgente[riga1 + x0], p11 = sorgente[riga1 + x1];
+                var r = (((p00 >> 16) & 0xff) + ((p01 >> 16) & 0xff) + ((p10 >> 16) & 0xff) + ((p11 >> 16) & 0xff) + 2) >> 2;
+                var gr = (((p00 >> 8) & 0xff) + ((p01 >> 8) & 0xff) + ((p10 >> 8) & 0xff) + ((p11 >> 8) & 0xff) + 2) >> 2;
+                var b = ((p00 & 0xff) + (p01 & 0xff) + (p10 & 0xff) + (p11 & 0xff) + 2) >> 2;
+                ridotta[y * larghezzaRidotta + x] = (r << 16) | (gr << 8) | b;
+            }
+        }
+        return ridotta;
+    }
+
+    /**
+     * Un livello della piramide: accumula righe fino a una striscia di tile e la inoltra dimezzata.
+     */
+    private class Livello {
+        private final int indice;
+        private final int larghezza;
+        private final int altezza;
+        private final Path cartella;
+        private final Livello inferiore;
+        private final Scrittura scrittura;
+        private final int[] buffer;
+        private int righe;
+        private int rigaTile;
+        private int righeRicevute;
+        private BufferedImage immagine; // solo per il livello dell'anteprima
+
+        Livello(int indice, int larghezza, int altezza, Path cartella, Livello inferiore, Scrittura scrittura) {
+            this.indice = indice;
+            this.larghezza = larghezza;
+            this.altezza = altezza;
+            this.cartella = cartella;
+            this.inferiore = inferiore;
+            this.scrittura = scrittura;
+            this.buffer = new int[larghezza * Math.min(dimensioneTile, altezza)];
+        }
+
+        void conservaImmagine() {
+            immagine = new BufferedImage(larghezza, altezza, BufferedImage.TYPE_INT_RGB);
+        }
+
+        void aggiungi(int[] pixel, int numRighe) throws IOException {
+            System.arraycopy(pixel, 0, buffer, righe * larghezza, numRighe * larghezza);
+            righe += numRighe;
+            righeRicevute += numRighe;
+            if (righe == dimensioneTile || righeRicevute == altezza) {
+                svuota();
+            }
+        }
+
+        private void svuota() throws IOException {
+            for (int x = 0, colonna = 0; x < larghezza; x += dimensioneTile, colonna++) {
+                var larghezzaTile = Math.min(dimensioneTile, larghezza - x);
+                var tile = new BufferedImage(larghezzaTile, righe, BufferedImage.TYPE_INT_RGB);
+                var destinazione = pixel(tile);
+                for (int r = 0; r < righe; r++) {
+                    System.arraycopy(buffer, r * larghezza + x, destinazione, r * larghezzaTile, larghezzaTile);
+                }
+                scrittura.scrivi(tile, cartella.resolve(colonna + "_" + rigaTile + ".jpg"));
+            }
+            if (immagine != null) {
+                System.arraycopy(buffer, 0, pixel(immagine), rigaTile * dimensioneTile * larghezza, righe * larghezza);
+            }
+            if (indice > 0) {
+                inferiore.aggiungi(dimezza(buffer, larghezza, righe), (righe + 1) / 2);
+            }
+            righe = 0;
+            rigaTile++;
+        }
+    }
+
+    /**
+     * Scritture JPEG parallele sullo stadio di codifica, con un limite di tile in volo che limita anche la memoria occupata.
+     */
+    private class Scrittura {
+        private final Semaphore permessi = new Semaphore(maxTileInScrittura);
+        private final AtomicReference<Exception> errore = new AtomicReference<>();
+        private int tileScritte;
+
+        void scrivi(BufferedImage tile, Path file) throws IOException {
+            verificaErrore();
+            try {
+                permessi.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ThumbnailProcessingException("Scrittura delle tile interrotta", e);
+            }
+            tileScritte++;
+            pipelineMiniature.getCodifica().execute(() -> {
+                try {
+                    ScrittoreJpeg.scrivi(tile, file, qualita);
+                } catch (Exception e) {
+                    errore.compareAndSet(null, e);
+                } finally {
+                    permessi.release();
+                }
+            });
+        }
+
+        void attendi() throws IOException {
+            try {
+                permessi.acquire(maxTileInScrittura);
+                permessi.release(maxTileInScrittura);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ThumbnailProcessingException("Scrittura delle tile interrotta", e);
+            }
+            verificaErrore();
+        }
+
+        private void verificaErrore() throws IOException {
+            if (errore.get() != null) {
+                throw new IOException("Errore nella scrittura delle tile", errore.get());
+            }
+        }
+    }
+}
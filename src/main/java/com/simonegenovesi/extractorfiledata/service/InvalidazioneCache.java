@@ -0,0 +1,52 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.config.CacheConfig;
+import com.simonegenovesi.extractorfiledata.event.DatiAggiornatiEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * Invalida le cache di lettura quando cambiano i dati: solo le voci del pacchetto interessato
+ * e le liste complete, oppure tutto se l'evento non indica un pacchetto.
+ * <p>
+ * L'invalidazione è locale al nodo: sugli altri nodi le voci scadono per TTL
+ * ({@code spring.cache.caffeine.spec}).
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class InvalidazioneCache {
+
+    private final CacheManager cacheManager;
+
+    @EventListener
+    public void onDatiAggiornati(DatiAggiornatiEvent event) {
+        cache(CacheConfig.STATISTICHE).ifPresent(Cache::clear);
+
+        if (event.codici() == null) {
+            cache(CacheConfig.METRICHE).ifPresent(Cache::clear);
+            cache(CacheConfig.RISORSE).ifPresent(Cache::clear);
+            log.info("Cache di lettura svuotate");
+            return;
+        }
+
+        var chiavePacchetto = String.join("/", event.codici());
+        for (var nome : new String[]{CacheConfig.METRICHE, CacheConfig.RISORSE}) {
+            cache(nome).ifPresent(cache -> {
+                cache.evict(chiavePacchetto);
+                cache.evict(CacheConfig.TUTTE);
+            });
+        }
+        log.info("Cache di lettura invalidate per il pacchetto {}", chiavePacchetto);
+    }
+
+    private Optional<Cache> cache(String nome) {
+        return Optional.ofNullable(cacheManager.getCache(nome));
+    }
+}
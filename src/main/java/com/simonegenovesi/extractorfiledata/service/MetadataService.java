@@ -1,18 +1,32 @@
 package com.simonegenovesi.extractorfiledata.service;
 
 import com.simonegenovesi.extractorfiledata.entity.Log;
+import com.simonegenovesi.extractorfiledata.entity.StatoElaborazione;
+import com.simonegenovesi.extractorfiledata.event.DatiAggiornatiEvent;
 import com.simonegenovesi.extractorfiledata.exceptions.DirectoryAlreadyProcessedException;
 import com.simonegenovesi.extractorfiledata.exceptions.InvalidPathException;
 import com.simonegenovesi.extractorfiledata.exceptions.NoFilesFoundException;
+import com.simonegenovesi.extractorfiledata.exceptions.PacchettoInElaborazioneException;
 import com.simonegenovesi.extractorfiledata.payload.request.MetadataRequest;
 import com.simonegenovesi.extractorfiledata.repository.LogRepository;
-import com.simonegenovesi.extractorfiledata.repository.MetadatiRisorsaRepository;
 import com.simonegenovesi.extractorfiledata.repository.MetricaRepository;
+import com.simonegenovesi.extractorfiledata.util.Avanzamento;
+import com.simonegenovesi.extractorfiledata.util.ControlloIo;
+import com.simonegenovesi.extractorfiledata.util.ElencoFile;
+import com.simonegenovesi.extractorfiledata.util.RilevamentoFormato;
+import com.simonegenovesi.extractorfiledata.util.enumerated.FaseAvanzamentoEnum;
+import com.simonegenovesi.extractorfiledata.util.enumerated.FaseElaborazioneEnum;
+import com.simonegenovesi.extractorfiledata.util.enumerated.MimeTypeEnum;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import java.io.File;
+import java.time.Instant;
+import java.util.List;
+
 import static com.simonegenovesi.extractorfiledata.util.Codici.estraiCodici;
 import static com.simonegenovesi.extractorfiledata.util.Elementi.*;
 
@@ -24,36 +38,92 @@ public class MetadataService {
     @Value("${path.base::#{null}}") // Valore di default per Docker
     private String pathBase;
 
-    private final MetadatiRisorsaRepository metadatiRisorseRepository;
+    private final ArchivioRisorseService archivioRisorseService;
     private final MetricaRepository metricheRepository;
-    private final Thumbnail thumbnail;
     private final LogRepository logRepository;
+    private final CheckpointService checkpointService;
+    private final CodaLavoriService codaLavoriService;
+    private final WorkerThumbnail workerThumbnail;
+    private final ApplicationEventPublisher eventPublisher;
+    private final AvanzamentoService avanzamentoService;
+    private final ControlloIo controlloIo;
+    private final RilevamentoFormato rilevamentoFormato;
+    private final ProfilazioneService profilazioneService;
 
-    public void estraiMetadata(MetadataRequest request) {
+    /**
+     * Controlli di {@link #estraiMetadata} che non richiedono l'elaborazione: path valido, pacchetto non già
+     * processato, non in eliminazione e senza un lease valido di un'altra estrazione. Va chiamato prima
+     * dell'ammissione, così le richieste destinate a fallire subito non occupano un posto e non entrano nella durata
+     * media; l'estrazione li ripete comunque, perché lo stato può cambiare durante l'attesa.
+     */
+    public void verificaEstraibile(MetadataRequest request) {
+        var relativePath = percorsoRelativo(request);
+        var codici = estraiCodici(relativePath);
+        var stato = checkpointService.trovaStato(codici).orElse(null);
+        if (isGiaProcessato(stato, codici)) {
+            lanciaGiaProcessato(codici);
+        }
+        if (stato != null && (stato.getFase() == FaseElaborazioneEnum.IN_ELIMINAZIONE
+                || stato.getProprietario() != null && stato.getScadenzaLease() != null
+                && stato.getScadenzaLease().isAfter(Instant.now()))) {
+            lanciaInElaborazione(stato, relativePath, codici);
+        }
+    }
+
+    /**
+     * @return numero di file elaborati (in una ripresa, le immagini di cui generare le miniature)
+     */
+    public int estraiMetadata(MetadataRequest request) {
         var start = System.nanoTime();
 
-        var relativePath = request.getPath();
-        if (relativePath == null || relativePath.trim().isEmpty()) {
-            var error = "Path relativo nullo o vuoto: " + relativePath + ".";
-            log.error(error);
-            logRepository.save(Log.builder().messagio(error).build());
-            throw new InvalidPathException(error);
+        var relativePath = percorsoRelativo(request);
+        var codici = estraiCodici(relativePath);
+
+        if (isGiaProcessato(checkpointService.trovaStato(codici).orElse(null), codici)) {
+            lanciaGiaProcessato(codici);
         }
 
-        if(!isWindows()){
-            relativePath = normalizePath(relativePath); // Normalize the path
+        // Claim atomico del pacchetto: una sola richiesta alla volta può elaborarlo, anche sullo stesso nodo
+        var lease = codaLavoriService.acquisisciPacchetto(codici);
+        if (lease == null) {
+            var stato = checkpointService.trovaStato(codici).orElse(null);
+            if (isGiaProcessato(stato, codici)) {
+                lanciaGiaProcessato(codici);
+            }
+            lanciaInElaborazione(stato, relativePath, codici);
         }
 
-        var codici = estraiCodici(relativePath);
+        var avanzamento = avanzamentoService.avvia(codici);
+        var esito = FaseAvanzamentoEnum.ERRORE;
+        try {
+            var file = elaboraPacchetto(relativePath, codici, start, avanzamento);
+            esito = FaseAvanzamentoEnum.COMPLETATA;
+            return file;
+        } finally {
+            avanzamentoService.termina(codici, esito);
+            codaLavoriService.rilasciaPacchetto(codici, lease);
+            profilazioneService.estrazioneTerminata(codici);
+        }
+    }
 
-        if(existsMetrica(codici.get(0), codici.get(1), codici.get(2))) {
-            var error = "I file in questa folder sono stati gia analizzati e processati.";
-            log.error(error);
-            logRepository.save(Log.builder().messagio(error).build());
-            throw new DirectoryAlreadyProcessedException(error);
+    private int elaboraPacchetto(String relativePath, List<String> codici, long start, Avanzamento avanzamento) {
+        // Lo stato va riletto dopo il claim: un altro nodo potrebbe averlo aggiornato nel frattempo
+        var stato = checkpointService.trovaStato(codici).orElseThrow();
+
+        if (stato.getFase() == FaseElaborazioneEnum.METADATI_SALVATI) {
+            // Metadati gia salvati da un'esecuzione interrotta: si riprende dalle miniature
+            log.info("Ripresa dell'elaborazione di {} dalla generazione delle miniature.", relativePath);
+            logRepository.save(Log.perPacchetto(codici, "Ripresa elaborazione miniature per " + relativePath));
+            var immagini = getImmaginiSalvate(codici);
+            generaThumbnail(codici, immagini, avanzamento);
+            return immagini.size();
         }
 
-        var allFiles = getAllFilesFromFolders(pathBase, relativePath);
+        // Fase AVVIATA: il salvataggio precedente potrebbe essere parziale
+        ripulisciDatiParziali(codici);
+
+        avanzamento.fase(FaseAvanzamentoEnum.SCANSIONE);
+        var allFiles = getAllFilesFromFolders(pathBase, relativePath, controlloIo);
 
         if (allFiles == null || allFiles.isEmpty()) {
             var warn = "Nessun file trovato per il path base '" + pathBase + "' " +  "e relativo '" + relativePath + "'.";
@@ -61,31 +131,38 @@ public class MetadataService {
             throw new NoFilesFoundException(warn);
         }
 
-        var fileProcessati = processaFile(allFiles, codici);
-        var metadati = fileProcessati.metadati();
+        checkpointService.avvia(codici);
+
+        avanzamento.fileTotali(allFiles.size());
+        avanzamento.fase(FaseAvanzamentoEnum.ANALISI);
+        var fileProcessati = processaFile(allFiles, codici, avanzamento, controlloIo, rilevamentoFormato);
+        var risorse = fileProcessati.risorse();
         var metriche = fileProcessati.metrica();
-        var listaTiffImages = fileProcessati.listaTiffImages();
+        var listaImmagini = fileProcessati.listaImmagini();
 
-        metadatiRisorseRepository.saveAll(metadati);
-        logRepository.save(Log.builder().messagio("Salvataggio dei metadati andato a buon fine.").build());
+        avanzamento.fase(FaseAvanzamentoEnum.SALVATAGGIO);
+        archivioRisorseService.salva(codici, risorse);
+        logRepository.save(Log.perPacchetto(codici, "Salvataggio dei metadati andato a buon fine."));
         metricheRepository.save(metriche);
-        logRepository.save(Log.builder().messagio("Salvataggio delle metriche andato a buon fine.").build());
+        logRepository.save(Log.perPacchetto(codici, "Salvataggio delle metriche andato a buon fine."));
+        checkpointService.segnaMetadatiSalvati(codici, listaImmagini.size());
+        eventPublisher.publishEvent(new DatiAggiornatiEvent(codici));
         var end = System.nanoTime();
-        if (!allFiles.isEmpty()) {
-            log.info("Tempo medio di salvataggio: {} ms", ((double) (end - start) / 1_000_000) / allFiles.size());
-            log.info("Tempo totale operazione: {} ms", (double) (end - start) / 1_000_000);
-            if(listaTiffImages != null && !listaTiffImages.isEmpty()) {
-                thumbnail.doThumbnail(listaTiffImages);
-            }
-        }
+        log.info("Tempo medio di salvataggio: {} ms", ((double) (end - start) / 1_000_000) / allFiles.size());
+        log.info("Tempo totale operazione: {} ms", (double) (end - start) / 1_000_000);
 
+        generaThumbnail(codici, listaImmagini, avanzamento);
+        return allFiles.size();
     }
 
     public void deleteAllData() {
         log.info("Cancellazione di tutti i dati dal db...");
-        metadatiRisorseRepository.deleteAll();
+        archivioRisorseService.eliminaTutto();
         metricheRepository.deleteAll();
         logRepository.deleteAll();
+        checkpointService.eliminaTutto();
+        codaLavoriService.eliminaTutto();
+        eventPublisher.publishEvent(DatiAggiornatiEvent.tutti());
         log.info("Tutti i dati sono stati cancellati");
     }
 
@@ -105,4 +182,80 @@ public class MetadataService {
         );
     }
 
+    /**
+     * Un pacchetto è gia processato se il suo stato è COMPLETATA oppure, per i pacchetti
+     * elaborati prima dell'introduzione dei checkpoint, se esiste solo la sua Metrica.
+     */
+    private boolean isGiaProcessato(StatoElaborazione stato, List<String> codici) {
+        if (stato != null) {
+            return stato.getFase() == FaseElaborazioneEnum.COMPLETATA;
+        }
+        return existsMetrica(codici.get(0), codici.get(1), codici.get(2));
+    }
+
+    /**
+     * Genera le miniature tramite la coda distribuita e chiude il pacchetto. Le immagini gia completate
+     * in un'esecuzione precedente restano nella coda come COMPLETATO e non vengono rielaborate. Le immagini
+     * rimaste in ERRORE non impediscono il completamento: il loro numero va nello stato e nei log del pacchetto.
+     */
+    private void generaThumbnail(List<String> codici, List<File> listaImmagini, Avanzamento avanzamento) {
+        avanzamento.fase(FaseAvanzamentoEnum.MINIATURE);
+        workerThumbnail.elaboraPacchetto(codici, listaImmagini, avanzamento);
+        var inErrore = codaLavoriService.thumbnailInErrore(codici);
+        if (inErrore > 0) {
+            var warn = "Miniature non generate per " + inErrore + " immagini dopo tutti i tentativi: "
+                    + "gli errori dei singoli file sono nei log del pacchetto.";
+            log.warn(warn);
+            logRepository.save(Log.perPacchetto(codici, warn));
+        }
+        checkpointService.completa(codici, inErrore);
+    }
+
+    private String percorsoRelativo(MetadataRequest request) {
+        var relativePath = request.getPath();
+        if (relativePath == null || relativePath.trim().isEmpty()) {
+            var error = "Path relativo nullo o vuoto: " + relativePath + ".";
+            log.error(error);
+            logRepository.save(Log.builder().messagio(error).build());
+            throw new InvalidPathException(error);
+        }
+
+        if(!isWindows()){
+            relativePath = normalizePath(relativePath); // Normalize the path
+        }
+        return relativePath;
+    }
+
+    private void lanciaInElaborazione(StatoElaborazione stato, String relativePath, List<String> codici) {
+        var error = stato != null && stato.getFase() == FaseElaborazioneEnum.IN_ELIMINAZIONE
+                ? "Il pacchetto " + relativePath + " è in eliminazione: va completata prima di una nuova estrazione."
+                : "Il pacchetto " + relativePath + " è già in elaborazione.";
+        log.error(error);
+        logRepository.save(Log.perPacchetto(codici, error));
+        throw new PacchettoInElaborazioneException(error);
+    }
+
+    private void lanciaGiaProcessato(List<String> codici) {
+        var error = "I file in questa folder sono stati gia analizzati e processati.";
+        log.error(error);
+        logRepository.save(Log.perPacchetto(codici, error));
+        throw new DirectoryAlreadyProcessedException(error);
+    }
+
+    private List<File> getImmaginiSalvate(List<String> codici) {
+        var immagini = new ElencoFile();
+        archivioRisorseService.perUrl(codici, MimeTypeEnum.formatiRaster(),
+                url -> immagini.aggiungi(url, url.lastIndexOf(File.separatorChar) + 1));
+        return immagini;
+    }
+
+    private void ripulisciDatiParziali(List<String> codici) {
+        var metadati = archivioRisorseService.eliminaPacchetto(codici);
+        metricheRepository
+                .deleteByCodiceCantiereAndCodiceLottoAndCodicePacchetto(codici.get(0), codici.get(1), codici.get(2));
+        if (metadati > 0) {
+            log.warn("Elaborazione precedente interrotta, rimossi {} metadati parziali.", metadati);
+        }
+    }
+
 }
@@ -1,13 +1,21 @@
 package com.simonegenovesi.extractorfiledata.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.simonegenovesi.extractorfiledata.config.CacheConfig;
+import com.simonegenovesi.extractorfiledata.entity.Metrica;
 import com.simonegenovesi.extractorfiledata.payload.response.MetricaResponse;
 import com.simonegenovesi.extractorfiledata.repository.MetricaRepository;
+import com.simonegenovesi.extractorfiledata.util.dto.RisultatoVersionato;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.modelmapper.ModelMapper;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.stream.Stream;
+
+import static com.simonegenovesi.extractorfiledata.util.Versioni.versiona;
 
 @Service
 @Slf4j
@@ -16,14 +24,38 @@ public class MetricaService {
 
     private final MetricaRepository metricaRepository;
     private final ModelMapper modelMapper;
+    private final ObjectMapper objectMapper;
+
+    @Cacheable(cacheNames = CacheConfig.METRICHE, key = "T(com.simonegenovesi.extractorfiledata.config.CacheConfig).TUTTE")
+    public RisultatoVersionato<List<MetricaResponse>> getAllMetriche() {
 
-    public List<MetricaResponse> getAllMetriche() {
+        return versiona(objectMapper, mappa(metricaRepository.findAll()));
 
-        return metricaRepository.findAll()
+    }
+
+    @Cacheable(cacheNames = CacheConfig.METRICHE, key = "#cantiere + '/' + #lotto + '/' + #pacchetto")
+    public RisultatoVersionato<List<MetricaResponse>> getMetrichePacchetto(String cantiere, String lotto, String pacchetto) {
+        return versiona(objectMapper, mappa(metricaRepository
+                .findByCodiceCantiereAndCodiceLottoAndCodicePacchetto(cantiere, lotto, pacchetto)));
+    }
+
+    /**
+     * Metriche lette dal cursore e convertite una alla volta, senza cache: per le risposte in streaming.
+     * @param codici cantiere, lotto e pacchetto, oppure null per tutte le metriche
+     */
+    public Stream<MetricaResponse> flussoMetriche(List<String> codici) {
+        var metriche = codici == null
+                ? metricaRepository.streamAllBy()
+                : metricaRepository.streamByCodiceCantiereAndCodiceLottoAndCodicePacchetto(
+                        codici.get(0), codici.get(1), codici.get(2));
+        return metriche.map(metrica -> modelMapper.map(metrica, MetricaResponse.class));
+    }
+
+    private List<MetricaResponse> mappa(List<Metrica> metriche) {
+        return metriche
                 .stream()
                 .map(metrica -> modelMapper
                         .map(metrica, MetricaResponse.class))
                 .toList();
-
     }
 }
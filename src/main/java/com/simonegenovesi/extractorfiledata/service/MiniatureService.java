@@ -0,0 +1,133 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.config.ProfiliMiniature;
+import com.simonegenovesi.extractorfiledata.entity.MetadatiRisorsa;
+import com.simonegenovesi.extractorfiledata.exceptions.RisorsaNonTrovataException;
+import com.simonegenovesi.extractorfiledata.util.enumerated.MimeTypeEnum;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Risolve il file della miniatura di una risorsa, generandolo alla prima richiesta se manca.
+ * <p>
+ * Le richieste concorrenti per la stessa immagine attendono un'unica generazione invece di avviarne una
+ * ciascuna; su nodi diversi una generazione doppia è innocua perché la scrittura è atomica.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class MiniatureService {
+
+    private final ArchivioRisorseService archivioRisorseService;
+    private final Thumbnail thumbnail;
+    private final ProfiliMiniature profiliMiniature;
+
+    // generazioni in corso per percorso dell'immagine sorgente
+    private final Map<String, CompletableFuture<Void>> inGenerazione = new ConcurrentHashMap<>();
+
+    /**
+     * @param id id della risorsa
+     * @param pagina pagina di un TIFF multipagina, oppure null per la miniatura principale
+     * @param nomeProfilo profilo di {@code thumbnail.profili}, oppure null per quello predefinito
+     * @return percorso della miniatura su disco
+     */
+    public Path trovaMiniatura(String id, Integer pagina, String nomeProfilo) {
+        var profilo = profiliMiniature.trova(nomeProfilo != null ? nomeProfilo : profiliMiniature.getProfiloPredefinito())
+                .orElseThrow(() -> new RisorsaNonTrovataException("Profilo di miniatura sconosciuto: " + nomeProfilo + "."));
+        var suffisso = profilo.getSuffisso();
+        var risorsa = archivioRisorseService.trovaPerId(id)
+                .orElseThrow(() -> new RisorsaNonTrovataException("Risorsa non trovata: " + id + "."));
+        var sorgente = Path.of(risorsa.getUrlOggetto());
+
+        var miniatura = risolvi(sorgente, pagina, suffisso);
+        if (miniatura.isPresent()) {
+            return miniatura.get();
+        }
+        // con la miniatura principale presente manca solo la pagina richiesta: rigenerare non servirebbe
+        if (!isImmagine(risorsa) || Files.notExists(sorgente) || (pagina != null && risolvi(sorgente, null, suffisso).isPresent())) {
+            throw new RisorsaNonTrovataException("Nessuna miniatura disponibile per la risorsa " + id + ".");
+        }
+
+        generaUnaVolta(sorgente, risorsa);
+        return risolvi(sorgente, pagina, suffisso)
+                .orElseThrow(() -> new RisorsaNonTrovataException("Pagina " + pagina + " non presente per la risorsa " + id + "."));
+    }
+
+    /**
+     * Descrittore DZI della pagina; la piramide non viene generata su richiesta.
+     * @param pagina pagina del TIFF (0 per i TIFF a pagina singola)
+     */
+    public Path trovaPiramide(String id, int pagina) {
+        var risorsa = archivioRisorseService.trovaPerId(id)
+                .orElseThrow(() -> new RisorsaNonTrovataException("Risorsa non trovata: " + id + "."));
+        var sorgente = Path.of(risorsa.getUrlOggetto());
+        return esistente(Thumbnail.percorsoPiramide(sorgente, pagina))
+                .or(() -> pagina == 0 ? esistente(Thumbnail.percorsoPiramide(sorgente, -1)) : Optional.empty())
+                .orElseThrow(() -> new RisorsaNonTrovataException("Nessuna piramide per la risorsa " + id + " pagina " + pagina + "."));
+    }
+
+    public Path trovaTile(String id, int pagina, int livello, int colonna, int riga) {
+        var tile = GeneratorePiramide.cartellaTile(trovaPiramide(id, pagina))
+                .resolve(String.valueOf(livello))
+                .resolve(colonna + "_" + riga + ".jpg");
+        return esistente(tile)
+                .orElseThrow(() -> new RisorsaNonTrovataException("Tile " + livello + "/" + colonna + "_" + riga + " non presente."));
+    }
+
+    /**
+     * Miniatura esistente: quella della pagina richiesta oppure, senza pagina, quella del TIFF
+     * a pagina singola o la prima pagina del multipagina.
+     */
+    private Optional<Path> risolvi(Path sorgente, Integer pagina, String suffisso) {
+        if (pagina != null) {
+            return esistente(Thumbnail.percorsoMiniatura(sorgente, pagina, suffisso));
+        }
+        return esistente(Thumbnail.percorsoMiniatura(sorgente, -1, suffisso))
+                .or(() -> esistente(Thumbnail.percorsoMiniatura(sorgente, 0, suffisso)));
+    }
+
+    private void generaUnaVolta(Path sorgente, MetadatiRisorsa risorsa) {
+        var chiave = sorgente.toAbsolutePath().toString();
+        var nuova = new CompletableFuture<Void>();
+        var inCorso = inGenerazione.putIfAbsent(chiave, nuova);
+        if (inCorso != null) {
+            log.info("Generazione della miniatura di {} già in corso, attesa del risultato.", chiave);
+            try {
+                inCorso.join();
+            } catch (CompletionException e) {
+                throw (RuntimeException) e.getCause();
+            }
+            return;
+        }
+
+        try {
+            log.info("Miniatura assente per {}, generazione su richiesta.", chiave);
+            thumbnail.generaMiniatura(sorgente.toFile(),
+                    List.of(risorsa.getCodiceCantiere(), risorsa.getCodiceLotto(), risorsa.getCodicePacchetto()));
+            nuova.complete(null);
+        } catch (RuntimeException e) {
+            nuova.completeExceptionally(e);
+            throw e;
+        } finally {
+            inGenerazione.remove(chiave, nuova);
+        }
+    }
+
+    private static Optional<Path> esistente(Path percorso) {
+        return Files.isRegularFile(percorso) ? Optional.of(percorso) : Optional.empty();
+    }
+
+    private static boolean isImmagine(MetadatiRisorsa risorsa) {
+        return MimeTypeEnum.formatiRaster().contains(risorsa.getFormatoFile());
+    }
+}
@@ -0,0 +1,176 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.exceptions.ThumbnailProcessingException;
+import com.simonegenovesi.extractorfiledata.payload.response.StatisticaStadioResponse;
+import com.simonegenovesi.extractorfiledata.util.ScrittoreJpeg;
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stadi della pipeline delle miniature: decodifica, riduzione e codifica+scrittura.
+ * <p>
+ * Ogni stadio ha un pool e una coda limitata; a coda piena il task viene eseguito dal thread che lo
+ * sottomette ({@code CallerRunsPolicy}), rallentando lo stadio a monte invece di accumulare immagini in memoria.
+ * Così la riduzione (CPU) di una pagina si sovrappone alla decodifica della successiva e alla scrittura
+ * (I/O) delle precedenti. L'utilizzo di ciascuno stadio indica dove si trova il collo di bottiglia.
+ * <p>
+ * Tutti i formati condividono anche un budget di memoria per i raster decodificati: la decodifica di una
+ * pagina attende che le pagine in elaborazione liberino abbastanza memoria.
+ */
+@Component
+@Slf4j
+@Getter
+public class PipelineMiniature {
+
+    private final Stadio decodifica;
+    private final Stadio riduzione;
+    private final Stadio codifica;
+
+    @Getter(AccessLevel.NONE)
+    private final Semaphore memoria;
+    private final int memoriaKb;
+
+    public PipelineMiniature(
+            @Value("${thumbnail.pipeline.thread-decodifica:0}") int threadDecodifica,
+            @Value("${thumbnail.pipeline.thread-riduzione:0}") int threadRiduzione,
+            @Value("${thumbnail.pipeline.thread-codifica:0}") int threadCodifica,
+            @Value("${thumbnail.pipeline.memoria-mb:0}") int memoriaMb
+    ) {
+        var predefiniti = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        this.decodifica = new Stadio("decodifica", threadDecodifica > 0 ? threadDecodifica : predefiniti);
+        this.riduzione = new Stadio("riduzione", threadRiduzione > 0 ? threadRiduzione : predefiniti);
+        this.codifica = new Stadio("codifica", threadCodifica > 0 ? threadCodifica : predefiniti);
+        // predefinito: un quarto dell'heap
+        this.memoriaKb = memoriaMb > 0 ? memoriaMb * 1024 : (int) (Runtime.getRuntime().maxMemory() / 4 / 1024);
+        this.memoria = new Semaphore(memoriaKb, true);
+    }
+
+    /**
+     * Riserva la memoria stimata per un raster decodificato, attendendo se il budget è esaurito.
+     * Una stima oltre il budget viene ridotta al budget intero, così un'immagine enorme viene elaborata da sola.
+     * @return KB riservati, da restituire con {@link #rilasciaMemoria}
+     */
+    public int riservaMemoria(long byteStimati) {
+        var kb = (int) Math.min(memoriaKb, Math.max(1, byteStimati >> 10));
+        try {
+            memoria.acquire(kb);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThumbnailProcessingException("Attesa della memoria per le miniature interrotta", e);
+        }
+        return kb;
+    }
+
+    public void rilasciaMemoria(int kb) {
+        memoria.release(kb);
+    }
+
+    /**
+     * Statistiche degli stadi; l'utilizzo è calcolato dalla lettura precedente.
+     */
+    public List<StatisticaStadioResponse> statistiche() {
+        return List.of(decodifica.statistica(), riduzione.statistica(), codifica.statistica());
+    }
+
+    public void logStatistiche() {
+        for (var stadio : statistiche()) {
+            log.info("Stadio {}: {} thread, utilizzo {}%, {} task completati, {} ms medi, {} in coda",
+                    stadio.getStadio(), stadio.getThread(), Math.round(stadio.getUtilizzo() * 100),
+                    stadio.getCompletati(), String.format("%.1f", stadio.getTempoMedioMs()), stadio.getInCoda());
+        }
+        log.info("Memoria raster: {} MB riservati su {} MB", (memoriaKb - memoria.availablePermits()) / 1024, memoriaKb / 1024);
+    }
+
+    @PreDestroy
+    public void chiudi() {
+        decodifica.executor.shutdown();
+        riduzione.executor.shutdown();
+        codifica.executor.shutdown();
+    }
+
+    /**
+     * Executor di uno stadio che misura il tempo di occupazione dei propri task.
+     */
+    public static class Stadio implements Executor {
+        private final String nome;
+        @Getter
+        private final int thread;
+        private final ThreadPoolExecutor executor;
+        private final LongAdder occupatoNanos = new LongAdder();
+        private final LongAdder completati = new LongAdder();
+
+        // finestra dell'utilizzo: dalla lettura precedente
+        private long inizioFinestra = System.nanoTime();
+        private long occupatoInizioFinestra;
+
+        Stadio(String nome, int thread) {
+            this.nome = nome;
+            this.thread = thread;
+            var contatore = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(
+                    thread,
+                    thread,
+                    30L,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(thread * 2),
+                    runnable -> {
+                        var t = new Thread(() -> {
+                            ScrittoreJpeg.riusaWriter();
+                            runnable.run();
+                        }, "miniature-" + nome + "-" + contatore.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    new ThreadPoolExecutor.CallerRunsPolicy()
+            );
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            executor.execute(() -> {
+                var inizio = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    occupatoNanos.add(System.nanoTime() - inizio);
+                    completati.increment();
+                }
+            });
+        }
+
+        synchronized StatisticaStadioResponse statistica() {
+            var adesso = System.nanoTime();
+            var occupato = occupatoNanos.sum();
+            var finestra = Math.max(1, adesso - inizioFinestra);
+            var utilizzo = (double) (occupato - occupatoInizioFinestra) / ((double) finestra * thread);
+            inizioFinestra = adesso;
+            occupatoInizioFinestra = occupato;
+
+            var numCompletati = completati.sum();
+            return StatisticaStadioResponse.builder()
+                    .stadio(nome)
+                    .thread(thread)
+                    .attivi(executor.getActiveCount())
+                    .inCoda(executor.getQueue().size())
+                    .completati(numCompletati)
+                    .tempoMedioMs(numCompletati == 0 ? 0 : occupato / 1_000_000.0 / numCompletati)
+                    // i task eseguiti dal chiamante a coda piena possono portarlo oltre 1
+                    .utilizzo(Math.min(1.0, utilizzo))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.event.jfr.BatchMongoScrittoEvent;
+import com.simonegenovesi.extractorfiledata.event.jfr.FileAnalizzatoEvent;
+import com.simonegenovesi.extractorfiledata.event.jfr.MiniaturaCodificataEvent;
+import com.simonegenovesi.extractorfiledata.event.jfr.PaginaDecodificataEvent;
+import com.simonegenovesi.extractorfiledata.payload.response.ProfilazioneResponse;
+import com.simonegenovesi.extractorfiledata.util.enumerated.StatoProfilazioneEnum;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registrazioni Java Flight Recorder di un'estrazione: eventi per file analizzato, pagina decodificata, miniatura
+ * codificata e batch scritto su Mongo, con i campioni di CPU e le garbage collection dello stesso intervallo.
+ * <p>
+ * Gli eventi dell'applicazione sono abilitati solo mentre una registrazione è attiva: senza registrazioni
+ * {@code shouldCommit()} è falso e il costo è la sola creazione dell'evento. La registrazione si ferma alla fine
+ * dell'estrazione del pacchetto, con la richiesta di arresto o dopo {@code profilazione.durata-massima-minuti}, e
+ * viene scritta in un file {@code .jfr}. JFR è unico per la JVM: il file contiene anche gli eventi delle altre
+ * estrazioni dello stesso intervallo, riconoscibili dal percorso o dal pacchetto.
+ */
+@Service
+@Slf4j
+public class ProfilazioneService {
+
+    private static final DateTimeFormatter FORMATO_FILE = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Path cartella;
+    private final Duration durataMassima;
+    private final Duration campionamento;
+
+    private final Map<String, Profilazione> profilazioni = new ConcurrentHashMap<>();
+
+    public ProfilazioneService(
+            @Value("${profilazione.cartella:${java.io.tmpdir}/profilazioni}") String cartella,
+            @Value("${profilazione.durata-massima-minuti:60}") long durataMassimaMinuti,
+            @Value("${profilazione.campionamento-ms:20}") long campionamentoMs
+    ) {
+        this.cartella = Path.of(cartella);
+        this.durataMassima = Duration.ofMinutes(durataMassimaMinuti);
+        this.campionamento = Duration.ofMillis(campionamentoMs);
+    }
+
+    /**
+     * Avvia la registrazione per il pacchetto; se è già in corso ne restituisce lo stato.
+     */
+    public ProfilazioneResponse avvia(List<String> codici) {
+        return profilazioni.compute(CheckpointService.chiave(codici), (chiave, corrente) -> {
+            if (corrente != null && corrente.isAttiva()) {
+                return corrente;
+            }
+            if (corrente != null) {
+                corrente.recording().close();
+            }
+            var file = cartella.resolve(String.join("_", codici) + "-" + LocalDateTime.now().format(FORMATO_FILE) + ".jfr");
+            var recording = new Recording();
+            try {
+                recording.setName("profilazione " + chiave);
+                recording.enable(FileAnalizzatoEvent.class).withoutThreshold();
+                recording.enable(PaginaDecodificataEvent.class).withoutThreshold();
+                recording.enable(MiniaturaCodificataEvent.class).withoutThreshold();
+                recording.enable(BatchMongoScrittoEvent.class).withoutThreshold();
+                recording.enable("jdk.ExecutionSample").withPeriod(campionamento);
+                recording.enable("jdk.GarbageCollection");
+                recording.setToDisk(true);
+                recording.setDuration(durataMassima);
+                Files.createDirectories(cartella);
+                recording.setDestination(file);
+                recording.start();
+            } catch (IOException e) {
+                recording.close();
+                throw new UncheckedIOException("Impossibile creare il file della profilazione " + file, e);
+            }
+            log.info("Profilazione del pacchetto {} avviata su {}", chiave, file);
+            return new Profilazione(codici, recording, file);
+        }).risposta();
+    }
+
+    /**
+     * Ferma la registrazione del pacchetto e la scrive sul file.
+     */
+    public Optional<ProfilazioneResponse> ferma(List<String> codici) {
+        var profilazione = profilazioni.computeIfPresent(CheckpointService.chiave(codici), (chiave, corrente) -> {
+            corrente.ferma();
+            return corrente;
+        });
+        return Optional.ofNullable(profilazione).map(Profilazione::risposta);
+    }
+
+    public Optional<ProfilazioneResponse> stato(List<String> codici) {
+        return Optional.ofNullable(profilazioni.get(CheckpointService.chiave(codici))).map(Profilazione::risposta);
+    }
+
+    /**
+     * Chiamato alla fine dell'estrazione del pacchetto, con qualsiasi esito: ne ferma la registrazione se attiva.
+     */
+    public void estrazioneTerminata(List<String> codici) {
+        var profilazione = profilazioni.get(CheckpointService.chiave(codici));
+        if (profilazione != null && profilazione.isAttiva()) {
+            ferma(codici).ifPresent(risposta ->
+                    log.info("Profilazione del pacchetto {} scritta su {}", String.join("/", codici), risposta.getFile()));
+        }
+    }
+
+    @PreDestroy
+    public void chiudi() {
+        profilazioni.values().forEach(Profilazione::ferma);
+    }
+
+    private record Profilazione(List<String> codici, Recording recording, Path file) {
+
+        boolean isAttiva() {
+            var stato = recording.getState();
+            return stato == RecordingState.NEW || stato == RecordingState.DELAYED || stato == RecordingState.RUNNING;
+        }
+
+        /**
+         * Ferma la registrazione, che viene scritta sulla destinazione, e ne libera i dati su disco.
+         */
+        void ferma() {
+            try {
+                if (recording.getState() == RecordingState.RUNNING) {
+                    recording.stop();
+                }
+            } catch (RuntimeException e) {
+                log.error("Errore durante la scrittura della profilazione {}", file, e);
+            } finally {
+                recording.close();
+            }
+        }
+
+        ProfilazioneResponse risposta() {
+            var risposta = ProfilazioneResponse.builder()
+                    .codiceCantiere(codici.get(0))
+                    .codiceLotto(codici.get(1))
+                    .codicePacchetto(codici.get(2))
+                    .file(file.toString())
+                    .inizio(recording.getStartTime() == null ? null : recording.getStartTime().toString());
+            if (isAttiva()) {
+                return risposta.stato(StatoProfilazioneEnum.IN_CORSO.name()).build();
+            }
+            if (recording.getStartTime() != null && recording.getStopTime() != null) {
+                risposta.secondi(Duration.between(recording.getStartTime(), recording.getStopTime()).toMillis() / 1000.0);
+            }
+            try {
+                return risposta.stato(StatoProfilazioneEnum.COMPLETATA.name()).dimensioneByte(Files.size(file)).build();
+            } catch (IOException e) {
+                return risposta.stato(StatoProfilazioneEnum.ERRORE.name()).build();
+            }
+        }
+    }
+}
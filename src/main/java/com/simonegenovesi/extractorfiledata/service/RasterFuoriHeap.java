@@ -0,0 +1,218 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageReader;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodifica delle pagine troppo grandi per l'heap.
+ * <p>
+ * La pagina viene letta a strisce e scritta in un file temporaneo mappato in memoria; la miniatura viene poi
+ * ridotta leggendo il file riga per riga. Nell'heap restano una striscia, la regione decodificata dal reader per
+ * quella striscia e l'immagine ridotta, qualunque sia la dimensione della pagina: il raster intermedio vive nella
+ * page cache del sistema operativo, non nell'heap.
+ */
+@Component
+@Slf4j
+public class RasterFuoriHeap {
+
+    private static final long BYTE_STRISCIA = 16L << 20;
+
+    private final long sogliaByte;
+    private final Path cartella;
+
+    public RasterFuoriHeap(
+            @Value("${thumbnail.fuori-heap.soglia-mb:0}") long sogliaMb,
+            @Value("${thumbnail.fuori-heap.cartella:${java.io.tmpdir}}") String cartella,
+            PipelineMiniature pipelineMiniature
+    ) {
+        // predefinito: metà del budget di memoria dei raster
+        this.sogliaByte = sogliaMb > 0 ? sogliaMb << 20 : (long) pipelineMiniature.getMemoriaKb() << 9;
+        this.cartella = Path.of(cartella);
+    }
+
+    /**
+     * @param byteStimati memoria stimata del raster decodificato nell'heap
+     */
+    public boolean isNecessario(long byteStimati) {
+        return byteStimati > sogliaByte;
+    }
+
+    /**
+     * Memoria dell'heap occupata da {@link #leggiRidotta}: la striscia RGB, la regione della stessa altezza
+     * restituita dal reader, nel tipo di immagine del decoder, e l'immagine finale.
+     */
+    public long memoriaHeap(ImageReader reader, int pagina, int passo, int lato) throws IOException {
+        var larghezza = (reader.getWidth(pagina) + passo - 1) / passo;
+        var pixelStriscia = (long) righePerStriscia(larghezza) * larghezza;
+        return pixelStriscia * (4 + bytePerPixel(reader, pagina)) + (long) lato * lato * 4;
+    }
+
+    /**
+     * Nei TIFF ogni striscia legge solo le proprie strip o tile; nei formati sequenziali (JPEG, PNG, GIF, BMP)
+     * ogni regione riparte dall'inizio del file, un costo accettato solo per le pagine oltre la soglia.
+     * @param reader reader già posizionato sull'immagine
+     * @param passo sottocampionamento della decodifica
+     * @param lato lato lungo massimo dell'immagine restituita
+     * @return la pagina ridotta con media sulle aree (box filter), in RGB
+     */
+    public BufferedImage leggiRidotta(ImageReader reader, int pagina, int passo, int lato) throws IOException {
+        var start = System.nanoTime();
+        var larghezzaSorgente = reader.getWidth(pagina);
+        var altezzaSorgente = reader.getHeight(pagina);
+        var larghezza = (larghezzaSorgente + passo - 1) / passo;
+        var altezza = (altezzaSorgente + passo - 1) / passo;
+
+        Files.createDirectories(cartella);
+        var temp = Files.createTempFile(cartella, ".raster", ".tmp");
+        try (var canale = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+            var raster = new RasterMappato(canale, larghezza, altezza);
+            decodifica(reader, pagina, passo, raster);
+            var ridotta = riduci(raster, lato);
+            log.info("Pagina {}x{} elaborata fuori heap ({} MB mappati) in {} secondi", larghezzaSorgente, altezzaSorgente,
+                    ((long) larghezza * altezza * 4) >> 20, (System.nanoTime() - start) / 1_000_000_000.0);
+            return ridotta;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Legge la pagina a strisce di righe multiple del passo, così la griglia di campionamento resta allineata.
+     */
+    private void decodifica(ImageReader reader, int pagina, int passo, RasterMappato raster) throws IOException {
+        var righePerStriscia = righePerStriscia(raster.larghezza);
+        var striscia = new BufferedImage(raster.larghezza, righePerStriscia, BufferedImage.TYPE_INT_RGB);
+        var pixel = ((DataBufferInt) striscia.getRaster().getDataBuffer()).getData();
+        var larghezzaSorgente = reader.getWidth(pagina);
+        var altezzaSorgente = reader.getHeight(pagina);
+        var param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(passo, passo, 0, 0);
+
+        for (int riga = 0; riga < raster.altezza; riga += righePerStriscia) {
+            var y = riga * passo;
+            var righeSorgente = Math.min(righePerStriscia * passo, altezzaSorgente - y);
+            param.setSourceRegion(new Rectangle(0, y, larghezzaSorgente, righeSorgente));
+            var regione = reader.read(pagina, param);
+            var righe = regione.getHeight();
+            // conversione in RGB: rimuove anche l'eventuale canale alpha
+            var g = striscia.createGraphics();
+            try {
+                g.setColor(Color.BLACK);
+                g.fillRect(0, 0, raster.larghezza, righe);
+                g.drawImage(regione, 0, 0, null);
+            } finally {
+                g.dispose();
+            }
+            for (int r = 0; r < righe; r++) {
+                raster.scriviRiga(riga + r, pixel, r * raster.larghezza);
+            }
+        }
+    }
+
+    private static int righePerStriscia(int larghezza) {
+        return (int) Math.max(1, BYTE_STRISCIA / ((long) larghezza * 4));
+    }
+
+    /**
+     * Byte per pixel del primo tipo di immagine del reader, quello usato da {@code read} senza destinazione;
+     * 4 se il reader non lo dichiara.
+     */
+    private static int bytePerPixel(ImageReader reader, int pagina) throws IOException {
+        var tipi = reader.getImageTypes(pagina);
+        if (tipi == null || !tipi.hasNext()) {
+            return 4;
+        }
+        var campioni = tipi.next().getSampleModel(1, 1);
+        return Math.max(1, campioni.getNumDataElements() * DataBuffer.getDataTypeSize(campioni.getDataType()) / 8);
+    }
+
+    /**
+     * Riduzione con media sulle aree: ogni pixel di destinazione è la media del rettangolo sorgente che copre.
+     */
+    private static BufferedImage riduci(RasterMappato raster, int lato) {
+        var scala = Math.min(1.0, (double) lato / Math.max(raster.larghezza, raster.altezza));
+        var larghezza = Math.max(1, (int) Math.round(raster.larghezza * scala));
+        var altezza = Math.max(1, (int) Math.round(raster.altezza * scala));
+        var ridotta = new BufferedImage(larghezza, altezza, BufferedImage.TYPE_INT_RGB);
+        var destinazione = ((DataBufferInt) ridotta.getRaster().getDataBuffer()).getData();
+
+        // colonne sorgente di inizio di ogni colonna di destinazione
+        var inizioColonna = new int[larghezza + 1];
+        for (int x = 0; x <= larghezza; x++) {
+            inizioColonna[x] = (int) ((long) x * raster.larghezza / larghezza);
+        }
+        var riga = new int[raster.larghezza];
+        var somme = new long[larghezza * 3];
+        for (int y = 0; y < altezza; y++) {
+            var y0 = (int) ((long) y * raster.altezza / altezza);
+            var y1 = Math.max(y0 + 1, (int) ((long) (y + 1) * raster.altezza / altezza));
+            Arrays.fill(somme, 0);
+            for (int ys = y0; ys < y1; ys++) {
+                raster.leggiRiga(ys, riga);
+                for (int x = 0; x < larghezza; x++) {
+                    for (int xs = inizioColonna[x]; xs < Math.max(inizioColonna[x] + 1, inizioColonna[x + 1]); xs++) {
+                        var p = riga[xs];
+                        somme[x * 3] += (p >> 16) & 0xff;
+                        somme[x * 3 + 1] += (p >> 8) & 0xff;
+                        somme[x * 3 + 2] += p & 0xff;
+                    }
+                }
+            }
+            for (int x = 0; x < larghezza; x++) {
+                long n = (long) (y1 - y0) * Math.max(1, inizioColonna[x + 1] - inizioColonna[x]);
+                destinazione[y * larghezza + x] = (int) ((somme[x * 3] + n / 2) / n) << 16
+                        | (int) ((somme[x * 3 + 1] + n / 2) / n) << 8
+                        | (int) ((somme[x * 3 + 2] + n / 2) / n);
+            }
+        }
+        return ridotta;
+    }
+
+    /**
+     * Raster RGB su file mappato, in segmenti di righe intere (un singolo mapping non supera i 2 GB).
+     */
+    private static class RasterMappato {
+        private final int larghezza;
+        private final int altezza;
+        private final int righePerSegmento;
+        private final List<IntBuffer> segmenti = new ArrayList<>();
+
+        RasterMappato(FileChannel canale, int larghezza, int altezza) throws IOException {
+            this.larghezza = larghezza;
+            this.altezza = altezza;
+            this.righePerSegmento = (int) Math.max(1, Integer.MAX_VALUE / ((long) larghezza * 4));
+            for (int riga = 0; riga < altezza; riga += righePerSegmento) {
+                var righe = Math.min(righePerSegmento, altezza - riga);
+                segmenti.add(canale.map(FileChannel.MapMode.READ_WRITE, (long) riga * larghezza * 4, (long) righe * larghezza * 4)
+                        .order(ByteOrder.nativeOrder())
+                        .asIntBuffer());
+            }
+        }
+
+        void scriviRiga(int riga, int[] pixel, int offset) {
+            segmenti.get(riga / righePerSegmento).put((riga % righePerSegmento) * larghezza, pixel, offset, larghezza);
+        }
+
+        void leggiRiga(int riga, int[] destinazione) {
+            segmenti.get(riga / righePerSegmento).get((riga % righePerSegmento) * larghezza, destinazione, 0, larghezza);
+        }
+    }
+}
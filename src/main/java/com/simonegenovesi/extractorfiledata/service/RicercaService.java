@@ -0,0 +1,155 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.entity.RicercaRisorsa;
+import com.simonegenovesi.extractorfiledata.exceptions.RicercaNonValidaException;
+import com.simonegenovesi.extractorfiledata.payload.response.MetadatiRisorsaResponse;
+import com.simonegenovesi.extractorfiledata.payload.response.RicercaResponse;
+import com.simonegenovesi.extractorfiledata.util.IndiceNomi;
+import com.simonegenovesi.extractorfiledata.util.enumerated.TipoRicercaEnum;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Ricerca delle risorse per nome o percorso sull'indice {@link RicercaRisorsa}, con paginazione per chiave.
+ * <p>
+ * La ricerca per prefisso è un intervallo sul nome normalizzato, ordinato per nome e id. La ricerca per
+ * sottostringa legge l'indice dei trigrammi a partire dal trigramma più selettivo, in ordine di id, e verifica
+ * sul percorso gli altri trigrammi e la sottostringa. La pagina successiva riparte dall'ultima chiave restituita
+ * invece di saltare i risultati precedenti, quindi costa come la prima a qualsiasi profondità.
+ */
+@Service
+public class RicercaService {
+
+    private static final String SEPARATORE_CHIAVE = ":";
+
+    private final MongoTemplate mongoTemplate;
+    private final int limitePredefinito;
+    private final int limiteMassimo;
+
+    public RicercaService(
+            MongoTemplate mongoTemplate,
+            @Value("${ricerca.limite-predefinito:50}") int limitePredefinito,
+            @Value("${ricerca.limite-massimo:500}") int limiteMassimo
+    ) {
+        this.mongoTemplate = mongoTemplate;
+        this.limitePredefinito = limitePredefinito;
+        this.limiteMassimo = limiteMassimo;
+    }
+
+    /**
+     * @param testo nome o parte del percorso, confrontato senza maiuscole e accenti
+     * @param cantiere lotto e pacchetto restringono la ricerca; ognuno può essere null
+     * @param limite risultati per pagina, null per {@code ricerca.limite-predefinito}
+     * @param dopo valore {@code successivo} della pagina precedente, null per la prima
+     */
+    public RicercaResponse cerca(String testo, TipoRicercaEnum tipo, String cantiere, String lotto, String pacchetto,
+                                 Integer limite, String dopo) {
+        var normalizzato = testo == null ? "" : IndiceNomi.normalizza(testo.strip());
+        if (normalizzato.isEmpty()) {
+            throw new RicercaNonValidaException("Testo da cercare nullo o vuoto.");
+        }
+        var dimensione = limite == null ? limitePredefinito : limite;
+        if (dimensione < 1 || dimensione > limiteMassimo) {
+            throw new RicercaNonValidaException("Il limite deve essere tra 1 e " + limiteMassimo + ".");
+        }
+        var chiave = dopo == null ? null : decodifica(dopo);
+
+        var query = tipo == TipoRicercaEnum.SOTTOSTRINGA
+                ? perSottostringa(normalizzato, chiave)
+                : perPrefisso(normalizzato, chiave);
+        if (cantiere != null) {
+            query.addCriteria(Criteria.where("codice_cantiere").is(cantiere));
+        }
+        if (lotto != null) {
+            query.addCriteria(Criteria.where("codice_lotto").is(lotto));
+        }
+        if (pacchetto != null) {
+            query.addCriteria(Criteria.where("codice_pacchetto").is(pacchetto));
+        }
+        // un risultato in più dice se esiste la pagina successiva
+        query.limit(dimensione + 1);
+
+        var voci = mongoTemplate.find(query, RicercaRisorsa.class);
+        var altre = voci.size() > dimensione;
+        var pagina = altre ? voci.subList(0, dimensione) : voci;
+        List<MetadatiRisorsaResponse> risultati = new ArrayList<>(pagina.size());
+        pagina.forEach(voce -> risultati.add(risposta(voce)));
+        return RicercaResponse.builder()
+                .risultati(risultati)
+                .successivo(altre ? codifica(pagina.get(pagina.size() - 1)) : null)
+                .build();
+    }
+
+    private static Query perPrefisso(String prefisso, Chiave chiave) {
+        var fine = IndiceNomi.successivo(prefisso);
+        Criteria criteria;
+        if (chiave == null) {
+            criteria = Criteria.where("nome_normalizzato").gte(prefisso).lt(fine);
+        } else {
+            // l'intervallo riparte dal nome dell'ultimo risultato; a parità di nome decide l'id
+            criteria = new Criteria().andOperator(
+                    Criteria.where("nome_normalizzato").gte(chiave.nome()).lt(fine),
+                    new Criteria().orOperator(
+                            Criteria.where("nome_normalizzato").gt(chiave.nome()),
+                            Criteria.where("_id").gt(chiave.id())));
+        }
+        return new Query(criteria).with(Sort.by("nome_normalizzato", "_id"));
+    }
+
+    private static Query perSottostringa(String sottostringa, Chiave chiave) {
+        if (sottostringa.codePointCount(0, sottostringa.length()) < IndiceNomi.LUNGHEZZA_TRIGRAMMA) {
+            throw new RicercaNonValidaException("La ricerca per sottostringa richiede almeno "
+                    + IndiceNomi.LUNGHEZZA_TRIGRAMMA + " caratteri.");
+        }
+        var criteria = Criteria.where("trigrammi").all(IndiceNomi.trigrammiRicerca(sottostringa))
+                .and("percorso_normalizzato").regex(Pattern.quote(sottostringa));
+        if (chiave != null) {
+            criteria.and("_id").gt(chiave.id());
+        }
+        return new Query(criteria).with(Sort.by("_id")).withHint("idx_ricerca_trigrammi");
+    }
+
+    private static MetadatiRisorsaResponse risposta(RicercaRisorsa voce) {
+        return MetadatiRisorsaResponse.builder()
+                .id(voce.getRisorsa())
+                .urlOggetto(voce.getUrlOggetto())
+                .nomeOggetto(voce.getNomeOggetto())
+                .dimensioneFile(voce.getDimensioneFile())
+                .formatoFile(voce.getFormatoFile())
+                .codiceCantiere(voce.getCodiceCantiere())
+                .codiceLotto(voce.getCodiceLotto())
+                .codicePacchetto(voce.getCodicePacchetto())
+                .build();
+    }
+
+    /**
+     * Chiave dell'ultimo risultato: id e nome normalizzato, in Base64 per l'url.
+     */
+    private static String codifica(RicercaRisorsa voce) {
+        var chiave = voce.getId() + SEPARATORE_CHIAVE + voce.getNomeNormalizzato();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(chiave.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Chiave decodifica(String dopo) {
+        try {
+            var chiave = new String(Base64.getUrlDecoder().decode(dopo), StandardCharsets.UTF_8);
+            var separatore = chiave.indexOf(SEPARATORE_CHIAVE);
+            return new Chiave(new ObjectId(chiave.substring(0, separatore)), chiave.substring(separatore + 1));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new RicercaNonValidaException("Parametro dopo non valido: " + dopo, e);
+        }
+    }
+
+    private record Chiave(ObjectId id, String nome) {}
+}
@@ -0,0 +1,177 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.entity.RicercaRisorsa;
+import com.simonegenovesi.extractorfiledata.entity.StatoElaborazione;
+import com.simonegenovesi.extractorfiledata.payload.response.RicostruzioneRicercaResponse;
+import com.simonegenovesi.extractorfiledata.repository.RicercaRisorsaRepository;
+import com.simonegenovesi.extractorfiledata.util.IndiceNomi;
+import com.simonegenovesi.extractorfiledata.util.enumerated.FaseElaborazioneEnum;
+import com.simonegenovesi.extractorfiledata.util.enumerated.StatoRicostruzioneEnum;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Ricostruzione in background delle voci di {@link RicercaRisorsa} per i pacchetti salvati prima che l'indice di
+ * ricerca esistesse: i pacchetti già estratti non possono essere estratti di nuovo, quindi le loro voci vengono create
+ * dai metadati salvati.
+ * <p>
+ * I metadati arrivano dal cursore di {@link ArchivioRisorseService#flusso} e le voci sono inserite a blocchi di
+ * {@code archivio.dimensione-bucket}, con gli stessi id delle API. Un pacchetto viene indicizzato solo se non ha
+ * ancora voci e il suo salvataggio è concluso: le estrazioni in corso scrivono da sole le loro voci. La ricostruzione
+ * può quindi essere ripetuta senza duplicare voci. Ne viene eseguita una alla volta e il suo stato è tenuto in
+ * memoria su questo nodo.
+ */
+@Service
+@Slf4j
+public class RicostruzioneRicercaService {
+
+    private final ArchivioRisorseService archivioRisorseService;
+    private final RicercaRisorsaRepository ricercaRisorsaRepository;
+    private final CheckpointService checkpointService;
+    private final int dimensioneBlocco;
+
+    private final Object lock = new Object();
+    private Ricostruzione ultima;
+    private final ExecutorService esecutore = Executors.newSingleThreadExecutor(runnable -> {
+        var t = new Thread(runnable, "ricostruzione-ricerca");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RicostruzioneRicercaService(
+            ArchivioRisorseService archivioRisorseService,
+            RicercaRisorsaRepository ricercaRisorsaRepository,
+            CheckpointService checkpointService,
+            @Value("${archivio.dimensione-bucket:1000}") int dimensioneBlocco
+    ) {
+        this.archivioRisorseService = archivioRisorseService;
+        this.ricercaRisorsaRepository = ricercaRisorsaRepository;
+        this.checkpointService = checkpointService;
+        this.dimensioneBlocco = dimensioneBlocco;
+    }
+
+    /**
+     * Avvia la ricostruzione; se è già in corso ne restituisce lo stato.
+     */
+    public RicostruzioneRicercaResponse avvia() {
+        synchronized (lock) {
+            if (ultima == null || ultima.fine != 0) {
+                var ricostruzione = new Ricostruzione(LocalDateTime.now());
+                ultima = ricostruzione;
+                esecutore.execute(() -> esegui(ricostruzione));
+            }
+            return ultima.risposta();
+        }
+    }
+
+    public Optional<RicostruzioneRicercaResponse> stato() {
+        synchronized (lock) {
+            return Optional.ofNullable(ultima).map(Ricostruzione::risposta);
+        }
+    }
+
+    @PreDestroy
+    public void chiudi() {
+        esecutore.shutdownNow();
+    }
+
+    private void esegui(Ricostruzione ricostruzione) {
+        log.info("Ricostruzione dell'indice di ricerca avviata...");
+        // decisione per pacchetto: i metadati non arrivano raggruppati per pacchetto
+        Map<String, Boolean> pacchetti = new HashMap<>();
+        List<RicercaRisorsa> voci = new ArrayList<>(dimensioneBlocco);
+        try (var metadati = archivioRisorseService.flusso(null)) {
+            var iteratore = metadati.iterator();
+            while (iteratore.hasNext()) {
+                var metadato = iteratore.next();
+                var codici = List.of(metadato.getCodiceCantiere(), metadato.getCodiceLotto(), metadato.getCodicePacchetto());
+                if (!pacchetti.computeIfAbsent(CheckpointService.chiave(codici), chiave -> daIndicizzare(codici, ricostruzione))) {
+                    continue;
+                }
+                voci.add(IndiceNomi.voce(metadato, metadato.getId()));
+                if (voci.size() == dimensioneBlocco) {
+                    inserisci(voci, ricostruzione);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IllegalStateException("Ricostruzione interrotta");
+                }
+            }
+            inserisci(voci, ricostruzione);
+        } catch (RuntimeException e) {
+            log.error("Errore durante la ricostruzione dell'indice di ricerca", e);
+            ricostruzione.errore = e.getMessage();
+        } finally {
+            ricostruzione.fine = System.nanoTime();
+            var risposta = ricostruzione.risposta();
+            log.info("Ricostruzione dell'indice di ricerca {}: {} voci di {} pacchetti, {} pacchetti saltati in {} secondi",
+                    risposta.getStato(), risposta.getVociInserite(), risposta.getPacchettiIndicizzati(),
+                    risposta.getPacchettiSaltati(), risposta.getSecondi());
+        }
+    }
+
+    /**
+     * Vero se il salvataggio dei metadati del pacchetto è concluso e il pacchetto non ha voci. I pacchetti senza
+     * stato sono stati estratti prima dei checkpoint.
+     */
+    private boolean daIndicizzare(List<String> codici, Ricostruzione ricostruzione) {
+        var fase = checkpointService.trovaStato(codici).map(StatoElaborazione::getFase).orElse(null);
+        var concluso = fase == null || fase == FaseElaborazioneEnum.METADATI_SALVATI || fase == FaseElaborazioneEnum.COMPLETATA;
+        var indicizzare = concluso && !ricercaRisorsaRepository
+                .existsByCodiceCantiereAndCodiceLottoAndCodicePacchetto(codici.get(0), codici.get(1), codici.get(2));
+        if (indicizzare) {
+            ricostruzione.pacchettiIndicizzati++;
+        } else {
+            ricostruzione.pacchettiSaltati++;
+        }
+        return indicizzare;
+    }
+
+    private void inserisci(List<RicercaRisorsa> voci, Ricostruzione ricostruzione) {
+        if (voci.isEmpty()) {
+            return;
+        }
+        ricercaRisorsaRepository.insert(voci);
+        ricostruzione.vociInserite += voci.size();
+        voci.clear();
+    }
+
+    private static final class Ricostruzione {
+        private final LocalDateTime inizio;
+        private final long avvio = System.nanoTime();
+        // scritti dal thread della ricostruzione, letti dalle richieste di stato
+        private volatile long pacchettiIndicizzati;
+        private volatile long pacchettiSaltati;
+        private volatile long vociInserite;
+        private volatile long fine;
+        private volatile String errore;
+
+        private Ricostruzione(LocalDateTime inizio) {
+            this.inizio = inizio;
+        }
+
+        RicostruzioneRicercaResponse risposta() {
+            var stato = fine == 0 ? StatoRicostruzioneEnum.IN_CORSO
+                    : errore == null ? StatoRicostruzioneEnum.COMPLETATA : StatoRicostruzioneEnum.ERRORE;
+            return RicostruzioneRicercaResponse.builder()
+                    .stato(stato.name())
+                    .inizio(inizio.toString())
+                    .pacchettiIndicizzati(pacchettiIndicizzati)
+                    .pacchettiSaltati(pacchettiSaltati)
+                    .vociInserite(vociInserite)
+                    .secondi(((fine == 0 ? System.nanoTime() : fine) - avvio) / 1e9)
+                    .errore(errore)
+                    .build();
+        }
+    }
+}
@@ -1,24 +1,52 @@
 package com.simonegenovesi.extractorfiledata.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.simonegenovesi.extractorfiledata.config.CacheConfig;
+import com.simonegenovesi.extractorfiledata.entity.MetadatiRisorsa;
 import com.simonegenovesi.extractorfiledata.payload.response.MetadatiRisorsaResponse;
-import com.simonegenovesi.extractorfiledata.repository.MetadatiRisorsaRepository;
+import com.simonegenovesi.extractorfiledata.util.dto.RisultatoVersionato;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.modelmapper.ModelMapper;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.stream.Stream;
+
+import static com.simonegenovesi.extractorfiledata.util.Versioni.versiona;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class RisorseService {
 
-    private final MetadatiRisorsaRepository metadatiRisorsaRepository;
+    private final ArchivioRisorseService archivioRisorseService;
     private final ModelMapper modelMapper;
+    private final ObjectMapper objectMapper;
+
+    @Cacheable(cacheNames = CacheConfig.RISORSE, key = "T(com.simonegenovesi.extractorfiledata.config.CacheConfig).TUTTE")
+    public RisultatoVersionato<List<MetadatiRisorsaResponse>> getAllRisorse() {
+        return versiona(objectMapper, mappa(archivioRisorseService.trovaTutte()));
+    }
+
+    @Cacheable(cacheNames = CacheConfig.RISORSE, key = "#cantiere + '/' + #lotto + '/' + #pacchetto")
+    public RisultatoVersionato<List<MetadatiRisorsaResponse>> getRisorsePacchetto(String cantiere, String lotto, String pacchetto) {
+        return versiona(objectMapper, mappa(archivioRisorseService
+                .trovaPerPacchetto(cantiere, lotto, pacchetto)));
+    }
+
+    /**
+     * Risorse lette dal cursore e convertite una alla volta, senza cache: per le risposte in streaming.
+     * @param codici cantiere, lotto e pacchetto, oppure null per tutte le risorse
+     */
+    public Stream<MetadatiRisorsaResponse> flussoRisorse(List<String> codici) {
+        return archivioRisorseService.flusso(codici)
+                .map(risorsa -> modelMapper.map(risorsa, MetadatiRisorsaResponse.class));
+    }
 
-    public List<MetadatiRisorsaResponse> getAllRisorse() {
-        return metadatiRisorsaRepository.findAll()
+    private List<MetadatiRisorsaResponse> mappa(List<MetadatiRisorsa> risorse) {
+        return risorse
                 .stream()
                 .map(risorsa -> modelMapper
                         .map(risorsa, MetadatiRisorsaResponse.class))
@@ -0,0 +1,165 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.config.CacheConfig;
+import com.simonegenovesi.extractorfiledata.entity.MetadatiRisorsa;
+import com.simonegenovesi.extractorfiledata.event.DatiAggiornatiEvent;
+import com.simonegenovesi.extractorfiledata.payload.response.FasciaDimensioneResponse;
+import com.simonegenovesi.extractorfiledata.payload.response.StatisticaGruppoResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.Fields;
+import org.springframework.data.mongodb.core.aggregation.ProjectionOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+/**
+ * Statistiche sui metadati delle risorse calcolate da pipeline di aggregazione Mongo.
+ * <p>
+ * Il raggruppamento avviene nel database, sfruttando gli indici su pacchetto e formato, e i risultati
+ * restano nella cache {@code statistiche}, svuotata a ogni {@link DatiAggiornatiEvent}. Le pipeline
+ * partono dagli stadi di {@link ArchivioRisorseService#sorgente}, validi per entrambi i layout.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class StatisticheService {
+
+    // limiti delle fasce di dimensione: 0, 1KB, 10KB, ... 10GB, oltre
+    private static final Long[] LIMITI_FASCE = {
+            0L, 1L << 10, 10L << 10, 100L << 10, 1L << 20, 10L << 20, 100L << 20, 1L << 30, 10L << 30, Long.MAX_VALUE
+    };
+
+    private final MongoTemplate mongoTemplate;
+    private final ArchivioRisorseService archivioRisorseService;
+
+    /**
+     * Numero e dimensioni delle risorse per formato, opzionalmente filtrate per cantiere/lotto/pacchetto.
+     */
+    @Cacheable(cacheNames = CacheConfig.STATISTICHE, key = "'formato|' + #cantiere + '|' + #lotto + '|' + #pacchetto")
+    public List<StatisticaGruppoResponse> perFormato(String cantiere, String lotto, String pacchetto) {
+        var operazioni = filtro(cantiere, lotto, pacchetto);
+        operazioni.add(group("formatoFile")
+                .count().as("numRisorse")
+                .sum("dimensioneFile").as("dimTotale")
+                .min("dimensioneFile").as("dimMin")
+                .max("dimensioneFile").as("dimMax"));
+        operazioni.add(proiezioneGruppo());
+        operazioni.add(sort(Sort.Direction.DESC, "dimTotale"));
+        return esegui(operazioni, StatisticaGruppoResponse.class);
+    }
+
+    /**
+     * Totali per cantiere, con il numero di pacchetti di ciascuno.
+     */
+    @Cacheable(cacheNames = CacheConfig.STATISTICHE, key = "'cantiere'")
+    public List<StatisticaGruppoResponse> perCantiere() {
+        var operazioni = filtro(null, null, null);
+        operazioni.add(gruppoPerPacchetto());
+        operazioni.add(group("codiceCantiere")
+                .count().as("numPacchetti")
+                .sum("numRisorse").as("numRisorse")
+                .sum("dimTotale").as("dimTotale")
+                .min("dimMin").as("dimMin")
+                .max("dimMax").as("dimMax"));
+        operazioni.add(proiezioneGruppo().andInclude("numPacchetti"));
+        operazioni.add(sort(Sort.Direction.ASC, "gruppo"));
+        return esegui(operazioni, StatisticaGruppoResponse.class);
+    }
+
+    /**
+     * Totali per lotto (gruppo nel formato {@code cantiere/lotto}), opzionalmente per un solo cantiere.
+     */
+    @Cacheable(cacheNames = CacheConfig.STATISTICHE, key = "'lotto|' + #cantiere")
+    public List<StatisticaGruppoResponse> perLotto(String cantiere) {
+        var operazioni = filtro(cantiere, null, null);
+        operazioni.add(gruppoPerPacchetto());
+        operazioni.add(group(Fields.fields("codiceCantiere", "codiceLotto"))
+                .count().as("numPacchetti")
+                .sum("numRisorse").as("numRisorse")
+                .sum("dimTotale").as("dimTotale")
+                .min("dimMin").as("dimMin")
+                .max("dimMax").as("dimMax"));
+        operazioni.add(project("numRisorse", "dimTotale", "dimMin", "dimMax", "numPacchetti")
+                .and("_id.codiceCantiere").concat("/", Fields.field("_id.codiceLotto")).as("gruppo")
+                .and(ArithmeticOperators.Divide.valueOf("dimTotale").divideBy("numRisorse")).as("dimMedia"));
+        operazioni.add(sort(Sort.Direction.ASC, "gruppo"));
+        return esegui(operazioni, StatisticaGruppoResponse.class);
+    }
+
+    /**
+     * Istogramma delle dimensioni dei file su fasce logaritmiche.
+     */
+    @Cacheable(cacheNames = CacheConfig.STATISTICHE, key = "'dimensioni|' + #cantiere + '|' + #lotto + '|' + #pacchetto")
+    public List<FasciaDimensioneResponse> istogrammaDimensioni(String cantiere, String lotto, String pacchetto) {
+        var operazioni = filtro(cantiere, lotto, pacchetto);
+        operazioni.add(bucket("dimensioneFile")
+                .withBoundaries((Object[]) LIMITI_FASCE)
+                .andOutputCount().as("numRisorse")
+                .andOutput("dimensioneFile").sum().as("dimTotale"));
+        operazioni.add(project("numRisorse", "dimTotale").and("limiteInferiore").previousOperation());
+        var fasce = esegui(operazioni, FasciaDimensioneResponse.class);
+
+        var limiti = Arrays.asList(LIMITI_FASCE);
+        for (var fascia : fasce) {
+            fascia.setLimiteSuperiore(limiti.get(limiti.indexOf(fascia.getLimiteInferiore()) + 1));
+        }
+        return fasce;
+    }
+
+    private List<AggregationOperation> filtro(String cantiere, String lotto, String pacchetto) {
+        var criteria = new Criteria();
+        var filtrato = false;
+        if (cantiere != null) {
+            criteria = criteria.and("codiceCantiere").is(cantiere);
+            filtrato = true;
+        }
+        if (lotto != null) {
+            criteria = criteria.and("codiceLotto").is(lotto);
+            filtrato = true;
+        }
+        if (pacchetto != null) {
+            criteria = criteria.and("codicePacchetto").is(pacchetto);
+            filtrato = true;
+        }
+        return new ArrayList<>(archivioRisorseService.sorgente(filtrato ? criteria : null));
+    }
+
+    /**
+     * Primo livello dei raggruppamenti gerarchici: riduce le risorse a un documento per pacchetto.
+     */
+    private AggregationOperation gruppoPerPacchetto() {
+        return group(Fields.fields("codiceCantiere", "codiceLotto", "codicePacchetto"))
+                .count().as("numRisorse")
+                .sum("dimensioneFile").as("dimTotale")
+                .min("dimensioneFile").as("dimMin")
+                .max("dimensioneFile").as("dimMax");
+    }
+
+    private ProjectionOperation proiezioneGruppo() {
+        return project("numRisorse", "dimTotale", "dimMin", "dimMax")
+                .and("gruppo").previousOperation()
+                .and(ArithmeticOperators.Divide.valueOf("dimTotale").divideBy("numRisorse")).as("dimMedia");
+    }
+
+    private <T> List<T> esegui(List<AggregationOperation> operazioni, Class<T> tipo) {
+        var start = System.nanoTime();
+        var aggregazione = Aggregation.newAggregation(MetadatiRisorsa.class, operazioni)
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        var risultato = mongoTemplate.aggregate(aggregazione, archivioRisorseService.collezione(), tipo).getMappedResults();
+        log.info("Aggregazione statistiche eseguita in {} ms", (System.nanoTime() - start) / 1_000_000);
+        return risultato;
+    }
+}
@@ -0,0 +1,284 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.entity.Metrica;
+import com.simonegenovesi.extractorfiledata.exceptions.InvalidPathException;
+import com.simonegenovesi.extractorfiledata.exceptions.NoFilesFoundException;
+import com.simonegenovesi.extractorfiledata.payload.response.StimaResponse;
+import com.simonegenovesi.extractorfiledata.util.ControlloIo;
+import com.simonegenovesi.extractorfiledata.util.Elementi;
+import com.simonegenovesi.extractorfiledata.util.RilevamentoFormato;
+import com.simonegenovesi.extractorfiledata.util.dto.AnalisiFile;
+import com.simonegenovesi.extractorfiledata.util.dto.IntestazioneImmagine;
+import com.simonegenovesi.extractorfiledata.util.dto.MisuraMiniatura;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Stima di un'estrazione senza eseguirla: nessuna scrittura su Mongo, nessun claim del pacchetto, nessuna miniatura.
+ * <p>
+ * La scansione legge solo gli attributi dei file (numero e byte totali sono esatti). Sul campione vengono eseguiti
+ * l'analisi dell'estrazione e la lettura delle intestazioni delle immagini (pagine e dimensioni); su alcune immagini
+ * del campione tutti i profili vengono generati in memoria per misurare su questa macchina il tempo per pixel
+ * decodificato e i byte per pagina. I valori del campione sono estrapolati all'intero pacchetto.
+ */
+@Service
+@Slf4j
+public class StimaService {
+
+    @Value("${path.base::#{null}}")
+    private String pathBase;
+
+    private final Thumbnail thumbnail;
+    private final PipelineMiniature pipelineMiniature;
+    private final ControlloIo controlloIo;
+    private final RilevamentoFormato rilevamentoFormato;
+    private final double frazione;
+    private final int campioneMinimo;
+    private final int immaginiCalibrazione;
+    private final long seme;
+
+    public StimaService(
+            Thumbnail thumbnail,
+            PipelineMiniature pipelineMiniature,
+            ControlloIo controlloIo,
+            RilevamentoFormato rilevamentoFormato,
+            @Value("${stima.frazione-campione:0.05}") double frazione,
+            @Value("${stima.campione-minimo:200}") int campioneMinimo,
+            @Value("${stima.immagini-calibrazione:3}") int immaginiCalibrazione,
+            @Value("${stima.seme:42}") long seme
+    ) {
+        this.thumbnail = thumbnail;
+        this.pipelineMiniature = pipelineMiniature;
+        this.controlloIo = controlloIo;
+        this.rilevamentoFormato = rilevamentoFormato;
+        this.frazione = frazione;
+        this.campioneMinimo = campioneMinimo;
+        this.immaginiCalibrazione = immaginiCalibrazione;
+        this.seme = seme;
+    }
+
+    public StimaResponse stima(String relativePath) {
+        if (relativePath == null || relativePath.trim().isEmpty()) {
+            var error = "Path relativo nullo o vuoto: " + relativePath + ".";
+            log.error(error);
+            throw new InvalidPathException(error);
+        }
+        if (!System.getProperty("os.name").toLowerCase().contains("win")) {
+            relativePath = relativePath.replace("\\", "/");
+        }
+
+        var start = System.nanoTime();
+        var scansione = scansiona(Paths.get(pathBase, relativePath));
+        var secondiScansione = (System.nanoTime() - start) / 1_000_000_000.0;
+        if (scansione.file == 0) {
+            var warn = "Nessun file trovato per il path base '" + pathBase + "' " + "e relativo '" + relativePath + "'.";
+            log.warn(warn);
+            throw new NoFilesFoundException(warn);
+        }
+
+        var campioni = scansione.campione().parallelStream().map(this::analizza).toList();
+        var scala = (double) scansione.file / campioni.size();
+
+        long byteCampione = 0;
+        long nanosAnalisi = 0;
+        long immagini = 0;
+        long pagine = 0;
+        long pixelSorgente = 0;
+        long pixelDecodificati = 0;
+        Map<String, long[]> formati = new TreeMap<>();
+        for (var campione : campioni) {
+            byteCampione += campione.analisi().dimensione();
+            nanosAnalisi += campione.nanos();
+            var formato = formati.computeIfAbsent(campione.analisi().formato().getAbbreviation(), k -> new long[2]);
+            formato[0]++;
+            formato[1] += campione.analisi().dimensione();
+            if (campione.intestazione() != null) {
+                immagini++;
+                pagine += campione.intestazione().pagine();
+                pixelSorgente += campione.intestazione().pixelSorgente();
+                pixelDecodificati += campione.intestazione().pixelDecodificati();
+            }
+        }
+
+        // numeri estrapolati per conteggio, byte in proporzione ai byte totali (esatti)
+        List<Metrica.DettaglioRisorsa> dettagli = new ArrayList<>();
+        for (var entry : formati.entrySet()) {
+            var byteFormato = byteCampione == 0 ? 0 : Math.round((double) entry.getValue()[1] / byteCampione * scansione.byteTotali);
+            dettagli.add(Metrica.DettaglioRisorsa.builder()
+                    .formatoFile(entry.getKey())
+                    .metricheSummary(Metrica.MetricheSummary.builder()
+                            .numRisorse((int) Math.round(entry.getValue()[0] * scala))
+                            .dimTotale(byteFormato)
+                            .build())
+                    .build());
+        }
+
+        // i parallel stream dell'estrazione usano il common pool e il thread chiamante
+        var parallelismo = ForkJoinPool.getCommonPoolParallelism() + 1;
+        var risposta = StimaResponse.builder()
+                .fileTotali(scansione.file)
+                .byteTotali(scansione.byteTotali)
+                .fileCampionati(campioni.size())
+                .secondiScansione(secondiScansione)
+                .dettagliRisorse(dettagli)
+                .immaginiStimate(Math.round(immagini * scala))
+                .pagineStimate(Math.round(pagine * scala))
+                .pixelSorgenteStimati(Math.round(pixelSorgente * scala))
+                .pixelDecodificatiStimati(Math.round(pixelDecodificati * scala))
+                .secondiAnalisiStimati(nanosAnalisi * scala / parallelismo / 1_000_000_000.0);
+
+        var calibrazione = calibra(campioni);
+        if (!calibrazione.isEmpty()) {
+            long pixelMisurati = 0;
+            long nanosMisurati = 0;
+            long byteMisurati = 0;
+            for (var misura : calibrazione) {
+                pixelMisurati += misura.pixelDecodificati();
+                nanosMisurati += misura.nanos();
+                byteMisurati += misura.byteMiniature();
+            }
+            var nanosPerPixel = (double) nanosMisurati / Math.max(1, pixelMisurati);
+            var secondiCpu = nanosPerPixel * pixelDecodificati * scala / 1_000_000_000.0;
+            var thread = pipelineMiniature.getDecodifica().getThread() + pipelineMiniature.getRiduzione().getThread()
+                    + pipelineMiniature.getCodifica().getThread();
+            risposta.immaginiCalibrazione(calibrazione.size())
+                    .nanosPerPixel(nanosPerPixel)
+                    .secondiCpuMiniatureStimati(secondiCpu)
+                    .secondiMiniatureStimati(secondiCpu / Math.min(thread, Runtime.getRuntime().availableProcessors()))
+                    .byteMiniatureStimati(Math.round((double) byteMisurati / calibrazione.size() * pagine * scala));
+        }
+
+        log.info("Stima di {}: {} file ({} campionati) in {} secondi", relativePath, scansione.file, campioni.size(),
+                (System.nanoTime() - start) / 1_000_000_000.0);
+        return risposta.build();
+    }
+
+    /**
+     * Scansione dei soli attributi. Ogni file entra nel campione con probabilità {@code stima.frazione-campione};
+     * se il campione risulta più piccolo di {@code stima.campione-minimo} si usa un reservoir uniforme di quella
+     * dimensione, riempito nella stessa passata. Il seme fisso rende ripetibile la stima dello stesso pacchetto.
+     */
+    private Scansione scansiona(Path radice) {
+        var scansione = new Scansione(new SplittableRandom(seme));
+        if (!Files.isDirectory(radice)) {
+            return scansione;
+        }
+        log.info("Stima in... {}", radice);
+        try {
+            Files.walkFileTree(radice, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path cartella, BasicFileAttributes attributi) {
+                    // come la scansione dell'estrazione: le miniature già generate non sono file da elaborare
+                    return Elementi.isCartellaMiniature(cartella) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributi) {
+                    if (attributi.isRegularFile()) {
+                        scansione.aggiungi(file, attributi.size(), frazione, campioneMinimo);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    log.warn("File non leggibile durante la stima: {}", file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.error("Errore durante la lettura della directory: {}", e.getMessage());
+        }
+        return scansione;
+    }
+
+    private Campione analizza(Path path) {
+        var file = path.toFile();
+        var start = System.nanoTime();
+        var analisi = Elementi.analizza(file, controlloIo, rilevamentoFormato);
+        var nanos = System.nanoTime() - start;
+        IntestazioneImmagine intestazione = null;
+        if (analisi.formato().isRaster()) {
+            try {
+                intestazione = thumbnail.intestazione(file);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Intestazione non leggibile: {}", file, e);
+            }
+        }
+        return new Campione(analisi, nanos, intestazione);
+    }
+
+    /**
+     * Genera in memoria le miniature delle prime immagini leggibili del campione, in sequenza per misurarne il costo
+     * su un solo thread.
+     */
+    private List<MisuraMiniatura> calibra(List<Campione> campioni) {
+        List<MisuraMiniatura> misure = new ArrayList<>();
+        for (var campione : campioni) {
+            if (misure.size() >= immaginiCalibrazione) {
+                break;
+            }
+            if (campione.intestazione() == null) {
+                continue;
+            }
+            try {
+                var misura = thumbnail.misura(campione.analisi().file());
+                if (misura != null) {
+                    misure.add(misura);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Calibrazione non riuscita su {}", campione.analisi().file(), e);
+            }
+        }
+        return misure;
+    }
+
+    private record Campione(AnalisiFile analisi, long nanos, IntestazioneImmagine intestazione) {}
+
+    private static class Scansione {
+        private final SplittableRandom random;
+        private final List<Path> bernoulli = new ArrayList<>();
+        private final List<Path> reservoir = new ArrayList<>();
+        private long file;
+        private long byteTotali;
+
+        Scansione(SplittableRandom random) {
+            this.random = random;
+        }
+
+        void aggiungi(Path path, long dimensione, double frazione, int campioneMinimo) {
+            file++;
+            byteTotali += dimensione;
+            if (random.nextDouble() < frazione) {
+                bernoulli.add(path);
+            }
+            if (reservoir.size() < campioneMinimo) {
+                reservoir.add(path);
+            } else {
+                var indice = random.nextLong(file);
+                if (indice < campioneMinimo) {
+                    reservoir.set((int) indice, path);
+                }
+            }
+        }
+
+        List<Path> campione() {
+            return bernoulli.size() >= reservoir.size() ? bernoulli : reservoir;
+        }
+    }
+}
@@ -1,18 +1,25 @@
 package com.simonegenovesi.extractorfiledata.service;
 
+import com.simonegenovesi.extractorfiledata.config.ProfiliMiniature;
 import com.simonegenovesi.extractorfiledata.entity.Log;
+import com.simonegenovesi.extractorfiledata.event.jfr.PaginaDecodificataEvent;
 import com.simonegenovesi.extractorfiledata.exceptions.ThumbnailProcessingException;
 import com.simonegenovesi.extractorfiledata.repository.LogRepository;
-import com.simonegenovesi.extractorfiledata.util.dto.TileResult;
+import com.simonegenovesi.extractorfiledata.util.ControlloIo;
+import com.simonegenovesi.extractorfiledata.util.ScrittoreJpeg;
+import com.simonegenovesi.extractorfiledata.util.dto.IntestazioneImmagine;
+import com.simonegenovesi.extractorfiledata.util.dto.MisuraMiniatura;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.coobird.thumbnailator.Thumbnails;
 import org.springframework.stereotype.Service;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -20,9 +27,14 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.simonegenovesi.extractorfiledata.util.Elementi.CARTELLA_MINIATURE;
 
 /**
- * Servizio Spring che gestisce la generazione di miniature da file TIFF multipagina.
+ * Servizio Spring che gestisce la generazione di miniature da immagini raster (TIFF multipagina, JPEG, PNG, GIF, BMP).
  * Utilizza batching e multithreading per gestire le risorse in modo efficiente.
  */
 @Service
@@ -31,18 +43,36 @@ import java.util.concurrent.*;
 public class Thumbnail {
 
     private final LogRepository logRepository;
+    private final GeneratorePiramide generatorePiramide;
+    private final ProfiliMiniature profiliMiniature;
+    private final PipelineMiniature pipelineMiniature;
+    private final RasterFuoriHeap rasterFuoriHeap;
+    private final ControlloIo controlloIo;
 
     /**
-     * Avvia il processo di generazione delle miniature per una lista di file TIFF.
+     * Avvia il processo di generazione delle miniature per una lista di immagini.
      * L'elaborazione avviene in batch e sfrutta il multithreading per prestazioni migliori.
-     * @param files lista di file TIFF da elaborare
+     * @param files lista di immagini da elaborare
      */
     public void doThumbnail(List<File> files) {
+        doThumbnail(files, null, file -> { }, (file, errore) -> { });
+    }
+
+    /**
+     * Come {@link #doThumbnail(List)}, notificando ogni immagine la cui miniatura è stata scritta o non è stata
+     * generata. Un'immagine illeggibile non interrompe le altre: l'errore va solo a {@code onFallito}.
+     * @param files lista di immagini da elaborare
+     * @param codici pacchetto delle immagini, registrato nei log; null se non noto
+     * @param onCompletato callback invocata per ogni immagine completata (checkpoint)
+     * @param onFallito callback invocata per ogni immagine fallita, con la causa
+     */
+    public void doThumbnail(List<File> files, List<String> codici, Consumer<File> onCompletato,
+                            BiConsumer<File, Throwable> onFallito) {
         long start = System.nanoTime(); // tempo di inizio
-        log.info("Inizio creazione delle miniature... Trovati {} file TIFF.", files.size());
+        log.info("Inizio creazione delle miniature... Trovate {} immagini.", files.size());
         logMemoryUsage("Prima di iniziare l'elaborazione di tutti i batch");
 
-        saveLog("Inizio elaborazione miniature per " + files.size() + " file."); // Salva log di inizio
+        saveLog("Inizio elaborazione miniature per " + files.size() + " file.", codici); // Salva log di inizio
 
         try {
             ImageIO.scanForPlugins(); // garantisce il caricamento dei plugin necessari
@@ -54,89 +84,208 @@ public class Thumbnail {
         final long TARGET_BATCH_MEMORY = 500 * 1024 * 1024; // soglia massima memoria batch (500MB)
         final int MAX_BATCH_SIZE = 20;  // massimo numero di file per batch
 
-        int corePoolSize = Math.max(2, Runtime.getRuntime().availableProcessors() - 2); // evita di saturare la CPU
-        int maxPoolSize = corePoolSize * 2;
-        int queueSize = maxPoolSize * 2;
-
-        ExecutorService batchExecutor = new ThreadPoolExecutor(
-                corePoolSize,
-                maxPoolSize,
-                30L,
-                TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>(queueSize),
-                new ThreadPoolExecutor.CallerRunsPolicy()
-        );
-
         try {
             List<File> currentBatch = new ArrayList<>();
             long currentBatchSize = 0;
             int fileCount = 0; // Contatore per il progresso
 
-            for (File tiff : files) {
-                if (!tiff.exists() || !tiff.isFile()) {
-                    log.error("File TIFF non valido: {}", tiff);
-                    throw new ThumbnailProcessingException("File TIFF non valido: " + tiff);
+            for (File file : files) {
+                if (!file.exists() || !file.isFile()) {
+                    log.error("File immagine non valido: {}", file);
+                    saveLog("File immagine non valido: " + file.getName(), codici); // Salva log di errore
+                    onFallito.accept(file, new ThumbnailProcessingException("File immagine non valido: " + file));
+                    continue;
                 }
 
-                long fileSize = tiff.length(); // dimensione del file corrente
+                long fileSize = file.length(); // dimensione del file corrente
 
                 // verifica se superiamo il limite di memoria o di numero file
                 if (currentBatchSize + fileSize > TARGET_BATCH_MEMORY
                         && !currentBatch.isEmpty()
                         || currentBatch.size() >= MAX_BATCH_SIZE) {
-                    processBatch(batchExecutor, currentBatch); // elabora batch corrente
+                    processBatch(currentBatch, codici, onCompletato, onFallito); // elabora batch corrente
                     currentBatch = new ArrayList<>();
                     currentBatchSize = 0;
                 }
 
-                currentBatch.add(tiff); // aggiunge il file al batch
+                currentBatch.add(file); // aggiunge il file al batch
                 currentBatchSize += fileSize;
                 fileCount++;
-                log.info("Elaborazione file {} di {} : {}", fileCount, files.size(), tiff.getName()); // Log di progresso
+                log.info("Elaborazione file {} di {} : {}", fileCount, files.size(), file.getName()); // Log di progresso
             }
 
             // Elabora l'ultimo batch, se presente
             if (!currentBatch.isEmpty()) {
-                processBatch(batchExecutor, currentBatch); // elabora batch rimanente
+                processBatch(currentBatch, codici, onCompletato, onFallito); // elabora batch rimanente
             }
 
         } catch (Exception e) {
             log.error("Errore durante l'elaborazione delle miniature", e);
             throw new ThumbnailProcessingException("Errore durante l'elaborazione delle miniature", e);
         } finally {
-            shutdownAndAwaitTermination(batchExecutor, "batchExecutor"); // chiude pool
+            pipelineMiniature.logStatistiche();
         }
 
         long end = System.nanoTime();
         log.info("Elaborazione completata. Tempo totale: {} secondi", (end - start) / 1_000_000_000.0);
-        saveLog("Elaborazione completata. Tempo totale: " + (end - start) / 1_000_000_000.0 + " secondi"); // Salva log di fine
+        saveLog("Elaborazione completata. Tempo totale: " + (end - start) / 1_000_000_000.0 + " secondi", codici); // Salva log di fine
+    }
+
+    /**
+     * Genera subito la miniatura di una singola immagine (tutte le pagine, per i TIFF), senza batching.
+     * @param file immagine da elaborare
+     * @param codici pacchetto dell'immagine, registrato nei log
+     */
+    public void generaMiniatura(File file, List<String> codici) {
+        try {
+            elaboraImmagine(file, codici).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof ThumbnailProcessingException t ? t
+                    : new ThumbnailProcessingException("Errore nella generazione della miniatura di " + file.getName(), e.getCause());
+        }
+    }
+
+    /**
+     * Percorso della miniatura di un file: {@code <parent>/thumbnails/<nome>.jpg}, con il suffisso
+     * {@code _page_N} prima dell'estensione per le pagine dei TIFF multipagina. Il nome conserva l'estensione della
+     * sorgente ({@code foo.tif.jpg}): {@code foo.tif} e {@code foo.jpg} nella stessa cartella hanno miniature
+     * distinte.
+     * @param sorgente file originale
+     * @param pagina indice della pagina, oppure -1 per i TIFF a pagina singola
+     */
+    public static Path percorsoMiniatura(Path sorgente, int pagina) {
+        return percorsoMiniatura(sorgente, pagina, "");
+    }
+
+    /**
+     * Come {@link #percorsoMiniatura(Path, int)}, con il suffisso di un profilo: {@code <nome><suffisso>.jpg}.
+     */
+    public static Path percorsoMiniatura(Path sorgente, int pagina, String suffisso) {
+        var nome = sorgente.getFileName().toString();
+        if (pagina >= 0) {
+            nome = nomePagina(nome, pagina);
+        }
+        return sorgente.getParent()
+                .resolve(CARTELLA_MINIATURE)
+                .resolve(nome + suffisso + ".jpg");
+    }
+
+    /**
+     * Nome di una pagina di un TIFF multipagina: {@code <nome>_page_N.<estensione>}.
+     */
+    public static String nomePagina(String nome, int pagina) {
+        var punto = nome.lastIndexOf('.');
+        return punto < 0
+                ? nome + "_page_" + pagina
+                : nome.substring(0, punto) + "_page_" + pagina + nome.substring(punto);
+    }
+
+    /**
+     * Descrittore DZI della piramide di una pagina, accanto alla miniatura: {@code <nome>.dzi}.
+     */
+    public static Path percorsoPiramide(Path sorgente, int pagina) {
+        var miniatura = percorsoMiniatura(sorgente, pagina).getFileName().toString();
+        return percorsoMiniatura(sorgente, pagina).resolveSibling(miniatura.replaceFirst("\\.jpg$", ".dzi"));
+    }
+
+    /**
+     * Legge la sola intestazione dell'immagine, senza decodificarne i raster: pagine, pixel originali e pixel che
+     * la decodifica produrrebbe. In modalità piramide le pagine TIFF sono decodificate per intero, a strisce.
+     * @return null se nessun reader riconosce il file
+     */
+    public IntestazioneImmagine intestazione(File file) throws IOException {
+        try (ImageInputStream input = controlloIo.apriImmagine(file)) {
+            var readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            var reader = readers.next();
+            try {
+                reader.setInput(input);
+                var numPages = isTiff(reader) ? reader.getNumImages(true) : 1;
+                var piramide = generatorePiramide.isAbilitata() && isTiff(reader);
+                long pixelSorgente = 0;
+                long pixelDecodificati = 0;
+                for (int page = 0; page < numPages; page++) {
+                    var larghezza = (long) reader.getWidth(page);
+                    var altezza = (long) reader.getHeight(page);
+                    var passo = piramide ? 1 : passo(reader, page);
+                    pixelSorgente += larghezza * altezza;
+                    pixelDecodificati += ((larghezza + passo - 1) / passo) * ((altezza + passo - 1) / passo);
+                }
+                return new IntestazioneImmagine(numPages, pixelSorgente, pixelDecodificati);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Genera in memoria tutti i profili della prima pagina, senza scrivere file né log: misura su questa macchina
+     * il tempo di decodifica, riduzione e codifica e i byte prodotti. La memoria è riservata nel budget della pipeline.
+     * @return null se il file non è leggibile o la pagina andrebbe decodificata fuori heap
+     */
+    public MisuraMiniatura misura(File file) throws IOException {
+        try (ImageInputStream input = controlloIo.apriImmagine(file)) {
+            var readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            var reader = readers.next();
+            try {
+                reader.setInput(input);
+                var stima = stimaMemoria(reader, 0);
+                if (rasterFuoriHeap.isNecessario(stima)) {
+                    return null;
+                }
+                var memoria = pipelineMiniature.riservaMemoria(stima);
+                try {
+                    var start = System.nanoTime();
+                    var image = removeAlphaChannel(leggiSottocampionata(reader, 0));
+                    var pixel = (long) image.getWidth() * image.getHeight();
+                    long byteMiniature = 0;
+                    var corrente = image;
+                    for (var profilo : profiliMiniature.perLatoDecrescente()) {
+                        corrente = riduci(corrente, profilo.getLato());
+                        byteMiniature += ScrittoreJpeg.dimensione(corrente, profilo.getQualita());
+                    }
+                    return new MisuraMiniatura(pixel, System.nanoTime() - start, byteMiniature);
+                } finally {
+                    pipelineMiniature.rilasciaMemoria(memoria);
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
     }
 
     /**
-     * Elabora un batch di file TIFF in parallelo.
-     * @param executor executor che gestisce i thread
+     * Elabora un batch di immagini attraverso la pipeline e attende il completamento di tutti i file.
      * @param batch lista dei file da elaborare
+     * @param onCompletato callback invocata per ogni file completato
+     * @param onFallito callback invocata per ogni file fallito; il batch prosegue con gli altri
      */
-    private void processBatch(ExecutorService executor, List<File> batch) {
+    private void processBatch(List<File> batch, List<String> codici, Consumer<File> onCompletato,
+                              BiConsumer<File, Throwable> onFallito) {
         log.info("Elaborazione di un batch di {} file", batch.size());
         logMemoryUsage("Prima del batch");
 
-        List<Future<Void>> futures = new ArrayList<>();
-        for (var tiff : batch) {
-            futures.add(executor.submit(() -> {
-                processTiffInTiles(tiff); // elabora ogni file TIFF nel batch
-                return null;
-            }));
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (var file : batch) {
+            futures.add(elaboraImmagine(file, codici).thenRun(() -> onCompletato.accept(file))); // checkpoint del singolo file
         }
 
-        for (var future : futures) {
+        for (int i = 0; i < futures.size(); i++) {
+            var file = batch.get(i);
             try {
-                future.get(); // attende il completamento
-            } catch (ExecutionException | InterruptedException e) {
-                log.error("Errore nell'elaborazione di un'immagine", e);
-                saveLog("Errore nell'elaborazione di un'immagine: " + e.getMessage()); // Salva log di errore
+                futures.get(i).get(); // attende il completamento
+            } catch (ExecutionException e) {
+                log.error("Errore nell'elaborazione dell'immagine {}", file.getName(), e.getCause());
+                saveLog("Errore nell'elaborazione dell'immagine " + file.getName() + ": " + e.getCause().getMessage(), codici); // Salva log di errore
+                onFallito.accept(file, e.getCause());
+            } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-                throw new ThumbnailProcessingException("Errore nell'elaborazione di un'immagine del batch", e);
+                throw new ThumbnailProcessingException("Elaborazione del batch interrotta", e);
             }
         }
         logMemoryUsage("Dopo il batch");
@@ -144,163 +293,237 @@ public class Thumbnail {
     }
 
     /**
-     * Elabora un TIFF multipagina dividendo ogni pagina in tile.
-     * @param tiff file TIFF da elaborare
+     * Avvia la pipeline per un'immagine: la decodifica delle pagine avviene sullo stadio di decodifica, che passa
+     * ogni pagina allo stadio di riduzione e prosegue con la successiva senza attenderla.
+     * @return future completato quando tutti i profili di tutte le pagine sono stati scritti
+     */
+    private CompletableFuture<Void> elaboraImmagine(File file, List<String> codici) {
+        return CompletableFuture
+                .supplyAsync(() -> decodificaImmagine(file, codici), pipelineMiniature.getDecodifica())
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * Decodifica le pagine di un'immagine e ne sottomette la riduzione. Solo i TIFF sono multipagina:
+     * degli altri formati (es. GIF animate) si usa il primo fotogramma. Ogni pagina riserva la propria
+     * memoria stimata nel budget della pipeline e la rilascia quando i suoi profili sono scritti.
+     * Le pagine il cui raster supererebbe {@code thumbnail.fuori-heap.soglia-mb} passano da {@link RasterFuoriHeap}.
+     * @param file immagine da elaborare
      */
-    private void processTiffInTiles(File tiff) {
-        try (ImageInputStream input = ImageIO.createImageInputStream(tiff)) {
+    private CompletableFuture<Void> decodificaImmagine(File file, List<String> codici) {
+        try (ImageInputStream input = controlloIo.apriImmagine(file)) {
             var start = System.nanoTime();
             var readers = ImageIO.getImageReaders(input);
             if (!readers.hasNext()) {
-                log.warn("Nessun reader trovato per il file {}", tiff.getName());
-                saveLog("Nessun reader trovato per il file: " + tiff.getName()); // Salva log di warning
-                throw new ThumbnailProcessingException("Nessun reader trovato per il file: " + tiff.getName());
+                log.warn("Nessun reader trovato per il file {}", file.getName());
+                saveLog("Nessun reader trovato per il file: " + file.getName(), codici); // Salva log di warning
+                throw new ThumbnailProcessingException("Nessun reader trovato per il file: " + file.getName());
             }
             var reader = readers.next();
-            reader.setInput(input);
-            var numPages = reader.getNumImages(true); // numero di pagine nel TIFF
+            try {
+                reader.setInput(input);
+                // numero di pagine nel TIFF; per gli altri formati evita di scorrere tutti i fotogrammi
+                var numPages = isTiff(reader) ? reader.getNumImages(true) : 1;
+                var parentPath = file.toPath().getParent();
 
-            if(numPages > 1) { // eseguito solo se il Tiff possiede piu di una pagina
+                List<CompletableFuture<Void>> pagine = new ArrayList<>();
                 for (int page = 0; page < numPages; page++) {
-                    var fullImage = reader.read(page);
-                    fullImage = removeAlphaChannel(fullImage); // rimuove eventuale trasparenza
-                    var parentPath = tiff.toPath().getParent();
-                    log.info("Elaborazione tiles per {} pagina {}", tiff.getName(), page);
-                    processImageAsTiledThumbnail(tiff.getName(), parentPath, fullImage, page);
+                    // il suffisso di pagina si usa solo se il Tiff possiede piu di una pagina
+                    var pageIndex = numPages > 1 ? page : -1;
+                    var fileName = pageIndex < 0 ? file.getName() : nomePagina(file.getName(), page);
+                    var stima = stimaMemoria(reader, page);
+                    // le pagine oltre la soglia vengono decodificate a strisce su un file mappato
+                    var fuoriHeap = !(generatorePiramide.isAbilitata() && isTiff(reader)) && rasterFuoriHeap.isNecessario(stima);
+                    var memoria = pipelineMiniature.riservaMemoria(fuoriHeap
+                            ? rasterFuoriHeap.memoriaHeap(reader, page, passo(reader, page), profiliMiniature.latoMassimo())
+                            : stima);
+                    var evento = new PaginaDecodificataEvent();
+                    evento.begin();
+                    BufferedImage image;
+                    try {
+                        image = fuoriHeap
+                                ? rasterFuoriHeap.leggiRidotta(reader, page, passo(reader, page), profiliMiniature.latoMassimo())
+                                : removeAlphaChannel(leggiPagina(reader, file, page, pageIndex)); // rimuove eventuale trasparenza
+                    } catch (IOException | RuntimeException e) {
+                        pipelineMiniature.rilasciaMemoria(memoria);
+                        throw e;
+                    }
+                    if (evento.shouldCommit()) {
+                        registraDecodifica(evento, file, reader, page, image, fuoriHeap);
+                    }
+                    log.info("Pagina {} di {} decodificata", page, file.getName());
+                    pagine.add(CompletableFuture
+                            .supplyAsync(() -> processImage(fileName, parentPath, image, codici), pipelineMiniature.getRiduzione())
+                            .thenCompose(Function.identity())
+                            .whenComplete((esito, errore) -> pipelineMiniature.rilasciaMemoria(memoria)));
                 }
-            } else {
-                var fullImage = reader.read(0);
-                fullImage = removeAlphaChannel(fullImage);
-                var parentPath = tiff.toPath().getParent();
-                log.info("Elaborazione tiles per {}", tiff.getName());
-                processImageAsTiledThumbnail(tiff.getName(), parentPath, fullImage, -1);
-            }
-
 
-            var end = System.nanoTime();
-            log.info("Thumbnail creata {} in {} secondi", tiff.getName(), (end - start) / 1_000_000_000.0);
-            saveLog("Thumbnail creata " + tiff.getName() + " in " + (end - start) / 1_000_000_000.0 + " secondi"); // Salva log di successo
+                return CompletableFuture.allOf(pagine.toArray(CompletableFuture[]::new)).thenRun(() -> {
+                    var end = System.nanoTime();
+                    log.info("Thumbnail creata {} in {} secondi", file.getName(), (end - start) / 1_000_000_000.0);
+                    saveLog("Thumbnail creata " + file.getName() + " in " + (end - start) / 1_000_000_000.0 + " secondi", codici); // Salva log di successo
+                });
+            } finally {
+                reader.dispose();
+            }
         } catch (IOException e) {
-            log.error("Errore durante la lettura del TIFF {}", tiff.getName(), e);
-            saveLog("Errore durante la lettura del TIFF " + tiff.getName() + ": " + e.getMessage()); // Salva log di errore
-            throw new ThumbnailProcessingException("Errore durante la lettura del TIFF " + tiff.getName(), e);
+            log.error("Errore durante la lettura dell'immagine {}", file.getName(), e);
+            saveLog("Errore durante la lettura dell'immagine " + file.getName() + ": " + e.getMessage(), codici); // Salva log di errore
+            throw new ThumbnailProcessingException("Errore durante la lettura dell'immagine " + file.getName(), e);
         }
     }
 
+    private static void registraDecodifica(PaginaDecodificataEvent evento, File file, ImageReader reader, int page,
+                                           BufferedImage image, boolean fuoriHeap) throws IOException {
+        var colore = image.getColorModel();
+        var buffer = image.getRaster().getDataBuffer();
+        evento.percorso = file.getPath();
+        evento.pagina = page;
+        evento.larghezzaSorgente = reader.getWidth(page);
+        evento.altezzaSorgente = reader.getHeight(page);
+        evento.larghezza = image.getWidth();
+        evento.altezza = image.getHeight();
+        // es. "DirectColorModel 24 bit, 3 componenti"
+        evento.modelloColore = colore.getClass().getSimpleName() + " " + colore.getPixelSize() + " bit, "
+                + colore.getNumComponents() + " componenti";
+        evento.byteRaster = (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        evento.fuoriHeap = fuoriHeap;
+        evento.commit();
+    }
+
     /**
-     * Divide l'immagine in tile ed elabora ogni tile in parallelo, quindi le ricompone in una sola immagine.
+     * Legge la pagina alla risoluzione minima utile per i profili. In modalità piramide la pagina TIFF è letta a strisce
+     * per generare la DZI (solo i TIFF hanno accesso diretto alle strisce: negli altri formati ogni regione
+     * ripartirebbe dall'inizio del file) e viene restituito il livello ridotto più vicino al profilo più grande. Altrimenti,
+     * se la pagina supera il doppio del profilo più grande, viene decodificata con sottocampionamento:
+     * il decoder salta righe e colonne invece di produrre il raster intero. Per i PNG interlacciati si
+     * decodificano solo i passaggi Adam7 che contengono i pixel campionati.
+     * @param pageIndex indice usato nei nomi dei file, -1 per le immagini a pagina singola
      */
-    private void processImageAsTiledThumbnail(String fileName, Path parentPath, BufferedImage image, int pageIndex) {
-        var tileSize = 1024;
-        var width = image.getWidth();
-        var height = image.getHeight();
-
-        var xTiles = (int) Math.ceil((double) width / tileSize);
-        var yTiles = (int) Math.ceil((double) height / tileSize);
-
-        var stitchedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        var g = stitchedImage.createGraphics();
-
-        var cores = Runtime.getRuntime().availableProcessors();
-        var queueSize = Math.max(1, (xTiles * yTiles) - cores);
-        var tileExecutor = new ThreadPoolExecutor(
-                cores,
-                cores,
-                0L,
-                TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<>(queueSize),
-                new ThreadPoolExecutor.CallerRunsPolicy()
-        );
+    private BufferedImage leggiPagina(ImageReader reader, File file, int page, int pageIndex) throws IOException {
+        if (generatorePiramide.isAbilitata() && isTiff(reader)) {
+            var dzi = percorsoPiramide(file.toPath(), pageIndex);
+            Files.createDirectories(dzi.getParent());
+            return generatorePiramide.genera(reader, page, dzi, profiliMiniature.latoMassimo());
+        }
+        return leggiSottocampionata(reader, page);
+    }
 
-        try {
-            List<Future<TileResult>> futures = new ArrayList<>();
-
-            for (int y = 0; y < yTiles; y++) {
-                for (int x = 0; x < xTiles; x++) {
-                    final var tileX = x;
-                    final var tileY = y;
-                    futures.add(tileExecutor.submit(() -> {
-                        var tileWidth = Math.min(tileSize, width - tileX * tileSize);
-                        var tileHeight = Math.min(tileSize, height - tileY * tileSize);
-                        var tile = image.getSubimage(tileX * tileSize, tileY * tileSize, tileWidth, tileHeight);
-                        return new TileResult(tileX, tileY, tile);
-                    }));
-                }
-            }
+    private BufferedImage leggiSottocampionata(ImageReader reader, int page) throws IOException {
+        var passo = passo(reader, page);
+        if (passo <= 1) {
+            return reader.read(page);
+        }
+        var param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(passo, passo, 0, 0);
+        if (isPng(reader)) {
+            param.setSourceProgressivePasses(0, passaggiAdam7(passo));
+        }
+        return reader.read(page, param);
+    }
 
-            for (Future<TileResult> future : futures) {
-                var result = future.get();
-                g.drawImage(result.image(), result.x() * tileSize, result.y() * tileSize, null);
-                //log.info("Tile {}-{} elaborata.", result.x(), result.y()); // Rimossa log tile individuale
-            }
+    /**
+     * Passo di sottocampionamento della decodifica: resta almeno il doppio del profilo più grande, così la riduzione
+     * finale filtra l'aliasing. Per i PNG il passo è allineato alla griglia dei passaggi Adam7 (multiplo di 8, oppure 4 o 2).
+     */
+    private int passo(ImageReader reader, int page) throws IOException {
+        var passo = Math.max(reader.getWidth(page), reader.getHeight(page)) / (2 * profiliMiniature.latoMassimo());
+        if (passo > 1 && isPng(reader)) {
+            passo = passo >= 8 ? passo - passo % 8 : Integer.highestOneBit(passo);
+        }
+        return Math.max(1, passo);
+    }
 
-            g.dispose();
-            if(pageIndex < 0){
-                processImage(fileName, parentPath, stitchedImage);
-            } else {
-                processImage(
-                        fileName.replace(".tif", "_page_" + pageIndex + ".tif"),
-                        parentPath,
-                        stitchedImage
-                );
-            }
+    /**
+     * Numero di passaggi Adam7 che coprono la griglia del passo: i pixel multipli di 8 sono tutti nel primo
+     * passaggio, quelli multipli di 4 nei primi tre, quelli pari nei primi cinque. I PNG non interlacciati
+     * hanno un solo passaggio e ignorano il limite.
+     */
+    private static int passaggiAdam7(int passo) {
+        if (passo % 8 == 0) {
+            return 1;
+        }
+        return passo % 4 == 0 ? 3 : passo % 2 == 0 ? 5 : 7;
+    }
+
+    /**
+     * Memoria occupata dal raster decodificato della pagina (ARGB, 4 byte per pixel) e dalla copia di lavoro della
+     * prima riduzione. In modalità piramide si stima il livello conservato per la miniatura, le strisce hanno un limite proprio.
+     */
+    private long stimaMemoria(ImageReader reader, int page) throws IOException {
+        var larghezza = (long) reader.getWidth(page);
+        var altezza = (long) reader.getHeight(page);
+        var passo = generatorePiramide.isAbilitata() && isTiff(reader)
+                ? Math.max(1, Math.max(larghezza, altezza) / profiliMiniature.latoMassimo())
+                : passo(reader, page);
+        return ((larghezza + passo - 1) / passo) * ((altezza + passo - 1) / passo) * 4 * 2;
+    }
 
+    private static boolean isTiff(ImageReader reader) throws IOException {
+        return reader.getFormatName().toLowerCase().startsWith("tif");
+    }
 
-        } catch (Exception e) {
-            if(pageIndex < 0){
-                log.error("Errore durante l'unione delle tiles per {}", fileName, e);
-                saveLog("Errore durante l'unione delle tiles per " + fileName + ": " + e.getMessage()); // Salva log di errore
-                throw new ThumbnailProcessingException("Errore durante l'unione delle tiles per " + fileName, e);
-            } else {
-                log.error("Errore durante l'unione delle tiles per {} pagina {}", fileName, pageIndex, e);
-                saveLog("Errore durante l'unione delle tiles per " + fileName + " pagina " + pageIndex + ": " + e.getMessage());
-                throw new ThumbnailProcessingException("Errore durante l'unione delle tiles per " + fileName + " pagina " + pageIndex, e);
-            }
-        } finally {
-            tileExecutor.shutdown();
-        }
+    private static boolean isPng(ImageReader reader) throws IOException {
+        return reader.getFormatName().equalsIgnoreCase("png");
     }
 
     /**
-     * Ridimensiona l'immagine ricomposta e la salva come thumbnail JPG.
+     * Stadio di riduzione: produce tutti i profili di miniatura della pagina. Le riduzioni sono in cascata, dal profilo
+     * più grande al più piccolo, e la codifica JPEG di ogni profilo passa allo stadio di codifica.
+     * @return future completato quando tutti i profili sono stati scritti
      */
-    private void processImage(String fileName, Path parentPath, BufferedImage image) {
+    private CompletableFuture<Void> processImage(String fileName, Path parentPath, BufferedImage image, List<String> codici) {
         try {
             log.info("Generazione della thumbnail dell'immagine {} in corso...", fileName);
 
             if (image == null) {
                 log.warn("Formato non supportato o file corrotto: {}", fileName);
-                saveLog("Formato non supportato o file corrotto: " + fileName); // Salva log di warning
+                saveLog("Formato non supportato o file corrotto: " + fileName, codici); // Salva log di warning
                 throw new ThumbnailProcessingException("Formato non supportato o file corrotto: " + fileName);
             }
 
-            var outputDirectory = parentPath.resolve("thumbnails");
+            var outputDirectory = parentPath.resolve(CARTELLA_MINIATURE);
             if (Files.notExists(outputDirectory)) {
                 Files.createDirectories(outputDirectory);
             }
 
-            var originalWidth = image.getWidth();
-            var originalHeight = image.getHeight();
-            var maxLongSide = 1200;
-
-            var newWidth = (originalWidth >= originalHeight) ? maxLongSide
-                    : (int) ((double) maxLongSide / originalHeight * originalWidth);
-            var newHeight = (originalWidth >= originalHeight) ?
-                    (int) ((double) maxLongSide / originalWidth * originalHeight) : maxLongSide;
-
-            var thumbnailPath = outputDirectory
-                    .resolve(fileName.replaceFirst("\\.\\w+$", ".jpg"));
-            Thumbnails.of(image)
-                    .size(newWidth, newHeight)
-                    .outputQuality(0.6)
-                    .toFile(thumbnailPath.toFile());
+            var sorgente = parentPath.resolve(fileName);
+            var corrente = image;
+            List<CompletableFuture<Void>> scritture = new ArrayList<>();
+            for (var profilo : profiliMiniature.perLatoDecrescente()) {
+                corrente = riduci(corrente, profilo.getLato());
+                var ridotta = corrente;
+                var thumbnailPath = percorsoMiniatura(sorgente, -1, profilo.getSuffisso());
+                scritture.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        ScrittoreJpeg.scriviAtomico(ridotta, thumbnailPath, profilo.getQualita());
+                    } catch (IOException e) {
+                        log.error("Errore nella creazione della thumbnail del file {}", fileName, e);
+                        saveLog("Errore nella creazione della thumbnail del file " + fileName + ": " + e.getMessage(), codici); // Salva log di errore
+                        throw new ThumbnailProcessingException("Errore nella creazione della thumbnail del file " + fileName, e);
+                    }
+                }, pipelineMiniature.getCodifica()));
+            }
+            return CompletableFuture.allOf(scritture.toArray(CompletableFuture[]::new));
         } catch (IOException e) {
             log.error("Errore nella creazione della thumbnail del file {}", fileName, e);
-            saveLog("Errore nella creazione della thumbnail del file " + fileName + ": " + e.getMessage()); // Salva log di errore
+            saveLog("Errore nella creazione della thumbnail del file " + fileName + ": " + e.getMessage(), codici); // Salva log di errore
             throw new ThumbnailProcessingException("Errore nella creazione della thumbnail del file " + fileName, e);
         }
     }
 
+    /**
+     * Riduce l'immagine perché il lato lungo non superi {@code lato}, senza ingrandirla.
+     * Thumbnailator dimezza progressivamente con interpolazione bilineare fino alla dimensione finale.
+     */
+    private static BufferedImage riduci(BufferedImage image, int lato) throws IOException {
+        if (Math.max(image.getWidth(), image.getHeight()) <= lato) {
+            return image;
+        }
+        return Thumbnails.of(image).size(lato, lato).asBufferedImage();
+    }
+
     /**
      * Rimuove il canale alpha da un'immagine (trasparenza), se presente.
      */
@@ -337,30 +560,11 @@ public class Thumbnail {
                 freeMemory / (1024 * 1024));
     }
 
-    /**
-     * Tenta la chiusura sicura del pool di thread. Logga e forza chiusura in caso di timeout.
-     */
-    private void shutdownAndAwaitTermination(ExecutorService executor, String poolName) {
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
-                log.warn("Il thread pool {} non è terminato nei tempi previsti.", poolName);
-                saveLog("Il thread pool " + poolName + " non è terminato nei tempi previsti."); // Salva log di warning
-                executor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            log.error("Thread interrotto durante la chiusura del thread pool {}", poolName, e);
-            saveLog("Thread interrotto durante la chiusura del thread pool " + poolName + ": " + e.getMessage()); // Salva log di errore
-            executor.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
-    }
-
     /**
      * Salva un messaggio di log nel database tramite LogRepository.
      */
-    private void saveLog(String message) {
-        var log = Log.builder().messagio(message).build();
+    private void saveLog(String message, List<String> codici) {
+        var log = Log.perPacchetto(codici, message);
         logRepository.save(log);
     }
 }
\ No newline at end of file
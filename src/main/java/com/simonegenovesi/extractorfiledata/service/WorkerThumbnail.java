@@ -0,0 +1,158 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.simonegenovesi.extractorfiledata.entity.LavoroThumbnail;
+import com.simonegenovesi.extractorfiledata.exceptions.ThumbnailProcessingException;
+import com.simonegenovesi.extractorfiledata.util.Avanzamento;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Esegue i lavori di miniatura reclamati dalla coda distribuita.
+ * <p>
+ * Il nodo che elabora un pacchetto ne consuma le immagini finché la coda non è vuota; i nodi inattivi,
+ * se abilitati con {@code cluster.worker.abilitato}, reclamano periodicamente le immagini in attesa di
+ * qualsiasi pacchetto, alleggerendo il nodo occupato. Il polling gira su un proprio thread: il thread dello
+ * scheduler, condiviso con l'heartbeat dei lease, non resta mai occupato dalle miniature.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class WorkerThumbnail {
+
+    private static final int LAVORI_PER_CLAIM = 20; // come MAX_BATCH_SIZE di Thumbnail
+
+    private final CodaLavoriService codaLavoriService;
+    private final Thumbnail thumbnail;
+
+    private final AtomicBoolean pollingInCorso = new AtomicBoolean();
+    private final ExecutorService polling = Executors.newSingleThreadExecutor(runnable -> {
+        var t = new Thread(runnable, "worker-miniature");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @Value("${cluster.worker.abilitato:false}")
+    private boolean workerAbilitato;
+
+    @Value("${cluster.attesa-ms:5000}")
+    private long attesaMs;
+
+    /**
+     * Accoda le immagini del pacchetto e li elabora fino al completamento, inclusi quelli reclamati
+     * da altri nodi: se un nodo muore, il suo lease scade e i file tornano reclamabili. Un'immagine che fallisce
+     * torna in coda fino all'esaurimento dei tentativi e poi resta in ERRORE, senza fermare le altre.
+     */
+    public void elaboraPacchetto(List<String> codici, List<File> immagini, Avanzamento avanzamento) {
+        codaLavoriService.accodaThumbnail(codici, immagini);
+        // le immagini già completate in un'esecuzione precedente non contano
+        avanzamento.miniatureTotali(codaLavoriService.thumbnailDaCompletare(codici));
+
+        while (true) {
+            var lavori = codaLavoriService.acquisisciThumbnail(codici, LAVORI_PER_CLAIM);
+            if (!lavori.isEmpty()) {
+                elabora(lavori, avanzamento);
+                continue;
+            }
+            var rimanenti = codaLavoriService.thumbnailDaCompletare(codici);
+            if (rimanenti == 0) {
+                return;
+            }
+            log.info("{} miniature in elaborazione su altri nodi, attesa di {} ms", rimanenti, attesaMs);
+            try {
+                Thread.sleep(attesaMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ThumbnailProcessingException("Attesa delle miniature interrotta", e);
+            }
+        }
+    }
+
+    /**
+     * Polling dei lavori in attesa di qualsiasi pacchetto, attivo solo sui nodi worker. Avvia il consumo della
+     * coda sul thread del worker, se non è già in corso, e ritorna subito.
+     */
+    @Scheduled(fixedDelayString = "${cluster.worker.intervallo-ms:5000}")
+    public void elaboraLavoriDisponibili() {
+        if (!workerAbilitato || !pollingInCorso.compareAndSet(false, true)) {
+            return;
+        }
+        polling.execute(() -> {
+            try {
+                consumaCoda();
+            } finally {
+                pollingInCorso.set(false);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void chiudi() {
+        polling.shutdownNow();
+    }
+
+    private void consumaCoda() {
+        try {
+            var lavori = codaLavoriService.acquisisciThumbnail(null, LAVORI_PER_CLAIM);
+            while (!lavori.isEmpty()) {
+                log.info("Worker {}: reclamate {} miniature", codaLavoriService.getNodoId(), lavori.size());
+                elabora(lavori, null);
+                lavori = codaLavoriService.acquisisciThumbnail(null, LAVORI_PER_CLAIM);
+            }
+        } catch (Exception e) {
+            log.error("Errore del worker miniature", e);
+        }
+    }
+
+    /**
+     * @param avanzamento avanzamento del pacchetto elaborato da questo nodo, null per il worker in polling
+     */
+    private void elabora(List<LavoroThumbnail> lavori, Avanzamento avanzamento) {
+        Map<String, LavoroThumbnail> perFile = lavori.stream()
+                .collect(Collectors.toMap(LavoroThumbnail::getId, Function.identity()));
+        // completati o già rilasciati dopo un errore
+        Set<String> chiusi = ConcurrentHashMap.newKeySet();
+        // il worker in polling può reclamare immagini di pacchetti diversi: i log sono registrati per pacchetto
+        Map<List<String>, List<File>> perPacchetto = lavori.stream().collect(Collectors.groupingBy(
+                lavoro -> List.of(lavoro.getCodiceCantiere(), lavoro.getCodiceLotto(), lavoro.getCodicePacchetto()),
+                LinkedHashMap::new,
+                Collectors.mapping(lavoro -> new File(lavoro.getId()), Collectors.toList())));
+
+        try {
+            for (var pacchetto : perPacchetto.entrySet()) {
+                thumbnail.doThumbnail(pacchetto.getValue(), pacchetto.getKey(), immagine -> {
+                    codaLavoriService.segnaThumbnailCompletata(perFile.get(immagine.getAbsolutePath()));
+                    chiusi.add(immagine.getAbsolutePath());
+                    if (avanzamento != null) {
+                        avanzamento.miniaturaCompletata();
+                    }
+                }, (immagine, errore) -> {
+                    // il lavoro torna in coda, o in ERRORE se ha esaurito i tentativi; le altre immagini proseguono
+                    codaLavoriService.rilasciaThumbnail(List.of(perFile.get(immagine.getAbsolutePath())),
+                            String.valueOf(errore.getMessage()));
+                    chiusi.add(immagine.getAbsolutePath());
+                });
+            }
+        } catch (RuntimeException e) {
+            codaLavoriService.rilasciaThumbnail(lavori.stream()
+                    .filter(lavoro -> !chiusi.contains(lavoro.getId()))
+                    .toList());
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.simonegenovesi.extractorfiledata.util.enumerated.FaseAvanzamentoEnum;
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contatori dell'avanzamento di un'estrazione, aggiornati dai thread dell'elaborazione.
+ * <p>
+ * I contatori sono {@link LongAdder}: gli incrementi concorrenti non si contendono una variabile e chi li
+ * legge per notificare l'avanzamento non blocca mai l'elaborazione.
+ */
+public class Avanzamento {
+
+    @Getter
+    private volatile FaseAvanzamentoEnum fase = FaseAvanzamentoEnum.IN_ATTESA;
+    @Getter
+    private volatile long fileTotali;
+    @Getter
+    private volatile long miniatureTotali;
+
+    private final LongAdder file = new LongAdder();
+    private final LongAdder byteLetti = new LongAdder();
+    private final LongAdder miniature = new LongAdder();
+
+    public void fase(FaseAvanzamentoEnum fase) {
+        this.fase = fase;
+    }
+
+    public void fileTotali(long fileTotali) {
+        this.fileTotali = fileTotali;
+    }
+
+    public void miniatureTotali(long miniatureTotali) {
+        this.miniatureTotali = miniatureTotali;
+    }
+
+    public void fileAnalizzato(long dimensione) {
+        file.increment();
+        byteLetti.add(dimensione);
+    }
+
+    public void miniaturaCompletata() {
+        miniature.increment();
+    }
+
+    public long getFile() {
+        return file.sum();
+    }
+
+    public long getByte() {
+        return byteLetti.sum();
+    }
+
+    public long getMiniature() {
+        return miniature.sum();
+    }
+}
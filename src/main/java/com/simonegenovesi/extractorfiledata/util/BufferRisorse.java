@@ -0,0 +1,154 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.simonegenovesi.extractorfiledata.entity.MetadatiRisorsa;
+import com.simonegenovesi.extractorfiledata.util.dto.StrutturaDocumento;
+import com.simonegenovesi.extractorfiledata.util.dto.VoceArchivio;
+import com.simonegenovesi.extractorfiledata.util.enumerated.MimeTypeEnum;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.simonegenovesi.extractorfiledata.util.Elementi.SEPARATORE_ARCHIVIO;
+
+/**
+ * Metadati delle risorse di un pacchetto in forma colonnare, durante l'elaborazione.
+ * <p>
+ * Invece di un {@link MetadatiRisorsa} per file, ogni attributo è una colonna di tipo primitivo: gli url sono un
+ * {@link ElencoFile}, con le cartelle in un dizionario e i nomi in un unico array UTF-8, il formato è l'ordinale di
+ * {@link MimeTypeEnum} in un byte. Le colonne delle voci di
+ * archivio e dei documenti vengono allocate solo se servono. I documenti sono creati solo al salvataggio,
+ * a blocchi, con {@link #metadati(int, int)}.
+ */
+public class BufferRisorse {
+
+    private static final MimeTypeEnum[] FORMATI = MimeTypeEnum.values();
+    private static final int CAPACITA_MINIMA = 1024;
+
+    private final List<String> codici;
+
+    // url delle risorse: cartelle in un dizionario e nomi in un array UTF-8
+    private final ElencoFile percorsi;
+
+    private byte[] formato;
+    private long[] dimensione;
+    private int numero;
+
+    // solo con voci di archivio: -1 = assente
+    private final BitSet vociArchivio = new BitSet();
+    private long[] dimensioneCompressa;
+    private long[] crc;
+
+    // pochi file per pacchetto (PDF e hOCR): mappa sparsa
+    private final Map<Integer, StrutturaDocumento> strutture = new HashMap<>();
+
+    public BufferRisorse(List<String> codici, int capacitaIniziale) {
+        this.codici = List.copyOf(codici);
+        var capacita = Math.max(CAPACITA_MINIMA, capacitaIniziale);
+        this.percorsi = new ElencoFile(capacita);
+        this.formato = new byte[capacita];
+        this.dimensione = new long[capacita];
+    }
+
+    public int size() {
+        return numero;
+    }
+
+    /**
+     * @param struttura metadati strutturali di PDF e hOCR, oppure null
+     */
+    public void aggiungiFile(String url, long dimensioneFile, MimeTypeEnum formatoFile, StrutturaDocumento struttura) {
+        var indice = aggiungi(url, url.lastIndexOf(File.separatorChar) + 1, dimensioneFile, formatoFile);
+        if (struttura != null) {
+            strutture.put(indice, struttura);
+        }
+    }
+
+    public void aggiungiVoce(String urlArchivio, VoceArchivio voce) {
+        var url = urlArchivio + SEPARATORE_ARCHIVIO + voce.nome();
+        var indice = aggiungi(url, url.lastIndexOf('/') + 1, voce.dimensione(), voce.formato());
+        if (dimensioneCompressa == null) {
+            dimensioneCompressa = new long[dimensione.length];
+            crc = new long[dimensione.length];
+            Arrays.fill(dimensioneCompressa, -1);
+            Arrays.fill(crc, -1);
+        }
+        vociArchivio.set(indice);
+        dimensioneCompressa[indice] = voce.dimensioneCompressa();
+        crc[indice] = voce.crc();
+    }
+
+    /**
+     * Documenti delle risorse da {@code inizio} (incluso) a {@code fine} (escluso), nell'ordine di inserimento.
+     */
+    public List<MetadatiRisorsa> metadati(int inizio, int fine) {
+        List<MetadatiRisorsa> metadati = new ArrayList<>(fine - inizio);
+        for (int i = inizio; i < fine; i++) {
+            metadati.add(metadato(i));
+        }
+        return metadati;
+    }
+
+    public MetadatiRisorsa metadato(int i) {
+        var nome = percorsi.nome(i);
+        var url = percorsi.percorso(i);
+        var formatoRisorsa = FORMATI[formato[i]];
+        var voce = vociArchivio.get(i);
+        var struttura = strutture.get(i);
+        return MetadatiRisorsa.builder()
+                .urlOggetto(url)
+                .nomeOggetto(voce ? nome : Elementi.nomeOggetto(nome, formatoRisorsa))
+                .dimensioneFile(dimensione[i])
+                .formatoFile(formatoRisorsa.getAbbreviation().toLowerCase())
+                .codiceCantiere(codici.get(0))
+                .codiceLotto(codici.get(1))
+                .codicePacchetto(codici.get(2))
+                .urlArchivio(voce ? url.substring(0, url.indexOf(SEPARATORE_ARCHIVIO)) : null)
+                .dimensioneCompressa(voce ? dimensioneCompressa[i] : null)
+                .crc(voce ? crc[i] : null)
+                .numeroPagine(struttura == null ? null : struttura.pagine())
+                .numeroRighe(struttura == null ? null : struttura.righe())
+                .numeroParole(struttura == null ? null : struttura.parole())
+                .confidenzaMedia(struttura == null ? null : struttura.confidenzaMedia())
+                .build();
+    }
+
+    /**
+     * Stima della memoria occupata dalle colonne e dal dizionario delle cartelle.
+     */
+    public long byteOccupati() {
+        long totale = percorsi.byteOccupati() + formato.length + (long) dimensione.length * 8 + vociArchivio.size() / 8;
+        if (dimensioneCompressa != null) {
+            totale += (long) dimensioneCompressa.length * 16;
+        }
+        return totale + strutture.size() * 96L;
+    }
+
+    private int aggiungi(String url, int inizioNomeUrl, long dimensioneRisorsa, MimeTypeEnum formatoRisorsa) {
+        if (numero == formato.length) {
+            cresci();
+        }
+        var indice = numero++;
+        percorsi.aggiungi(url, inizioNomeUrl);
+        formato[indice] = (byte) formatoRisorsa.ordinal();
+        dimensione[indice] = dimensioneRisorsa;
+        return indice;
+    }
+
+    private void cresci() {
+        var capacita = formato.length + (formato.length >> 1);
+        formato = Arrays.copyOf(formato, capacita);
+        dimensione = Arrays.copyOf(dimensione, capacita);
+        if (dimensioneCompressa != null) {
+            var vecchia = dimensioneCompressa.length;
+            dimensioneCompressa = Arrays.copyOf(dimensioneCompressa, capacita);
+            crc = Arrays.copyOf(crc, capacita);
+            Arrays.fill(dimensioneCompressa, vecchia, capacita, -1);
+            Arrays.fill(crc, vecchia, capacita, -1);
+        }
+    }
+}
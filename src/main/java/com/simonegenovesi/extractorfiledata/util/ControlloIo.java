@@ -0,0 +1,108 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.simonegenovesi.extractorfiledata.payload.response.StatisticaVolumeResponse;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Controllo della concorrenza di I/O per volume: un {@link LimitatoreAdattivo} per punto di montaggio e un pool di
+ * thread per le letture della scansione e dell'analisi.
+ * <p>
+ * Il pool è dimensionato sul limite massimo, non sui core: quanti thread leggono davvero su un volume lo decide il
+ * suo limitatore, che si adatta alla latenza del dispositivo (un NAS satura con poche letture concorrenti, un
+ * NVMe locale ne vuole molte).
+ */
+@Slf4j
+public class ControlloIo {
+
+    // cartelle di cui si conosce il volume; svuotata oltre questa dimensione
+    private static final int CARTELLE_MASSIME = 100_000;
+
+    private final int minimo;
+    private final int iniziale;
+    private final int massimo;
+
+    private final Map<Path, String> volumi = new ConcurrentHashMap<>();
+    private final Map<String, LimitatoreAdattivo> limitatori = new ConcurrentHashMap<>();
+
+    @Getter
+    private final ExecutorService esecutore;
+
+    public ControlloIo(int minimo, int iniziale, int massimo) {
+        this.minimo = minimo;
+        this.iniziale = iniziale;
+        this.massimo = massimo;
+        var contatore = new AtomicInteger();
+        var pool = new ThreadPoolExecutor(massimo, massimo, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    var t = new Thread(runnable, "io-" + contatore.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.esecutore = pool;
+    }
+
+    /**
+     * Limitatore del volume che contiene il file.
+     */
+    public LimitatoreAdattivo perFile(File file) {
+        var cartella = file.getAbsoluteFile().toPath().getParent();
+        return perCartella(cartella != null ? cartella : file.toPath());
+    }
+
+    /**
+     * Limitatore del volume che contiene la cartella; il volume è risolto una volta per cartella.
+     */
+    public LimitatoreAdattivo perCartella(Path cartella) {
+        if (volumi.size() > CARTELLE_MASSIME) {
+            volumi.clear();
+        }
+        var volume = volumi.computeIfAbsent(cartella, ControlloIo::volume);
+        return limitatori.computeIfAbsent(volume, v -> {
+            log.info("Limite di I/O per il volume {}: {} letture concorrenti (tra {} e {})", v, iniziale, minimo, massimo);
+            return new LimitatoreAdattivo(minimo, iniziale, massimo);
+        });
+    }
+
+    /**
+     * Flusso per i reader ImageIO con le letture limitate dal volume del file.
+     */
+    public FlussoImmagineLimitato apriImmagine(File file) throws IOException {
+        return new FlussoImmagineLimitato(file.toPath(), perFile(file));
+    }
+
+    public List<StatisticaVolumeResponse> statistiche() {
+        return limitatori.entrySet().stream()
+                .map(entry -> entry.getValue().statistica(entry.getKey()))
+                .sorted(Comparator.comparing(StatisticaVolumeResponse::getVolume))
+                .toList();
+    }
+
+    public void chiudi() {
+        esecutore.shutdown();
+    }
+
+    private static String volume(Path cartella) {
+        try {
+            // punto di montaggio e dispositivo, es. "/mnt/nas (server:/export)"
+            return Files.getFileStore(cartella).toString();
+        } catch (IOException e) {
+            return "sconosciuto";
+        }
+    }
+}
@@ -1,29 +1,54 @@
 package com.simonegenovesi.extractorfiledata.util;
 
-import com.simonegenovesi.extractorfiledata.entity.MetadatiRisorsa;
 import com.simonegenovesi.extractorfiledata.entity.Metrica;
+import com.simonegenovesi.extractorfiledata.event.jfr.FileAnalizzatoEvent;
+import com.simonegenovesi.extractorfiledata.util.dto.AnalisiFile;
 import com.simonegenovesi.extractorfiledata.util.dto.FileProcessati;
+import com.simonegenovesi.extractorfiledata.util.dto.StrutturaDocumento;
+import com.simonegenovesi.extractorfiledata.util.dto.VoceArchivio;
 import com.simonegenovesi.extractorfiledata.util.enumerated.MimeTypeEnum;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
-import static com.simonegenovesi.extractorfiledata.util.MimeType.deduciFormatoFile;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 @Slf4j
 @UtilityClass
 public class Elementi {
 
-    public static List<File> getAllFilesFromFolders(String pathBase, String folderPath) {
+    // separa l'url dell'archivio dal percorso della voce: <archivio>!/<voce>
+    public static final String SEPARATORE_ARCHIVIO = "!/";
+    // cartella delle miniature generate, accanto alle immagini: esclusa dalla scansione
+    public static final String CARTELLA_MINIATURE = "thumbnails";
+
+    private static final int BLOCCO_ANALISI = 4096;
+
+    /**
+     * Scansione parallela delle cartelle sul pool di {@link ControlloIo}: ogni cartella è un task e il suo elenco
+     * occupa un posto nel limite di I/O del volume. I link simbolici alle cartelle non vengono seguiti, come in
+     * {@link Files#walk}, e le cartelle {@value #CARTELLA_MINIATURE} generate dall'estrazione non vengono visitate.
+     * Il risultato è un {@link ElencoFile} ordinato per cartella e nome: ogni cartella elencata conserva solo i nomi
+     * dei suoi file, e i percorsi completi non esistono mai per l'intero pacchetto.
+     */
+    public static List<File> getAllFilesFromFolders(String pathBase, String folderPath, ControlloIo controlloIo) {
         var start = System.nanoTime();
         List<File> fileList = new ArrayList<>();
         var rootDir = Paths.get(pathBase, folderPath);
@@ -31,13 +56,20 @@ public class Elementi {
         log.info("Searching in... {}", rootDir);
 
         if (Files.exists(rootDir) && Files.isDirectory(rootDir)) {
-            try (var stream = Files.walk(rootDir)) {
-                fileList = stream
-                        .filter(Files::isRegularFile) // Filtra solo i file
-                        .map(Path::toFile)         // Converte Path in File
+            var scansione = new Scansione(controlloIo);
+            scansione.visita(rootDir);
+            try {
+                var cartelle = scansione.fine.join().stream()
+                        .sorted(Comparator.comparing(ContenutoCartella::cartella))
                         .toList();
-            } catch (IOException e) {
-                log.error("Errore durante la lettura della directory: {}", e.getMessage());
+                var elenco = new ElencoFile(scansione.numeroFile.get());
+                for (var contenuto : cartelle) {
+                    contenuto.nomi().sort(null);
+                    contenuto.nomi().forEach(nome -> elenco.aggiungi(contenuto.cartella(), nome));
+                }
+                fileList = elenco;
+            } catch (CompletionException e) {
+                log.error("Errore durante la lettura della directory: {}", e.getCause().getMessage());
                 return new ArrayList<>(); // Restituisce una lista vuota in caso di errore
             }
         }
@@ -47,54 +79,65 @@ public class Elementi {
         return fileList;
     }
 
-    public static FileProcessati processaFile(List<File> allFiles, List<String> codici) {
+    /**
+     * @param avanzamento contatori aggiornati per ogni file analizzato
+     * @param controlloIo pool e limiti di I/O per volume dell'analisi
+     * @param rilevamento politica di rilevamento del formato
+     */
+    public static FileProcessati processaFile(List<File> allFiles, List<String> codici, Avanzamento avanzamento,
+                                              ControlloIo controlloIo, RilevamentoFormato rilevamento) {
         var start = System.nanoTime();
 
         int fileCount = allFiles.size();
-        Map<String, Metrica.MetricheSummary> metricheMap = new HashMap<>(fileCount);
-        List<MetadatiRisorsa> metadatiList = new ArrayList<>(fileCount);
+        Map<String, Metrica.MetricheSummary> metricheMap = new HashMap<>();
+        Map<String, Metrica.MetricheSummary> metricheArchivi = new HashMap<>();
+        var risorse = new BufferRisorse(codici, fileCount);
         List<Metrica.DettaglioRisorsa> dettagliRisorse = new ArrayList<>();
-        List<File> listaTiffImages = new ArrayList<>();
+        var listaImmagini = new ElencoFile();
         long dimTotale = 0;
 
-        // Caching dei MIME type per evitare chiamate ripetute a Tika
-        Map<File, String> mimeCache = new HashMap<>(fileCount);
-
-        for (File file : allFiles) {
-            long fileSize = file.length();
-
-            // Recupera MIME type dalla cache o calcolalo se necessario
-            MimeTypeEnum mimeEnum = deduciFormatoFile(file);
-            String formatoFile = mimeCache.computeIfAbsent(file, m -> mimeEnum.getAbbreviation().toLowerCase());
-            String formatoAbbreviato = mimeEnum.getAbbreviation();
-            String nomeOggetto = getString(file, mimeEnum);
+        // Analisi dei file in parallelo (formato, indice degli archivi, struttura di PDF e hOCR): ogni analisi
+        // usa letture posizionate o in streaming con memoria limitata; l'aggregazione resta sequenziale e ordinata.
+        // I file sono analizzati a blocchi, così i risultati intermedi non esistono mai per l'intero pacchetto.
+        // La concorrenza delle letture è quella del limite adattivo del volume, non il numero di core.
+        // Le voci degli archivi, lette dalla sola central directory (ZIP) o dal trailer (GZIP) senza estrarle,
+        // passano dall'analisi direttamente al buffer: un archivio con milioni di voci non ne tiene una lista.
+        for (int inizio = 0; inizio < fileCount; inizio += BLOCCO_ANALISI) {
+            var analisi = allFiles.subList(inizio, Math.min(inizio + BLOCCO_ANALISI, fileCount))
+                    .stream()
+                    .map(file -> CompletableFuture.supplyAsync(() -> {
+                        var url = file.getAbsolutePath();
+                        var risultato = analizza(file, controlloIo, rilevamento, voce -> {
+                            // le analisi dello stesso blocco aggiungono voci in parallelo
+                            synchronized (risorse) {
+                                risorse.aggiungiVoce(url, voce);
+                                aggiornaMetriche(metricheArchivi, voce.formato().getAbbreviation(), voce.dimensione());
+                            }
+                        });
+                        avanzamento.fileAnalizzato(risultato.dimensione());
+                        return risultato;
+                    }, controlloIo.getEsecutore()))
+                    .toList()
+                    .stream()
+                    .map(CompletableFuture::join)
+                    .toList();
 
-            if (isTiffImage(formatoAbbreviato)) {
-                listaTiffImages.add(file);
-            }
+            for (var file : analisi) {
+                long fileSize = file.dimensione();
+                MimeTypeEnum mimeEnum = file.formato();
 
-                // Creazione MetadatiRisorse
-            metadatiList.add(MetadatiRisorsa.builder()
-                    .urlOggetto(file.getAbsolutePath())
-                    .nomeOggetto(nomeOggetto)
-                    .dimensioneFile(fileSize)
-                    .formatoFile(formatoFile)
-                    .codiceCantiere(codici.get(0))
-                    .codiceLotto(codici.get(1))
-                    .codicePacchetto(codici.get(2))
-                    .build()
-            );
+                if (mimeEnum.isRaster()) {
+                    listaImmagini.aggiungi(file.file());
+                }
 
-            // Aggiornamento Metriche
-            metricheMap.computeIfAbsent(formatoAbbreviato, k -> Metrica.MetricheSummary.builder()
-                            .numRisorse(0)
-                            .dimTotale(0L)
-                            .build())
-                    .setDimTotale(metricheMap.get(formatoAbbreviato).getDimTotale() + fileSize);
+                var url = file.file().getAbsolutePath();
+                risorse.aggiungiFile(url, fileSize, mimeEnum, file.struttura());
 
-            metricheMap.get(formatoAbbreviato).setNumRisorse(metricheMap.get(formatoAbbreviato).getNumRisorse() + 1);
+                // Aggiornamento Metriche
+                aggiornaMetriche(metricheMap, mimeEnum.getAbbreviation(), fileSize);
 
-            dimTotale += fileSize;
+                dimTotale += fileSize;
+            }
         }
 
         // Creazione dettagliRisorse direttamente nel primo ciclo
@@ -105,6 +148,17 @@ public class Elementi {
                     .build()
             );
         }
+        List<Metrica.DettaglioRisorsa> dettagliArchivi = new ArrayList<>();
+        var totaleArchivi = Metrica.MetricheSummary.builder().numRisorse(0).dimTotale(0L).build();
+        for (var entry : metricheArchivi.entrySet()) {
+            dettagliArchivi.add(Metrica.DettaglioRisorsa.builder()
+                    .formatoFile(entry.getKey())
+                    .metricheSummary(entry.getValue())
+                    .build()
+            );
+            totaleArchivi.setNumRisorse(totaleArchivi.getNumRisorse() + entry.getValue().getNumRisorse());
+            totaleArchivi.setDimTotale(totaleArchivi.getDimTotale() + entry.getValue().getDimTotale());
+        }
 
         // Creazione dell'oggetto Metriche
         Metrica metriche = Metrica.builder()
@@ -116,32 +170,168 @@ public class Elementi {
                         .dimTotale(dimTotale)
                         .build())
                 .dettagliRisorse(dettagliRisorse)
+                .metricheArchivi(metricheArchivi.isEmpty() ? null : totaleArchivi)
+                .dettagliArchivi(metricheArchivi.isEmpty() ? null : dettagliArchivi)
                 .build();
 
         var end = System.nanoTime();
         log.info("Tempo di elaborazione dei file: {} ms", (end - start) / 1_000_000);
-        return new FileProcessati(metadatiList, metriche, listaTiffImages);
+        log.info("Buffer dei metadati: {} risorse in {} KB ({} byte per risorsa)", risorse.size(),
+                risorse.byteOccupati() / 1024, risorse.size() == 0 ? 0 : risorse.byteOccupati() / risorse.size());
+        if (allFiles instanceof ElencoFile elenco) {
+            log.info("Elenco dei file: {} file in {} KB, {} immagini in {} KB", elenco.size(),
+                    elenco.byteOccupati() / 1024, listaImmagini.size(), listaImmagini.byteOccupati() / 1024);
+        }
+        return new FileProcessati(risorse, metriche, listaImmagini);
     }
 
-    private static String getString(File file, MimeTypeEnum mimeEnum) {
+    /**
+     * Analisi di un singolo file: formato, voci degli archivi e struttura di PDF e hOCR. La lettura del formato è
+     * una lettura misurata dal limitatore del volume; indici e strutture, che leggono quantità variabili, occupano
+     * un posto nel limite senza influire sul suo adattamento. Con la politica per estensione il file può non
+     * essere aperto affatto. Le voci degli archivi vengono contate e scartate.
+     */
+    public static AnalisiFile analizza(File file, ControlloIo controlloIo, RilevamentoFormato rilevamento) {
+        return analizza(file, controlloIo, rilevamento, voce -> {});
+    }
+
+    /**
+     * @param voci riceve le voci dell'archivio, una alla volta, sul thread dell'analisi
+     */
+    public static AnalisiFile analizza(File file, ControlloIo controlloIo, RilevamentoFormato rilevamento,
+                                       Consumer<VoceArchivio> voci) {
+        var evento = new FileAnalizzatoEvent();
+        evento.begin();
+        var limitatore = controlloIo.perFile(file);
+        var dimensione = file.length();
+        var formato = rilevamento.formato(file, dimensione, limitatore);
+        var numeroVoci = 0;
+        StrutturaDocumento struttura;
+        try {
+            if (IndiceArchivi.isIndicizzabile(file, formato)) {
+                numeroVoci = limitatore.esegui(() -> IndiceArchivi.leggi(file, formato, voci));
+            }
+            struttura = switch (formato) {
+                case APPLICATION_PDF -> {
+                    var pagine = limitatore.esegui(() -> StrutturaPdf.contaPagine(file));
+                    yield pagine == null ? null : new StrutturaDocumento(pagine, null, null, null);
+                }
+                case APPLICATION_HOCR -> limitatore.esegui(() -> StrutturaHocr.leggi(file));
+                default -> null;
+            };
+        } catch (IOException e) {
+            // solo l'attesa del limite interrotta: le letture gestiscono i propri errori
+            throw new UncheckedIOException(e);
+        }
+        if (evento.shouldCommit()) {
+            evento.percorso = file.getPath();
+            evento.dimensione = dimensione;
+            evento.formato = formato.getAbbreviation();
+            evento.vociArchivio = numeroVoci;
+            evento.commit();
+        }
+        return new AnalisiFile(file, dimensione, formato, numeroVoci, struttura);
+    }
+
+    /**
+     * Vero se l'analisi legge il file anche dopo il rilevamento del formato: archivi indicizzabili, PDF e hOCR.
+     */
+    static boolean isLettoDallAnalisi(File file, MimeTypeEnum formato) {
+        return formato == MimeTypeEnum.APPLICATION_PDF
+                || formato == MimeTypeEnum.APPLICATION_HOCR
+                || IndiceArchivi.isIndicizzabile(file, formato);
+    }
+
+    public static boolean isCartellaMiniature(Path cartella) {
+        var nome = cartella.getFileName();
+        return nome != null && CARTELLA_MINIATURE.equals(nome.toString());
+    }
+
+    private static void aggiornaMetriche(Map<String, Metrica.MetricheSummary> metricheMap, String formato, long dimensione) {
+        var metriche = metricheMap.computeIfAbsent(formato, k -> Metrica.MetricheSummary.builder()
+                .numRisorse(0)
+                .dimTotale(0L)
+                .build());
+        metriche.setDimTotale(metriche.getDimTotale() + dimensione);
+        metriche.setNumRisorse(metriche.getNumRisorse() + 1);
+    }
+
+    /**
+     * Nome dell'oggetto: il nome del file, con estensione {@code .jpg} per i JPEG.
+     */
+    static String nomeOggetto(String nomeFile, MimeTypeEnum mimeEnum) {
         if (mimeEnum != MimeTypeEnum.IMAGE_JPEG) {
-            return file.getName();
+            return nomeFile;
         }
 
-        String nomeOggetto = file.getName();
-        int ultimoPunto = nomeOggetto.lastIndexOf('.');
+        int ultimoPunto = nomeFile.lastIndexOf('.');
 
         // Se c'è un'estensione ed è diversa da ".jpg", la modifichiamo
         if (ultimoPunto > 0) {
-            String estensione = nomeOggetto.substring(ultimoPunto);
+            String estensione = nomeFile.substring(ultimoPunto);
             if (!estensione.equals(".jpg")) {
-                return nomeOggetto.substring(0, ultimoPunto) + ".jpg";
+                return nomeFile.substring(0, ultimoPunto) + ".jpg";
             }
         }
-        return nomeOggetto;
+        return nomeFile;
     }
 
-    private static boolean isTiffImage(String formatoFile){
-        return formatoFile.equals(MimeTypeEnum.IMAGE_TIFF.getAbbreviation());
+    /**
+     * Scansione di un albero di cartelle: il conteggio dei task aperti stabilisce quando la visita è finita,
+     * senza che un task attenda i propri figli occupando un thread del pool.
+     */
+    private static class Scansione {
+        private final ControlloIo controlloIo;
+        private final Queue<ContenutoCartella> contenuti = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger numeroFile = new AtomicInteger();
+        private final AtomicInteger inSospeso = new AtomicInteger();
+        private final CompletableFuture<Queue<ContenutoCartella>> fine = new CompletableFuture<>();
+
+        Scansione(ControlloIo controlloIo) {
+            this.controlloIo = controlloIo;
+        }
+
+        void visita(Path cartella) {
+            inSospeso.incrementAndGet();
+            controlloIo.getEsecutore().execute(() -> {
+                try {
+                    var sottocartelle = controlloIo.perCartella(cartella).esegui(() -> elenca(cartella));
+                    sottocartelle.forEach(this::visita);
+                } catch (IOException | RuntimeException e) {
+                    fine.completeExceptionally(e);
+                } finally {
+                    if (inSospeso.decrementAndGet() == 0) {
+                        fine.complete(contenuti);
+                    }
+                }
+            });
+        }
+
+        private List<Path> elenca(Path cartella) throws IOException {
+            List<Path> sottocartelle = new ArrayList<>();
+            List<String> nomi = new ArrayList<>();
+            try (var elenco = Files.newDirectoryStream(cartella)) {
+                for (var voce : elenco) {
+                    if (Files.readAttributes(voce, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory()) {
+                        if (!isCartellaMiniature(voce)) {
+                            sottocartelle.add(voce);
+                        }
+                    } else if (Files.isRegularFile(voce)) {
+                        nomi.add(voce.getFileName().toString());
+                    }
+                }
+            }
+            if (!nomi.isEmpty()) {
+                contenuti.add(new ContenutoCartella(cartella + File.separator, nomi));
+                numeroFile.addAndGet(nomi.size());
+            }
+            return sottocartelle;
+        }
     }
+
+    /**
+     * Nomi dei file di una cartella elencata.
+     * @param cartella percorso della cartella con il separatore finale
+     */
+    private record ContenutoCartella(String cartella, List<String> nomi) {}
 }
@@ -0,0 +1,121 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Elenco di percorsi in forma colonnare: le cartelle sono salvate una sola volta in un dizionario e ogni percorso
+ * ne conserva l'indice, i nomi stanno in un unico array UTF-8. I {@link File} vengono creati solo quando sono letti,
+ * quindi l'elenco dei file di un pacchetto occupa pochi byte per file oltre al nome, invece di un {@link File} con
+ * il percorso completo per file.
+ */
+public class ElencoFile extends AbstractList<File> implements RandomAccess {
+
+    private static final int CAPACITA_MINIMA = 1024;
+
+    private final List<String> cartelle = new ArrayList<>();
+    private final Map<String, Integer> indiceCartelle = new HashMap<>();
+    private int[] cartella;
+
+    private byte[] nomi;
+    private int lunghezzaNomi;
+    // inizio del nome del percorso i, fine in inizioNome[i + 1]
+    private int[] inizioNome;
+    private int numero;
+
+    public ElencoFile() {
+        this(0);
+    }
+
+    public ElencoFile(int capacitaIniziale) {
+        var capacita = Math.max(CAPACITA_MINIMA, capacitaIniziale);
+        this.cartella = new int[capacita];
+        this.inizioNome = new int[capacita + 1];
+        this.nomi = new byte[capacita * 16];
+    }
+
+    /**
+     * @return indice del file nell'elenco
+     */
+    public int aggiungi(File file) {
+        var percorso = file.getPath();
+        return aggiungi(percorso, percorso.lastIndexOf(File.separatorChar) + 1);
+    }
+
+    /**
+     * @param inizioNomePercorso posizione del nome nel percorso: quello che precede è la cartella
+     * @return indice del percorso nell'elenco
+     */
+    public int aggiungi(String percorso, int inizioNomePercorso) {
+        return aggiungi(percorso.substring(0, inizioNomePercorso), percorso.substring(inizioNomePercorso));
+    }
+
+    /**
+     * @param percorsoCartella cartella con il separatore finale
+     * @return indice del percorso nell'elenco
+     */
+    public int aggiungi(String percorsoCartella, String nome) {
+        if (numero == cartella.length) {
+            cresci();
+        }
+        var indice = numero++;
+        cartella[indice] = indiceCartelle.computeIfAbsent(percorsoCartella, c -> {
+            cartelle.add(c);
+            return cartelle.size() - 1;
+        });
+        var byteNome = nome.getBytes(StandardCharsets.UTF_8);
+        if (lunghezzaNomi + byteNome.length > nomi.length) {
+            nomi = Arrays.copyOf(nomi, Math.max(nomi.length * 2, lunghezzaNomi + byteNome.length));
+        }
+        System.arraycopy(byteNome, 0, nomi, lunghezzaNomi, byteNome.length);
+        inizioNome[indice] = lunghezzaNomi;
+        lunghezzaNomi += byteNome.length;
+        inizioNome[indice + 1] = lunghezzaNomi;
+        return indice;
+    }
+
+    public String nome(int i) {
+        Objects.checkIndex(i, numero);
+        return new String(nomi, inizioNome[i], inizioNome[i + 1] - inizioNome[i], StandardCharsets.UTF_8);
+    }
+
+    public String percorso(int i) {
+        return cartelle.get(cartella[i]) + nome(i);
+    }
+
+    @Override
+    public File get(int i) {
+        return new File(percorso(i));
+    }
+
+    @Override
+    public int size() {
+        return numero;
+    }
+
+    /**
+     * Stima della memoria occupata dalle colonne e dal dizionario delle cartelle.
+     */
+    public long byteOccupati() {
+        long totale = (long) cartella.length * 4 + (long) inizioNome.length * 4 + nomi.length;
+        for (var c : cartelle) {
+            // stringa nel dizionario e nella lista, più la voce della mappa
+            totale += 40 + c.length() + 48;
+        }
+        return totale;
+    }
+
+    private void cresci() {
+        var capacita = cartella.length + (cartella.length >> 1);
+        cartella = Arrays.copyOf(cartella, capacita);
+        inizioNome = Arrays.copyOf(inizioNome, capacita + 1);
+    }
+}
@@ -0,0 +1,92 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Flusso di lettura delle immagini per i reader ImageIO, con letture posizionate sul canale del file a blocchi di
+ * {@link #BLOCCO} byte. Ogni blocco è una lettura del {@link LimitatoreAdattivo} del volume: la concorrenza delle
+ * letture dei TIFF è limitata e ne misura la latenza al livello del singolo accesso al disco.
+ */
+public class FlussoImmagineLimitato extends ImageInputStreamImpl {
+
+    private static final int BLOCCO = 64 * 1024;
+
+    private final FileChannel canale;
+    private final LimitatoreAdattivo limitatore;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BLOCCO);
+
+    // posizione nel file del primo byte del buffer, -1 se vuoto
+    private long inizioBuffer = -1;
+    private int byteNelBuffer;
+
+    public FlussoImmagineLimitato(Path file, LimitatoreAdattivo limitatore) throws IOException {
+        this.canale = FileChannel.open(file, StandardOpenOption.READ);
+        this.limitatore = limitatore;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (!riempi(streamPos)) {
+            return -1;
+        }
+        return buffer.get((int) (streamPos++ - inizioBuffer)) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        bitOffset = 0;
+        if (!riempi(streamPos)) {
+            return -1;
+        }
+        var posizioneBuffer = (int) (streamPos - inizioBuffer);
+        var letti = Math.min(len, byteNelBuffer - posizioneBuffer);
+        buffer.get(posizioneBuffer, b, off, letti);
+        streamPos += letti;
+        return letti;
+    }
+
+    @Override
+    public long length() {
+        try {
+            return canale.size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        canale.close();
+    }
+
+    private boolean riempi(long posizione) throws IOException {
+        if (inizioBuffer >= 0 && posizione >= inizioBuffer && posizione < inizioBuffer + byteNelBuffer) {
+            return true;
+        }
+        buffer.clear();
+        int letti = limitatore.leggi(() -> canale.read(buffer, posizione));
+        if (letti <= 0) {
+            inizioBuffer = -1;
+            byteNelBuffer = 0;
+            return false;
+        }
+        inizioBuffer = posizione;
+        byteNelBuffer = letti;
+        return true;
+    }
+}
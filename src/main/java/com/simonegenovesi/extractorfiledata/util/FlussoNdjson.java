@@ -0,0 +1,42 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.experimental.UtilityClass;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Risposte NDJSON scritte da uno stream su cursore Mongo, un documento per riga.
+ * <p>
+ * Lo stream viene aperto e consumato sul pool delle richieste asincrone, non sul thread HTTP, che torna libero
+ * subito. La scrittura è bloccante: se il client legge lentamente il buffer del socket si riempie, la scrittura
+ * attende e il cursore non chiede il batch successivo a Mongo. Ogni {@link #RIGHE_PER_FLUSH} righe la risposta
+ * viene inviata, così il client riceve i primi documenti subito.
+ */
+@UtilityClass
+public class FlussoNdjson {
+
+    private static final int RIGHE_PER_FLUSH = 100;
+
+    public static <T> StreamingResponseBody scrivi(Supplier<Stream<T>> sorgente, ObjectMapper objectMapper) {
+        return output -> {
+            var writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            try (var elementi = sorgente.get();
+                 var generatore = objectMapper.getFactory().createGenerator(output)
+                         .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                var righe = 0;
+                for (var iteratore = elementi.iterator(); iteratore.hasNext(); ) {
+                    writer.writeValue(generatore, iteratore.next());
+                    generatore.writeRaw('\n');
+                    if (++righe % RIGHE_PER_FLUSH == 0) {
+                        generatore.flush();
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,268 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.simonegenovesi.extractorfiledata.util.dto.VoceArchivio;
+import com.simonegenovesi.extractorfiledata.util.enumerated.MimeTypeEnum;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import static com.simonegenovesi.extractorfiledata.util.MimeType.deduciFormato;
+
+/**
+ * Indicizza il contenuto degli archivi ZIP e GZIP senza estrarli.
+ * <p>
+ * Dello ZIP si legge solo la central directory, raggiunta con una lettura posizionata dalla fine del file e
+ * scorsa con un buffer fisso: la memoria non dipende dal numero di voci. Per riconoscere il formato di una voce
+ * si leggono pochi KB dalla sua posizione e se ne decomprimono al più {@value #BYTE_FORMATO} byte.
+ * Del GZIP si leggono l'intestazione (nome originale) e il trailer (CRC e dimensione non compressa).
+ */
+@Slf4j
+@UtilityClass
+public class IndiceArchivi {
+
+    // byte della voce usati per dedurne il formato, come in MimeType.deduciFormatoFile
+    private static final int BYTE_FORMATO = 512;
+    private static final int LETTURA_VOCE = 4096;
+
+    private static final int FIRMA_EOCD = 0x06054b50;
+    private static final int FIRMA_LOCATORE_ZIP64 = 0x07064b50;
+    private static final int FIRMA_EOCD_ZIP64 = 0x06064b50;
+    private static final int FIRMA_CENTRAL_DIRECTORY = 0x02014b50;
+    private static final int LUNGHEZZA_EOCD = 22;
+    private static final int LUNGHEZZA_CENTRAL_DIRECTORY = 46;
+    private static final int LUNGHEZZA_LOCAL_HEADER = 30;
+
+    // contenitori ZIP che sono documenti: restano opachi
+    private static final Set<String> ESTENSIONI_DOCUMENTO = Set.of(
+            "docx", "xlsx", "pptx", "odt", "ods", "odp", "epub", "jar", "war", "apk");
+
+    private static final Charset CP437 = Charset.isSupported("IBM437") ? Charset.forName("IBM437") : StandardCharsets.ISO_8859_1;
+
+    public static boolean isIndicizzabile(File file, MimeTypeEnum formato) {
+        if (formato == MimeTypeEnum.APPLICATION_GZIP) {
+            return true;
+        }
+        if (formato != MimeTypeEnum.APPLICATION_ZIP) {
+            return false;
+        }
+        var nome = file.getName();
+        var punto = nome.lastIndexOf('.');
+        return punto < 0 || !ESTENSIONI_DOCUMENTO.contains(nome.substring(punto + 1).toLowerCase());
+    }
+
+    /**
+     * Passa al consumer le voci dell'archivio, una alla volta. Un archivio illeggibile viene segnalato
+     * nel log e resta indicizzato solo come file.
+     * @return numero di voci lette
+     */
+    public static int leggi(File file, MimeTypeEnum formato, Consumer<VoceArchivio> consumer) {
+        var start = System.nanoTime();
+        try (var canale = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            var voci = formato == MimeTypeEnum.APPLICATION_GZIP
+                    ? leggiGzip(file, canale, consumer)
+                    : leggiZip(canale, consumer);
+            log.info("Indicizzate {} voci dell'archivio {} in {} ms", voci, file.getName(), (System.nanoTime() - start) / 1_000_000);
+            return voci;
+        } catch (IOException | RuntimeException e) {
+            log.error("Impossibile leggere l'indice dell'archivio {}: {}", file.getName(), e.getMessage());
+            return 0;
+        }
+    }
+
+    private static int leggiZip(FileChannel canale, Consumer<VoceArchivio> consumer) throws IOException {
+        var dimensioneFile = canale.size();
+        var coda = leggiA(canale, Math.max(0, dimensioneFile - LUNGHEZZA_EOCD - 0xFFFF), (int) Math.min(dimensioneFile, LUNGHEZZA_EOCD + 0xFFFF));
+        var eocd = cercaEocd(coda);
+        if (eocd < 0) {
+            throw new IOException("fine della central directory non trovata");
+        }
+        long numVoci = coda.getShort(eocd + 10) & 0xFFFF;
+        long inizio = coda.getInt(eocd + 16) & 0xFFFFFFFFL;
+
+        // ZIP64: i valori a saturazione rimandano al record ZIP64, indicato dal locatore che precede l'EOCD
+        if (numVoci == 0xFFFF || inizio == 0xFFFFFFFFL) {
+            var posizioneEocd = dimensioneFile - coda.limit() + eocd;
+            var locatore = leggiA(canale, posizioneEocd - 20, 20);
+            if (locatore.getInt(0) != FIRMA_LOCATORE_ZIP64) {
+                throw new IOException("locatore ZIP64 mancante");
+            }
+            var eocd64 = leggiA(canale, locatore.getLong(8), 56);
+            if (eocd64.getInt(0) != FIRMA_EOCD_ZIP64) {
+                throw new IOException("record ZIP64 non valido");
+            }
+            numVoci = eocd64.getLong(32);
+            inizio = eocd64.getLong(48);
+        }
+
+        canale.position(inizio);
+        var input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(canale), 64 * 1024));
+        var intestazione = new byte[LUNGHEZZA_CENTRAL_DIRECTORY];
+        var buffer = ByteBuffer.wrap(intestazione).order(ByteOrder.LITTLE_ENDIAN);
+        var nomeBytes = new byte[0xFFFF];
+        var extra = new byte[0xFFFF];
+        var voci = 0;
+        for (long i = 0; i < numVoci; i++) {
+            input.readFully(intestazione);
+            if (buffer.getInt(0) != FIRMA_CENTRAL_DIRECTORY) {
+                throw new IOException("voce " + i + " della central directory non valida");
+            }
+            var flag = buffer.getShort(8) & 0xFFFF;
+            var metodo = buffer.getShort(10) & 0xFFFF;
+            var crc = buffer.getInt(16) & 0xFFFFFFFFL;
+            long compressa = buffer.getInt(20) & 0xFFFFFFFFL;
+            long dimensione = buffer.getInt(24) & 0xFFFFFFFFL;
+            var lunghezzaNome = buffer.getShort(28) & 0xFFFF;
+            var lunghezzaExtra = buffer.getShort(30) & 0xFFFF;
+            var lunghezzaCommento = buffer.getShort(32) & 0xFFFF;
+            long offset = buffer.getInt(42) & 0xFFFFFFFFL;
+
+            input.readFully(nomeBytes, 0, lunghezzaNome);
+            input.readFully(extra, 0, lunghezzaExtra);
+            input.skipNBytes(lunghezzaCommento);
+            // bit 11: nome in UTF-8, altrimenti CP437
+            var nome = new String(nomeBytes, 0, lunghezzaNome, (flag & 0x800) != 0 ? StandardCharsets.UTF_8 : CP437);
+            if (nome.endsWith("/")) {
+                continue; // directory
+            }
+
+            // extra ZIP64 (id 0x0001): solo i valori saturati, nell'ordine dimensione, compressa, offset
+            var campiExtra = ByteBuffer.wrap(extra, 0, lunghezzaExtra).order(ByteOrder.LITTLE_ENDIAN);
+            while (campiExtra.remaining() >= 4) {
+                var id = campiExtra.getShort() & 0xFFFF;
+                var lunghezza = campiExtra.getShort() & 0xFFFF;
+                var fine = Math.min(campiExtra.limit(), campiExtra.position() + lunghezza);
+                if (id == 0x0001) {
+                    if (dimensione == 0xFFFFFFFFL && campiExtra.position() + 8 <= fine) {
+                        dimensione = campiExtra.getLong();
+                    }
+                    if (compressa == 0xFFFFFFFFL && campiExtra.position() + 8 <= fine) {
+                        compressa = campiExtra.getLong();
+                    }
+                    if (offset == 0xFFFFFFFFL && campiExtra.position() + 8 <= fine) {
+                        offset = campiExtra.getLong();
+                    }
+                }
+                campiExtra.position(fine);
+            }
+
+            // voci cifrate (bit 0) o con metodi diversi da stored/deflate: formato non deducibile
+            var formato = (flag & 0x1) == 0 && (metodo == 0 || metodo == 8)
+                    ? formatoVoce(canale, offset, metodo, compressa)
+                    : MimeTypeEnum.APPLICATION_OCTET_STREAM;
+            consumer.accept(new VoceArchivio(nome, dimensione, compressa, crc, formato));
+            voci++;
+        }
+        return voci;
+    }
+
+    private static int cercaEocd(ByteBuffer coda) {
+        for (int i = coda.limit() - LUNGHEZZA_EOCD; i >= 0; i--) {
+            if (coda.getInt(i) == FIRMA_EOCD) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Formato della voce dai suoi primi byte: una lettura posizionata dall'intestazione locale e, per le voci
+     * deflate, la decompressione del solo inizio.
+     */
+    private static MimeTypeEnum formatoVoce(FileChannel canale, long offset, int metodo, long compressa) throws IOException {
+        var lettura = leggiA(canale, offset, (int) Math.min(LETTURA_VOCE, canale.size() - offset));
+        if (lettura.limit() < LUNGHEZZA_LOCAL_HEADER) {
+            return MimeTypeEnum.APPLICATION_OCTET_STREAM;
+        }
+        var inizioDati = LUNGHEZZA_LOCAL_HEADER + (lettura.getShort(26) & 0xFFFF) + (lettura.getShort(28) & 0xFFFF);
+        var disponibili = (int) Math.min(compressa, lettura.limit() - inizioDati);
+        if (inizioDati + disponibili > lettura.limit() || disponibili <= 0) {
+            // intestazione locale con extra molto lunghi: seconda lettura dall'inizio dei dati
+            lettura = leggiA(canale, offset + inizioDati, (int) Math.min(LETTURA_VOCE, compressa));
+            inizioDati = 0;
+            disponibili = lettura.limit();
+        }
+        var dati = new byte[disponibili];
+        lettura.get(inizioDati, dati);
+
+        if (metodo == 0) {
+            return deduciFormato(dati, Math.min(dati.length, BYTE_FORMATO));
+        }
+        var inflater = new Inflater(true);
+        try {
+            inflater.setInput(dati);
+            var inizio = new byte[BYTE_FORMATO];
+            var letti = 0;
+            while (letti < inizio.length && !inflater.finished() && !inflater.needsInput()) {
+                letti += inflater.inflate(inizio, letti, inizio.length - letti);
+            }
+            return deduciFormato(inizio, letti);
+        } catch (DataFormatException e) {
+            return MimeTypeEnum.APPLICATION_OCTET_STREAM;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * GZIP: una sola voce, con il nome dell'intestazione (FNAME) o del file senza estensione. CRC e dimensione
+     * vengono dal trailer; la dimensione è modulo 2^32 e, nei GZIP multi-membro, riguarda l'ultimo membro.
+     */
+    private static int leggiGzip(File file, FileChannel canale, Consumer<VoceArchivio> consumer) throws IOException {
+        var dimensioneFile = canale.size();
+        var testa = leggiA(canale, 0, (int) Math.min(dimensioneFile, LETTURA_VOCE));
+        var trailer = leggiA(canale, dimensioneFile - 8, 8);
+        var flag = testa.get(3);
+        String nome = null;
+        if ((flag & 0x08) != 0) {
+            var posizione = 10;
+            if ((flag & 0x04) != 0) {
+                posizione += 2 + (testa.getShort(10) & 0xFFFF); // FEXTRA
+            }
+            var fine = posizione;
+            while (fine < testa.limit() && testa.get(fine) != 0) {
+                fine++;
+            }
+            var nomeBytes = new byte[fine - posizione];
+            testa.get(posizione, nomeBytes);
+            nome = new String(nomeBytes, StandardCharsets.ISO_8859_1); // RFC 1952
+        }
+        if (nome == null || nome.isBlank()) {
+            nome = file.getName().replaceFirst("(?i)\\.tgz$", ".tar").replaceFirst("(?i)\\.gz$", "");
+        }
+
+        MimeTypeEnum formato;
+        try (var input = new GZIPInputStream(Channels.newInputStream(canale.position(0)), LETTURA_VOCE)) {
+            var inizio = input.readNBytes(BYTE_FORMATO);
+            formato = deduciFormato(inizio, inizio.length);
+        }
+        consumer.accept(new VoceArchivio(nome, trailer.getInt(4) & 0xFFFFFFFFL, dimensioneFile,
+                trailer.getInt(0) & 0xFFFFFFFFL, formato));
+        return 1;
+    }
+
+    private static ByteBuffer leggiA(FileChannel canale, long posizione, int lunghezza) throws IOException {
+        var buffer = ByteBuffer.allocate(Math.max(0, lunghezza)).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (canale.read(buffer, posizione + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.flip();
+    }
+}
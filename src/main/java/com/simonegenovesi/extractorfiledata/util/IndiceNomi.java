@@ -0,0 +1,105 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.simonegenovesi.extractorfiledata.entity.MetadatiRisorsa;
+import com.simonegenovesi.extractorfiledata.entity.RicercaRisorsa;
+import lombok.experimental.UtilityClass;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizzazione di nomi e percorsi per l'indice di ricerca: minuscole, accenti rimossi e separatori unificati in
+ * {@code /}, così la ricerca non dipende da maiuscole, accenti o sistema operativo. I trigrammi sono le sottostringhe
+ * di tre caratteri del percorso normalizzato: una sottostringa cercata di almeno tre caratteri compare solo nei
+ * percorsi che contengono tutti i suoi trigrammi.
+ */
+@UtilityClass
+public class IndiceNomi {
+
+    public static final int LUNGHEZZA_TRIGRAMMA = 3;
+
+    private static final Pattern SEGNI_DIACRITICI = Pattern.compile("\\p{M}+");
+    // caratteri presenti in quasi tutti i percorsi: i trigrammi che li contengono selezionano poco
+    private static final String CARATTERI_COMUNI = "/._- ";
+
+    public static String normalizza(String testo) {
+        var scomposto = Normalizer.normalize(testo, Normalizer.Form.NFD);
+        return SEGNI_DIACRITICI.matcher(scomposto).replaceAll("")
+                .toLowerCase(Locale.ROOT)
+                .replace('\\', '/');
+    }
+
+    /**
+     * Trigrammi distinti del testo già normalizzato, nell'ordine in cui compaiono.
+     */
+    public static List<String> trigrammi(String normalizzato) {
+        var codePoint = normalizzato.codePoints().toArray();
+        Set<String> trigrammi = new LinkedHashSet<>();
+        for (int i = 0; i + LUNGHEZZA_TRIGRAMMA <= codePoint.length; i++) {
+            trigrammi.add(new String(codePoint, i, LUNGHEZZA_TRIGRAMMA));
+        }
+        return new ArrayList<>(trigrammi);
+    }
+
+    /**
+     * Trigrammi di una sottostringa cercata, i più selettivi per primi: Mongo usa il primo elemento di
+     * {@code $all} per i limiti dell'indice e verifica gli altri sui documenti.
+     */
+    public static List<String> trigrammiRicerca(String normalizzato) {
+        var trigrammi = trigrammi(normalizzato);
+        trigrammi.sort(Comparator.comparingLong(IndiceNomi::caratteriComuni));
+        return trigrammi;
+    }
+
+    /**
+     * Limite superiore esclusivo delle stringhe che iniziano con il prefisso: il prefisso con l'ultimo carattere
+     * incrementato. Mongo confronta le stringhe per code point, quindi l'intervallo usa l'indice come un prefisso.
+     */
+    public static String successivo(String prefisso) {
+        var codePoint = prefisso.codePoints().toArray();
+        codePoint[codePoint.length - 1]++;
+        return new String(codePoint, 0, codePoint.length);
+    }
+
+    /**
+     * Voce dell'indice di una risorsa salvata.
+     * @param risorsa id della risorsa letto dalle API
+     */
+    public static RicercaRisorsa voce(MetadatiRisorsa metadato, String risorsa) {
+        var percorso = percorsoRelativo(normalizza(metadato.getUrlOggetto()), metadato);
+        return RicercaRisorsa.builder()
+                .risorsa(risorsa)
+                .codiceCantiere(metadato.getCodiceCantiere())
+                .codiceLotto(metadato.getCodiceLotto())
+                .codicePacchetto(metadato.getCodicePacchetto())
+                .urlOggetto(metadato.getUrlOggetto())
+                .nomeOggetto(metadato.getNomeOggetto())
+                .dimensioneFile(metadato.getDimensioneFile())
+                .formatoFile(metadato.getFormatoFile())
+                .nomeNormalizzato(normalizza(metadato.getNomeOggetto()))
+                .percorsoNormalizzato(percorso)
+                .trigrammi(trigrammi(percorso))
+                .build();
+    }
+
+    /**
+     * Percorso sotto la cartella {@code <cantiere>/<lotto>/<pacchetto>/}: la parte comune a tutte le risorse non
+     * aggiungerebbe che trigrammi presenti ovunque. Se la cartella non compare nell'url si usa l'url intero.
+     */
+    private static String percorsoRelativo(String url, MetadatiRisorsa metadato) {
+        var cartella = normalizza("/" + metadato.getCodiceCantiere() + "/" + metadato.getCodiceLotto()
+                + "/" + metadato.getCodicePacchetto() + "/");
+        var inizio = url.indexOf(cartella);
+        return inizio < 0 ? url : url.substring(inizio + cartella.length());
+    }
+
+    private static long caratteriComuni(String trigramma) {
+        return trigramma.chars().filter(c -> CARATTERI_COMUNI.indexOf(c) >= 0).count();
+    }
+}
@@ -0,0 +1,113 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.experimental.UtilityClass;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Invio di file statici senza passare i byte per l'heap.
+ * <p>
+ * Con Tomcat si usa {@code sendfile}: il servlet imposta solo gli attributi della richiesta e il connettore
+ * copia il file sul socket dal kernel. Se sendfile non è disponibile si ricade su
+ * {@link FileChannel#transferTo}. Gestisce ETag forte, richieste condizionali e singoli Range.
+ */
+@UtilityClass
+public class InvioFile {
+
+    private static final String SENDFILE_SUPPORTATO = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_INIZIO = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FINE = "org.apache.tomcat.sendfile.end";
+
+    public static void invia(
+            Path file,
+            String contentType,
+            CacheControl cacheControl,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        var attributi = Files.readAttributes(file, BasicFileAttributes.class);
+        var dimensione = attributi.size();
+        var ultimaModifica = attributi.lastModifiedTime().toMillis();
+        // ETag forte: cambia se il file viene rigenerato
+        var etag = "\"" + Long.toHexString(dimensione) + "-" + Long.toHexString(ultimaModifica) + "\"";
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (new ServletWebRequest(request, response).checkNotModified(etag, ultimaModifica)) {
+            return; // 304 o 412, header già impostati
+        }
+
+        long inizio = 0;
+        long lunghezza = dimensione;
+        var range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && rangeApplicabile(request, etag)) {
+            try {
+                var ranges = HttpRange.parseRanges(range);
+                // più intervalli: si risponde con il file intero, come consentito da RFC 9110
+                if (ranges.size() == 1) {
+                    inizio = ranges.get(0).getRangeStart(dimensione);
+                    lunghezza = ranges.get(0).getRangeEnd(dimensione) - inizio + 1;
+                    if (inizio >= dimensione || lunghezza <= 0) {
+                        throw new IllegalArgumentException("Range fuori dal file: " + range);
+                    }
+                    response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                    response.setHeader(HttpHeaders.CONTENT_RANGE,
+                            "bytes " + inizio + "-" + (inizio + lunghezza - 1) + "/" + dimensione);
+                }
+            } catch (IllegalArgumentException e) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + dimensione);
+                response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+        }
+
+        response.setContentType(contentType);
+        response.setContentLengthLong(lunghezza);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTATO))) {
+            request.setAttribute(SENDFILE_FILE, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_INIZIO, inizio);
+            request.setAttribute(SENDFILE_FINE, inizio + lunghezza);
+            return;
+        }
+
+        try (var canale = FileChannel.open(file, StandardOpenOption.READ)) {
+            var destinazione = Channels.newChannel(response.getOutputStream());
+            var posizione = inizio;
+            var rimanenti = lunghezza;
+            while (rimanenti > 0) {
+                var trasferiti = canale.transferTo(posizione, rimanenti, destinazione);
+                if (trasferiti <= 0) {
+                    break;
+                }
+                posizione += trasferiti;
+                rimanenti -= trasferiti;
+            }
+        }
+    }
+
+    /**
+     * Il Range vale solo se manca {@code If-Range} o se corrisponde all'ETag corrente.
+     */
+    private static boolean rangeApplicabile(HttpServletRequest request, String etag) {
+        var ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        return ifRange == null || ifRange.equals(etag);
+    }
+}
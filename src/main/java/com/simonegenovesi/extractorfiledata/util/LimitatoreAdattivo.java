@@ -0,0 +1,188 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.simonegenovesi.extractorfiledata.payload.response.StatisticaVolumeResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Limite adattivo delle letture concorrenti su un volume, guidato dal gradiente della latenza come il controllo di
+ * congestione TCP Vegas.
+ * <p>
+ * Finché il dispositivo ha capacità libera, più letture concorrenti aumentano il throughput a latenza costante; oltre
+ * la sua capacità le letture si accodano nel dispositivo e la latenza cresce senza throughput in più. Alla fine di
+ * ogni finestra di letture il limite viene moltiplicato per il rapporto tra latenza minima e latenza media (il
+ * gradiente, tra 0,5 e 1) e, se la finestra lo ha saturato, aumentato della radice del limite come margine di coda.
+ * Il limite converge così poco oltre la concorrenza a cui la latenza inizia a crescere, cioè dove il throughput
+ * smette di aumentare. La latenza minima di riferimento non scende sotto {@link #LATENZA_TRASCURABILE}: le letture
+ * servite dalla page cache non devono far sembrare congestionate quelle che arrivano al dispositivo.
+ * <p>
+ * Il limitatore parte dal limite iniziale, così anche le operazioni non misurate (l'elenco delle cartelle della
+ * scansione) procedono in parallelo su un volume nuovo; la prima latenza minima viene dalle prime finestre a quel
+ * limite. Una finestra ogni {@link #PERIODO_SONDA} viene poi eseguita al limite minimo per rimisurare la latenza
+ * minima, come la fase ProbeRTT di BBR: segue un volume diventato più lento senza che il limite stesso la tenga alta.
+ */
+public class LimitatoreAdattivo {
+
+    private static final double LISCIATURA = 0.2;
+    private static final double GRADIENTE_MINIMO = 0.5;
+    private static final int CAMPIONI_MINIMI = 16;
+    private static final long LATENZA_TRASCURABILE = 500_000;
+    private static final long PERIODO_SONDA = 30_000_000_000L;
+
+    private final int minimo;
+    private final int massimo;
+    // nanosecondi, come System.nanoTime
+    private final LongSupplier orologio;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition libero = lock.newCondition();
+
+    private double limite;
+    private int inVolo;
+    private long completate;
+
+    // finestra corrente
+    private int campioni;
+    private long latenzaTotale;
+    private boolean saturata;
+    private long inizioFinestra;
+
+    // finestra di sonda: contano solo le letture iniziate dopo il suo avvio
+    private boolean sonda;
+    private long prossimaSonda;
+
+    private double latenzaMinima = Double.MAX_VALUE;
+    private double latenzaMedia;
+    private double lettureAlSecondo;
+
+    /**
+     * Operazione di I/O eseguita con un permesso del limitatore.
+     */
+    @FunctionalInterface
+    public interface Operazione<T> {
+        T esegui() throws IOException;
+    }
+
+    public LimitatoreAdattivo(int minimo, int iniziale, int massimo) {
+        this(minimo, iniziale, massimo, System::nanoTime);
+    }
+
+    LimitatoreAdattivo(int minimo, int iniziale, int massimo, LongSupplier orologio) {
+        this.minimo = Math.max(1, minimo);
+        this.massimo = Math.max(this.minimo, massimo);
+        this.limite = Math.min(this.massimo, Math.max(this.minimo, iniziale));
+        this.orologio = orologio;
+        this.inizioFinestra = orologio.getAsLong();
+        this.prossimaSonda = inizioFinestra + PERIODO_SONDA;
+    }
+
+    /**
+     * Esegue una singola lettura e ne usa la latenza per adattare il limite.
+     */
+    public <T> T leggi(Operazione<T> operazione) throws IOException {
+        var inizio = acquisisci();
+        try {
+            return operazione.esegui();
+        } finally {
+            rilascia(inizio, true);
+        }
+    }
+
+    /**
+     * Esegue un'operazione entro il limite senza usarne la durata, per operazioni non paragonabili a una lettura
+     * (l'elenco di una cartella, la lettura di un intero file).
+     */
+    public <T> T esegui(Operazione<T> operazione) throws IOException {
+        var inizio = acquisisci();
+        try {
+            return operazione.esegui();
+        } finally {
+            rilascia(inizio, false);
+        }
+    }
+
+    public StatisticaVolumeResponse statistica(String volume) {
+        lock.lock();
+        try {
+            return StatisticaVolumeResponse.builder()
+                    .volume(volume)
+                    .limite(limiteEffettivo())
+                    .inVolo(inVolo)
+                    .completate(completate)
+                    .letturePerSecondo(lettureAlSecondo)
+                    .latenzaMediaMs(latenzaMedia / 1_000_000.0)
+                    .latenzaMinimaMs(latenzaMinima == Double.MAX_VALUE ? 0 : latenzaMinima / 1_000_000.0)
+                    .build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long acquisisci() throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (inVolo >= limiteEffettivo()) {
+                saturata = true;
+                libero.await();
+            }
+            inVolo++;
+            if (inVolo >= limiteEffettivo()) {
+                saturata = true;
+            }
+            return orologio.getAsLong();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Attesa del limite di I/O interrotta");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rilascia(long inizio, boolean misura) {
+        var adesso = orologio.getAsLong();
+        lock.lock();
+        try {
+            inVolo--;
+            completate++;
+            if (misura && (!sonda || inizio >= inizioFinestra)) {
+                campioni++;
+                latenzaTotale += adesso - inizio;
+                if (campioni >= Math.max(CAMPIONI_MINIMI, limiteEffettivo())) {
+                    adatta(adesso);
+                }
+            }
+            libero.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int limiteEffettivo() {
+        return sonda ? minimo : (int) limite;
+    }
+
+    private void adatta(long adesso) {
+        latenzaMedia = (double) latenzaTotale / campioni;
+        lettureAlSecondo = campioni / Math.max(1e-9, (adesso - inizioFinestra) / 1_000_000_000.0);
+        if (sonda) {
+            latenzaMinima = latenzaMedia;
+            sonda = false;
+            prossimaSonda = adesso + PERIODO_SONDA;
+        } else {
+            latenzaMinima = Math.min(latenzaMinima, latenzaMedia);
+            var riferimento = Math.max(latenzaMinima, LATENZA_TRASCURABILE);
+            var gradiente = Math.max(GRADIENTE_MINIMO, Math.min(1.0, riferimento / latenzaMedia));
+            var nuovo = limite * gradiente + (saturata ? Math.sqrt(limite) : 0);
+            limite = Math.min(massimo, Math.max(minimo, limite * (1 - LISCIATURA) + nuovo * LISCIATURA));
+            sonda = adesso >= prossimaSonda;
+        }
+        campioni = 0;
+        latenzaTotale = 0;
+        saturata = false;
+        inizioFinestra = adesso;
+    }
+}
@@ -7,7 +7,10 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Map;
+import java.util.Set;
 
 @Slf4j
 @UtilityClass
@@ -24,6 +27,7 @@ public class MimeType {
             Map.entry("474946", MimeTypeEnum.IMAGE_GIF),
             Map.entry("49492A", MimeTypeEnum.IMAGE_TIFF),
             Map.entry("4D4D00", MimeTypeEnum.IMAGE_TIFF),
+            Map.entry("424D", MimeTypeEnum.IMAGE_BMP),
 
             // Audio
             Map.entry("494433", MimeTypeEnum.AUDIO_MPEG),
@@ -40,32 +44,108 @@ public class MimeType {
             Map.entry("D0CF11", MimeTypeEnum.APPLICATION_MSWORD)
     );
 
+    // "BM" sono solo due byte: l'intestazione BMP viene verificata, o un testo che inizia con "BM" sarebbe una bitmap
+    private static final int LUNGHEZZA_INTESTAZIONE_BMP = 18; // BITMAPFILEHEADER e dimensione dell'intestazione DIB
+    private static final Set<Integer> DIMENSIONI_DIB = Set.of(12, 40, 52, 56, 108, 124);
+
+    // estensioni il cui formato è anche riconosciuto dall'intestazione. Classificarle senza aprire il file dà lo
+    // stesso risultato solo se il file inizia con la firma: XML, XHTML e hOCR senza prologo e MP3 senza tag ID3
+    // hanno un'intestazione sconosciuta, classificata come octet-stream, ma prendono il formato dall'estensione
+    private static final Map<String, MimeTypeEnum> ESTENSIONI = Map.ofEntries(
+            Map.entry("xml", MimeTypeEnum.APPLICATION_XML),
+            Map.entry("xhtml", MimeTypeEnum.APPLICATION_XHTML),
+            Map.entry("hocr", MimeTypeEnum.APPLICATION_HOCR),
+            Map.entry("jpg", MimeTypeEnum.IMAGE_JPEG),
+            Map.entry("jpeg", MimeTypeEnum.IMAGE_JPEG),
+            Map.entry("png", MimeTypeEnum.IMAGE_PNG),
+            Map.entry("gif", MimeTypeEnum.IMAGE_GIF),
+            Map.entry("tif", MimeTypeEnum.IMAGE_TIFF),
+            Map.entry("tiff", MimeTypeEnum.IMAGE_TIFF),
+            Map.entry("bmp", MimeTypeEnum.IMAGE_BMP),
+            Map.entry("mp3", MimeTypeEnum.AUDIO_MPEG),
+            Map.entry("ogg", MimeTypeEnum.AUDIO_OGG),
+            Map.entry("wav", MimeTypeEnum.AUDIO_WAV),
+            Map.entry("pdf", MimeTypeEnum.APPLICATION_PDF),
+            Map.entry("zip", MimeTypeEnum.APPLICATION_ZIP),
+            Map.entry("gz", MimeTypeEnum.APPLICATION_GZIP),
+            Map.entry("doc", MimeTypeEnum.APPLICATION_MSWORD)
+    );
+
+    /**
+     * Formato dalla sola estensione, senza aprire il file.
+     * @return null se l'estensione manca o non è tra quelle affidabili
+     */
+    public static MimeTypeEnum deduciDaEstensione(String nomeFile) {
+        var punto = nomeFile.lastIndexOf('.');
+        if (punto < 0 || punto == nomeFile.length() - 1) {
+            return null;
+        }
+        return ESTENSIONI.get(nomeFile.substring(punto + 1).toLowerCase());
+    }
+
     public static MimeTypeEnum deduciFormatoFile(File file) {
         try (var fis = new FileInputStream(file)) {
             var bytes = new byte[512]; // Leggiamo fino a 256 byte
             var bytesRead = fis.read(bytes);
 
-            if (bytesRead < 4) {
-                return MimeTypeEnum.APPLICATION_OCTET_STREAM; // Formato sconosciuto
-            }
-
-            // Convertiamo i primi 4 byte in esadecimale per identificazione veloce
-            var hexSignature = bytesToHex(bytes).toUpperCase();
+            return deduciFormato(bytes, bytesRead, file.length());
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            return MimeTypeEnum.APPLICATION_OCTET_STREAM; // Errore nel file
+        }
+    }
 
-            // Controlliamo magic numbers noti
-            for (var entry: MAGIC_NUMBERS.entrySet()) {
-                if (hexSignature.startsWith(entry.getKey())) {
-                    return getMimeTypeEnum(entry, bytes, bytesRead);
+    /**
+     * Come {@link #deduciFormatoFile(File)}, con apertura e lettura entro il limite di I/O del volume del file.
+     */
+    public static MimeTypeEnum deduciFormatoFile(File file, LimitatoreAdattivo limitatore) {
+        try {
+            var bytes = new byte[512];
+            int bytesRead = limitatore.leggi(() -> {
+                try (var fis = new FileInputStream(file)) {
+                    return fis.read(bytes);
                 }
-            }
-
-            return MimeTypeEnum.APPLICATION_OCTET_STREAM; // Formato sconosciuto
+            });
+            return deduciFormato(bytes, bytesRead, file.length());
         } catch (IOException e) {
             log.error(e.getMessage());
             return MimeTypeEnum.APPLICATION_OCTET_STREAM; // Errore nel file
         }
     }
 
+    /**
+     * Deduce il formato dai primi byte di un contenuto, ad esempio una voce di un archivio.
+     * @param bytes buffer con l'inizio del contenuto
+     * @param bytesRead numero di byte validi nel buffer
+     */
+    public static MimeTypeEnum deduciFormato(byte[] bytes, int bytesRead) {
+        return deduciFormato(bytes, bytesRead, -1);
+    }
+
+    /**
+     * @param dimensione dimensione del contenuto, -1 se non nota
+     */
+    public static MimeTypeEnum deduciFormato(byte[] bytes, int bytesRead, long dimensione) {
+        if (bytesRead < 4) {
+            return MimeTypeEnum.APPLICATION_OCTET_STREAM; // Formato sconosciuto
+        }
+
+        // Convertiamo i primi 4 byte in esadecimale per identificazione veloce
+        var hexSignature = bytesToHex(bytes).toUpperCase();
+
+        // Controlliamo magic numbers noti
+        for (var entry: MAGIC_NUMBERS.entrySet()) {
+            if (hexSignature.startsWith(entry.getKey())) {
+                if (entry.getValue() == MimeTypeEnum.IMAGE_BMP && !isIntestazioneBmp(bytes, bytesRead, dimensione)) {
+                    continue;
+                }
+                return getMimeTypeEnum(entry, bytes, bytesRead);
+            }
+        }
+
+        return MimeTypeEnum.APPLICATION_OCTET_STREAM; // Formato sconosciuto
+    }
+
     private static MimeTypeEnum getMimeTypeEnum(Map.Entry<String, MimeTypeEnum> entry, byte[] bytes, int bytesRead) {
         var mime = entry.getValue();
         var fileContent = new String(bytes, 0, bytesRead).toLowerCase();
@@ -81,6 +161,22 @@ public class MimeType {
         return mime;
     }
 
+    /**
+     * BITMAPFILEHEADER plausibile: dimensione dichiarata non oltre quella del contenuto, byte riservati a zero e
+     * intestazione DIB di una delle dimensioni note (da BITMAPCOREHEADER a BITMAPV5HEADER).
+     */
+    private static boolean isIntestazioneBmp(byte[] bytes, int bytesRead, long dimensione) {
+        if (bytesRead < LUNGHEZZA_INTESTAZIONE_BMP) {
+            return false;
+        }
+        var intestazione = ByteBuffer.wrap(bytes, 0, bytesRead).order(ByteOrder.LITTLE_ENDIAN);
+        var dimensioneDichiarata = intestazione.getInt(2) & 0xFFFFFFFFL;
+        if (dimensione >= 0 && dimensioneDichiarata > dimensione) {
+            return false;
+        }
+        return intestazione.getInt(6) == 0 && DIMENSIONI_DIB.contains(intestazione.getInt(14));
+    }
+
     private static String bytesToHex(byte[] bytes) {
         var hex = new StringBuilder();
         for (var b : bytes) {
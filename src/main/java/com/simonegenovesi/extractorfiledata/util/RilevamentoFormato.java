@@ -0,0 +1,115 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.simonegenovesi.extractorfiledata.payload.response.DiscordanzaFormatoResponse;
+import com.simonegenovesi.extractorfiledata.payload.response.RilevamentoResponse;
+import com.simonegenovesi.extractorfiledata.util.enumerated.MimeTypeEnum;
+import com.simonegenovesi.extractorfiledata.util.enumerated.PoliticaRilevamentoEnum;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rilevamento del formato dei file secondo la politica {@code rilevamento.politica}.
+ * <p>
+ * Con {@link PoliticaRilevamentoEnum#ESTENSIONE} i file con un'estensione affidabile (vedi
+ * {@link MimeType#deduciDaEstensione}) non vengono aperti: per pacchetti con milioni di piccoli XML e hOCR è
+ * un'apertura e una lettura casuale in meno per file. Con {@link PoliticaRilevamentoEnum#VERIFICA} l'intestazione
+ * di una frazione di quei file viene letta comunque e confrontata; in caso di discordanza vale il contenuto e la
+ * discordanza viene registrata.
+ * <p>
+ * Archivi indicizzabili, PDF e hOCR vengono comunque aperti dall'analisi per voci e struttura: classificati
+ * dall'estensione evitano solo la lettura separata dell'intestazione e sono contati a parte, non tra i file
+ * senza apertura.
+ */
+@Slf4j
+public class RilevamentoFormato {
+
+    // byte letti dall'intestazione da MimeType
+    private static final int BYTE_INTESTAZIONE = 512;
+    private static final int DISCORDANZE_RECENTI = 100;
+
+    @Getter
+    private final PoliticaRilevamentoEnum politica;
+    private final double frazioneVerifica;
+
+    private final LongAdder senzaApertura = new LongAdder();
+    private final LongAdder apertiDallAnalisi = new LongAdder();
+    private final LongAdder letti = new LongAdder();
+    private final LongAdder verifiche = new LongAdder();
+    private final LongAdder discordanze = new LongAdder();
+    private final LongAdder byteNonLetti = new LongAdder();
+    private final Deque<DiscordanzaFormatoResponse> recenti = new ArrayDeque<>();
+
+    public RilevamentoFormato(PoliticaRilevamentoEnum politica, double frazioneVerifica) {
+        this.politica = politica;
+        this.frazioneVerifica = frazioneVerifica;
+        log.info("Rilevamento del formato per {}", politica);
+    }
+
+    /**
+     * @param dimensione dimensione del file, per il conteggio dei byte non letti
+     */
+    public MimeTypeEnum formato(File file, long dimensione, LimitatoreAdattivo limitatore) {
+        var daEstensione = politica == PoliticaRilevamentoEnum.CONTENUTO ? null : MimeType.deduciDaEstensione(file.getName());
+        if (daEstensione == null) {
+            letti.increment();
+            return MimeType.deduciFormatoFile(file, limitatore);
+        }
+        if (politica == PoliticaRilevamentoEnum.ESTENSIONE || ThreadLocalRandom.current().nextDouble() >= frazioneVerifica) {
+            if (Elementi.isLettoDallAnalisi(file, daEstensione)) {
+                apertiDallAnalisi.increment();
+            } else {
+                senzaApertura.increment();
+                byteNonLetti.add(Math.min(dimensione, BYTE_INTESTAZIONE));
+            }
+            return daEstensione;
+        }
+        letti.increment();
+        verifiche.increment();
+        var daContenuto = MimeType.deduciFormatoFile(file, limitatore);
+        if (daContenuto != daEstensione) {
+            registraDiscordanza(file, daEstensione, daContenuto);
+        }
+        return daContenuto;
+    }
+
+    public RilevamentoResponse statistica() {
+        List<DiscordanzaFormatoResponse> ultime;
+        synchronized (recenti) {
+            ultime = List.copyOf(recenti);
+        }
+        return RilevamentoResponse.builder()
+                .politica(politica.name())
+                .fileSenzaApertura(senzaApertura.sum())
+                .fileApertiDallAnalisi(apertiDallAnalisi.sum())
+                .fileLetti(letti.sum())
+                .verifiche(verifiche.sum())
+                .discordanze(discordanze.sum())
+                .byteNonLetti(byteNonLetti.sum())
+                .discordanzeRecenti(ultime)
+                .build();
+    }
+
+    private void registraDiscordanza(File file, MimeTypeEnum daEstensione, MimeTypeEnum daContenuto) {
+        discordanze.increment();
+        log.warn("Formato di {} diverso dall'estensione: {} invece di {}", file, daContenuto.getAbbreviation(),
+                daEstensione.getAbbreviation());
+        var discordanza = DiscordanzaFormatoResponse.builder()
+                .file(file.getAbsolutePath())
+                .formatoEstensione(daEstensione.getAbbreviation())
+                .formatoContenuto(daContenuto.getAbbreviation())
+                .build();
+        synchronized (recenti) {
+            if (recenti.size() >= DISCORDANZE_RECENTI) {
+                recenti.removeFirst();
+            }
+            recenti.addLast(discordanza);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Scrive le righe di un'esportazione in file gzip di dimensione limitata, uno alla volta.
+ * <p>
+ * Le righe arrivano ordinate per partizione: al cambio di partizione il file corrente viene chiuso e se ne apre uno
+ * nella cartella della nuova, quindi resta aperto un solo file. Un file viene chiuso anche quando i byte compressi
+ * scritti superano la dimensione massima; il controllo avviene tra una riga e l'altra, quindi la dimensione è
+ * indicativa (il deflater trattiene alcune decine di KB). I contatori sono scritti da un solo thread e letti da altri
+ * per l'avanzamento.
+ */
+public class ScrittoreEsportazione implements Closeable {
+
+    private static final int BUFFER = 64 * 1024;
+
+    private final Path cartella;
+    private final String nome;
+    private final String estensione;
+    private final long dimensioneMassima;
+    private final String intestazione;
+
+    private final List<Path> file = new CopyOnWriteArrayList<>();
+
+    private String partizione;
+    private int parte;
+    private Writer writer;
+    private Contatore compressi;
+    private Contatore nonCompressi;
+
+    private volatile long righe;
+    private volatile long byteNonCompressiChiusi;
+    private volatile long byteCompressiChiusi;
+
+    /**
+     * @param intestazione prima riga di ogni file (CSV), oppure null
+     */
+    public ScrittoreEsportazione(Path cartella, String nome, String estensione, long dimensioneMassima, String intestazione) {
+        this.cartella = cartella;
+        this.nome = nome;
+        this.estensione = estensione;
+        this.dimensioneMassima = dimensioneMassima;
+        this.intestazione = intestazione;
+    }
+
+    /**
+     * @param partizione sottocartella relativa della riga (es. {@code cantiere=CA01/lotto=L01}), oppure null
+     */
+    public void scrivi(String partizione, String riga) throws IOException {
+        if (writer == null || !Objects.equals(partizione, this.partizione)) {
+            apri(partizione, 0);
+        } else if (compressi.byteScritti >= dimensioneMassima) {
+            apri(partizione, parte + 1);
+        }
+        writer.write(riga);
+        writer.write('\n');
+        righe++;
+    }
+
+    public long getRighe() {
+        return righe;
+    }
+
+    public long getByteNonCompressi() {
+        var corrente = nonCompressi;
+        return byteNonCompressiChiusi + (corrente != null ? corrente.byteScritti : 0);
+    }
+
+    public long getByteCompressi() {
+        var corrente = compressi;
+        return byteCompressiChiusi + (corrente != null ? corrente.byteScritti : 0);
+    }
+
+    public List<Path> getFile() {
+        return List.copyOf(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        chiudiCorrente();
+    }
+
+    private void apri(String partizione, int parte) throws IOException {
+        chiudiCorrente();
+        var destinazione = partizione != null ? cartella.resolve(partizione) : cartella;
+        Files.createDirectories(destinazione);
+        var path = destinazione.resolve(String.format("%s-%05d%s", nome, parte, estensione));
+        var compressi = new Contatore(Files.newOutputStream(path));
+        var nonCompressi = new Contatore(new GZIPOutputStream(compressi, BUFFER));
+        this.writer = new BufferedWriter(new OutputStreamWriter(nonCompressi, StandardCharsets.UTF_8), BUFFER);
+        this.compressi = compressi;
+        this.nonCompressi = nonCompressi;
+        this.partizione = partizione;
+        this.parte = parte;
+        file.add(path);
+        if (intestazione != null) {
+            writer.write(intestazione);
+            writer.write('\n');
+        }
+    }
+
+    private void chiudiCorrente() throws IOException {
+        if (writer == null) {
+            return;
+        }
+        // la chiusura svuota il deflater: i contatori sono esatti solo dopo
+        writer.close();
+        byteNonCompressiChiusi += nonCompressi.byteScritti;
+        byteCompressiChiusi += compressi.byteScritti;
+        writer = null;
+        compressi = null;
+        nonCompressi = null;
+    }
+
+    private static class Contatore extends FilterOutputStream {
+        private volatile long byteScritti;
+
+        Contatore(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            byteScritti++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            byteScritti += len;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.simonegenovesi.extractorfiledata.event.jfr.MiniaturaCodificataEvent;
+import lombok.experimental.UtilityClass;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Codifica JPEG con un writer per thread: i thread della pipeline delle miniature riusano writer, parametri e
+ * buffer invece di crearli per ogni immagine. Gli altri thread, ad esempio quelli HTTP o del worker che eseguono
+ * uno stadio per {@code CallerRunsPolicy}, creano un writer per codifica e lo rilasciano con {@code dispose}:
+ * un pool di thread HTTP non tiene un writer e un buffer per thread per tutta la propria vita.
+ * Il JPEG viene codificato in memoria e scritto sul file con una sola scrittura sul canale.
+ */
+@UtilityClass
+public class ScrittoreJpeg {
+
+    private static final int BUFFER_INIZIALE = 256 * 1024;
+
+    // thread abilitati al riuso con riusaWriter, e writer creato alla loro prima codifica
+    private static final ThreadLocal<Boolean> RIUSO = new ThreadLocal<>();
+    private static final ThreadLocal<Codificatore> CODIFICATORI = new ThreadLocal<>();
+
+    /**
+     * Abilita il riuso del writer sul thread corrente per tutta la sua vita: va chiamato solo dai thread della
+     * pipeline, all'avvio.
+     */
+    public static void riusaWriter() {
+        RIUSO.set(Boolean.TRUE);
+    }
+
+    /**
+     * Codifica l'immagine in JPEG con la qualità indicata.
+     */
+    public static void scrivi(BufferedImage immagine, Path file, float qualita) throws IOException {
+        var evento = new MiniaturaCodificataEvent();
+        evento.begin();
+        var byteJpeg = codificaSuFile(immagine, file, qualita);
+        registra(evento, immagine, file, qualita, byteJpeg);
+    }
+
+    /**
+     * Byte del JPEG dell'immagine con la qualità indicata, codificato senza scriverlo.
+     */
+    public static int dimensione(BufferedImage immagine, float qualita) throws IOException {
+        var codificatore = codificatore();
+        try {
+            return codificatore.codifica(immagine, qualita).size();
+        } finally {
+            rilascia(codificatore);
+        }
+    }
+
+    /**
+     * Come {@link #scrivi}, su un file temporaneo rinominato in modo atomico: chi legge il file non lo vede mai parziale.
+     */
+    public static void scriviAtomico(BufferedImage immagine, Path file, float qualita) throws IOException {
+        var evento = new MiniaturaCodificataEvent();
+        evento.begin();
+        var temp = Files.createTempFile(file.getParent(), ".thumbnail", ".tmp");
+        try {
+            var byteJpeg = codificaSuFile(immagine, temp, qualita);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            registra(evento, immagine, file, qualita, byteJpeg);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static int codificaSuFile(BufferedImage immagine, Path file, float qualita) throws IOException {
+        var codificatore = codificatore();
+        try {
+            var buffer = codificatore.codifica(immagine, qualita);
+            try (var canale = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                buffer.writeTo(Channels.newOutputStream(canale));
+                return buffer.size();
+            }
+        } finally {
+            rilascia(codificatore);
+        }
+    }
+
+    private static Codificatore codificatore() {
+        if (RIUSO.get() == null) {
+            return new Codificatore();
+        }
+        var codificatore = CODIFICATORI.get();
+        if (codificatore == null) {
+            codificatore = new Codificatore();
+            CODIFICATORI.set(codificatore);
+        }
+        return codificatore;
+    }
+
+    private static void rilascia(Codificatore codificatore) {
+        if (codificatore == CODIFICATORI.get()) {
+            codificatore.rilascia();
+        } else {
+            codificatore.chiudi();
+        }
+    }
+
+    private static void registra(MiniaturaCodificataEvent evento, BufferedImage immagine, Path file, float qualita,
+                                 int byteJpeg) {
+        if (evento.shouldCommit()) {
+            evento.percorso = file.toString();
+            evento.larghezza = immagine.getWidth();
+            evento.altezza = immagine.getHeight();
+            evento.qualita = qualita;
+            evento.byteJpeg = byteJpeg;
+            evento.commit();
+        }
+    }
+
+    /**
+     * Stato di codifica di un thread, o di una sola codifica sui thread senza riuso. Il buffer torna alla dimensione iniziale se una codifica lo ha fatto
+     * crescere oltre, così un'immagine molto grande non resta in memoria per tutta la vita del thread.
+     */
+    private static class Codificatore {
+        private final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        private final ImageWriteParam param = writer.getDefaultWriteParam();
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_INIZIALE);
+
+        ByteArrayOutputStream codifica(BufferedImage immagine, float qualita) throws IOException {
+            buffer.reset();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(qualita);
+            try (var output = new MemoryCacheImageOutputStream(buffer)) {
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(immagine, null, null), param);
+            } finally {
+                writer.reset(); // rilascia il riferimento all'output, il writer resta riusabile
+            }
+            return buffer;
+        }
+
+        void rilascia() {
+            if (buffer.size() > BUFFER_INIZIALE * 4) {
+                buffer = new ByteArrayOutputStream(BUFFER_INIZIALE);
+            }
+        }
+
+        /**
+         * Libera le risorse native del writer, che non viene più usato.
+         */
+        void chiudi() {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.simonegenovesi.extractorfiledata.util.dto.StrutturaDocumento;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Conteggi di un file hOCR con una sola lettura in streaming (StAX): pagine, righe, parole e confidenza media.
+ * <p>
+ * Il documento non viene mai caricato per intero: in memoria restano l'elemento corrente e i contatori.
+ * DTD ed entità esterne sono disabilitate, quindi il parser non accede alla rete.
+ */
+@Slf4j
+@UtilityClass
+public class StrutturaHocr {
+
+    private static final Set<String> CLASSI_RIGA = Set.of("ocr_line", "ocr_caption", "ocr_header", "ocr_textfloat");
+    private static final Pattern SEPARATORE_CLASSI = Pattern.compile("\\s+");
+    private static final Pattern CONFIDENZA = Pattern.compile("x_wconf\\s+(\\d+(?:\\.\\d+)?)");
+
+    private static final XMLInputFactory FACTORY = creaFactory();
+
+    /**
+     * @return i conteggi, o {@code null} se il file non è XML ben formato
+     */
+    public static StrutturaDocumento leggi(File file) {
+        int pagine = 0, righe = 0, parole = 0, paroleConConfidenza = 0;
+        double sommaConfidenza = 0;
+        try (var input = new BufferedInputStream(Files.newInputStream(file.toPath()), 64 * 1024)) {
+            var reader = FACTORY.createXMLStreamReader(input);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    var classi = reader.getAttributeValue(null, "class");
+                    if (classi == null) {
+                        continue;
+                    }
+                    for (var classe : SEPARATORE_CLASSI.split(classi.trim())) {
+                        if (classe.equals("ocr_page")) {
+                            pagine++;
+                        } else if (CLASSI_RIGA.contains(classe)) {
+                            righe++;
+                        } else if (classe.equals("ocrx_word")) {
+                            parole++;
+                            var titolo = reader.getAttributeValue(null, "title");
+                            var confidenza = titolo == null ? null : CONFIDENZA.matcher(titolo);
+                            if (confidenza != null && confidenza.find()) {
+                                sommaConfidenza += Double.parseDouble(confidenza.group(1));
+                                paroleConConfidenza++;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | XMLStreamException e) {
+            log.warn("hOCR {} non leggibile: {}", file.getName(), e.getMessage());
+            return null;
+        }
+        return new StrutturaDocumento(pagine, righe, parole,
+                paroleConConfidenza == 0 ? null : sommaConfidenza / paroleConConfidenza);
+    }
+
+    private static XMLInputFactory creaFactory() {
+        var factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+}
@@ -0,0 +1,422 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Numero di pagine di un PDF letto dalla sola struttura del file, senza interpretarne il contenuto.
+ * <p>
+ * Dalla coda del file si ricava la posizione della tabella xref ({@code startxref}); dal trailer il catalogo
+ * ({@code /Root}), dal catalogo la radice dell'albero delle pagine ({@code /Pages}), che dichiara il totale
+ * ({@code /Count}). Ogni oggetto è raggiunto con una lettura posizionata tramite la xref, classica o in stream
+ * (PDF 1.5), anche dentro gli object stream compressi; gli aggiornamenti incrementali sono seguiti con {@code /Prev}.
+ * La memoria usata è limitata a poche finestre di lettura, qualunque sia la dimensione del file.
+ */
+@Slf4j
+@UtilityClass
+public class StrutturaPdf {
+
+    private static final int LETTURA_CODA = 2048;
+    private static final int LETTURA_DIZIONARIO = 64 * 1024;
+    private static final int LETTURA_RIGA = 256;
+    private static final int LUNGHEZZA_VOCE_XREF = 20;
+    private static final int MAX_SEZIONI_XREF = 64;
+
+    private static final Pattern STARTXREF = Pattern.compile("startxref\\s+(\\d+)");
+    private static final Pattern XREF = Pattern.compile("\\s*xref\\s*");
+    private static final Pattern SOTTOSEZIONE = Pattern.compile("\\s*(\\d+)\\s+(\\d+)[ \\t]*(\\r\\n|\\n|\\r)");
+    private static final Pattern TRAILER = Pattern.compile("\\s*trailer");
+    private static final Pattern INIZIO_STREAM = Pattern.compile(">>\\s*stream(\\r\\n|\\n|\\r)");
+    private static final Pattern ROOT = riferimento("Root");
+    private static final Pattern PAGES = riferimento("Pages");
+    private static final Pattern COUNT = Pattern.compile("/Count\\s+(\\d+)(\\s+\\d+\\s+R)?");
+    private static final Pattern PREV = intero("Prev");
+    private static final Pattern XREF_STM = intero("XRefStm");
+    private static final Pattern N = intero("N");
+    private static final Pattern FIRST = intero("First");
+    private static final Pattern PREDICTOR = intero("Predictor");
+    private static final Pattern TIPO_XREF = Pattern.compile("/Type\\s*/XRef\\b");
+    private static final Pattern FILTRO = Pattern.compile("/Filter\\s*\\[?\\s*/(\\w+)");
+    private static final Pattern W = Pattern.compile("/W\\s*\\[\\s*(\\d+)\\s+(\\d+)\\s+(\\d+)\\s*]");
+    private static final Pattern INDEX = Pattern.compile("/Index\\s*\\[([\\d\\s]+)]");
+    private static final Pattern SIZE = intero("Size");
+    private static final Pattern NUMERO = Pattern.compile("\\d+");
+
+    /**
+     * @return numero di pagine, o {@code null} se la struttura non è leggibile (file danneggiato, cifrato
+     * con catalogo compresso, filtri diversi da FlateDecode)
+     */
+    public static Integer contaPagine(File file) {
+        try (var canale = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new Pdf(canale).contaPagine();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Struttura del PDF {} non leggibile: {}", file.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static Pattern riferimento(String chiave) {
+        return Pattern.compile("/" + chiave + "\\s*(\\d+)\\s+\\d+\\s+R");
+    }
+
+    private static Pattern intero(String chiave) {
+        return Pattern.compile("/" + chiave + "\\s+(\\d+)");
+    }
+
+    private static Long cerca(Pattern pattern, String testo) {
+        var matcher = pattern.matcher(testo);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : null;
+    }
+
+    /**
+     * Posizione di un oggetto nella xref: tipo 1 = offset nel file, tipo 2 = oggetto n. {@code a}
+     * all'indice {@code b} di un object stream.
+     */
+    private record Voce(int tipo, long a, long b) {}
+
+    private record Sottosezione(long primo, long numero, long posizione) {}
+
+    /**
+     * Una sezione della catena xref: tabella classica (sottosezioni) o xref stream (larghezze e indice).
+     */
+    private record Sezione(List<Sottosezione> sottosezioni, long inizioDati, boolean flate, int predictor,
+                           int[] larghezze, long[] indice) {
+
+        boolean isStream() {
+            return sottosezioni == null;
+        }
+    }
+
+    private static final class Pdf {
+        private final FileChannel canale;
+        private final long dimensione;
+        private final List<Sezione> sezioni = new ArrayList<>();
+        private Long root;
+
+        Pdf(FileChannel canale) throws IOException {
+            this.canale = canale;
+            this.dimensione = canale.size();
+        }
+
+        Integer contaPagine() throws IOException {
+            var coda = testo(Math.max(0, dimensione - LETTURA_CODA), LETTURA_CODA);
+            var matcher = STARTXREF.matcher(coda);
+            Long startxref = null;
+            while (matcher.find()) {
+                startxref = Long.parseLong(matcher.group(1));
+            }
+            if (startxref == null) {
+                throw new IOException("startxref assente");
+            }
+            leggiCatena(startxref);
+            if (root == null) {
+                throw new IOException("catalogo assente");
+            }
+            var pagine = cerca(PAGES, oggetto(root));
+            if (pagine == null) {
+                throw new IOException("albero delle pagine assente");
+            }
+            var count = COUNT.matcher(oggetto(pagine));
+            if (!count.find()) {
+                throw new IOException("/Count assente");
+            }
+            if (count.group(2) == null) {
+                return Integer.parseInt(count.group(1));
+            }
+            // /Count indiretto: l'oggetto contiene solo il numero
+            var valore = NUMERO.matcher(oggetto(Long.parseLong(count.group(1))));
+            return valore.find() ? Integer.parseInt(valore.group()) : null;
+        }
+
+        /**
+         * Legge le sezioni xref dalla più recente; per gli oggetti vale la prima sezione che li dichiara.
+         */
+        private void leggiCatena(long posizione) throws IOException {
+            var visitate = new HashSet<Long>();
+            Long successiva = posizione;
+            while (successiva != null && visitate.add(successiva) && visitate.size() <= MAX_SEZIONI_XREF) {
+                var inizio = testo(successiva, LETTURA_RIGA);
+                String dizionario;
+                if (XREF.matcher(inizio).lookingAt()) {
+                    dizionario = leggiTabella(successiva);
+                    // file ibridi: gli oggetti compressi sono in uno xref stream a parte
+                    var xrefStm = cerca(XREF_STM, dizionario);
+                    if (xrefStm != null && visitate.add(xrefStm)) {
+                        leggiStream(xrefStm);
+                    }
+                } else {
+                    dizionario = leggiStream(successiva);
+                }
+                if (root == null) {
+                    root = cerca(ROOT, dizionario);
+                }
+                successiva = cerca(PREV, dizionario);
+            }
+        }
+
+        /**
+         * Tabella classica: registra le sottosezioni saltandone le voci, restituisce il trailer.
+         */
+        private String leggiTabella(long posizione) throws IOException {
+            var xref = XREF.matcher(testo(posizione, LETTURA_RIGA));
+            xref.lookingAt();
+            var cursore = posizione + xref.end();
+            List<Sottosezione> sottosezioni = new ArrayList<>();
+            while (cursore < dimensione) {
+                var riga = testo(cursore, LETTURA_RIGA);
+                if (TRAILER.matcher(riga).lookingAt()) {
+                    sezioni.add(new Sezione(sottosezioni, 0, false, 0, null, null));
+                    return fineDizionario(testo(cursore, LETTURA_DIZIONARIO));
+                }
+                var sottosezione = SOTTOSEZIONE.matcher(riga);
+                if (!sottosezione.lookingAt()) {
+                    throw new IOException("tabella xref non valida a " + cursore);
+                }
+                var numero = Long.parseLong(sottosezione.group(2));
+                var inizioVoci = cursore + sottosezione.end();
+                sottosezioni.add(new Sottosezione(Long.parseLong(sottosezione.group(1)), numero, inizioVoci));
+                cursore = inizioVoci + numero * LUNGHEZZA_VOCE_XREF;
+            }
+            throw new IOException("trailer assente");
+        }
+
+        /**
+         * Xref stream: registra la sezione e restituisce il dizionario dello stream, che fa da trailer.
+         */
+        private String leggiStream(long posizione) throws IOException {
+            var finestra = testo(posizione, LETTURA_DIZIONARIO);
+            var stream = INIZIO_STREAM.matcher(finestra);
+            if (!stream.find()) {
+                throw new IOException("xref non trovata a " + posizione);
+            }
+            var dizionario = finestra.substring(0, stream.start());
+            if (!TIPO_XREF.matcher(dizionario).find()) {
+                throw new IOException("xref stream non valido a " + posizione);
+            }
+            var w = W.matcher(dizionario);
+            if (!w.find()) {
+                throw new IOException("/W assente nello xref stream");
+            }
+            var larghezze = new int[]{Integer.parseInt(w.group(1)), Integer.parseInt(w.group(2)), Integer.parseInt(w.group(3))};
+            long[] indice;
+            var index = INDEX.matcher(dizionario);
+            if (index.find()) {
+                indice = NUMERO.matcher(index.group(1)).results().mapToLong(m -> Long.parseLong(m.group())).toArray();
+            } else {
+                indice = new long[]{0, cerca(SIZE, dizionario)};
+            }
+            var predictor = cerca(PREDICTOR, dizionario);
+            sezioni.add(new Sezione(null, posizione + stream.end(), isFlate(dizionario),
+                    predictor == null ? 0 : predictor.intValue(), larghezze, indice));
+            return dizionario;
+        }
+
+        private Voce voce(long numero) throws IOException {
+            for (var sezione : sezioni) {
+                var voce = sezione.isStream() ? voceStream(sezione, numero) : voceTabella(sezione, numero);
+                // le voci libere non nascondono quelle delle sezioni successive (file ibridi)
+                if (voce != null && voce.tipo() != 0) {
+                    return voce;
+                }
+            }
+            throw new IOException("oggetto " + numero + " assente dalla xref");
+        }
+
+        private Voce voceTabella(Sezione sezione, long numero) throws IOException {
+            for (var sottosezione : sezione.sottosezioni()) {
+                if (numero >= sottosezione.primo() && numero < sottosezione.primo() + sottosezione.numero()) {
+                    var riga = testo(sottosezione.posizione() + (numero - sottosezione.primo()) * LUNGHEZZA_VOCE_XREF,
+                            LUNGHEZZA_VOCE_XREF);
+                    return new Voce(riga.charAt(17) == 'n' ? 1 : 0, Long.parseLong(riga.substring(0, 10)), 0);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Le righe dello xref stream si decodificano in sequenza (il predictor PNG dipende dalla riga precedente):
+         * in memoria restano due righe.
+         */
+        private Voce voceStream(Sezione sezione, long numero) throws IOException {
+            long riga = 0;
+            Long rigaVoce = null;
+            for (int i = 0; i + 1 < sezione.indice().length; i += 2) {
+                if (numero >= sezione.indice()[i] && numero < sezione.indice()[i] + sezione.indice()[i + 1]) {
+                    rigaVoce = riga + numero - sezione.indice()[i];
+                    break;
+                }
+                riga += sezione.indice()[i + 1];
+            }
+            if (rigaVoce == null) {
+                return null;
+            }
+            var larghezze = sezione.larghezze();
+            var colonne = larghezze[0] + larghezze[1] + larghezze[2];
+            var png = sezione.predictor() >= 10;
+            var corrente = new byte[colonne];
+            var precedente = new byte[colonne];
+            try (var dati = new DataInputStream(flusso(sezione.inizioDati(), sezione.flate()))) {
+                for (long r = 0; r <= rigaVoce; r++) {
+                    var filtro = png ? dati.readUnsignedByte() : 0;
+                    dati.readFully(corrente);
+                    if (png) {
+                        decodificaPng(filtro, corrente, precedente);
+                    }
+                    var scambio = precedente;
+                    precedente = corrente;
+                    corrente = scambio;
+                }
+            }
+            var tipo = larghezze[0] == 0 ? 1 : (int) campo(precedente, 0, larghezze[0]);
+            return new Voce(tipo, campo(precedente, larghezze[0], larghezze[1]),
+                    campo(precedente, larghezze[0] + larghezze[1], larghezze[2]));
+        }
+
+        /**
+         * Testo di un oggetto, limitato alla sua fine ({@code endobj}, l'inizio dello stream o l'oggetto
+         * successivo di un object stream).
+         */
+        private String oggetto(long numero) throws IOException {
+            var voce = voce(numero);
+            if (voce.tipo() == 1) {
+                var testo = testo(voce.a(), LETTURA_DIZIONARIO);
+                var fine = testo.indexOf("endobj");
+                return fineDizionario(fine < 0 ? testo : testo.substring(0, fine));
+            }
+            var contenitore = voce(voce.a());
+            if (contenitore.tipo() != 1) {
+                throw new IOException("object stream " + voce.a() + " non valido");
+            }
+            var finestra = testo(contenitore.a(), LETTURA_DIZIONARIO);
+            var stream = INIZIO_STREAM.matcher(finestra);
+            if (!stream.find()) {
+                throw new IOException("object stream " + voce.a() + " senza dati");
+            }
+            var dizionario = finestra.substring(0, stream.start());
+            var n = cerca(N, dizionario);
+            var first = cerca(FIRST, dizionario);
+            if (n == null || first == null || voce.b() >= n || first > LETTURA_DIZIONARIO) {
+                throw new IOException("object stream " + voce.a() + " non valido");
+            }
+            try (var dati = flusso(contenitore.a() + stream.end(), isFlate(dizionario))) {
+                // intestazione: coppie "numero offset", gli offset sono relativi a /First
+                var intestazione = NUMERO.matcher(new String(dati.readNBytes(first.intValue()), StandardCharsets.ISO_8859_1))
+                        .results().mapToLong(m -> Long.parseLong(m.group())).toArray();
+                var i = (int) voce.b() * 2;
+                if (i + 1 >= intestazione.length || intestazione[i] != numero) {
+                    throw new IOException("oggetto " + numero + " assente dall'object stream " + voce.a());
+                }
+                var inizio = intestazione[i + 1];
+                var fine = i + 3 < intestazione.length ? intestazione[i + 3] : inizio + LETTURA_DIZIONARIO;
+                dati.skipNBytes(inizio);
+                return new String(dati.readNBytes((int) Math.min(LETTURA_DIZIONARIO, fine - inizio)), StandardCharsets.ISO_8859_1);
+            }
+        }
+
+        /**
+         * Stream dei dati di uno stream PDF con letture posizionate: chiuderlo non chiude il canale.
+         */
+        private InputStream flusso(long posizione, boolean flate) {
+            InputStream dati = new BufferedInputStream(new InputStream() {
+                private long cursore = posizione;
+
+                @Override
+                public int read() throws IOException {
+                    var byteLetto = new byte[1];
+                    return read(byteLetto, 0, 1) < 0 ? -1 : byteLetto[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    var letti = canale.read(ByteBuffer.wrap(b, off, len), cursore);
+                    if (letti > 0) {
+                        cursore += letti;
+                    }
+                    return letti;
+                }
+            }, 8192);
+            return flate ? new InflaterInputStream(dati) : dati;
+        }
+
+        private String testo(long posizione, int lunghezza) throws IOException {
+            var buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(lunghezza, dimensione - posizione)));
+            while (buffer.hasRemaining()) {
+                if (canale.read(buffer, posizione + buffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            return new String(buffer.array(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static boolean isFlate(String dizionario) throws IOException {
+        var filtro = FILTRO.matcher(dizionario);
+        if (!filtro.find()) {
+            return false;
+        }
+        if (!filtro.group(1).equals("FlateDecode")) {
+            throw new IOException("filtro " + filtro.group(1) + " non supportato");
+        }
+        return true;
+    }
+
+    private static String fineDizionario(String testo) {
+        Matcher stream = INIZIO_STREAM.matcher(testo);
+        var fine = testo.indexOf("startxref");
+        if (stream.find()) {
+            return testo.substring(0, stream.start());
+        }
+        return fine < 0 ? testo : testo.substring(0, fine);
+    }
+
+    /**
+     * Filtri PNG per riga (predictor 10-15), con un byte per pixel come nelle xref.
+     */
+    private static void decodificaPng(int filtro, byte[] riga, byte[] precedente) throws IOException {
+        for (int i = 0; i < riga.length; i++) {
+            int sinistra = i > 0 ? riga[i - 1] & 0xff : 0;
+            int sopra = precedente[i] & 0xff;
+            int sopraSinistra = i > 0 ? precedente[i - 1] & 0xff : 0;
+            int predizione = switch (filtro) {
+                case 0 -> 0;
+                case 1 -> sinistra;
+                case 2 -> sopra;
+                case 3 -> (sinistra + sopra) / 2;
+                case 4 -> paeth(sinistra, sopra, sopraSinistra);
+                default -> throw new IOException("filtro PNG " + filtro + " non valido");
+            };
+            riga[i] = (byte) (riga[i] + predizione);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+    }
+
+    private static long campo(byte[] riga, int inizio, int larghezza) {
+        long valore = 0;
+        for (int i = inizio; i < inizio + larghezza; i++) {
+            valore = (valore << 8) | (riga[i] & 0xff);
+        }
+        return valore;
+    }
+}
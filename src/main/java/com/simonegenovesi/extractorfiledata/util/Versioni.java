@@ -0,0 +1,26 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.simonegenovesi.extractorfiledata.util.dto.RisultatoVersionato;
+import lombok.experimental.UtilityClass;
+import org.springframework.util.DigestUtils;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+@UtilityClass
+public class Versioni {
+
+    /**
+     * Incapsula i dati con ETag (MD5 del JSON) e Last-Modified, calcolati una sola volta per voce di cache.
+     */
+    public static <T> RisultatoVersionato<T> versiona(ObjectMapper objectMapper, T dati) {
+        try {
+            var etag = DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(dati));
+            return new RisultatoVersionato<>(dati, etag, Instant.now().truncatedTo(ChronoUnit.SECONDS));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Serializzazione del risultato non riuscita", e);
+        }
+    }
+}
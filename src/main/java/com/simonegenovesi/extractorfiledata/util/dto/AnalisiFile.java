@@ -0,0 +1,14 @@
+package com.simonegenovesi.extractorfiledata.util.dto;
+
+import com.simonegenovesi.extractorfiledata.util.enumerated.MimeTypeEnum;
+
+import java.io.File;
+
+/**
+ * Risultato dell'analisi di un singolo file, prodotto in parallelo e aggregato in sequenza.
+ * @param voci numero di voci dell'archivio, passate al consumer durante l'analisi; 0 se il file non è un
+ *             archivio indicizzabile
+ * @param struttura metadati strutturali di PDF e hOCR, null per gli altri formati
+ */
+public record AnalisiFile(File file, long dimensione, MimeTypeEnum formato, int voci,
+                          StrutturaDocumento struttura) {}
@@ -1,9 +1,9 @@
 package com.simonegenovesi.extractorfiledata.util.dto;
 
-import com.simonegenovesi.extractorfiledata.entity.MetadatiRisorsa;
 import com.simonegenovesi.extractorfiledata.entity.Metrica;
+import com.simonegenovesi.extractorfiledata.util.BufferRisorse;
 
 import java.io.File;
 import java.util.List;
 
-public record FileProcessati(List<MetadatiRisorsa> metadati, Metrica metrica, List<File> listaTiffImages) {}
+public record FileProcessati(BufferRisorse risorse, Metrica metrica, List<File> listaImmagini) {}
@@ -0,0 +1,9 @@
+package com.simonegenovesi.extractorfiledata.util.dto;
+
+/**
+ * Dati di un'immagine letti dalla sola intestazione, senza decodificarne i raster.
+ * @param pagine pagine dell'immagine (solo i TIFF sono multipagina)
+ * @param pixelSorgente somma dei pixel delle pagine alla risoluzione originale
+ * @param pixelDecodificati pixel prodotti dalla decodifica delle miniature, con il sottocampionamento effettivo
+ */
+public record IntestazioneImmagine(int pagine, long pixelSorgente, long pixelDecodificati) {}
@@ -0,0 +1,9 @@
+package com.simonegenovesi.extractorfiledata.util.dto;
+
+/**
+ * Misura della generazione in memoria di tutti i profili di una pagina, usata per calibrare la stima.
+ * @param pixelDecodificati pixel del raster decodificato
+ * @param nanos tempo di decodifica, riduzione e codifica JPEG
+ * @param byteMiniature byte dei JPEG di tutti i profili
+ */
+public record MisuraMiniatura(long pixelDecodificati, long nanos, long byteMiniature) {}
@@ -0,0 +1,11 @@
+package com.simonegenovesi.extractorfiledata.util.dto;
+
+import java.time.Instant;
+
+/**
+ * Risultato in cache con i validatori HTTP calcolati al caricamento.
+ * @param dati risposta da restituire al client
+ * @param etag hash del contenuto serializzato, uguale su tutti i nodi a parità di dati
+ * @param ultimaModifica istante in cui il risultato è stato letto da Mongo
+ */
+public record RisultatoVersionato<T>(T dati, String etag, Instant ultimaModifica) {}
@@ -0,0 +1,10 @@
+package com.simonegenovesi.extractorfiledata.util.dto;
+
+/**
+ * Metadati strutturali di un documento PDF o hOCR; i campi non applicabili al formato sono null.
+ * @param pagine numero di pagine
+ * @param righe righe di testo riconosciute (hOCR)
+ * @param parole parole riconosciute (hOCR)
+ * @param confidenzaMedia media di {@code x_wconf} sulle parole che la dichiarano (hOCR)
+ */
+public record StrutturaDocumento(Integer pagine, Integer righe, Integer parole, Double confidenzaMedia) {}
@@ -1,5 +0,0 @@
-package com.simonegenovesi.extractorfiledata.util.dto;
-
-import java.awt.image.BufferedImage;
-
-public record TileResult(int x, int y, BufferedImage image) {}
@@ -0,0 +1,13 @@
+package com.simonegenovesi.extractorfiledata.util.dto;
+
+import com.simonegenovesi.extractorfiledata.util.enumerated.MimeTypeEnum;
+
+/**
+ * Voce letta dall'indice di un archivio ZIP o GZIP, senza estrarne il contenuto.
+ * @param nome percorso della voce all'interno dell'archivio
+ * @param dimensione dimensione non compressa
+ * @param dimensioneCompressa dimensione nell'archivio
+ * @param crc CRC-32 dichiarato dall'archivio
+ * @param formato formato dedotto dai primi byte della voce
+ */
+public record VoceArchivio(String nome, long dimensione, long dimensioneCompressa, long crc, MimeTypeEnum formato) {}
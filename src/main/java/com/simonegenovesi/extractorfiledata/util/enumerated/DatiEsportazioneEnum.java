@@ -0,0 +1,30 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Dati esportabili, con i nomi Mongo dei campi dei codici e le colonne CSV (percorsi puntati nei documenti).
+ */
+@Getter
+public enum DatiEsportazioneEnum {
+    METADATI("codice_cantiere", "codice_lotto", List.of(
+            "_id", "codice_cantiere", "codice_lotto", "codice_pacchetto", "url_oggetto", "url_archivio",
+            "nome_oggetto", "formato_file", "dimensione_file", "dimensione_compressa", "crc", "numero_pagine",
+            "numero_righe", "numero_parole", "confidenza_media")),
+    // i dettagli per formato sono liste: nel CSV solo i totali, nell'NDJSON il documento completo
+    METRICHE("cod_cantiere", "cod_lotto", List.of(
+            "_id", "cod_cantiere", "cod_lotto", "cod_pacchetto", "metriche_summary.num_risorse",
+            "metriche_summary.dim_totale", "metriche_archivi.num_risorse", "metriche_archivi.dim_totale"));
+
+    private final String campoCantiere;
+    private final String campoLotto;
+    private final List<String> colonne;
+
+    DatiEsportazioneEnum(String campoCantiere, String campoLotto, List<String> colonne) {
+        this.campoCantiere = campoCantiere;
+        this.campoLotto = campoLotto;
+        this.colonne = colonne;
+    }
+}
@@ -0,0 +1,14 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+/**
+ * Fasi di un'estrazione in corso, notificate agli iscritti all'avanzamento (non persistite).
+ */
+public enum FaseAvanzamentoEnum {
+    IN_ATTESA,    // iscrizione prima dell'avvio dell'estrazione
+    SCANSIONE,    // ricerca dei file nella directory
+    ANALISI,      // formato, archivi e struttura dei documenti
+    SALVATAGGIO,  // scrittura di metadati e metriche
+    MINIATURE,    // generazione delle miniature
+    COMPLETATA,
+    ERRORE
+}
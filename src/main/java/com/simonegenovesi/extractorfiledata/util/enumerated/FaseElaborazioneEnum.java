@@ -0,0 +1,11 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+/**
+ * Fasi persistite dell'elaborazione di un pacchetto, usate come checkpoint per la ripresa.
+ */
+public enum FaseElaborazioneEnum {
+    AVVIATA,           // estrazione in corso, metadati non ancora salvati
+    METADATI_SALVATI,  // metadati e metriche salvati, miniature in corso
+    COMPLETATA,        // miniature generate, pacchetto chiuso
+    IN_ELIMINAZIONE    // eliminazione avviata e non conclusa: il pacchetto non può essere estratto
+}
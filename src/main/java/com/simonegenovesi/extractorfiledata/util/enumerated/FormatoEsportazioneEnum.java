@@ -0,0 +1,18 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+import lombok.Getter;
+
+/**
+ * Formati dei file di esportazione, sempre compressi gzip.
+ */
+@Getter
+public enum FormatoEsportazioneEnum {
+    NDJSON(".ndjson.gz"),  // un documento JSON per riga, campi annidati inclusi
+    CSV(".csv.gz");        // colonne fisse, intestazione in ogni file
+
+    private final String estensione;
+
+    FormatoEsportazioneEnum(String estensione) {
+        this.estensione = estensione;
+    }
+}
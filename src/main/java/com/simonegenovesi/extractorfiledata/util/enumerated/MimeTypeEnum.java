@@ -2,6 +2,10 @@ package com.simonegenovesi.extractorfiledata.util.enumerated;
 
 import lombok.Getter;
 
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
 @Getter
 public enum MimeTypeEnum {
     // Testo
@@ -44,6 +48,9 @@ public enum MimeTypeEnum {
     // Speciali
     UNKNOWN("unknown", "UNKNOWN");
 
+    // formati raster per cui si generano le miniature
+    private static final Set<MimeTypeEnum> RASTER = EnumSet.of(IMAGE_JPEG, IMAGE_PNG, IMAGE_GIF, IMAGE_BMP, IMAGE_TIFF);
+
     private final String mimeType;
     private final String abbreviation;
 
@@ -52,6 +59,17 @@ public enum MimeTypeEnum {
         this.abbreviation = abbreviation;
     }
 
+    public boolean isRaster() {
+        return RASTER.contains(this);
+    }
+
+    /**
+     * Valori di {@code formato_file} dei formati raster, come salvati nei metadati.
+     */
+    public static List<String> formatiRaster() {
+        return RASTER.stream().map(type -> type.abbreviation.toLowerCase()).toList();
+    }
+
     public static MimeTypeEnum fromString(String mimeType) {
         for (var type : values()) {
             if (type.mimeType.equalsIgnoreCase(mimeType)) {
@@ -0,0 +1,9 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+/**
+ * Layout di salvataggio dei metadati delle risorse ({@code archivio.modalita}).
+ */
+public enum ModalitaArchivioEnum {
+    DOCUMENTI, // un documento per file in metadati_risorse
+    BUCKET     // documenti bucket_risorse con fino a N file dello stesso pacchetto
+}
@@ -0,0 +1,10 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+/**
+ * Come viene deciso il formato dei file del pacchetto.
+ */
+public enum PoliticaRilevamentoEnum {
+    CONTENUTO,   // intestazione letta per ogni file
+    ESTENSIONE,  // estensioni affidabili senza aprire il file, intestazione per le altre
+    VERIFICA     // come ESTENSIONE, con l'intestazione confrontata su un campione di file
+}
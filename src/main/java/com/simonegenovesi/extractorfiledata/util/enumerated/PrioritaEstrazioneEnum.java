@@ -0,0 +1,9 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+/**
+ * Classi di priorità delle richieste di estrazione in attesa di ammissione.
+ */
+public enum PrioritaEstrazioneEnum {
+    INTERATTIVA,  // singolo pacchetto richiesto da un utente
+    MASSIVA       // recupero di molti pacchetti
+}
@@ -0,0 +1,10 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+/**
+ * Stati dell'eliminazione in background di un pacchetto.
+ */
+public enum StatoEliminazioneEnum {
+    IN_CORSO,    // miniature e documenti in eliminazione
+    COMPLETATA,  // pacchetto eliminato
+    ERRORE       // eliminazione interrotta, può essere ripetuta
+}
@@ -0,0 +1,10 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+/**
+ * Stati di un'esportazione in background.
+ */
+public enum StatoEsportazioneEnum {
+    IN_CORSO,    // file in scrittura
+    COMPLETATA,  // tutti i file chiusi
+    ERRORE       // esportazione interrotta, i file scritti possono essere incompleti
+}
@@ -0,0 +1,11 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+/**
+ * Stati di un lavoro della coda distribuita delle miniature.
+ */
+public enum StatoLavoroEnum {
+    IN_ATTESA,   // accodato, nessun nodo lo sta elaborando
+    IN_CORSO,    // reclamato da un nodo con lease valido
+    COMPLETATO,  // miniatura scritta
+    ERRORE       // superato il numero massimo di tentativi
+}
@@ -0,0 +1,10 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+/**
+ * Stati di una registrazione JFR di un'estrazione.
+ */
+public enum StatoProfilazioneEnum {
+    IN_CORSO,    // eventi in registrazione
+    COMPLETATA,  // registrazione fermata e scritta sul file
+    ERRORE       // registrazione fermata senza file
+}
@@ -0,0 +1,10 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+/**
+ * Stati della ricostruzione in background dell'indice di ricerca.
+ */
+public enum StatoRicostruzioneEnum {
+    IN_CORSO,    // voci in inserimento
+    COMPLETATA,  // tutti i pacchetti salvati hanno le loro voci
+    ERRORE       // ricostruzione interrotta, può essere ripetuta
+}
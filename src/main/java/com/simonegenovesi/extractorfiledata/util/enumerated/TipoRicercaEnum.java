@@ -0,0 +1,9 @@
+package com.simonegenovesi.extractorfiledata.util.enumerated;
+
+/**
+ * Modi di confronto della ricerca per nome e percorso.
+ */
+public enum TipoRicercaEnum {
+    PREFISSO,     // nomi che iniziano con il testo cercato
+    SOTTOSTRINGA  // percorsi che contengono il testo cercato, almeno tre caratteri
+}
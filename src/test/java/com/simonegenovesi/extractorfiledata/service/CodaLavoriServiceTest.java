@@ -0,0 +1,184 @@
+package com.simonegenovesi.extractorfiledata.service;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.simonegenovesi.extractorfiledata.entity.LavoroThumbnail;
+import com.simonegenovesi.extractorfiledata.entity.StatoElaborazione;
+import com.simonegenovesi.extractorfiledata.util.enumerated.FaseElaborazioneEnum;
+import com.simonegenovesi.extractorfiledata.util.enumerated.StatoLavoroEnum;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.io.File;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Claim, scadenza e subentro dei lease su un Mongo in memoria, con due nodi simulati.
+ */
+class CodaLavoriServiceTest {
+
+    private static final List<String> CODICI = List.of("CA01", "L01", "PK01");
+
+    private MongoServer server;
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void avvia() {
+        server = new MongoServer(new MemoryBackend());
+        client = MongoClients.create(server.bindAndGetConnectionString());
+        mongoTemplate = new MongoTemplate(client, "test");
+    }
+
+    @AfterEach
+    void chiudi() {
+        client.close();
+        server.shutdownNow();
+    }
+
+    @Test
+    void ilLeaseNonERientranteSulloStessoNodo() {
+        var nodo = new CodaLavoriService(mongoTemplate, "nodo-a", 60);
+
+        var primo = nodo.acquisisciPacchetto(CODICI);
+        var secondo = nodo.acquisisciPacchetto(CODICI);
+
+        assertThat(primo).isNotNull();
+        assertThat(secondo).isNull();
+        assertThat(nodo.acquisisciPerEliminazione(CODICI)).isNull();
+    }
+
+    @Test
+    void ilRilascioConUnTokenVecchioNonToccaIlNuovoLease() throws InterruptedException {
+        var nodoA = new CodaLavoriService(mongoTemplate, "nodo-a", 0);
+        var nodoB = new CodaLavoriService(mongoTemplate, "nodo-b", 60);
+
+        var vecchio = nodoA.acquisisciPacchetto(CODICI);
+        Thread.sleep(20); // lease scaduto
+        var nuovo = nodoB.acquisisciPacchetto(CODICI);
+        nodoA.rilasciaPacchetto(CODICI, vecchio);
+
+        assertThat(nuovo).isNotNull();
+        assertThat(stato().getTokenLease()).isEqualTo(nuovo);
+        assertThat(stato().getProprietario()).isEqualTo("nodo-b");
+
+        nodoB.rilasciaPacchetto(CODICI, nuovo);
+        assertThat(stato().getProprietario()).isNull();
+        assertThat(nodoA.acquisisciPacchetto(CODICI)).isNotNull();
+    }
+
+    @Test
+    void unEliminazioneInterrottaBloccaLEstrazioneMaNonUnaNuovaEliminazione() throws InterruptedException {
+        var nodoA = new CodaLavoriService(mongoTemplate, "nodo-a", 0);
+        var nodoB = new CodaLavoriService(mongoTemplate, "nodo-b", 60);
+
+        assertThat(nodoA.acquisisciPerEliminazione(CODICI)).isNotNull();
+        Thread.sleep(20); // il nodo che elimina muore e il lease scade
+        assertThat(nodoB.acquisisciPacchetto(CODICI)).isNull();
+        assertThat(nodoB.acquisisciPerEliminazione(CODICI)).isNotNull();
+        assertThat(stato().getFase()).isEqualTo(FaseElaborazioneEnum.IN_ELIMINAZIONE);
+    }
+
+    @Test
+    void lHeartbeatRinnovaIlLeaseEDopoLaScadenzaUnAltroNodoSubentra() throws InterruptedException {
+        var nodoA = new CodaLavoriService(mongoTemplate, "nodo-a", 1);
+        var nodoB = new CodaLavoriService(mongoTemplate, "nodo-b", 1);
+
+        assertThat(nodoA.acquisisciPacchetto(CODICI)).isNotNull();
+        Thread.sleep(700);
+        nodoA.heartbeat();
+        Thread.sleep(700);
+        // senza heartbeat il lease sarebbe scaduto da 400 ms
+        assertThat(nodoB.acquisisciPacchetto(CODICI)).isNull();
+
+        Thread.sleep(1100);
+        assertThat(nodoB.acquisisciPacchetto(CODICI)).isNotNull();
+        assertThat(stato().getProprietario()).isEqualTo("nodo-b");
+    }
+
+    @Test
+    void unaMiniaturaConLeaseScadutoPassaAdAltroNodo() throws InterruptedException {
+        var nodoA = new CodaLavoriService(mongoTemplate, "nodo-a", 0);
+        var nodoB = new CodaLavoriService(mongoTemplate, "nodo-b", 60);
+        var immagine = new File("/volume/CA01/L01/PK01/img.tif");
+        mongoTemplate.insert(StatoElaborazione.builder().id(CheckpointService.chiave(CODICI)).tiffCompletati(0).build());
+        nodoA.accodaThumbnail(CODICI, List.of(immagine));
+
+        var lavoriA = nodoA.acquisisciThumbnail(CODICI, 1);
+        Thread.sleep(20);
+        var lavoriB = nodoB.acquisisciThumbnail(CODICI, 1);
+
+        assertThat(lavoriA).hasSize(1);
+        assertThat(lavoriB).hasSize(1);
+        assertThat(lavoriB.get(0).getTentativi()).isEqualTo(2);
+
+        // il completamento del nodo che ha perso il lease non viene registrato
+        nodoA.segnaThumbnailCompletata(lavoriA.get(0));
+        assertThat(lavoro(immagine).getStato()).isEqualTo(StatoLavoroEnum.IN_CORSO);
+
+        nodoB.segnaThumbnailCompletata(lavoriB.get(0));
+        assertThat(lavoro(immagine).getStato()).isEqualTo(StatoLavoroEnum.COMPLETATO);
+        assertThat(nodoA.thumbnailDaCompletare(CODICI)).isZero();
+        assertThat(stato().getTiffCompletati()).isEqualTo(1);
+    }
+
+    @Test
+    void unRilascioFallitoNonLasciaIlLavoroRinnovatoPerSempre() throws InterruptedException {
+        var nodoA = new CodaLavoriService(mongoTemplate, "nodo-a", 1);
+        var nodoB = new CodaLavoriService(mongoTemplate, "nodo-b", 60);
+        var immagine = new File("/volume/CA01/L01/PK01/img.tif");
+        nodoA.accodaThumbnail(CODICI, List.of(immagine));
+        var lease = nodoA.acquisisciPacchetto(CODICI);
+        var lavori = nodoA.acquisisciThumbnail(CODICI, 1);
+
+        // sul thread interrotto il driver rifiuta ogni operazione: rilasci e rinnovi falliscono
+        Thread.currentThread().interrupt();
+        try {
+            nodoA.rilasciaThumbnail(lavori);
+            nodoA.rilasciaPacchetto(CODICI, lease);
+        } finally {
+            Thread.interrupted();
+        }
+        assertThat(lavoro(immagine).getProprietario()).isEqualTo("nodo-a");
+
+        Thread.sleep(600);
+        nodoA.heartbeat();
+        Thread.sleep(600);
+        // rinnovati dall'heartbeat, i lease sarebbero validi per altri 400 ms
+        assertThat(nodoB.acquisisciThumbnail(CODICI, 1)).hasSize(1);
+        assertThat(nodoB.acquisisciPacchetto(CODICI)).isNotNull();
+    }
+
+    @Test
+    void unaMiniaturaCheFaCadereOgniNodoSiFermaAlNumeroMassimoDiTentativi() throws InterruptedException {
+        var nodoA = new CodaLavoriService(mongoTemplate, "nodo-a", 0);
+        var nodoB = new CodaLavoriService(mongoTemplate, "nodo-b", 60);
+        var immagine = new File("/volume/CA01/L01/PK01/img.tif");
+        nodoA.accodaThumbnail(CODICI, List.of(immagine));
+
+        // ogni claim finisce con il nodo che cade: nessun rilascio, il lease scade
+        for (int tentativo = 1; tentativo <= 3; tentativo++) {
+            assertThat(nodoA.acquisisciThumbnail(CODICI, 1)).hasSize(1);
+            Thread.sleep(20);
+        }
+
+        assertThat(nodoB.acquisisciThumbnail(CODICI, 1)).isEmpty();
+        assertThat(lavoro(immagine).getStato()).isEqualTo(StatoLavoroEnum.ERRORE);
+        assertThat(lavoro(immagine).getTentativi()).isEqualTo(3);
+        assertThat(nodoB.thumbnailDaCompletare(CODICI)).isZero();
+    }
+
+    private StatoElaborazione stato() {
+        return mongoTemplate.findById(CheckpointService.chiave(CODICI), StatoElaborazione.class);
+    }
+
+    private LavoroThumbnail lavoro(File immagine) {
+        return mongoTemplate.findById(immagine.getAbsolutePath(), LavoroThumbnail.class);
+    }
+}
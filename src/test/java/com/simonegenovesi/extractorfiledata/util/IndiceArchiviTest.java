@@ -0,0 +1,229 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.simonegenovesi.extractorfiledata.util.dto.VoceArchivio;
+import com.simonegenovesi.extractorfiledata.util.enumerated.MimeTypeEnum;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Lettura della central directory degli ZIP (anche ZIP64) e di intestazione e trailer dei GZIP, su archivi
+ * generati nel test.
+ */
+class IndiceArchiviTest {
+
+    private static final byte[] XML = "<?xml version=\"1.0\"?><radice/>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PDF = "%PDF-1.4\n%ÿÿ\n1 0 obj\n<<>>\nendobj\n".repeat(20).getBytes(StandardCharsets.ISO_8859_1);
+
+    @TempDir
+    Path cartella;
+
+    @Test
+    void zipConVociStoredDeflateNomeUtf8ECartella() throws IOException {
+        var png = png();
+        var zip = cartella.resolve("pacco.zip");
+        try (var output = new ZipOutputStream(Files.newOutputStream(zip))) {
+            output.putNextEntry(new ZipEntry("immagini/"));
+            output.closeEntry();
+            scriviStored(output, "immagini/foto.png", png);
+            output.putNextEntry(new ZipEntry("documenti/relazione.pdf"));
+            output.write(PDF);
+            output.closeEntry();
+            // nome non ASCII: ZipOutputStream imposta il bit 11 (UTF-8)
+            output.putNextEntry(new ZipEntry("città/perché.xml"));
+            output.write(XML);
+            output.closeEntry();
+        }
+
+        var voci = leggi(zip, MimeTypeEnum.APPLICATION_ZIP);
+
+        assertThat(voci).extracting(VoceArchivio::nome)
+                .containsExactly("immagini/foto.png", "documenti/relazione.pdf", "città/perché.xml");
+        assertVoce(voci.get(0), png, png.length, MimeTypeEnum.IMAGE_PNG);
+        assertVoce(voci.get(1), PDF, deflate(PDF).length, MimeTypeEnum.APPLICATION_PDF);
+        assertVoce(voci.get(2), XML, deflate(XML).length, MimeTypeEnum.APPLICATION_XML);
+    }
+
+    @Test
+    void nomeSenzaFlagUtf8LettoInCp437() throws IOException {
+        var zip = cartella.resolve("dos.zip");
+        try (var output = new ZipOutputStream(Files.newOutputStream(zip), Charset.forName("IBM437"))) {
+            output.putNextEntry(new ZipEntry("perché.xml"));
+            output.write(XML);
+            output.closeEntry();
+        }
+
+        var voci = leggi(zip, MimeTypeEnum.APPLICATION_ZIP);
+
+        assertThat(voci).extracting(VoceArchivio::nome).containsExactly("perché.xml");
+    }
+
+    @Test
+    void zip64ConValoriSaturatiNellaCentralDirectoryENellEocd() throws IOException {
+        var zip = cartella.resolve("grande.zip");
+        Files.write(zip, zip64("dati/radice.xml", XML));
+
+        var voci = leggi(zip, MimeTypeEnum.APPLICATION_ZIP);
+
+        assertThat(voci).hasSize(1);
+        assertThat(voci.get(0).nome()).isEqualTo("dati/radice.xml");
+        assertVoce(voci.get(0), XML, XML.length, MimeTypeEnum.APPLICATION_XML);
+    }
+
+    @Test
+    void gzipConNomeNellIntestazione() throws IOException {
+        var gz = cartella.resolve("archivio.gz");
+        try (var output = Files.newOutputStream(gz)) {
+            scriviGzipConNome(output, "relazione.pdf", PDF);
+        }
+
+        var voci = leggi(gz, MimeTypeEnum.APPLICATION_GZIP);
+
+        assertThat(voci).hasSize(1);
+        assertThat(voci.get(0).nome()).isEqualTo("relazione.pdf");
+        assertVoce(voci.get(0), PDF, Files.size(gz), MimeTypeEnum.APPLICATION_PDF);
+    }
+
+    @Test
+    void gzipSenzaNomePrendeQuelloDelFile() throws IOException {
+        var gz = cartella.resolve("report.xml.gz");
+        try (var output = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            output.write(XML);
+        }
+
+        var voci = leggi(gz, MimeTypeEnum.APPLICATION_GZIP);
+
+        assertThat(voci).hasSize(1);
+        assertThat(voci.get(0).nome()).isEqualTo("report.xml");
+        assertVoce(voci.get(0), XML, Files.size(gz), MimeTypeEnum.APPLICATION_XML);
+    }
+
+    @Test
+    void archivioIllegibileNonHaVoci() throws IOException {
+        var zip = cartella.resolve("rotto.zip");
+        Files.write(zip, "PK\u0003\u0004 non è uno zip".getBytes(StandardCharsets.ISO_8859_1));
+
+        assertThat(leggi(zip, MimeTypeEnum.APPLICATION_ZIP)).isEmpty();
+    }
+
+    private static List<VoceArchivio> leggi(Path archivio, MimeTypeEnum formato) {
+        List<VoceArchivio> voci = new ArrayList<>();
+        var numero = IndiceArchivi.leggi(archivio.toFile(), formato, voci::add);
+        assertThat(numero).isEqualTo(voci.size());
+        return voci;
+    }
+
+    private static void assertVoce(VoceArchivio voce, byte[] contenuto, long compressa, MimeTypeEnum formato) {
+        assertThat(voce.dimensione()).isEqualTo(contenuto.length);
+        assertThat(voce.dimensioneCompressa()).isEqualTo(compressa);
+        assertThat(voce.crc()).isEqualTo(crc(contenuto));
+        assertThat(voce.formato()).isEqualTo(formato);
+    }
+
+    private static void scriviStored(ZipOutputStream output, String nome, byte[] contenuto) throws IOException {
+        var voce = new ZipEntry(nome);
+        voce.setMethod(ZipEntry.STORED);
+        voce.setSize(contenuto.length);
+        voce.setCompressedSize(contenuto.length);
+        voce.setCrc(crc(contenuto));
+        output.putNextEntry(voce);
+        output.write(contenuto);
+        output.closeEntry();
+    }
+
+    /**
+     * GZIPOutputStream non scrive il nome originale: intestazione con FNAME, dati deflate e trailer scritti a mano.
+     */
+    private static void scriviGzipConNome(OutputStream output, String nome, byte[] contenuto) throws IOException {
+        output.write(new byte[]{0x1f, (byte) 0x8b, 8, 0x08, 0, 0, 0, 0, 0, (byte) 0xff});
+        output.write(nome.getBytes(StandardCharsets.ISO_8859_1));
+        output.write(0);
+        output.write(deflate(contenuto));
+        output.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt((int) crc(contenuto))
+                .putInt(contenuto.length)
+                .array());
+    }
+
+    /**
+     * ZIP64 con una voce stored: dimensioni e offset della central directory sono saturati e stanno nell'extra
+     * 0x0001, numero di voci e inizio della central directory nel record ZIP64 indicato dal locatore.
+     */
+    private static byte[] zip64(String nome, byte[] contenuto) {
+        var nomeBytes = nome.getBytes(StandardCharsets.UTF_8);
+        var buffer = ByteBuffer.allocate(1024 + contenuto.length).order(ByteOrder.LITTLE_ENDIAN);
+
+        // intestazione locale
+        buffer.putInt(0x04034b50).putShort((short) 45).putShort((short) 0).putShort((short) 0)
+                .putInt(0).putInt((int) crc(contenuto)).putInt(contenuto.length).putInt(contenuto.length)
+                .putShort((short) nomeBytes.length).putShort((short) 0).put(nomeBytes).put(contenuto);
+
+        var inizioCentrale = buffer.position();
+        buffer.putInt(0x02014b50).putShort((short) 45).putShort((short) 45).putShort((short) 0).putShort((short) 0)
+                .putInt(0).putInt((int) crc(contenuto)).putInt(-1).putInt(-1)
+                .putShort((short) nomeBytes.length).putShort((short) 28).putShort((short) 0)
+                .putShort((short) 0).putShort((short) 0).putInt(0).putInt(-1)
+                .put(nomeBytes)
+                .putShort((short) 0x0001).putShort((short) 24)
+                .putLong(contenuto.length).putLong(contenuto.length).putLong(0);
+        var lunghezzaCentrale = buffer.position() - inizioCentrale;
+
+        var inizioEocd64 = buffer.position();
+        buffer.putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0)
+                .putLong(1).putLong(1).putLong(lunghezzaCentrale).putLong(inizioCentrale);
+        buffer.putInt(0x07064b50).putInt(0).putLong(inizioEocd64).putInt(1);
+        buffer.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) -1).putShort((short) -1)
+                .putInt(-1).putInt(-1).putShort((short) 0);
+
+        var zip = new byte[buffer.position()];
+        buffer.flip().get(zip);
+        return zip;
+    }
+
+    private static byte[] png() throws IOException {
+        var output = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "png", output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Deflate senza intestazione zlib, come nelle voci ZIP e nei GZIP, al livello predefinito di ZipOutputStream.
+     */
+    private static byte[] deflate(byte[] contenuto) throws IOException {
+        var output = new ByteArrayOutputStream();
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (var compresso = new DeflaterOutputStream(output, deflater)) {
+            compresso.write(contenuto);
+        } finally {
+            deflater.end();
+        }
+        return output.toByteArray();
+    }
+
+    private static long crc(byte[] contenuto) {
+        var crc = new CRC32();
+        crc.update(contenuto);
+        return crc.getValue();
+    }
+}
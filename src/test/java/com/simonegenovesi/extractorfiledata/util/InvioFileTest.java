@@ -0,0 +1,153 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Range, If-Range e richieste condizionali sull'invio con {@link java.nio.channels.FileChannel#transferTo},
+ * senza sendfile.
+ */
+class InvioFileTest {
+
+    private static final int DIMENSIONE = 1000;
+
+    @TempDir
+    Path cartella;
+
+    private Path file;
+    private byte[] contenuto;
+    private String etag;
+
+    @BeforeEach
+    void creaFile() throws IOException {
+        contenuto = new byte[DIMENSIONE];
+        for (int i = 0; i < DIMENSIONE; i++) {
+            contenuto[i] = (byte) i;
+        }
+        file = Files.write(cartella.resolve("miniatura.jpg"), contenuto);
+        var attributi = Files.readAttributes(file, BasicFileAttributes.class);
+        etag = "\"" + Long.toHexString(attributi.size()) + "-" + Long.toHexString(attributi.lastModifiedTime().toMillis()) + "\"";
+    }
+
+    @Test
+    void senzaRangeIlFileIntero() throws IOException {
+        var response = invia(richiesta());
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(etag);
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getContentAsByteArray()).isEqualTo(contenuto);
+    }
+
+    @Test
+    void unSingoloRangeRisponde206() throws IOException {
+        var request = richiesta();
+        request.addHeader(HttpHeaders.RANGE, "bytes=100-199");
+
+        var response = invia(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 100-199/" + DIMENSIONE);
+        assertThat(response.getContentLengthLong()).isEqualTo(100);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(contenuto, 100, 200));
+    }
+
+    @Test
+    void unRangeSuffissoRestituisceLaFineDelFile() throws IOException {
+        var request = richiesta();
+        request.addHeader(HttpHeaders.RANGE, "bytes=-50");
+
+        var response = invia(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 950-999/" + DIMENSIONE);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(contenuto, 950, DIMENSIONE));
+    }
+
+    @Test
+    void unRangeOltreLaFineRisponde416() throws IOException {
+        var request = richiesta();
+        request.addHeader(HttpHeaders.RANGE, "bytes=" + DIMENSIONE + "-");
+
+        var response = invia(request);
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */" + DIMENSIONE);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void unIfRangeDiversoDallEtagRestituisceIlFileIntero() throws IOException {
+        var request = richiesta();
+        request.addHeader(HttpHeaders.RANGE, "bytes=100-199");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"versione-precedente\"");
+
+        var response = invia(request);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(response.getContentAsByteArray()).isEqualTo(contenuto);
+    }
+
+    @Test
+    void unIfRangeUgualeAllEtagApplicaIlRange() throws IOException {
+        var request = richiesta();
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, etag);
+
+        var response = invia(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(contenuto, 0, 10));
+    }
+
+    @Test
+    void unIfNoneMatchUgualeAllEtagRisponde304() throws IOException {
+        var request = richiesta();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+
+        var response = invia(request);
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void conSendfileIlCorpoEDelegatoAlConnettore() throws IOException {
+        var request = richiesta();
+        request.setAttribute("org.apache.tomcat.sendfile.support", true);
+        request.addHeader(HttpHeaders.RANGE, "bytes=100-199");
+
+        var response = invia(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.filename")).isEqualTo(file.toAbsolutePath().toString());
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(100L);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(200L);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    private static MockHttpServletRequest richiesta() {
+        return new MockHttpServletRequest("GET", "/api/risorse/1/thumbnail");
+    }
+
+    private MockHttpServletResponse invia(MockHttpServletRequest request) throws IOException {
+        var response = new MockHttpServletResponse();
+        InvioFile.invia(file, "image/jpeg", CacheControl.noCache(), request, response);
+        return response;
+    }
+}
@@ -0,0 +1,102 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntToLongFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Anello di controllo del limite su un volume simulato, con un orologio finto: a ogni giro partono tante letture
+ * quante ne ammette il limite e terminano tutte insieme, con la latenza che il volume ha a quella concorrenza.
+ */
+class LimitatoreAdattivoTest {
+
+    private static final long MS = 1_000_000;
+
+    private long adesso;
+
+    @Test
+    void ilLimiteCresceFinoAlMassimoSeLaLatenzaRestaCostante() throws IOException {
+        var limitatore = new LimitatoreAdattivo(1, 4, 64, () -> adesso);
+
+        var limiti = simula(limitatore, concorrenza -> 2 * MS, 60_000 * MS);
+
+        var primoMassimo = limiti.indexOf(64);
+        assertThat(primoMassimo).isPositive();
+        // fino al massimo il limite non scende mai; dopo, solo nelle finestre di sonda
+        assertThat(limiti.subList(0, primoMassimo + 1)).isSortedAccordingTo(Integer::compare);
+        assertThat(limiti.get(limiti.size() - 1)).isEqualTo(64);
+    }
+
+    @Test
+    void ilLimiteScendeVersoLaCapacitaSeLaLatenzaCresceConLaConcorrenza() throws IOException {
+        // oltre 8 letture concorrenti il volume le accoda: la latenza cresce, il throughput no
+        var limitatore = new LimitatoreAdattivo(1, 64, 64, () -> adesso);
+
+        var limiti = simula(limitatore, concorrenza -> 2 * MS * Math.max(1, concorrenza / 8), 120_000 * MS);
+
+        var finale = limiti.get(limiti.size() - 1);
+        assertThat(finale).isBetween(8, 24);
+        assertThat(limiti.stream().mapToInt(Integer::intValue).max().orElseThrow()).isEqualTo(64);
+    }
+
+    @Test
+    void ilLimiteSiAdattaQuandoIlVolumeRallenta() throws IOException {
+        var limitatore = new LimitatoreAdattivo(1, 4, 64, () -> adesso);
+        simula(limitatore, concorrenza -> 2 * MS, 60_000 * MS);
+        assertThat(limitatore.statistica("test").getLimite()).isEqualTo(64);
+
+        // lo stesso volume, ora con capacità 4
+        var limiti = simula(limitatore, concorrenza -> 2 * MS * Math.max(1, concorrenza / 4), 120_000 * MS);
+
+        assertThat(limiti.get(limiti.size() - 1)).isBetween(4, 16);
+    }
+
+    @Test
+    void ilLimiteRestaTraMinimoEMassimo() throws IOException {
+        var limitatore = new LimitatoreAdattivo(2, 8, 16, () -> adesso);
+
+        var limiti = new ArrayList<>(simula(limitatore, concorrenza -> MS, 30_000 * MS));
+        // latenza che cresce molto più della concorrenza: il gradiente resta al minimo
+        limiti.addAll(simula(limitatore, concorrenza -> 50 * MS * concorrenza * concorrenza, 600_000 * MS));
+
+        assertThat(limiti).allSatisfy(limite -> assertThat(limite).isBetween(2, 16));
+        assertThat(limiti).contains(16);
+        assertThat(limiti.get(limiti.size() - 1)).isLessThan(16);
+    }
+
+    /**
+     * Esegue giri di letture finché l'orologio non avanza della durata indicata.
+     * @param latenza latenza di ogni lettura in funzione delle letture concorrenti
+     * @return limite dopo ogni giro
+     */
+    private List<Integer> simula(LimitatoreAdattivo limitatore, IntToLongFunction latenza, long durata) throws IOException {
+        List<Integer> limiti = new ArrayList<>();
+        var fine = adesso + durata;
+        while (adesso < fine) {
+            var concorrenza = limitatore.statistica("test").getLimite();
+            giro(limitatore, concorrenza, latenza.applyAsLong(concorrenza));
+            limiti.add(limitatore.statistica("test").getLimite());
+        }
+        return limiti;
+    }
+
+    /**
+     * Letture annidate sullo stesso thread: ognuna acquisisce il permesso prima di avviare la successiva, la più
+     * interna fa avanzare l'orologio e tutte terminano con la stessa latenza.
+     */
+    private void giro(LimitatoreAdattivo limitatore, int rimanenti, long latenza) throws IOException {
+        limitatore.leggi(() -> {
+            if (rimanenti > 1) {
+                giro(limitatore, rimanenti - 1, latenza);
+            } else {
+                adesso += latenza;
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,57 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import com.simonegenovesi.extractorfiledata.util.enumerated.MimeTypeEnum;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Riconoscimento delle bitmap dalla sola firma "BM" più l'intestazione.
+ */
+class MimeTypeTest {
+
+    @Test
+    void unaBitmapVeraERiconosciuta() throws IOException {
+        var bmp = bitmap();
+
+        assertThat(MimeType.deduciFormato(bmp, bmp.length, bmp.length)).isEqualTo(MimeTypeEnum.IMAGE_BMP);
+        assertThat(MimeType.deduciFormato(bmp, bmp.length)).isEqualTo(MimeTypeEnum.IMAGE_BMP);
+    }
+
+    @Test
+    void unTestoCheIniziaConBmNonEUnaBitmap() {
+        var csv = "BMW;Serie 3;2019\nBMW;X1;2021\nAudi;A4;2020\n".getBytes(StandardCharsets.US_ASCII);
+
+        assertThat(MimeType.deduciFormato(csv, csv.length, csv.length)).isEqualTo(MimeTypeEnum.APPLICATION_OCTET_STREAM);
+    }
+
+    @Test
+    void unaBitmapTroncataNonERiconosciuta() throws IOException {
+        var bmp = bitmap();
+        var troncata = Arrays.copyOf(bmp, bmp.length / 2);
+
+        assertThat(MimeType.deduciFormato(troncata, troncata.length, troncata.length))
+                .isEqualTo(MimeTypeEnum.APPLICATION_OCTET_STREAM);
+    }
+
+    @Test
+    void unaDimensioneDibSconosciutaNonERiconosciuta() throws IOException {
+        var bmp = bitmap();
+        bmp[14] = 64;
+
+        assertThat(MimeType.deduciFormato(bmp, bmp.length, bmp.length)).isEqualTo(MimeTypeEnum.APPLICATION_OCTET_STREAM);
+    }
+
+    private static byte[] bitmap() throws IOException {
+        var output = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "bmp", output);
+        return output.toByteArray();
+    }
+}
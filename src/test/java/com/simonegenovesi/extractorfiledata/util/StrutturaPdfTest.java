@@ -0,0 +1,60 @@
+package com.simonegenovesi.extractorfiledata.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Conteggio delle pagine sui PDF di {@code src/test/resources/pdf}, uno per ogni forma della xref.
+ */
+class StrutturaPdfTest {
+
+    @Test
+    void tabellaXrefClassica() throws URISyntaxException {
+        assertThat(StrutturaPdf.contaPagine(pdf("classica.pdf"))).isEqualTo(3);
+    }
+
+    @Test
+    void xrefStreamConPredictorPngEObjectStream() throws URISyntaxException {
+        // catalogo, albero delle pagine e /Count indiretto sono tutti nell'object stream
+        assertThat(StrutturaPdf.contaPagine(pdf("xref-stream.pdf"))).isEqualTo(4);
+    }
+
+    @Test
+    void aggiornamentoIncrementaleSeguitoConPrev() throws URISyntaxException {
+        // l'albero delle pagine è ridefinito nell'ultima sezione, il catalogo è solo in quella precedente
+        assertThat(StrutturaPdf.contaPagine(pdf("incrementale.pdf"))).isEqualTo(3);
+    }
+
+    @Test
+    void fileIbridoConXRefStm() throws URISyntaxException {
+        assertThat(StrutturaPdf.contaPagine(pdf("ibrido.pdf"))).isEqualTo(2);
+    }
+
+    @Test
+    void startxrefCheNonPuntaAUnaXref() throws URISyntaxException {
+        assertThat(StrutturaPdf.contaPagine(pdf("danneggiato.pdf"))).isNull();
+    }
+
+    @Test
+    void fileTroncato(@TempDir Path cartella) throws URISyntaxException, IOException {
+        var completo = Files.readAllBytes(pdf("classica.pdf").toPath());
+        var troncato = cartella.resolve("troncato.pdf");
+        Files.write(troncato, Arrays.copyOf(completo, completo.length / 2));
+
+        assertThat(StrutturaPdf.contaPagine(troncato.toFile())).isNull();
+    }
+
+    private static File pdf(String nome) throws URISyntaxException {
+        return new File(Objects.requireNonNull(StrutturaPdfTest.class.getResource("/pdf/" + nome)).toURI());
+    }
+}